@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileService;
+import fr.paris.lutece.util.file.FileUtil;
+
+/**
+ * Download of a stored file, in full and by range, to a client with an infinite bandwidth
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class DownloadBenchmark
+{
+    private static final long RANGE_LENGTH = 65536;
+
+    @Param( {
+            "1024", "1048576", "16777216"
+    } )
+    public long _lSize;
+
+    private String _strIdPhysicalFile;
+
+    /**
+     * Stores the file to download
+     * 
+     * @param context
+     *            the Lutece context
+     * @throws IOException
+     */
+    @Setup
+    public void setUp( LuteceContext context ) throws IOException
+    {
+        Path file = Payload.write( TemporaryFileService.getInstance( ).createWorkFile( "benchmark-", ".csv" ), _lSize, System.nanoTime( ) );
+        try
+        {
+            _strIdPhysicalFile = TemporaryFileService.getInstance( ).savePhysicalFile( new TemporaryFile( ), file );
+        }
+        finally
+        {
+            FileUtil.deleteFile( file.toFile( ) );
+        }
+    }
+
+    /**
+     * Deletes the stored file
+     */
+    @TearDown
+    public void tearDown( )
+    {
+        TemporaryFileService.getInstance( ).releasePhysicalFile( _strIdPhysicalFile );
+    }
+
+    /**
+     * Downloads the whole file
+     * 
+     * @return the number of bytes sent
+     * @throws IOException
+     */
+    @Benchmark
+    public long downloadFile( ) throws IOException
+    {
+        CountingOutputStream out = new CountingOutputStream( );
+        TemporaryFileService.getInstance( ).writePhysicalFile( _strIdPhysicalFile, out );
+        return out.getCount( );
+    }
+
+    /**
+     * Downloads a range at the middle of the file, as a resumed download
+     * 
+     * @return the number of bytes sent
+     * @throws IOException
+     */
+    @Benchmark
+    public long downloadRange( ) throws IOException
+    {
+        CountingOutputStream out = new CountingOutputStream( );
+        TemporaryFileService.getInstance( ).writePhysicalFile( _strIdPhysicalFile, _lSize / 2, RANGE_LENGTH, out );
+        return out.getCount( );
+    }
+}
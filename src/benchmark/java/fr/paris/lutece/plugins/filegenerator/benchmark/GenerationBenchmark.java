@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileHome;
+import fr.paris.lutece.plugins.filegenerator.service.IFileGenerator;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileGeneratorService;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileService;
+import fr.paris.lutece.portal.business.user.AdminUser;
+
+/**
+ * End to end generation : queueing, generation, compression and storage of a file, until the temporary file is done.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class GenerationBenchmark
+{
+    private static final int BENCHMARK_USER_ID = -1000;
+    private static final long POLL_INTERVAL_NANOS = 100000L;
+
+    /**
+     * single : one file generated on disk, multiple : 10 files zipped, streaming : one file piped to the store
+     */
+    @Param( {
+            "single", "multiple", "streaming"
+    } )
+    public String _strGenerator;
+
+    @Param( {
+            "1024", "1048576", "16777216"
+    } )
+    public long _lSize;
+
+    private AdminUser _user;
+    private IFileGenerator _generator;
+
+    /**
+     * Creates the generator
+     * 
+     * @param context
+     *            the Lutece context
+     */
+    @Setup
+    public void setUp( LuteceContext context )
+    {
+        _user = new AdminUser( );
+        _user.setUserId( BENCHMARK_USER_ID );
+        switch( _strGenerator )
+        {
+            case "multiple":
+                _generator = new PayloadFileGenerator( _lSize, 10 );
+                break;
+            case "streaming":
+                _generator = new PayloadStreamingFileGenerator( _lSize );
+                break;
+            default:
+                _generator = new PayloadFileGenerator( _lSize, 1 );
+                break;
+        }
+    }
+
+    /**
+     * Generates a file, waits for the end of the generation, then removes the file
+     * 
+     * @param context
+     *            the Lutece context
+     * @return the size of the generated file
+     */
+    @Benchmark
+    public long generate( LuteceContext context )
+    {
+        TemporaryFileGeneratorService.getInstance( ).generateFile( _generator, _user );
+
+        List<TemporaryFile> listFiles = TemporaryFileHome.findLightByUser( _user );
+        long lSize = 0;
+        for ( TemporaryFile file : listFiles )
+        {
+            while ( TemporaryFileGeneratorService.getInstance( ).getJob( file.getIdFile( ) ) != null )
+            {
+                LockSupport.parkNanos( POLL_INTERVAL_NANOS );
+            }
+            TemporaryFile generatedFile = TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) );
+            lSize += generatedFile.getSize( );
+            TemporaryFileService.getInstance( ).removeTemporaryFile( generatedFile );
+        }
+        return lSize;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates CSV-like benchmark data. The data depends on a seed, so that two payloads with different seeds are not deduplicated by the file store.
+ */
+public final class Payload
+{
+    private static final byte [ ] LINE = ";Lorem ipsum dolor sit amet;consectetur adipiscing elit;2022-01-01;1234.56\n".getBytes( StandardCharsets.UTF_8 );
+
+    /**
+     * Private constructor
+     */
+    private Payload( )
+    {
+    }
+
+    /**
+     * Writes a payload
+     * 
+     * @param out
+     *            the output stream, not closed
+     * @param lSize
+     *            the size of the payload
+     * @param lSeed
+     *            the seed
+     * @throws IOException
+     */
+    public static void write( OutputStream out, long lSize, long lSeed ) throws IOException
+    {
+        long lWritten = 0;
+        long lLine = 0;
+        while ( lWritten < lSize )
+        {
+            byte [ ] prefix = ( lSeed + ":" + lLine++ ).getBytes( StandardCharsets.UTF_8 );
+            int nPrefix = (int) Math.min( prefix.length, lSize - lWritten );
+            out.write( prefix, 0, nPrefix );
+            lWritten += nPrefix;
+            int nLine = (int) Math.min( LINE.length, lSize - lWritten );
+            out.write( LINE, 0, nLine );
+            lWritten += nLine;
+        }
+    }
+
+    /**
+     * Writes a payload to a file
+     * 
+     * @param file
+     *            the file
+     * @param lSize
+     *            the size of the payload
+     * @param lSeed
+     *            the seed
+     * @return the file
+     * @throws IOException
+     */
+    public static Path write( Path file, long lSize, long lSeed ) throws IOException
+    {
+        try ( OutputStream out = Files.newOutputStream( file ) )
+        {
+            write( out, lSize, lSeed );
+        }
+        return file;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.plugins.filegenerator.service.IFileGenerator;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileService;
+import fr.paris.lutece.util.file.FileUtil;
+
+/**
+ * Generator of benchmark payloads, written in the work directory of the plugin
+ */
+public class PayloadFileGenerator implements IFileGenerator
+{
+    protected static final AtomicLong SEED = new AtomicLong( );
+
+    protected final long _lSize;
+    private final int _nFiles;
+
+    /**
+     * Constructor
+     * 
+     * @param lSize
+     *            the size of each file
+     * @param nFiles
+     *            the number of files
+     */
+    public PayloadFileGenerator( long lSize, int nFiles )
+    {
+        _lSize = lSize;
+        _nFiles = nFiles;
+    }
+
+    @Override
+    public Path generateFile( ) throws IOException
+    {
+        if ( _nFiles == 1 )
+        {
+            return Payload.write( TemporaryFileService.getInstance( ).createWorkFile( "benchmark-", ".csv" ), _lSize, SEED.incrementAndGet( ) );
+        }
+        Path directory = Files.createTempDirectory( TemporaryFileService.getInstance( ).getWorkDirectory( ), "benchmark-" );
+        for ( int i = 0; i < _nFiles; i++ )
+        {
+            Payload.write( directory.resolve( "file" + i + ".csv" ), _lSize, SEED.incrementAndGet( ) );
+        }
+        return directory;
+    }
+
+    @Override
+    public String getFileName( )
+    {
+        return hasMultipleFiles( ) ? "benchmark.zip" : "benchmark.csv";
+    }
+
+    @Override
+    public String getMimeType( )
+    {
+        return hasMultipleFiles( ) ? FileUtil.CONSTANT_MIME_TYPE_ZIP : FileUtil.CONSTANT_MIME_TYPE_CSV;
+    }
+
+    @Override
+    public String getDescription( )
+    {
+        return "Benchmark of " + _nFiles + " file(s) of " + _lSize + " bytes";
+    }
+
+    @Override
+    public boolean isZippable( )
+    {
+        return hasMultipleFiles( );
+    }
+
+    @Override
+    public boolean hasMultipleFiles( )
+    {
+        return _nFiles > 1;
+    }
+}
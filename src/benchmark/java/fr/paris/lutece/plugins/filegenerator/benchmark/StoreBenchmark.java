@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileService;
+import fr.paris.lutece.util.file.FileUtil;
+
+/**
+ * Storage of a generated file in the configured file store, from the disk and from a stream. Each stored content is new, so it is never deduplicated.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class StoreBenchmark
+{
+    @Param( {
+            "1024", "1048576", "16777216"
+    } )
+    public long _lSize;
+
+    private final TemporaryFile _temporaryFile = new TemporaryFile( );
+    private long _lSeed;
+    private Path _file;
+
+    /**
+     * Writes a new file to store
+     * 
+     * @param context
+     *            the Lutece context
+     * @throws IOException
+     */
+    @Setup( Level.Invocation )
+    public void setUp( LuteceContext context ) throws IOException
+    {
+        _file = Payload.write( TemporaryFileService.getInstance( ).createWorkFile( "benchmark-", ".csv" ), _lSize, ++_lSeed );
+    }
+
+    /**
+     * Deletes the file
+     */
+    @TearDown( Level.Invocation )
+    public void tearDown( )
+    {
+        FileUtil.deleteFile( _file.toFile( ) );
+    }
+
+    /**
+     * Stores the file from the disk
+     * 
+     * @return the id of the stored file
+     * @throws IOException
+     */
+    @Benchmark
+    public String storeFile( ) throws IOException
+    {
+        String strIdPhysicalFile = TemporaryFileService.getInstance( ).savePhysicalFile( _temporaryFile, _file );
+        TemporaryFileService.getInstance( ).releasePhysicalFile( strIdPhysicalFile );
+        return strIdPhysicalFile;
+    }
+
+    /**
+     * Stores data piped from a writer
+     * 
+     * @return the id of the stored file
+     * @throws IOException
+     */
+    @Benchmark
+    public String storeStream( ) throws IOException
+    {
+        long lSeed = -_lSeed;
+        String strIdPhysicalFile = TemporaryFileService.getInstance( ).savePhysicalFile( _temporaryFile, out -> Payload.write( out, _lSize, lSeed ), 0 );
+        TemporaryFileService.getInstance( ).releasePhysicalFile( strIdPhysicalFile );
+        return strIdPhysicalFile;
+    }
+}
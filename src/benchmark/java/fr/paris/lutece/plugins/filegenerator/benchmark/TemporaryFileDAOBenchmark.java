@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.filegenerator.business.ITemporaryFileDAO;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileFilter;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+import fr.paris.lutece.plugins.filegenerator.service.FileGeneratorPlugin;
+import fr.paris.lutece.portal.business.user.AdminUser;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+/**
+ * Queries on the temporary files, with a number of files already in the table, up to a million. The DAO is called directly : going through
+ * TemporaryFileHome would serve the files and the listings from the cache after the first call. A single table size is run with
+ * -Djmh.args="TemporaryFileDAOBenchmark -p _nRows=1000000".
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class TemporaryFileDAOBenchmark
+{
+    private static final int NB_USERS = 100;
+    private static final int PAGE_SIZE = 50;
+    private static final int DELETE_BATCH_SIZE = 1000;
+    private static final int DESCRIPTION_LENGTH = 4000;
+
+    @Param( {
+            "1000", "100000", "1000000"
+    } )
+    public int _nRows;
+
+    private final List<Integer> _listIdFile = new ArrayList<>( );
+    private ITemporaryFileDAO _dao;
+    private Plugin _plugin;
+    private AdminUser _user;
+    private TemporaryFile _file;
+
+    /**
+     * Inserts the files, spread over 100 users. The files of the listed user have long descriptions, the others short ones so that a million rows fit in
+     * the test database.
+     * 
+     * @param context
+     *            the Lutece context
+     */
+    @Setup
+    public void setUp( LuteceContext context )
+    {
+        _dao = SpringContextService.getBean( "temporaryFileDAO" );
+        _plugin = FileGeneratorPlugin.getPlugin( );
+        for ( int i = 0; i < _nRows; i++ )
+        {
+            AdminUser user = new AdminUser( );
+            user.setUserId( -1 - ( i % NB_USERS ) );
+            _listIdFile.add( _dao.insert( newFile( user, i, user.getUserId( ) == -1 ? DESCRIPTION_LENGTH : 0 ), _plugin ) );
+        }
+        _user = new AdminUser( );
+        _user.setUserId( -1 );
+        _file = _dao.load( _listIdFile.get( 0 ), _plugin );
+    }
+
+    /**
+     * Deletes the files
+     */
+    @TearDown
+    public void tearDown( )
+    {
+        for ( int i = 0; i < _listIdFile.size( ); i += DELETE_BATCH_SIZE )
+        {
+            _dao.delete( _listIdFile.subList( i, Math.min( _listIdFile.size( ), i + DELETE_BATCH_SIZE ) ), _plugin );
+        }
+        _listIdFile.clear( );
+    }
+
+    /**
+     * Inserts then deletes a file
+     * 
+     * @return the id of the file
+     */
+    @Benchmark
+    public int insert( )
+    {
+        int nIdFile = _dao.insert( newFile( _user, 0, DESCRIPTION_LENGTH ), _plugin );
+        _dao.delete( nIdFile, _plugin );
+        return nIdFile;
+    }
+
+    /**
+     * Updates the status of a file, as done at each stage of a generation
+     */
+    @Benchmark
+    public void updateStatus( )
+    {
+        _dao.updateStatus( _file.getIdFile( ), TemporaryFileStatus.RUNNING, _plugin );
+    }
+
+    /**
+     * Updates a whole file, as done at the end of a generation
+     */
+    @Benchmark
+    public void update( )
+    {
+        _dao.store( _file, _plugin );
+    }
+
+    /**
+     * Lists the first page of the files of an user
+     * 
+     * @return the files
+     */
+    @Benchmark
+    public List<TemporaryFile> listPage( )
+    {
+        TemporaryFileFilter filter = new TemporaryFileFilter( );
+        filter.setIdUser( _user.getUserId( ) );
+        return _dao.findLightByFilter( filter, null, true, PAGE_SIZE, _plugin );
+    }
+
+    /**
+     * Lists all the files of an user, with the summary of the descriptions
+     * 
+     * @return the files
+     */
+    @Benchmark
+    public List<TemporaryFile> listAll( )
+    {
+        return _dao.findLightByUser( _user, _plugin );
+    }
+
+    /**
+     * Lists all the files of an user, with the whole descriptions and the stage dates, to compare with {@link #listAll()}
+     * 
+     * @return the files
+     */
+    @Benchmark
+    public List<TemporaryFile> listAllFull( )
+    {
+        return _dao.findByUser( _user, _plugin );
+    }
+
+    /**
+     * Creates a file, whose description can be made long, as written by the exports listing their parameters
+     * 
+     * @param user
+     *            the owner
+     * @param nIndex
+     *            the index of the file
+     * @param nDescriptionLength
+     *            the min length of the description
+     * @return the file
+     */
+    private static TemporaryFile newFile( AdminUser user, int nIndex, int nDescriptionLength )
+    {
+        TemporaryFile file = new TemporaryFile( );
+        file.setUser( user );
+        file.setTitle( "export_" + nIndex + ".csv" );
+        StringBuilder sbDescription = new StringBuilder( "Benchmark export " ).append( nIndex );
+        while ( sbDescription.length( ) < nDescriptionLength )
+        {
+            sbDescription.append( " - parameter " ).append( sbDescription.length( ) );
+        }
+        file.setDescription( sbDescription.toString( ) );
+        file.setMimeType( "text/csv" );
+        file.setStatus( TemporaryFileStatus.DONE );
+        return file;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileService;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileZipper;
+import fr.paris.lutece.util.file.FileUtil;
+
+/**
+ * Compression of generated files, from the disk and from a stream
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class ZipBenchmark
+{
+    @Param( {
+            "1", "10", "100"
+    } )
+    public int _nFiles;
+
+    @Param( {
+            "1024", "65536", "1048576"
+    } )
+    public long _lSize;
+
+    private final List<Path> _listFiles = new ArrayList<>( );
+
+    /**
+     * Writes the files to compress
+     * 
+     * @param context
+     *            the Lutece context
+     * @throws IOException
+     */
+    @Setup
+    public void setUp( LuteceContext context ) throws IOException
+    {
+        for ( int i = 0; i < _nFiles; i++ )
+        {
+            _listFiles.add( Payload.write( TemporaryFileService.getInstance( ).createWorkFile( "benchmark-", ".csv" ), _lSize, i ) );
+        }
+    }
+
+    /**
+     * Deletes the files
+     */
+    @TearDown
+    public void tearDown( )
+    {
+        for ( Path file : _listFiles )
+        {
+            FileUtil.deleteFile( file.toFile( ) );
+        }
+        _listFiles.clear( );
+    }
+
+    /**
+     * Zips the files from the disk
+     * 
+     * @return the size of the zip
+     * @throws IOException
+     */
+    @Benchmark
+    public long zipFiles( ) throws IOException
+    {
+        CountingOutputStream out = new CountingOutputStream( );
+        TemporaryFileZipper.getInstance( ).zip( _listFiles, null, out );
+        return out.getCount( );
+    }
+
+    /**
+     * Zips the same amount of data produced by a stream writer, as a single entry
+     * 
+     * @return the size of the zip
+     * @throws IOException
+     */
+    @Benchmark
+    public long zipStream( ) throws IOException
+    {
+        CountingOutputStream out = new CountingOutputStream( );
+        TemporaryFileZipper.getInstance( ).zip( "benchmark.csv", null, stream -> Payload.write( stream, _lSize * _nFiles, 0 ), out );
+        return out.getCount( );
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+
+/**
+ * Generation job shared by the nodes of a cluster. A node claims the job by taking a lease on it, renews the lease while the job runs, and removes the job
+ * once the result is published. A job whose lease has expired can be claimed again by any node.
+ */
+public class ClusterJob implements Serializable
+{
+    private static final long serialVersionUID = 6024193318772613201L;
+
+    private int _nIdFile;
+    private int _nIdUser;
+    private byte [ ] _generator;
+    private int _nPriority;
+    private String _strCacheKey;
+    private String _strLeaseOwner;
+    private String _strLeaseToken;
+    private Timestamp _leaseExpiry;
+    private int _nAttempts;
+    private Timestamp _dateCreation;
+
+    /**
+     * @return the id of the temporary file filled by the job
+     */
+    public int getIdFile( )
+    {
+        return _nIdFile;
+    }
+
+    /**
+     * @param nIdFile
+     *            the id of the temporary file filled by the job
+     */
+    public void setIdFile( int nIdFile )
+    {
+        _nIdFile = nIdFile;
+    }
+
+    /**
+     * @return the id of the user requesting the file
+     */
+    public int getIdUser( )
+    {
+        return _nIdUser;
+    }
+
+    /**
+     * @param nIdUser
+     *            the id of the user requesting the file
+     */
+    public void setIdUser( int nIdUser )
+    {
+        _nIdUser = nIdUser;
+    }
+
+    /**
+     * @return the serialized generator
+     */
+    public byte [ ] getGenerator( )
+    {
+        return _generator;
+    }
+
+    /**
+     * @param generator
+     *            the serialized generator
+     */
+    public void setGenerator( byte [ ] generator )
+    {
+        _generator = generator;
+    }
+
+    /**
+     * @return the priority of the generation
+     */
+    public int getPriority( )
+    {
+        return _nPriority;
+    }
+
+    /**
+     * @param nPriority
+     *            the priority of the generation
+     */
+    public void setPriority( int nPriority )
+    {
+        _nPriority = nPriority;
+    }
+
+    /**
+     * @return the cache key of the generation, or null
+     */
+    public String getCacheKey( )
+    {
+        return _strCacheKey;
+    }
+
+    /**
+     * @param strCacheKey
+     *            the cache key of the generation, or null
+     */
+    public void setCacheKey( String strCacheKey )
+    {
+        _strCacheKey = strCacheKey;
+    }
+
+    /**
+     * @return the name of the node holding the lease, or null
+     */
+    public String getLeaseOwner( )
+    {
+        return _strLeaseOwner;
+    }
+
+    /**
+     * @param strLeaseOwner
+     *            the name of the node holding the lease, or null
+     */
+    public void setLeaseOwner( String strLeaseOwner )
+    {
+        _strLeaseOwner = strLeaseOwner;
+    }
+
+    /**
+     * @return the token of the current lease, or null
+     */
+    public String getLeaseToken( )
+    {
+        return _strLeaseToken;
+    }
+
+    /**
+     * @param strLeaseToken
+     *            the token of the current lease, or null
+     */
+    public void setLeaseToken( String strLeaseToken )
+    {
+        _strLeaseToken = strLeaseToken;
+    }
+
+    /**
+     * @return the expiry of the current lease, or null if the job is not claimed
+     */
+    public Timestamp getLeaseExpiry( )
+    {
+        return _leaseExpiry;
+    }
+
+    /**
+     * @param leaseExpiry
+     *            the expiry of the current lease, or null if the job is not claimed
+     */
+    public void setLeaseExpiry( Timestamp leaseExpiry )
+    {
+        _leaseExpiry = leaseExpiry;
+    }
+
+    /**
+     * @return the number of times the job was claimed
+     */
+    public int getAttempts( )
+    {
+        return _nAttempts;
+    }
+
+    /**
+     * @param nAttempts
+     *            the number of times the job was claimed
+     */
+    public void setAttempts( int nAttempts )
+    {
+        _nAttempts = nAttempts;
+    }
+
+    /**
+     * @return the creation date of the job
+     */
+    public Timestamp getDateCreation( )
+    {
+        return _dateCreation;
+    }
+
+    /**
+     * @param dateCreation
+     *            the creation date of the job
+     */
+    public void setDateCreation( Timestamp dateCreation )
+    {
+        _dateCreation = dateCreation;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides Data Access methods for ClusterJob objects. The jobs are claimed with a conditional update, checked by reading back the lease token,
+ * so that no row lock nor database specific syntax is needed.
+ */
+public final class ClusterJobDAO implements IClusterJobDAO
+{
+    // Constants
+    private static final String SQL_QUERY_SELECT = "SELECT id_file,id_user,generator,priority,cache_key,lease_owner,lease_token,lease_expiry,attempts,date_creation "
+            + "FROM filegen_cluster_job WHERE id_file = ?";
+    private static final String SQL_QUERY_INSERT = "INSERT INTO filegen_cluster_job(id_file,id_user,generator,priority,cache_key,attempts) VALUES(?,?,?,?,?,0)";
+    private static final String SQL_QUERY_SELECT_CLAIMABLE = "SELECT id_file FROM filegen_cluster_job WHERE lease_expiry IS NULL OR lease_expiry < ? "
+            + "ORDER BY priority DESC, date_creation, id_file LIMIT ?";
+    private static final String SQL_QUERY_CLAIM = "UPDATE filegen_cluster_job SET lease_owner = ?, lease_token = ?, lease_expiry = ?, attempts = attempts + 1 "
+            + "WHERE id_file = ? AND ( lease_expiry IS NULL OR lease_expiry < ? )";
+    private static final String SQL_QUERY_RENEW_LEASE = "UPDATE filegen_cluster_job SET lease_expiry = ? WHERE id_file = ? AND lease_token = ?";
+    private static final String SQL_QUERY_RELEASE_LEASE = "UPDATE filegen_cluster_job SET lease_owner = NULL, lease_token = NULL, lease_expiry = NULL, attempts = attempts - 1 "
+            + "WHERE id_file = ? AND lease_token = ?";
+    private static final String SQL_QUERY_SELECT_LEASE_TOKEN = "SELECT lease_token FROM filegen_cluster_job WHERE id_file = ?";
+    private static final String SQL_QUERY_COUNT_LEASES = "SELECT COUNT(*) FROM filegen_cluster_job WHERE lease_owner = ? AND lease_expiry >= ?";
+    private static final String SQL_QUERY_EXPIRE_LEASES = "UPDATE filegen_cluster_job SET lease_expiry = ? WHERE lease_owner = ? AND lease_expiry >= ?";
+    private static final String SQL_QUERY_DELETE = "DELETE FROM filegen_cluster_job WHERE id_file = ?";
+    private static final String SQL_QUERY_DELETE_WITH_LEASE = "DELETE FROM filegen_cluster_job WHERE id_file = ? AND lease_token = ?";
+
+    @Override
+    public void insert( ClusterJob job, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, job.getIdFile( ) );
+            daoUtil.setInt( nIndex++, job.getIdUser( ) );
+            daoUtil.setBytes( nIndex++, job.getGenerator( ) );
+            daoUtil.setInt( nIndex++, job.getPriority( ) );
+            daoUtil.setString( nIndex, job.getCacheKey( ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public ClusterJob load( int nIdFile, Plugin plugin )
+    {
+        ClusterJob job = null;
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdFile );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                int nIndex = 1;
+                job = new ClusterJob( );
+                job.setIdFile( daoUtil.getInt( nIndex++ ) );
+                job.setIdUser( daoUtil.getInt( nIndex++ ) );
+                job.setGenerator( daoUtil.getBytes( nIndex++ ) );
+                job.setPriority( daoUtil.getInt( nIndex++ ) );
+                job.setCacheKey( daoUtil.getString( nIndex++ ) );
+                job.setLeaseOwner( daoUtil.getString( nIndex++ ) );
+                job.setLeaseToken( daoUtil.getString( nIndex++ ) );
+                job.setLeaseExpiry( daoUtil.getTimestamp( nIndex++ ) );
+                job.setAttempts( daoUtil.getInt( nIndex++ ) );
+                job.setDateCreation( daoUtil.getTimestamp( nIndex ) );
+            }
+        }
+        return job;
+    }
+
+    @Override
+    public List<Integer> selectClaimable( Timestamp now, int nLimit, Plugin plugin )
+    {
+        List<Integer> listIdFiles = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_CLAIMABLE, plugin ) )
+        {
+            daoUtil.setTimestamp( 1, now );
+            daoUtil.setInt( 2, nLimit );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                listIdFiles.add( daoUtil.getInt( 1 ) );
+            }
+        }
+        return listIdFiles;
+    }
+
+    @Override
+    public void claim( int nIdFile, String strLeaseOwner, String strLeaseToken, Timestamp leaseExpiry, Timestamp now, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_CLAIM, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, strLeaseOwner );
+            daoUtil.setString( nIndex++, strLeaseToken );
+            daoUtil.setTimestamp( nIndex++, leaseExpiry );
+            daoUtil.setInt( nIndex++, nIdFile );
+            daoUtil.setTimestamp( nIndex, now );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void renewLease( int nIdFile, String strLeaseToken, Timestamp leaseExpiry, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_RENEW_LEASE, plugin ) )
+        {
+            daoUtil.setTimestamp( 1, leaseExpiry );
+            daoUtil.setInt( 2, nIdFile );
+            daoUtil.setString( 3, strLeaseToken );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void releaseLease( int nIdFile, String strLeaseToken, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_RELEASE_LEASE, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdFile );
+            daoUtil.setString( 2, strLeaseToken );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public String loadLeaseToken( int nIdFile, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_LEASE_TOKEN, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdFile );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                String strLeaseToken = daoUtil.getString( 1 );
+                return strLeaseToken != null ? strLeaseToken : "";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void delete( int nIdFile, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdFile );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void delete( int nIdFile, String strLeaseToken, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_WITH_LEASE, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdFile );
+            daoUtil.setString( 2, strLeaseToken );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public int countLeases( String strLeaseOwner, Timestamp now, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COUNT_LEASES, plugin ) )
+        {
+            daoUtil.setString( 1, strLeaseOwner );
+            daoUtil.setTimestamp( 2, now );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                return daoUtil.getInt( 1 );
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void expireLeases( String strLeaseOwner, Timestamp now, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_EXPIRE_LEASES, plugin ) )
+        {
+            daoUtil.setTimestamp( 1, new Timestamp( now.getTime( ) - 1 ) );
+            daoUtil.setString( 2, strLeaseOwner );
+            daoUtil.setTimestamp( 3, now );
+            daoUtil.executeUpdate( );
+        }
+    }
+}
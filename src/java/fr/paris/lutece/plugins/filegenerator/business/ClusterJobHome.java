@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.plugins.filegenerator.service.FileGeneratorPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+/**
+ * This class provides instances management methods for the generation jobs shared by the nodes of a cluster
+ */
+public final class ClusterJobHome
+{
+    // Static variable pointed at the DAO instance
+    private static IClusterJobDAO _dao = SpringContextService.getBean( "clusterJobDAO" );
+    private static Plugin _plugin = FileGeneratorPlugin.getPlugin( );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private ClusterJobHome( )
+    {
+    }
+
+    /**
+     * Creation of a job
+     *
+     * @param job
+     *            the job
+     */
+    public static void create( ClusterJob job )
+    {
+        _dao.insert( job, _plugin );
+    }
+
+    /**
+     * Returns a job
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @return the job, or null
+     */
+    public static ClusterJob findByPrimaryKey( int nIdFile )
+    {
+        return _dao.load( nIdFile, _plugin );
+    }
+
+    /**
+     * Returns the jobs that can be claimed : never claimed or with an expired lease, highest priority then oldest first
+     *
+     * @param now
+     *            the current date
+     * @param nLimit
+     *            the max number of jobs
+     * @return the ids of the temporary files of the jobs
+     */
+    public static List<Integer> findClaimable( Timestamp now, int nLimit )
+    {
+        return _dao.selectClaimable( now, nLimit, _plugin );
+    }
+
+    /**
+     * Takes a lease on a job. Concurrent claims of the same job are arbitrated by the database : only one of them gets the lease.
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param strLeaseOwner
+     *            the name of the node
+     * @param strLeaseToken
+     *            a token unique to this claim
+     * @param leaseExpiry
+     *            the expiry of the lease
+     * @param now
+     *            the current date
+     * @return true if the lease is taken
+     */
+    public static boolean claim( int nIdFile, String strLeaseOwner, String strLeaseToken, Timestamp leaseExpiry, Timestamp now )
+    {
+        _dao.claim( nIdFile, strLeaseOwner, strLeaseToken, leaseExpiry, now, _plugin );
+        return strLeaseToken.equals( _dao.loadLeaseToken( nIdFile, _plugin ) );
+    }
+
+    /**
+     * Extends a lease
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param strLeaseToken
+     *            the token of the lease
+     * @param leaseExpiry
+     *            the new expiry of the lease
+     * @return the token of the lease now held on the job : the given token if the lease is extended, another token or an empty string if the lease was
+     *         lost, null if the job was removed
+     */
+    public static String renewLease( int nIdFile, String strLeaseToken, Timestamp leaseExpiry )
+    {
+        _dao.renewLease( nIdFile, strLeaseToken, leaseExpiry, _plugin );
+        return _dao.loadLeaseToken( nIdFile, _plugin );
+    }
+
+    /**
+     * Releases a lease without counting it as an attempt, so that the job can be claimed again at once
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param strLeaseToken
+     *            the token of the lease
+     */
+    public static void releaseLease( int nIdFile, String strLeaseToken )
+    {
+        _dao.releaseLease( nIdFile, strLeaseToken, _plugin );
+    }
+
+    /**
+     * Removes a job
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     */
+    public static void remove( int nIdFile )
+    {
+        _dao.delete( nIdFile, _plugin );
+    }
+
+    /**
+     * Removes a job, if its lease is still held
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param strLeaseToken
+     *            the token of the lease
+     */
+    public static void remove( int nIdFile, String strLeaseToken )
+    {
+        _dao.delete( nIdFile, strLeaseToken, _plugin );
+    }
+
+    /**
+     * Expires the leases held by a previous run of a node, so that its jobs are claimed again at once instead of when the leases expire
+     *
+     * @param strLeaseOwner
+     *            the name of the node
+     * @return the number of leases expired
+     */
+    public static int expireLeases( String strLeaseOwner )
+    {
+        Timestamp now = new Timestamp( System.currentTimeMillis( ) );
+        int nLeases = _dao.countLeases( strLeaseOwner, now, _plugin );
+        if ( nLeases > 0 )
+        {
+            _dao.expireLeases( strLeaseOwner, now, _plugin );
+        }
+        return nLeases;
+    }
+}
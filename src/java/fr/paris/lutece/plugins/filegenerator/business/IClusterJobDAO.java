@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+/**
+ *
+ * IClusterJobDAO
+ *
+ */
+public interface IClusterJobDAO
+{
+    /**
+     * Insert a new record in the table.
+     *
+     * @param job
+     *            the job to insert
+     * @param plugin
+     *            the Plugin
+     */
+    void insert( ClusterJob job, Plugin plugin );
+
+    /**
+     * Load a job
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param plugin
+     *            the Plugin
+     * @return the job, or null
+     */
+    ClusterJob load( int nIdFile, Plugin plugin );
+
+    /**
+     * Select the jobs that can be claimed : never claimed or with an expired lease, highest priority then oldest first
+     *
+     * @param now
+     *            the current date
+     * @param nLimit
+     *            the max number of jobs
+     * @param plugin
+     *            the Plugin
+     * @return the ids of the temporary files of the jobs
+     */
+    List<Integer> selectClaimable( Timestamp now, int nLimit, Plugin plugin );
+
+    /**
+     * Take a lease on a job, if it can be claimed
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param strLeaseOwner
+     *            the name of the node
+     * @param strLeaseToken
+     *            the token of the lease
+     * @param leaseExpiry
+     *            the expiry of the lease
+     * @param now
+     *            the current date
+     * @param plugin
+     *            the Plugin
+     */
+    void claim( int nIdFile, String strLeaseOwner, String strLeaseToken, Timestamp leaseExpiry, Timestamp now, Plugin plugin );
+
+    /**
+     * Extend a lease, if it is still held
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param strLeaseToken
+     *            the token of the lease
+     * @param leaseExpiry
+     *            the new expiry of the lease
+     * @param plugin
+     *            the Plugin
+     */
+    void renewLease( int nIdFile, String strLeaseToken, Timestamp leaseExpiry, Plugin plugin );
+
+    /**
+     * Release a lease, if it is still held, so that the job can be claimed again at once
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param strLeaseToken
+     *            the token of the lease
+     * @param plugin
+     *            the Plugin
+     */
+    void releaseLease( int nIdFile, String strLeaseToken, Plugin plugin );
+
+    /**
+     * Load the token of the current lease of a job
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param plugin
+     *            the Plugin
+     * @return the token, an empty string if the job is not claimed, or null if the job does not exist
+     */
+    String loadLeaseToken( int nIdFile, Plugin plugin );
+
+    /**
+     * Delete a job
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param plugin
+     *            the Plugin
+     */
+    void delete( int nIdFile, Plugin plugin );
+
+    /**
+     * Delete a job, if its lease is still held
+     *
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param strLeaseToken
+     *            the token of the lease
+     * @param plugin
+     *            the Plugin
+     */
+    void delete( int nIdFile, String strLeaseToken, Plugin plugin );
+
+    /**
+     * Count the leases of a node still running
+     *
+     * @param strLeaseOwner
+     *            the name of the node
+     * @param now
+     *            the current date
+     * @param plugin
+     *            the Plugin
+     * @return the number of leases
+     */
+    int countLeases( String strLeaseOwner, Timestamp now, Plugin plugin );
+
+    /**
+     * Expire the leases of a node, so that its jobs can be claimed again at once. The attempts are kept.
+     *
+     * @param strLeaseOwner
+     *            the name of the node
+     * @param now
+     *            the current date
+     * @param plugin
+     *            the Plugin
+     */
+    void expireLeases( String strLeaseOwner, Timestamp now, Plugin plugin );
+}
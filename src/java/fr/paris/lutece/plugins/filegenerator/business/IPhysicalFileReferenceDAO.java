@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+/**
+ *
+ * IPhysicalFileReferenceDAO
+ *
+ */
+public interface IPhysicalFileReferenceDAO
+{
+    /**
+     * Insert a new record in the table.
+     *
+     * @param reference
+     *            the reference to insert
+     */
+    void insert( PhysicalFileReference reference, Plugin plugin );
+
+    /**
+     * Load a reference from the hash of the content
+     *
+     * @param strContentHash
+     *            the content hash
+     * @return the reference, or null
+     */
+    PhysicalFileReference loadByContentHash( String strContentHash, Plugin plugin );
+
+    /**
+     * Load a reference from the id of the stored file
+     *
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @return the reference, or null
+     */
+    PhysicalFileReference loadByPhysicalFile( String strIdPhysicalFile, Plugin plugin );
+
+    /**
+     * Add a number of references to a stored file
+     *
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nDelta
+     *            the number of references to add
+     * @return the number of updated rows : 0 if the stored file is not referenced by its content
+     */
+    int updateRefCount( String strIdPhysicalFile, int nDelta, Plugin plugin );
+
+    /**
+     * Remove a number of references to a stored file, if it keeps at least one reference
+     *
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nReleased
+     *            the number of references to remove
+     * @return the number of updated rows : 0 if the stored file would have no reference left, or is not referenced by its content
+     */
+    int releaseRefCount( String strIdPhysicalFile, int nReleased, Plugin plugin );
+
+    /**
+     * Delete the reference to a stored file, if it has no more than a number of references
+     *
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nMaxRefCount
+     *            the max number of references
+     * @return the number of deleted rows : 0 if the stored file has more references, or is not referenced by its content
+     */
+    int deleteByPhysicalFile( String strIdPhysicalFile, int nMaxRefCount, Plugin plugin );
+
+    /**
+     * Delete a record from the table
+     *
+     * @param strContentHash
+     *            the content hash
+     */
+    void delete( String strContentHash, Plugin plugin );
+
+    /**
+     * Load the references not updated since a date, whose stored file is not used by any temporary file
+     *
+     * @param dateLimit
+     *            the date of the last update
+     * @param nLimit
+     *            the max number of references
+     * @return the references, least recently updated first
+     */
+    List<PhysicalFileReference> selectUnused( Timestamp dateLimit, int nLimit, Plugin plugin );
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+/**
+ *
+ * IScheduledExportDAO
+ *
+ */
+public interface IScheduledExportDAO
+{
+    /**
+     * Insert a new record in the table.
+     *
+     * @param export
+     *            the export to insert
+     * @param plugin
+     *            the Plugin
+     * @return the id of the new export
+     */
+    int insert( ScheduledExport export, Plugin plugin );
+
+    /**
+     * Update the definition of an export : its generator, schedule and options
+     *
+     * @param export
+     *            the export
+     * @param plugin
+     *            the Plugin
+     */
+    void store( ScheduledExport export, Plugin plugin );
+
+    /**
+     * Load an export
+     *
+     * @param nIdExport
+     *            the id of the export
+     * @param plugin
+     *            the Plugin
+     * @return the export, or null
+     */
+    ScheduledExport load( int nIdExport, Plugin plugin );
+
+    /**
+     * Select all the exports
+     *
+     * @param plugin
+     *            the Plugin
+     * @return the exports
+     */
+    List<ScheduledExport> selectAll( Plugin plugin );
+
+    /**
+     * Select the enabled exports whose next run is due, earliest first
+     *
+     * @param now
+     *            the current date
+     * @param nLimit
+     *            the max number of exports
+     * @param plugin
+     *            the Plugin
+     * @return the exports
+     */
+    List<ScheduledExport> selectDue( Timestamp now, int nLimit, Plugin plugin );
+
+    /**
+     * Take a run of an export, if its next run is still the expected one
+     *
+     * @param nIdExport
+     *            the id of the export
+     * @param strRunToken
+     *            the token of the run
+     * @param expectedNextRun
+     *            the date of the run being taken
+     * @param nextRun
+     *            the date of the following run
+     * @param now
+     *            the current date
+     * @param plugin
+     *            the Plugin
+     */
+    void claimRun( int nIdExport, String strRunToken, Timestamp expectedNextRun, Timestamp nextRun, Timestamp now, Plugin plugin );
+
+    /**
+     * Load the token of the last run of an export
+     *
+     * @param nIdExport
+     *            the id of the export
+     * @param plugin
+     *            the Plugin
+     * @return the token, or null
+     */
+    String loadRunToken( int nIdExport, Plugin plugin );
+
+    /**
+     * Update the result of the last run of an export
+     *
+     * @param nIdExport
+     *            the id of the export
+     * @param nIdLastFile
+     *            the id of the temporary file of the run
+     * @param strWatermark
+     *            the watermark of the data of the file
+     * @param plugin
+     *            the Plugin
+     */
+    void storeRunResult( int nIdExport, int nIdLastFile, String strWatermark, Plugin plugin );
+
+    /**
+     * Delete an export
+     *
+     * @param nIdExport
+     *            the id of the export
+     * @param plugin
+     *            the Plugin
+     */
+    void delete( int nIdExport, Plugin plugin );
+}
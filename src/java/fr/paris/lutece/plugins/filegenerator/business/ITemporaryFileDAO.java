@@ -33,6 +33,7 @@
  */
 package fr.paris.lutece.plugins.filegenerator.business;
 
+import java.sql.Timestamp;
 import java.util.List;
 
 import fr.paris.lutece.portal.business.user.AdminUser;
@@ -80,6 +81,18 @@ public interface ITemporaryFileDAO
      */
     void store( TemporaryFile file, Plugin plugin );
 
+    /**
+     * Update the result of the generation of a file, without reading it first. The file is updated only while its generation is unfinished, so that only one
+     * result is written when the generation was run twice.
+     *
+     * @param nIdFile
+     *            The identifier of the file
+     * @param result
+     *            the result of the generation : title, description, stored file, size, mime type, status, progress, end date and cache key
+     * @return the number of files updated : 0 if the file was removed or already has a result
+     */
+    int storeResult( int nIdFile, TemporaryFile result, Plugin plugin );
+
     /**
      * Load all the files of an user.
      *
@@ -89,10 +102,190 @@ public interface ITemporaryFileDAO
      */
     List<TemporaryFile> findByUser( AdminUser user, Plugin plugin );
 
+    /**
+     * Load the files of an user for a listing : the stage dates are not loaded and the description is truncated.
+     *
+     * @param user
+     *            the user
+     * @return the list of File
+     */
+    List<TemporaryFile> findLightByUser( AdminUser user, Plugin plugin );
+
+    /**
+     * Load a page of the files matching a filter, for a listing. The stage dates are not loaded and the description is truncated.
+     *
+     * @param filter
+     *            the filter
+     * @param from
+     *            the file the page starts after (or before when going backward), null for the first page
+     * @param bForward
+     *            true to get the files following the given file in the filter order, false to get the preceding ones
+     * @param nLimit
+     *            the max number of files
+     * @return the list of File, in the filter order
+     */
+    List<TemporaryFile> findLightByFilter( TemporaryFileFilter filter, TemporaryFile from, boolean bForward, int nLimit, Plugin plugin );
+
+    /**
+     * Count the files matching a filter
+     * 
+     * @param filter
+     *            the filter
+     * @return the number of files
+     */
+    int countByFilter( TemporaryFileFilter filter, Plugin plugin );
+
+    /**
+     * Select the mime types of the files of an user
+     * 
+     * @param nIdUser
+     *            the id of the user
+     * @return the mime types
+     */
+    List<String> selectMimeTypes( int nIdUser, Plugin plugin );
+
     /**
      * Select files older than the given number of days
      * 
      * @param days
      */
     List<TemporaryFile> selectFilesOlderThan( int days, Plugin plugin );
+
+    /**
+     * Select a page of files created before a date, ordered by creation date and id.
+     * 
+     * @param dateLimit
+     *            the creation date limit
+     * @param after
+     *            the last file of the previous page, or null for the first page
+     * @param nLimit
+     *            the maximum number of files
+     * @return the list of File
+     */
+    List<TemporaryFile> selectFilesOlderThan( Timestamp dateLimit, TemporaryFile after, int nLimit, Plugin plugin );
+
+    /**
+     * Delete records from the table
+     * 
+     * @param listIdFile
+     *            The identifiers of the files
+     */
+    void delete( List<Integer> listIdFile, Plugin plugin );
+
+    /**
+     * Update the status of a file, and the date this status is reached
+     * 
+     * @param nIdFile
+     *            The identifier of the file
+     * @param status
+     *            the status
+     */
+    void updateStatus( int nIdFile, TemporaryFileStatus status, Plugin plugin );
+
+    /**
+     * Update the generation progress of a file
+     * 
+     * @param nIdFile
+     *            The identifier of the file
+     * @param nProgress
+     *            the progress, in percent
+     */
+    void updateProgress( int nIdFile, int nProgress, Plugin plugin );
+
+    /**
+     * Load the owner, status and progress of a file
+     * 
+     * @param nIdFile
+     *            The identifier of the file
+     * @return the file with only its id, user, status and progress, or null
+     */
+    TemporaryFile loadStatus( int nIdFile, Plugin plugin );
+
+    /**
+     * Load the most recent file successfully generated with a cache key
+     * 
+     * @param strCacheKey
+     *            the cache key
+     * @param dateMin
+     *            the minimum end date of the generation
+     * @return the file, or null
+     */
+    TemporaryFile selectLatestByCacheKey( String strCacheKey, Timestamp dateMin, Plugin plugin );
+
+    /**
+     * Count the files referencing a stored file
+     * 
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @return the number of files
+     */
+    int countByPhysicalFile( String strIdPhysicalFile, Plugin plugin );
+
+    /**
+     * Count all the files
+     * 
+     * @param plugin
+     *            the Plugin
+     * @return the number of files
+     */
+    int countAll( Plugin plugin );
+
+    /**
+     * Sum the sizes of the stored files, each stored file being counted once whatever the number of files referencing it
+     * 
+     * @param plugin
+     *            the Plugin
+     * @return the size in bytes
+     */
+    long selectStoredSize( Plugin plugin );
+
+    /**
+     * Update the date at which the node generating files last told they are alive
+     * 
+     * @param listIdFile
+     *            the ids of the files
+     * @param dateHeartbeat
+     *            the date
+     * @param plugin
+     *            the Plugin
+     */
+    void updateHeartbeat( List<Integer> listIdFile, Timestamp dateHeartbeat, Plugin plugin );
+
+    /**
+     * Select the files whose generation is not over, not kept alive by a node since a date, and not queued in the cluster. The files never kept alive are
+     * selected from their creation date.
+     * 
+     * @param dateLimit
+     *            the date limit of the last heartbeat
+     * @param nAfterIdFile
+     *            the id of the last file of the previous page, 0 for the first page
+     * @param nLimit
+     *            the max number of files
+     * @param plugin
+     *            the Plugin
+     * @return the ids of the files, in ascending order
+     */
+    List<Integer> selectUnfinished( Timestamp dateLimit, int nAfterIdFile, int nLimit, Plugin plugin );
+
+    /**
+     * Update the status of a file, if its generation is not over
+     * 
+     * @param nIdFile
+     *            the id of the file
+     * @param status
+     *            the final status
+     * @param plugin
+     *            the Plugin
+     */
+    void updateStatusIfUnfinished( int nIdFile, TemporaryFileStatus status, Plugin plugin );
+
+    /**
+     * Delete a file, if its generation is not over
+     * 
+     * @param nIdFile
+     *            the id of the file
+     * @param plugin
+     *            the Plugin
+     */
+    void deleteIfUnfinished( int nIdFile, Plugin plugin );
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.io.Serializable;
+
+/**
+ * Reference to a stored file from its content hash, with the number of temporary files using it
+ */
+public class PhysicalFileReference implements Serializable
+{
+    private static final long serialVersionUID = 3390318519386364120L;
+
+    private String _strContentHash;
+    private String _strIdPhysicalFile;
+    private int _nRefCount;
+
+    /**
+     * @return the hash of the content of the stored file
+     */
+    public String getContentHash( )
+    {
+        return _strContentHash;
+    }
+
+    /**
+     * @param strContentHash
+     *            the hash of the content of the stored file
+     */
+    public void setContentHash( String strContentHash )
+    {
+        _strContentHash = strContentHash;
+    }
+
+    /**
+     * @return the id of the stored file
+     */
+    public String getIdPhysicalFile( )
+    {
+        return _strIdPhysicalFile;
+    }
+
+    /**
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     */
+    public void setIdPhysicalFile( String strIdPhysicalFile )
+    {
+        _strIdPhysicalFile = strIdPhysicalFile;
+    }
+
+    /**
+     * @return the number of references to the stored file
+     */
+    public int getRefCount( )
+    {
+        return _nRefCount;
+    }
+
+    /**
+     * @param nRefCount
+     *            the number of references to the stored file
+     */
+    public void setRefCount( int nRefCount )
+    {
+        _nRefCount = nRefCount;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides Data Access methods for PhysicalFileReference objects. The reference counts are changed with conditional statements whose number of
+ * updated rows is checked, so that the nodes of a cluster can change them at the same time.
+ */
+public final class PhysicalFileReferenceDAO implements IPhysicalFileReferenceDAO
+{
+    // Constants
+    private static final String SQL_QUERY_SELECT_ALL = "SELECT content_hash,id_physical_file,ref_count FROM filegen_physical_file_ref ";
+    private static final String SQL_QUERY_FIND_BY_CONTENT_HASH = SQL_QUERY_SELECT_ALL + " WHERE content_hash = ?";
+    private static final String SQL_QUERY_FIND_BY_PHYSICAL_FILE = SQL_QUERY_SELECT_ALL + " WHERE id_physical_file = ?";
+    private static final String SQL_QUERY_INSERT = "INSERT INTO filegen_physical_file_ref(content_hash,id_physical_file,ref_count,date_update) VALUES(?,?,?,?)";
+    private static final String SQL_QUERY_UPDATE_REF_COUNT = "UPDATE filegen_physical_file_ref SET ref_count = ref_count + ?, date_update = ? WHERE id_physical_file = ?";
+    private static final String SQL_QUERY_RELEASE_REF_COUNT = "UPDATE filegen_physical_file_ref SET ref_count = ref_count - ?, date_update = ? "
+            + "WHERE id_physical_file = ? AND ref_count > ?";
+    private static final String SQL_QUERY_DELETE_BY_PHYSICAL_FILE = "DELETE FROM filegen_physical_file_ref WHERE id_physical_file = ? AND ref_count <= ?";
+    private static final String SQL_QUERY_DELETE = "DELETE FROM filegen_physical_file_ref WHERE content_hash = ?";
+    private static final String SQL_QUERY_SELECT_UNUSED = "SELECT r.content_hash,r.id_physical_file,r.ref_count FROM filegen_physical_file_ref r WHERE r.date_update < ? "
+            + "AND NOT EXISTS ( SELECT t.id_file FROM filegen_temporary_file t WHERE t.id_physical_file = r.id_physical_file ) ORDER BY r.date_update LIMIT ?";
+
+    @Override
+    public void insert( PhysicalFileReference reference, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, reference.getContentHash( ) );
+            daoUtil.setString( nIndex++, reference.getIdPhysicalFile( ) );
+            daoUtil.setInt( nIndex++, reference.getRefCount( ) );
+            daoUtil.setTimestamp( nIndex, new Timestamp( System.currentTimeMillis( ) ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public PhysicalFileReference loadByContentHash( String strContentHash, Plugin plugin )
+    {
+        return load( SQL_QUERY_FIND_BY_CONTENT_HASH, strContentHash, plugin );
+    }
+
+    @Override
+    public PhysicalFileReference loadByPhysicalFile( String strIdPhysicalFile, Plugin plugin )
+    {
+        return load( SQL_QUERY_FIND_BY_PHYSICAL_FILE, strIdPhysicalFile, plugin );
+    }
+
+    @Override
+    public int updateRefCount( String strIdPhysicalFile, int nDelta, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_UPDATE_REF_COUNT, plugin ) )
+        {
+            daoUtil.setInt( 1, nDelta );
+            daoUtil.setTimestamp( 2, new Timestamp( System.currentTimeMillis( ) ) );
+            daoUtil.setString( 3, strIdPhysicalFile );
+            return daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public int releaseRefCount( String strIdPhysicalFile, int nReleased, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_RELEASE_REF_COUNT, plugin ) )
+        {
+            daoUtil.setInt( 1, nReleased );
+            daoUtil.setTimestamp( 2, new Timestamp( System.currentTimeMillis( ) ) );
+            daoUtil.setString( 3, strIdPhysicalFile );
+            daoUtil.setInt( 4, nReleased );
+            return daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public int deleteByPhysicalFile( String strIdPhysicalFile, int nMaxRefCount, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_BY_PHYSICAL_FILE, plugin ) )
+        {
+            daoUtil.setString( 1, strIdPhysicalFile );
+            daoUtil.setInt( 2, nMaxRefCount );
+            return daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void delete( String strContentHash, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE, plugin ) )
+        {
+            daoUtil.setString( 1, strContentHash );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public List<PhysicalFileReference> selectUnused( Timestamp dateLimit, int nLimit, Plugin plugin )
+    {
+        List<PhysicalFileReference> listReferences = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_UNUSED, plugin ) )
+        {
+            daoUtil.setTimestamp( 1, dateLimit );
+            daoUtil.setInt( 2, nLimit );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                listReferences.add( dataToObject( daoUtil ) );
+            }
+        }
+        return listReferences;
+    }
+
+    /**
+     * Load a reference
+     * 
+     * @param strQuery
+     *            the query
+     * @param strParameter
+     *            the value of the query parameter
+     * @return the reference, or null
+     */
+    private PhysicalFileReference load( String strQuery, String strParameter, Plugin plugin )
+    {
+        PhysicalFileReference reference = null;
+        try ( DAOUtil daoUtil = new DAOUtil( strQuery, plugin ) )
+        {
+            daoUtil.setString( 1, strParameter );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                reference = dataToObject( daoUtil );
+            }
+        }
+        return reference;
+    }
+
+    /**
+     * Create a reference from the current row
+     * 
+     * @param daoUtil
+     *            the DAOUtil positioned on the row
+     * @return the reference
+     */
+    private static PhysicalFileReference dataToObject( DAOUtil daoUtil )
+    {
+        int nIndex = 1;
+        PhysicalFileReference reference = new PhysicalFileReference( );
+        reference.setContentHash( daoUtil.getString( nIndex++ ) );
+        reference.setIdPhysicalFile( daoUtil.getString( nIndex++ ) );
+        reference.setRefCount( daoUtil.getInt( nIndex ) );
+        return reference;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.plugins.filegenerator.service.FileGeneratorPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppException;
+
+/**
+ * This class provides instances management methods for the references to stored files
+ */
+public final class PhysicalFileReferenceHome
+{
+    // Static variable pointed at the DAO instance
+    private static IPhysicalFileReferenceDAO _dao = SpringContextService.getBean( "physicalFileReferenceDAO" );
+    private static Plugin _plugin = FileGeneratorPlugin.getPlugin( );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private PhysicalFileReferenceHome( )
+    {
+    }
+
+    /**
+     * Creation of a reference
+     *
+     * @param reference
+     *            the reference
+     * @return false if the same content was registered in the meantime, by another node
+     */
+    public static boolean create( PhysicalFileReference reference )
+    {
+        try
+        {
+            _dao.insert( reference, _plugin );
+            return true;
+        }
+        catch( AppException e )
+        {
+            if ( findByContentHash( reference.getContentHash( ) ) != null )
+            {
+                // Duplicate content hash
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Add a number of references to a stored file
+     *
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nDelta
+     *            the number of references to add
+     * @return the number of updated rows : 0 if the stored file is not referenced by its content, or is no longer referenced
+     */
+    public static int updateRefCount( String strIdPhysicalFile, int nDelta )
+    {
+        return _dao.updateRefCount( strIdPhysicalFile, nDelta, _plugin );
+    }
+
+    /**
+     * Remove a number of references to a stored file, if it keeps at least one reference
+     *
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nReleased
+     *            the number of references to remove
+     * @return false if the stored file would have no reference left, or is not referenced by its content
+     */
+    public static boolean releaseReferences( String strIdPhysicalFile, int nReleased )
+    {
+        return _dao.releaseRefCount( strIdPhysicalFile, nReleased, _plugin ) > 0;
+    }
+
+    /**
+     * Delete the reference to a stored file, if it has no more than a number of references
+     *
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nMaxRefCount
+     *            the max number of references
+     * @return false if the stored file has more references, or is not referenced by its content
+     */
+    public static boolean removeByPhysicalFile( String strIdPhysicalFile, int nMaxRefCount )
+    {
+        return _dao.deleteByPhysicalFile( strIdPhysicalFile, nMaxRefCount, _plugin ) > 0;
+    }
+
+    /**
+     * Delete a reference
+     *
+     * @param strContentHash
+     *            the content hash
+     */
+    public static void remove( String strContentHash )
+    {
+        _dao.delete( strContentHash, _plugin );
+    }
+
+    /**
+     * Returns the reference to the stored file having a given content
+     *
+     * @param strContentHash
+     *            the content hash
+     * @return the reference, or null
+     */
+    public static PhysicalFileReference findByContentHash( String strContentHash )
+    {
+        return _dao.loadByContentHash( strContentHash, _plugin );
+    }
+
+    /**
+     * Returns the reference to a stored file
+     *
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @return the reference, or null if the stored file is not referenced by its content
+     */
+    public static PhysicalFileReference findByPhysicalFile( String strIdPhysicalFile )
+    {
+        return _dao.loadByPhysicalFile( strIdPhysicalFile, _plugin );
+    }
+
+    /**
+     * Returns the references not updated since a date, whose stored file is not used by any temporary file : left by generations interrupted between the
+     * storage of their file and its publication
+     *
+     * @param dateLimit
+     *            the date of the last update
+     * @param nLimit
+     *            the max number of references
+     * @return the references
+     */
+    public static List<PhysicalFileReference> findUnused( Timestamp dateLimit, int nLimit )
+    {
+        return _dao.selectUnused( dateLimit, nLimit, _plugin );
+    }
+}
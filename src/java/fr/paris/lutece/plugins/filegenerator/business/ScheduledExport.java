@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.io.Serializable;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Export generated on a recurring schedule. The generator is created at each run by a Spring bean implementing
+ * {@link fr.paris.lutece.plugins.filegenerator.service.IFileGeneratorFactory}, from the parameters of the export.
+ */
+public class ScheduledExport implements Serializable
+{
+    private static final long serialVersionUID = -3719402265137925519L;
+
+    private int _nIdExport;
+    private int _nIdUser;
+    private String _strGeneratorFactory;
+    private Map<String, String> _mapParameters = new HashMap<>( );
+    private String _strCron;
+    private String _strDescription;
+    private boolean _bEnabled = true;
+    private boolean _bReuseUnchanged;
+    private String _strWatermark;
+    private int _nIdLastFile;
+    private Timestamp _dateLastRun;
+    private Timestamp _dateNextRun;
+
+    /**
+     * @return the id of the export
+     */
+    public int getIdExport( )
+    {
+        return _nIdExport;
+    }
+
+    /**
+     * @param nIdExport
+     *            the id of the export
+     */
+    public void setIdExport( int nIdExport )
+    {
+        _nIdExport = nIdExport;
+    }
+
+    /**
+     * @return the id of the user receiving the generated files
+     */
+    public int getIdUser( )
+    {
+        return _nIdUser;
+    }
+
+    /**
+     * @param nIdUser
+     *            the id of the user receiving the generated files
+     */
+    public void setIdUser( int nIdUser )
+    {
+        _nIdUser = nIdUser;
+    }
+
+    /**
+     * @return the name of the Spring bean creating the generator
+     */
+    public String getGeneratorFactory( )
+    {
+        return _strGeneratorFactory;
+    }
+
+    /**
+     * @param strGeneratorFactory
+     *            the name of the Spring bean creating the generator
+     */
+    public void setGeneratorFactory( String strGeneratorFactory )
+    {
+        _strGeneratorFactory = strGeneratorFactory;
+    }
+
+    /**
+     * @return the parameters given to the generator factory
+     */
+    public Map<String, String> getParameters( )
+    {
+        return _mapParameters;
+    }
+
+    /**
+     * @param mapParameters
+     *            the parameters given to the generator factory
+     */
+    public void setParameters( Map<String, String> mapParameters )
+    {
+        _mapParameters = mapParameters;
+    }
+
+    /**
+     * @return the schedule, see {@link fr.paris.lutece.plugins.filegenerator.service.CronExpression}
+     */
+    public String getCron( )
+    {
+        return _strCron;
+    }
+
+    /**
+     * @param strCron
+     *            the schedule, see {@link fr.paris.lutece.plugins.filegenerator.service.CronExpression}
+     */
+    public void setCron( String strCron )
+    {
+        _strCron = strCron;
+    }
+
+    /**
+     * @return the description
+     */
+    public String getDescription( )
+    {
+        return _strDescription;
+    }
+
+    /**
+     * @param strDescription
+     *            the description
+     */
+    public void setDescription( String strDescription )
+    {
+        _strDescription = strDescription;
+    }
+
+    /**
+     * @return true if the export runs on its schedule
+     */
+    public boolean isEnabled( )
+    {
+        return _bEnabled;
+    }
+
+    /**
+     * @param bEnabled
+     *            true if the export runs on its schedule
+     */
+    public void setEnabled( boolean bEnabled )
+    {
+        _bEnabled = bEnabled;
+    }
+
+    /**
+     * @return true if a run gives the previous file again when the data is unchanged, false if the run is skipped
+     */
+    public boolean isReuseUnchanged( )
+    {
+        return _bReuseUnchanged;
+    }
+
+    /**
+     * @param bReuseUnchanged
+     *            true if a run gives the previous file again when the data is unchanged, false if the run is skipped
+     */
+    public void setReuseUnchanged( boolean bReuseUnchanged )
+    {
+        _bReuseUnchanged = bReuseUnchanged;
+    }
+
+    /**
+     * @return the watermark of the data of the last generated file
+     */
+    public String getWatermark( )
+    {
+        return _strWatermark;
+    }
+
+    /**
+     * @param strWatermark
+     *            the watermark of the data of the last generated file
+     */
+    public void setWatermark( String strWatermark )
+    {
+        _strWatermark = strWatermark;
+    }
+
+    /**
+     * @return the id of the temporary file of the last run, 0 if none
+     */
+    public int getIdLastFile( )
+    {
+        return _nIdLastFile;
+    }
+
+    /**
+     * @param nIdLastFile
+     *            the id of the temporary file of the last run, 0 if none
+     */
+    public void setIdLastFile( int nIdLastFile )
+    {
+        _nIdLastFile = nIdLastFile;
+    }
+
+    /**
+     * @return the date of the last run
+     */
+    public Timestamp getDateLastRun( )
+    {
+        return _dateLastRun;
+    }
+
+    /**
+     * @param dateLastRun
+     *            the date of the last run
+     */
+    public void setDateLastRun( Timestamp dateLastRun )
+    {
+        _dateLastRun = dateLastRun;
+    }
+
+    /**
+     * @return the date of the next run, null if there is none
+     */
+    public Timestamp getDateNextRun( )
+    {
+        return _dateNextRun;
+    }
+
+    /**
+     * @param dateNextRun
+     *            the date of the next run, null if there is none
+     */
+    public void setDateNextRun( Timestamp dateNextRun )
+    {
+        _dateNextRun = dateNextRun;
+    }
+}
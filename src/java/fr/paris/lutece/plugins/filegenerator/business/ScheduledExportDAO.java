@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides Data Access methods for ScheduledExport objects. The parameters are stored as the text of a {@link Properties}. A run is taken with a
+ * conditional update of the date of the next run, checked by reading back the run token, so that a run is done by a single node of a cluster.
+ */
+public final class ScheduledExportDAO implements IScheduledExportDAO
+{
+    // Constants
+    private static final String SQL_QUERY_SELECT_ALL = "SELECT id_export,id_user,generator_factory,parameters,cron,description,enabled,reuse_unchanged,"
+            + "watermark,id_last_file,date_last_run,date_next_run FROM filegen_scheduled_export";
+    private static final String SQL_QUERY_SELECT = SQL_QUERY_SELECT_ALL + " WHERE id_export = ?";
+    private static final String SQL_QUERY_SELECT_DUE = SQL_QUERY_SELECT_ALL + " WHERE enabled = 1 AND date_next_run <= ? ORDER BY date_next_run LIMIT ?";
+    private static final String SQL_ORDER_BY_ID = " ORDER BY id_export";
+    private static final String SQL_QUERY_INSERT = "INSERT INTO filegen_scheduled_export(id_user,generator_factory,parameters,cron,description,enabled,"
+            + "reuse_unchanged,date_next_run) VALUES(?,?,?,?,?,?,?,?)";
+    private static final String SQL_QUERY_UPDATE = "UPDATE filegen_scheduled_export SET id_user = ?, generator_factory = ?, parameters = ?, cron = ?, "
+            + "description = ?, enabled = ?, reuse_unchanged = ?, date_next_run = ? WHERE id_export = ?";
+    private static final String SQL_QUERY_CLAIM_RUN = "UPDATE filegen_scheduled_export SET run_token = ?, date_next_run = ?, date_last_run = ? "
+            + "WHERE id_export = ? AND date_next_run = ?";
+    private static final String SQL_QUERY_SELECT_RUN_TOKEN = "SELECT run_token FROM filegen_scheduled_export WHERE id_export = ?";
+    private static final String SQL_QUERY_UPDATE_RUN_RESULT = "UPDATE filegen_scheduled_export SET id_last_file = ?, watermark = ? WHERE id_export = ?";
+    private static final String SQL_QUERY_DELETE = "DELETE FROM filegen_scheduled_export WHERE id_export = ?";
+
+    @Override
+    public int insert( ScheduledExport export, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, Statement.RETURN_GENERATED_KEYS, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, export.getIdUser( ) );
+            daoUtil.setString( nIndex++, export.getGeneratorFactory( ) );
+            daoUtil.setString( nIndex++, toText( export.getParameters( ) ) );
+            daoUtil.setString( nIndex++, export.getCron( ) );
+            daoUtil.setString( nIndex++, export.getDescription( ) );
+            daoUtil.setBoolean( nIndex++, export.isEnabled( ) );
+            daoUtil.setBoolean( nIndex++, export.isReuseUnchanged( ) );
+            daoUtil.setTimestamp( nIndex, export.getDateNextRun( ) );
+            daoUtil.executeUpdate( );
+
+            if ( daoUtil.nextGeneratedKey( ) )
+            {
+                export.setIdExport( daoUtil.getGeneratedKeyInt( 1 ) );
+            }
+        }
+        return export.getIdExport( );
+    }
+
+    @Override
+    public void store( ScheduledExport export, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_UPDATE, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, export.getIdUser( ) );
+            daoUtil.setString( nIndex++, export.getGeneratorFactory( ) );
+            daoUtil.setString( nIndex++, toText( export.getParameters( ) ) );
+            daoUtil.setString( nIndex++, export.getCron( ) );
+            daoUtil.setString( nIndex++, export.getDescription( ) );
+            daoUtil.setBoolean( nIndex++, export.isEnabled( ) );
+            daoUtil.setBoolean( nIndex++, export.isReuseUnchanged( ) );
+            daoUtil.setTimestamp( nIndex++, export.getDateNextRun( ) );
+            daoUtil.setInt( nIndex, export.getIdExport( ) );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public ScheduledExport load( int nIdExport, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdExport );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                return read( daoUtil );
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<ScheduledExport> selectAll( Plugin plugin )
+    {
+        List<ScheduledExport> listExports = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ALL + SQL_ORDER_BY_ID, plugin ) )
+        {
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                listExports.add( read( daoUtil ) );
+            }
+        }
+        return listExports;
+    }
+
+    @Override
+    public List<ScheduledExport> selectDue( Timestamp now, int nLimit, Plugin plugin )
+    {
+        List<ScheduledExport> listExports = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_DUE, plugin ) )
+        {
+            daoUtil.setTimestamp( 1, now );
+            daoUtil.setInt( 2, nLimit );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                listExports.add( read( daoUtil ) );
+            }
+        }
+        return listExports;
+    }
+
+    @Override
+    public void claimRun( int nIdExport, String strRunToken, Timestamp expectedNextRun, Timestamp nextRun, Timestamp now, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_CLAIM_RUN, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, strRunToken );
+            daoUtil.setTimestamp( nIndex++, nextRun );
+            daoUtil.setTimestamp( nIndex++, now );
+            daoUtil.setInt( nIndex++, nIdExport );
+            daoUtil.setTimestamp( nIndex, expectedNextRun );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public String loadRunToken( int nIdExport, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_RUN_TOKEN, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdExport );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                return daoUtil.getString( 1 );
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void storeRunResult( int nIdExport, int nIdLastFile, String strWatermark, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_UPDATE_RUN_RESULT, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdLastFile );
+            daoUtil.setString( 2, strWatermark );
+            daoUtil.setInt( 3, nIdExport );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void delete( int nIdExport, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdExport );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    /**
+     * Reads an export from the current row
+     * 
+     * @param daoUtil
+     *            the DAOUtil positioned on the row
+     * @return the export
+     */
+    private static ScheduledExport read( DAOUtil daoUtil )
+    {
+        int nIndex = 1;
+        ScheduledExport export = new ScheduledExport( );
+        export.setIdExport( daoUtil.getInt( nIndex++ ) );
+        export.setIdUser( daoUtil.getInt( nIndex++ ) );
+        export.setGeneratorFactory( daoUtil.getString( nIndex++ ) );
+        export.setParameters( fromText( daoUtil.getString( nIndex++ ) ) );
+        export.setCron( daoUtil.getString( nIndex++ ) );
+        export.setDescription( daoUtil.getString( nIndex++ ) );
+        export.setEnabled( daoUtil.getBoolean( nIndex++ ) );
+        export.setReuseUnchanged( daoUtil.getBoolean( nIndex++ ) );
+        export.setWatermark( daoUtil.getString( nIndex++ ) );
+        export.setIdLastFile( daoUtil.getInt( nIndex++ ) );
+        export.setDateLastRun( daoUtil.getTimestamp( nIndex++ ) );
+        export.setDateNextRun( daoUtil.getTimestamp( nIndex ) );
+        return export;
+    }
+
+    /**
+     * @param mapParameters
+     *            the parameters
+     * @return the parameters as the text of a {@link Properties}
+     */
+    private static String toText( Map<String, String> mapParameters )
+    {
+        Properties properties = new Properties( );
+        properties.putAll( mapParameters );
+        StringWriter writer = new StringWriter( );
+        try
+        {
+            properties.store( writer, null );
+        }
+        catch( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        return writer.toString( );
+    }
+
+    /**
+     * @param strText
+     *            the text of a {@link Properties}
+     * @return the parameters
+     */
+    private static Map<String, String> fromText( String strText )
+    {
+        Map<String, String> mapParameters = new HashMap<>( );
+        if ( strText != null )
+        {
+            Properties properties = new Properties( );
+            try
+            {
+                properties.load( new StringReader( strText ) );
+            }
+            catch( IOException e )
+            {
+                throw new UncheckedIOException( e );
+            }
+            for ( String strName : properties.stringPropertyNames( ) )
+            {
+                mapParameters.put( strName, properties.getProperty( strName ) );
+            }
+        }
+        return mapParameters;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.plugins.filegenerator.service.FileGeneratorPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+/**
+ * This class provides instances management methods for the scheduled exports
+ */
+public final class ScheduledExportHome
+{
+    // Static variable pointed at the DAO instance
+    private static IScheduledExportDAO _dao = SpringContextService.getBean( "scheduledExportDAO" );
+    private static Plugin _plugin = FileGeneratorPlugin.getPlugin( );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private ScheduledExportHome( )
+    {
+    }
+
+    /**
+     * Creation of an export
+     *
+     * @param export
+     *            the export
+     * @return the id of the new export
+     */
+    public static int create( ScheduledExport export )
+    {
+        return _dao.insert( export, _plugin );
+    }
+
+    /**
+     * Update of the definition of an export. The result of the last run is left unchanged.
+     *
+     * @param export
+     *            the export
+     */
+    public static void update( ScheduledExport export )
+    {
+        _dao.store( export, _plugin );
+    }
+
+    /**
+     * Returns an export
+     *
+     * @param nIdExport
+     *            the id of the export
+     * @return the export, or null
+     */
+    public static ScheduledExport findByPrimaryKey( int nIdExport )
+    {
+        return _dao.load( nIdExport, _plugin );
+    }
+
+    /**
+     * Returns all the exports
+     *
+     * @return the exports
+     */
+    public static List<ScheduledExport> findAll( )
+    {
+        return _dao.selectAll( _plugin );
+    }
+
+    /**
+     * Returns the enabled exports whose next run is due, earliest first
+     *
+     * @param now
+     *            the current date
+     * @param nLimit
+     *            the max number of exports
+     * @return the exports
+     */
+    public static List<ScheduledExport> findDue( Timestamp now, int nLimit )
+    {
+        return _dao.selectDue( now, nLimit, _plugin );
+    }
+
+    /**
+     * Takes the due run of an export and moves the export to its following run. Concurrent claims of the same run are arbitrated by the database : only one
+     * of them gets the run.
+     *
+     * @param nIdExport
+     *            the id of the export
+     * @param strRunToken
+     *            a token unique to this claim
+     * @param expectedNextRun
+     *            the date of the run being taken
+     * @param nextRun
+     *            the date of the following run, null if there is none
+     * @param now
+     *            the current date
+     * @return true if the run is taken
+     */
+    public static boolean claimRun( int nIdExport, String strRunToken, Timestamp expectedNextRun, Timestamp nextRun, Timestamp now )
+    {
+        _dao.claimRun( nIdExport, strRunToken, expectedNextRun, nextRun, now, _plugin );
+        return strRunToken.equals( _dao.loadRunToken( nIdExport, _plugin ) );
+    }
+
+    /**
+     * Update of the result of the last run of an export
+     *
+     * @param nIdExport
+     *            the id of the export
+     * @param nIdLastFile
+     *            the id of the temporary file of the run
+     * @param strWatermark
+     *            the watermark of the data of the file
+     */
+    public static void updateRunResult( int nIdExport, int nIdLastFile, String strWatermark )
+    {
+        _dao.storeRunResult( nIdExport, nIdLastFile, strWatermark, _plugin );
+    }
+
+    /**
+     * Removes an export
+     *
+     * @param nIdExport
+     *            the id of the export
+     */
+    public static void remove( int nIdExport )
+    {
+        _dao.delete( nIdExport, _plugin );
+    }
+}
@@ -51,12 +51,19 @@ public class TemporaryFile implements Serializable
     private int _nIdFile;
     private String _idPhysicalFile;
     private String _strTitle;
-    private int _nSize;
+    private long _lSize;
     private String _strExtension;
     private String _strMimeType;
     private Timestamp _dateCreation;
     private AdminUser _user;
     private String _description;
+    private TemporaryFileStatus _status;
+    private int _nProgress;
+    private Timestamp _dateStart;
+    private Timestamp _dateCompression;
+    private Timestamp _dateStorage;
+    private Timestamp _dateEnd;
+    private String _strCacheKey;
 
     /**
      *
@@ -102,9 +109,9 @@ public class TemporaryFile implements Serializable
      *
      * @return the size of the file
      */
-    public int getSize( )
+    public long getSize( )
     {
-        return _nSize;
+        return _lSize;
     }
 
     /**
@@ -113,9 +120,9 @@ public class TemporaryFile implements Serializable
      * @param size
      *            the size of the file
      */
-    public void setSize( int size )
+    public void setSize( long size )
     {
-        _nSize = size;
+        _lSize = size;
     }
 
     /**
@@ -229,4 +236,123 @@ public class TemporaryFile implements Serializable
     {
         _idPhysicalFile = idPhysicalFile;
     }
+
+    /**
+     * @return the generation status
+     */
+    public TemporaryFileStatus getStatus( )
+    {
+        return _status;
+    }
+
+    /**
+     * @param status
+     *            the generation status to set
+     */
+    public void setStatus( TemporaryFileStatus status )
+    {
+        _status = status;
+    }
+
+    /**
+     * @return the generation progress, in percent
+     */
+    public int getProgress( )
+    {
+        return _nProgress;
+    }
+
+    /**
+     * @param nProgress
+     *            the generation progress to set, in percent
+     */
+    public void setProgress( int nProgress )
+    {
+        _nProgress = nProgress;
+    }
+
+    /**
+     * @return the start date of the generation
+     */
+    public Timestamp getDateStart( )
+    {
+        return _dateStart;
+    }
+
+    /**
+     * @param dateStart
+     *            the start date of the generation to set
+     */
+    public void setDateStart( Timestamp dateStart )
+    {
+        _dateStart = dateStart;
+    }
+
+    /**
+     * @return the start date of the compression
+     */
+    public Timestamp getDateCompression( )
+    {
+        return _dateCompression;
+    }
+
+    /**
+     * @param dateCompression
+     *            the start date of the compression to set
+     */
+    public void setDateCompression( Timestamp dateCompression )
+    {
+        _dateCompression = dateCompression;
+    }
+
+    /**
+     * @return the start date of the storage
+     */
+    public Timestamp getDateStorage( )
+    {
+        return _dateStorage;
+    }
+
+    /**
+     * @param dateStorage
+     *            the start date of the storage to set
+     */
+    public void setDateStorage( Timestamp dateStorage )
+    {
+        _dateStorage = dateStorage;
+    }
+
+    /**
+     * @return the end date of the generation
+     */
+    public Timestamp getDateEnd( )
+    {
+        return _dateEnd;
+    }
+
+    /**
+     * @param dateEnd
+     *            the end date of the generation to set
+     */
+    public void setDateEnd( Timestamp dateEnd )
+    {
+        _dateEnd = dateEnd;
+    }
+
+    /**
+     * @return the cache key of the generation, or null
+     */
+    public String getCacheKey( )
+    {
+        return _strCacheKey;
+    }
+
+    /**
+     * @param strCacheKey
+     *            the cache key of the generation, or null
+     */
+    public void setCacheKey( String strCacheKey )
+    {
+        _strCacheKey = strCacheKey;
+    }
 }
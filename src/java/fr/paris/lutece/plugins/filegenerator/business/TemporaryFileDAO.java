@@ -39,8 +39,10 @@ import fr.paris.lutece.util.sql.DAOUtil;
 
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.text.MessageFormat;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -50,15 +52,56 @@ import java.util.List;
 public final class TemporaryFileDAO implements ITemporaryFileDAO
 {
     // Constants
-    private static final String SQL_QUERY_SELECT_ALL = "SELECT id_file,id_user,title,description,id_physical_file,file_size,mime_type,date_creation"
-            + " FROM filegen_temporary_file ";
+    private static final int DESCRIPTION_SUMMARY_LENGTH = 255;
+    private static final String SQL_QUERY_SELECT_ALL = "SELECT id_file,id_user,title,description,id_physical_file,file_size,mime_type,date_creation,"
+            + "status,progress,date_start,date_compression,date_storage,date_end,cache_key FROM filegen_temporary_file ";
     private static final String SQL_QUERY_FIND_BY_USER = SQL_QUERY_SELECT_ALL + " WHERE id_user = ? ORDER BY date_creation desc";
+    // The summary is read instead of the description, which may be stored off the row
+    private static final String SQL_QUERY_SELECT_LIGHT = "SELECT id_file,id_user,title,description_summary,id_physical_file,file_size,mime_type,date_creation,"
+            + "status,progress FROM filegen_temporary_file ";
+    private static final String SQL_QUERY_FIND_LIGHT_BY_USER = SQL_QUERY_SELECT_LIGHT + " WHERE id_user = ? ORDER BY date_creation desc";
+    private static final String SQL_QUERY_COUNT_BY_USER = "SELECT COUNT(*) FROM filegen_temporary_file WHERE id_user = ? ";
+    private static final String SQL_QUERY_SELECT_MIME_TYPES = "SELECT DISTINCT mime_type FROM filegen_temporary_file WHERE id_user = ? AND mime_type IS NOT NULL ORDER BY mime_type";
+    private static final String SQL_FILTER_MIME_TYPE = " AND mime_type = ? ";
+    private static final String SQL_FILTER_STATUS = " AND status = ? ";
+    private static final String SQL_FILTER_AFTER = " AND ( date_creation < ? OR ( date_creation = ? AND id_file < ? ) ) ";
+    private static final String SQL_FILTER_BEFORE = " AND ( date_creation > ? OR ( date_creation = ? AND id_file > ? ) ) ";
+    private static final String SQL_ORDER_BY_DESC = " ORDER BY date_creation DESC, id_file DESC LIMIT ?";
+    private static final String SQL_ORDER_BY_ASC = " ORDER BY date_creation ASC, id_file ASC LIMIT ?";
     private static final String SQL_QUERY_FIND_BY_PRIMARY_KEY = SQL_QUERY_SELECT_ALL + " WHERE id_file = ?";
-    private static final String SQL_QUERY_INSERT = "INSERT INTO filegen_temporary_file(id_user,title,description,id_physical_file,file_size,mime_type,date_creation)"
-            + " VALUES(?,?,?,?,?,?,?)";
+    private static final String SQL_QUERY_INSERT = "INSERT INTO filegen_temporary_file(id_user,title,description,description_summary,id_physical_file,"
+            + "file_size,mime_type,date_creation,status,progress,date_end,cache_key) VALUES(?,?,?,?,?,?,?,?,?,?,?,?)";
     private static final String SQL_QUERY_DELETE = "DELETE FROM filegen_temporary_file WHERE id_file = ? ";
-    private static final String SQL_QUERY_UPDATE = "UPDATE filegen_temporary_file SET id_file=?,id_user=?,title=?,description=?,id_physical_file=?,file_size=?,mime_type=? WHERE id_file = ?";
+    private static final String SQL_QUERY_UPDATE = "UPDATE filegen_temporary_file SET id_file=?,id_user=?,title=?,description=?,description_summary=?,"
+            + "id_physical_file=?,file_size=?,mime_type=?,status=?,progress=?,date_end=?,cache_key=? WHERE id_file = ?";
+    private static final String SQL_QUERY_UPDATE_STATUS = "UPDATE filegen_temporary_file SET status = ? WHERE id_file = ?";
+    private static final String SQL_QUERY_UPDATE_STATUS_DATE = "UPDATE filegen_temporary_file SET status = ?, {0} = ? WHERE id_file = ?";
+    private static final String SQL_QUERY_UPDATE_PROGRESS = "UPDATE filegen_temporary_file SET progress = ? WHERE id_file = ?";
+    private static final String SQL_QUERY_UPDATE_HEARTBEAT = "UPDATE filegen_temporary_file SET date_heartbeat = ? WHERE id_file IN ( ";
+    private static final String SQL_QUERY_SELECT_STATUS = "SELECT id_file,id_user,status,progress FROM filegen_temporary_file WHERE id_file = ?";
     private static final String SQL_QUERY_OLDER_THAN_DAYS = SQL_QUERY_SELECT_ALL + " WHERE date_creation < ? ";
+    private static final String SQL_QUERY_OLDER_THAN_FIRST_PAGE = SQL_QUERY_SELECT_ALL + " WHERE date_creation < ? ORDER BY date_creation, id_file LIMIT ?";
+    private static final String SQL_QUERY_OLDER_THAN_NEXT_PAGE = SQL_QUERY_SELECT_ALL
+            + " WHERE date_creation < ? AND ( date_creation > ? OR ( date_creation = ? AND id_file > ? ) ) ORDER BY date_creation, id_file LIMIT ?";
+    private static final String SQL_QUERY_SELECT_LATEST_BY_CACHE_KEY = SQL_QUERY_SELECT_ALL
+            + " WHERE cache_key = ? AND status = 'DONE' AND date_end >= ? ORDER BY date_end DESC, id_file DESC LIMIT 1";
+    private static final String SQL_QUERY_COUNT_BY_PHYSICAL_FILE = "SELECT COUNT(*) FROM filegen_temporary_file WHERE id_physical_file = ?";
+    private static final String SQL_QUERY_COUNT_ALL = "SELECT COUNT(*) FROM filegen_temporary_file";
+    private static final String SQL_QUERY_SELECT_STORED_SIZE = "SELECT SUM(file_size) FROM ( SELECT MAX(file_size) AS file_size FROM filegen_temporary_file"
+            + " WHERE id_physical_file IS NOT NULL GROUP BY id_physical_file ) stored_file";
+    private static final String SQL_FILTER_UNFINISHED = " status IN ( 'QUEUED', 'RUNNING', 'COMPRESSING', 'STORING' ) ";
+    private static final String SQL_QUERY_SELECT_UNFINISHED = "SELECT t.id_file FROM filegen_temporary_file t WHERE t." + SQL_FILTER_UNFINISHED
+            + "AND COALESCE( t.date_heartbeat, t.date_creation ) < ? AND t.id_file > ? AND NOT EXISTS ( SELECT c.id_file FROM filegen_cluster_job c WHERE c.id_file = t.id_file ) "
+            + "ORDER BY t.id_file LIMIT ?";
+    private static final String SQL_QUERY_UPDATE_STATUS_IF_UNFINISHED = "UPDATE filegen_temporary_file SET status = ?, date_end = ? WHERE id_file = ? AND"
+            + SQL_FILTER_UNFINISHED;
+    private static final String SQL_QUERY_UPDATE_RESULT = "UPDATE filegen_temporary_file SET title=?,description=?,description_summary=?,id_physical_file=?,"
+            + "file_size=?,mime_type=?,status=?,progress=?,date_end=?,cache_key=? WHERE id_file = ? AND" + SQL_FILTER_UNFINISHED;
+    private static final String SQL_QUERY_DELETE_IF_UNFINISHED = "DELETE FROM filegen_temporary_file WHERE id_file = ? AND" + SQL_FILTER_UNFINISHED;
+    private static final String SQL_QUERY_DELETE_ALL = "DELETE FROM filegen_temporary_file WHERE id_file IN ( ";
+    private static final String SQL_PARAMETER = "?";
+    private static final String SQL_SEPARATOR = ",";
+    private static final String SQL_END_LIST = " )";
 
     /**
      * Insert a new record in the table.
@@ -77,11 +120,16 @@ public final class TemporaryFileDAO implements ITemporaryFileDAO
             daoUtil.setInt( nIndex++, file.getUser( ).getUserId( ) );
             daoUtil.setString( nIndex++, file.getTitle( ) );
             daoUtil.setString( nIndex++, file.getDescription( ) );
+            daoUtil.setString( nIndex++, getSummary( file.getDescription( ) ) );
             daoUtil.setString( nIndex++, file.getIdPhysicalFile( ) );
 
-            daoUtil.setInt( nIndex++, file.getSize( ) );
+            daoUtil.setLong( nIndex++, file.getSize( ) );
             daoUtil.setString( nIndex++, file.getMimeType( ) );
-            daoUtil.setTimestamp( nIndex, new Timestamp( new Date( ).getTime( ) ) );
+            daoUtil.setTimestamp( nIndex++, new Timestamp( new Date( ).getTime( ) ) );
+            daoUtil.setString( nIndex++, file.getStatus( ) != null ? file.getStatus( ).name( ) : TemporaryFileStatus.QUEUED.name( ) );
+            daoUtil.setInt( nIndex++, file.getProgress( ) );
+            daoUtil.setTimestamp( nIndex++, file.getDateEnd( ) );
+            daoUtil.setString( nIndex, file.getCacheKey( ) );
 
             daoUtil.executeUpdate( );
 
@@ -137,6 +185,143 @@ public final class TemporaryFileDAO implements ITemporaryFileDAO
         return fileList;
     }
 
+    @Override
+    public List<TemporaryFile> findLightByUser( AdminUser user, Plugin plugin )
+    {
+        List<TemporaryFile> fileList = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_FIND_LIGHT_BY_USER, plugin ) )
+        {
+            daoUtil.setInt( 1, user.getUserId( ) );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                fileList.add( dataToLightObject( daoUtil ) );
+            }
+        }
+
+        return fileList;
+    }
+
+    @Override
+    public List<TemporaryFile> findLightByFilter( TemporaryFileFilter filter, TemporaryFile from, boolean bForward, int nLimit, Plugin plugin )
+    {
+        // Going backward is done by reversing the sort order, then the page
+        boolean bDescending = filter.isAscending( ) != bForward;
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_SELECT_LIGHT ).append( " WHERE id_user = ? " );
+        appendFilterCriteria( sbSql, filter );
+        if ( from != null )
+        {
+            sbSql.append( bDescending ? SQL_FILTER_AFTER : SQL_FILTER_BEFORE );
+        }
+        sbSql.append( bDescending ? SQL_ORDER_BY_DESC : SQL_ORDER_BY_ASC );
+
+        List<TemporaryFile> fileList = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( sbSql.toString( ), plugin ) )
+        {
+            int nIndex = setFilterValues( daoUtil, filter );
+            if ( from != null )
+            {
+                daoUtil.setTimestamp( nIndex++, from.getDateCreation( ) );
+                daoUtil.setTimestamp( nIndex++, from.getDateCreation( ) );
+                daoUtil.setInt( nIndex++, from.getIdFile( ) );
+            }
+            daoUtil.setInt( nIndex, nLimit );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                fileList.add( dataToLightObject( daoUtil ) );
+            }
+        }
+
+        if ( !bForward )
+        {
+            Collections.reverse( fileList );
+        }
+        return fileList;
+    }
+
+    @Override
+    public int countByFilter( TemporaryFileFilter filter, Plugin plugin )
+    {
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_COUNT_BY_USER );
+        appendFilterCriteria( sbSql, filter );
+
+        try ( DAOUtil daoUtil = new DAOUtil( sbSql.toString( ), plugin ) )
+        {
+            setFilterValues( daoUtil, filter );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                return daoUtil.getInt( 1 );
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public List<String> selectMimeTypes( int nIdUser, Plugin plugin )
+    {
+        List<String> listMimeTypes = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_MIME_TYPES, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdUser );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                listMimeTypes.add( daoUtil.getString( 1 ) );
+            }
+        }
+        return listMimeTypes;
+    }
+
+    /**
+     * Append the criteria of a filter, other than the user, to a query
+     * 
+     * @param sbSql
+     *            the query
+     * @param filter
+     *            the filter
+     */
+    private static void appendFilterCriteria( StringBuilder sbSql, TemporaryFileFilter filter )
+    {
+        if ( filter.getMimeType( ) != null )
+        {
+            sbSql.append( SQL_FILTER_MIME_TYPE );
+        }
+        if ( filter.getStatus( ) != null )
+        {
+            sbSql.append( SQL_FILTER_STATUS );
+        }
+    }
+
+    /**
+     * Set the values of the criteria of a filter
+     * 
+     * @param daoUtil
+     *            the daoUtil
+     * @param filter
+     *            the filter
+     * @return the index of the next parameter
+     */
+    private static int setFilterValues( DAOUtil daoUtil, TemporaryFileFilter filter )
+    {
+        int nIndex = 1;
+        daoUtil.setInt( nIndex++, filter.getIdUser( ) );
+        if ( filter.getMimeType( ) != null )
+        {
+            daoUtil.setString( nIndex++, filter.getMimeType( ) );
+        }
+        if ( filter.getStatus( ) != null )
+        {
+            daoUtil.setString( nIndex++, filter.getStatus( ).name( ) );
+        }
+        return nIndex;
+    }
+
     /**
      * Delete a record from the table
      *
@@ -169,14 +354,40 @@ public final class TemporaryFileDAO implements ITemporaryFileDAO
             daoUtil.setInt( nIndex++, file.getUser( ).getUserId( ) );
             daoUtil.setString( nIndex++, file.getTitle( ) );
             daoUtil.setString( nIndex++, file.getDescription( ) );
+            daoUtil.setString( nIndex++, getSummary( file.getDescription( ) ) );
             daoUtil.setString( nIndex++, file.getIdPhysicalFile( ) );
-            daoUtil.setInt( nIndex++, file.getSize( ) );
+            daoUtil.setLong( nIndex++, file.getSize( ) );
             daoUtil.setString( nIndex++, file.getMimeType( ) );
+            daoUtil.setString( nIndex++, file.getStatus( ) != null ? file.getStatus( ).name( ) : null );
+            daoUtil.setInt( nIndex++, file.getProgress( ) );
+            daoUtil.setTimestamp( nIndex++, file.getDateEnd( ) );
+            daoUtil.setString( nIndex++, file.getCacheKey( ) );
             daoUtil.setInt( nIndex, file.getIdFile( ) );
             daoUtil.executeUpdate( );
         }
     }
 
+    @Override
+    public int storeResult( int nIdFile, TemporaryFile result, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_UPDATE_RESULT, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, result.getTitle( ) );
+            daoUtil.setString( nIndex++, result.getDescription( ) );
+            daoUtil.setString( nIndex++, getSummary( result.getDescription( ) ) );
+            daoUtil.setString( nIndex++, result.getIdPhysicalFile( ) );
+            daoUtil.setLong( nIndex++, result.getSize( ) );
+            daoUtil.setString( nIndex++, result.getMimeType( ) );
+            daoUtil.setString( nIndex++, result.getStatus( ) != null ? result.getStatus( ).name( ) : null );
+            daoUtil.setInt( nIndex++, result.getProgress( ) );
+            daoUtil.setTimestamp( nIndex++, result.getDateEnd( ) );
+            daoUtil.setString( nIndex++, result.getCacheKey( ) );
+            daoUtil.setInt( nIndex, nIdFile );
+            return daoUtil.executeUpdate( );
+        }
+    }
+
     private TemporaryFile dataToObject( DAOUtil daoUtil )
     {
         int nIndex = 1;
@@ -191,9 +402,59 @@ public final class TemporaryFileDAO implements ITemporaryFileDAO
         file.setDescription( daoUtil.getString( nIndex++ ) );
         file.setIdPhysicalFile( daoUtil.getString( nIndex++ ) );
 
-        file.setSize( daoUtil.getInt( nIndex++ ) );
+        file.setSize( daoUtil.getLong( nIndex++ ) );
         file.setMimeType( daoUtil.getString( nIndex++ ) );
-        file.setDateCreation( daoUtil.getTimestamp( nIndex ) );
+        file.setDateCreation( daoUtil.getTimestamp( nIndex++ ) );
+        file.setStatus( TemporaryFileStatus.fromName( daoUtil.getString( nIndex++ ) ) );
+        file.setProgress( daoUtil.getInt( nIndex++ ) );
+        file.setDateStart( daoUtil.getTimestamp( nIndex++ ) );
+        file.setDateCompression( daoUtil.getTimestamp( nIndex++ ) );
+        file.setDateStorage( daoUtil.getTimestamp( nIndex++ ) );
+        file.setDateEnd( daoUtil.getTimestamp( nIndex++ ) );
+        file.setCacheKey( daoUtil.getString( nIndex ) );
+
+        return file;
+    }
+
+    /**
+     * Get the summary of a description, shown in the listings
+     * 
+     * @param strDescription
+     *            the description
+     * @return the description truncated to the length of the summary column
+     */
+    private static String getSummary( String strDescription )
+    {
+        if ( strDescription == null || strDescription.length( ) <= DESCRIPTION_SUMMARY_LENGTH )
+        {
+            return strDescription;
+        }
+        int nEnd = DESCRIPTION_SUMMARY_LENGTH;
+        if ( Character.isHighSurrogate( strDescription.charAt( nEnd - 1 ) ) )
+        {
+            nEnd--;
+        }
+        return strDescription.substring( 0, nEnd );
+    }
+
+    private TemporaryFile dataToLightObject( DAOUtil daoUtil )
+    {
+        int nIndex = 1;
+        TemporaryFile file = new TemporaryFile( );
+        file.setIdFile( daoUtil.getInt( nIndex++ ) );
+
+        AdminUser user = new AdminUser( );
+        user.setUserId( daoUtil.getInt( nIndex++ ) );
+        file.setUser( user );
+
+        file.setTitle( daoUtil.getString( nIndex++ ) );
+        file.setDescription( daoUtil.getString( nIndex++ ) );
+        file.setIdPhysicalFile( daoUtil.getString( nIndex++ ) );
+        file.setSize( daoUtil.getLong( nIndex++ ) );
+        file.setMimeType( daoUtil.getString( nIndex++ ) );
+        file.setDateCreation( daoUtil.getTimestamp( nIndex++ ) );
+        file.setStatus( TemporaryFileStatus.fromName( daoUtil.getString( nIndex++ ) ) );
+        file.setProgress( daoUtil.getInt( nIndex ) );
 
         return file;
     }
@@ -215,4 +476,264 @@ public final class TemporaryFileDAO implements ITemporaryFileDAO
         }
         return fileList;
     }
+
+    @Override
+    public List<TemporaryFile> selectFilesOlderThan( Timestamp dateLimit, TemporaryFile after, int nLimit, Plugin plugin )
+    {
+        List<TemporaryFile> fileList = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( after == null ? SQL_QUERY_OLDER_THAN_FIRST_PAGE : SQL_QUERY_OLDER_THAN_NEXT_PAGE, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setTimestamp( nIndex++, dateLimit );
+            if ( after != null )
+            {
+                daoUtil.setTimestamp( nIndex++, after.getDateCreation( ) );
+                daoUtil.setTimestamp( nIndex++, after.getDateCreation( ) );
+                daoUtil.setInt( nIndex++, after.getIdFile( ) );
+            }
+            daoUtil.setInt( nIndex, nLimit );
+
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                fileList.add( dataToObject( daoUtil ) );
+            }
+        }
+        return fileList;
+    }
+
+    @Override
+    public void delete( List<Integer> listIdFile, Plugin plugin )
+    {
+        if ( listIdFile.isEmpty( ) )
+        {
+            return;
+        }
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_DELETE_ALL );
+        for ( int i = 0; i < listIdFile.size( ); i++ )
+        {
+            sbSql.append( i == 0 ? SQL_PARAMETER : SQL_SEPARATOR + SQL_PARAMETER );
+        }
+        sbSql.append( SQL_END_LIST );
+
+        try ( DAOUtil daoUtil = new DAOUtil( sbSql.toString( ), plugin ) )
+        {
+            int nIndex = 1;
+            for ( Integer nIdFile : listIdFile )
+            {
+                daoUtil.setInt( nIndex++, nIdFile );
+            }
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public TemporaryFile selectLatestByCacheKey( String strCacheKey, Timestamp dateMin, Plugin plugin )
+    {
+        TemporaryFile file = null;
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_LATEST_BY_CACHE_KEY, plugin ) )
+        {
+            daoUtil.setString( 1, strCacheKey );
+            daoUtil.setTimestamp( 2, dateMin );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                file = dataToObject( daoUtil );
+            }
+        }
+        return file;
+    }
+
+    @Override
+    public int countByPhysicalFile( String strIdPhysicalFile, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COUNT_BY_PHYSICAL_FILE, plugin ) )
+        {
+            daoUtil.setString( 1, strIdPhysicalFile );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                return daoUtil.getInt( 1 );
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public int countAll( Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COUNT_ALL, plugin ) )
+        {
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                return daoUtil.getInt( 1 );
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public long selectStoredSize( Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_STORED_SIZE, plugin ) )
+        {
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                return daoUtil.getLong( 1 );
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public List<Integer> selectUnfinished( Timestamp dateLimit, int nAfterIdFile, int nLimit, Plugin plugin )
+    {
+        List<Integer> listIdFiles = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_UNFINISHED, plugin ) )
+        {
+            daoUtil.setTimestamp( 1, dateLimit );
+            daoUtil.setInt( 2, nAfterIdFile );
+            daoUtil.setInt( 3, nLimit );
+            daoUtil.executeQuery( );
+
+            while ( daoUtil.next( ) )
+            {
+                listIdFiles.add( daoUtil.getInt( 1 ) );
+            }
+        }
+        return listIdFiles;
+    }
+
+    @Override
+    public void updateStatusIfUnfinished( int nIdFile, TemporaryFileStatus status, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_UPDATE_STATUS_IF_UNFINISHED, plugin ) )
+        {
+            daoUtil.setString( 1, status.name( ) );
+            daoUtil.setTimestamp( 2, new Timestamp( System.currentTimeMillis( ) ) );
+            daoUtil.setInt( 3, nIdFile );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void deleteIfUnfinished( int nIdFile, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_IF_UNFINISHED, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdFile );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void updateStatus( int nIdFile, TemporaryFileStatus status, Plugin plugin )
+    {
+        String strDateColumn = getStatusDateColumn( status );
+        String strSql = strDateColumn != null ? MessageFormat.format( SQL_QUERY_UPDATE_STATUS_DATE, strDateColumn ) : SQL_QUERY_UPDATE_STATUS;
+        try ( DAOUtil daoUtil = new DAOUtil( strSql, plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, status.name( ) );
+            if ( strDateColumn != null )
+            {
+                daoUtil.setTimestamp( nIndex++, new Timestamp( System.currentTimeMillis( ) ) );
+            }
+            daoUtil.setInt( nIndex, nIdFile );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void updateProgress( int nIdFile, int nProgress, Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_UPDATE_PROGRESS, plugin ) )
+        {
+            daoUtil.setInt( 1, nProgress );
+            daoUtil.setInt( 2, nIdFile );
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public void updateHeartbeat( List<Integer> listIdFile, Timestamp dateHeartbeat, Plugin plugin )
+    {
+        if ( listIdFile.isEmpty( ) )
+        {
+            return;
+        }
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_UPDATE_HEARTBEAT );
+        for ( int i = 0; i < listIdFile.size( ); i++ )
+        {
+            sbSql.append( i == 0 ? SQL_PARAMETER : SQL_SEPARATOR + SQL_PARAMETER );
+        }
+        sbSql.append( SQL_END_LIST );
+
+        try ( DAOUtil daoUtil = new DAOUtil( sbSql.toString( ), plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setTimestamp( nIndex++, dateHeartbeat );
+            for ( Integer nIdFile : listIdFile )
+            {
+                daoUtil.setInt( nIndex++, nIdFile );
+            }
+            daoUtil.executeUpdate( );
+        }
+    }
+
+    @Override
+    public TemporaryFile loadStatus( int nIdFile, Plugin plugin )
+    {
+        TemporaryFile file = null;
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_STATUS, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdFile );
+            daoUtil.executeQuery( );
+
+            if ( daoUtil.next( ) )
+            {
+                int nIndex = 1;
+                file = new TemporaryFile( );
+                file.setIdFile( daoUtil.getInt( nIndex++ ) );
+                AdminUser user = new AdminUser( );
+                user.setUserId( daoUtil.getInt( nIndex++ ) );
+                file.setUser( user );
+                file.setStatus( TemporaryFileStatus.fromName( daoUtil.getString( nIndex++ ) ) );
+                file.setProgress( daoUtil.getInt( nIndex ) );
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Get the column holding the date a status is reached
+     * 
+     * @param status
+     *            the status
+     * @return the column name, or null if the status has no date
+     */
+    private static String getStatusDateColumn( TemporaryFileStatus status )
+    {
+        switch( status )
+        {
+            case RUNNING:
+                return "date_start";
+            case COMPRESSING:
+                return "date_compression";
+            case STORING:
+                return "date_storage";
+            case DONE:
+            case FAILED:
+            case TOO_BIG:
+                return "date_end";
+            default:
+                return null;
+        }
+    }
 }
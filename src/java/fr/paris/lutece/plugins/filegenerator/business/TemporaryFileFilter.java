@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+/**
+ * Filter and sort order of a listing of temporary files
+ */
+public class TemporaryFileFilter
+{
+    private int _nIdUser;
+    private String _strMimeType;
+    private TemporaryFileStatus _status;
+    private boolean _bAscending;
+
+    /**
+     * @return the id of the owner of the files
+     */
+    public int getIdUser( )
+    {
+        return _nIdUser;
+    }
+
+    /**
+     * @param nIdUser
+     *            the id of the owner of the files
+     */
+    public void setIdUser( int nIdUser )
+    {
+        _nIdUser = nIdUser;
+    }
+
+    /**
+     * @return the mime type of the files, or null for all mime types
+     */
+    public String getMimeType( )
+    {
+        return _strMimeType;
+    }
+
+    /**
+     * @param strMimeType
+     *            the mime type of the files, or null for all mime types
+     */
+    public void setMimeType( String strMimeType )
+    {
+        _strMimeType = strMimeType;
+    }
+
+    /**
+     * @return the status of the files, or null for all status
+     */
+    public TemporaryFileStatus getStatus( )
+    {
+        return _status;
+    }
+
+    /**
+     * @param status
+     *            the status of the files, or null for all status
+     */
+    public void setStatus( TemporaryFileStatus status )
+    {
+        _status = status;
+    }
+
+    /**
+     * @return true if the oldest files come first
+     */
+    public boolean isAscending( )
+    {
+        return _bAscending;
+    }
+
+    /**
+     * @param bAscending
+     *            true if the oldest files come first
+     */
+    public void setAscending( boolean bAscending )
+    {
+        _bAscending = bAscending;
+    }
+
+    /**
+     * @return true if the files are filtered on their mime type or status
+     */
+    public boolean containsCriteria( )
+    {
+        return _strMimeType != null || _status != null;
+    }
+}
@@ -33,9 +33,11 @@
  */
 package fr.paris.lutece.plugins.filegenerator.business;
 
+import java.sql.Timestamp;
 import java.util.List;
 
 import fr.paris.lutece.plugins.filegenerator.service.FileGeneratorPlugin;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileCacheService;
 import fr.paris.lutece.portal.business.user.AdminUser;
 import fr.paris.lutece.portal.service.plugin.Plugin;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
@@ -48,6 +50,8 @@ public final class TemporaryFileHome
     // Static variable pointed at the DAO instance
     private static ITemporaryFileDAO _dao = SpringContextService.getBean( "temporaryFileDAO" );
     private static Plugin _plugin = FileGeneratorPlugin.getPlugin( );
+    // Finished files, unfiltered listings and number of files by user, invalidated when a file is created, modified or removed
+    private static TemporaryFileCacheService _cache = TemporaryFileCacheService.getInstance( );
 
     /**
      * Private constructor - this class need not be instantiated
@@ -66,7 +70,9 @@ public final class TemporaryFileHome
      */
     public static int create( TemporaryFile file )
     {
-        return _dao.insert( file, _plugin );
+        int nIdFile = _dao.insert( file, _plugin );
+        _cache.invalidateUser( file.getUser( ).getUserId( ) );
+        return nIdFile;
     }
 
     /**
@@ -78,6 +84,49 @@ public final class TemporaryFileHome
     public static void update( TemporaryFile file )
     {
         _dao.store( file, _plugin );
+        _cache.invalidateFile( file.getIdFile( ) );
+        _cache.invalidateUser( file.getUser( ).getUserId( ) );
+    }
+
+    /**
+     * Update the result of the generation of a file, without reading it first, if its generation is unfinished. The file is not cached, since its generation
+     * was not over.
+     *
+     * @param nIdFile
+     *            The identifier of the file
+     * @param result
+     *            the result of the generation
+     * @return false if the file was removed or already has a result
+     */
+    public static boolean updateResult( int nIdFile, TemporaryFile result )
+    {
+        return _dao.storeResult( nIdFile, result, _plugin ) > 0;
+    }
+
+    /**
+     * Update the status of a file, and the date this status is reached
+     *
+     * @param nIdFile
+     *            The identifier of the file
+     * @param status
+     *            the status
+     */
+    public static void updateStatus( int nIdFile, TemporaryFileStatus status )
+    {
+        _dao.updateStatus( nIdFile, status, _plugin );
+    }
+
+    /**
+     * Update the generation progress of a file
+     *
+     * @param nIdFile
+     *            The identifier of the file
+     * @param nProgress
+     *            the progress, in percent
+     */
+    public static void updateProgress( int nIdFile, int nProgress )
+    {
+        _dao.updateProgress( nIdFile, nProgress, _plugin );
     }
 
     /**
@@ -88,14 +137,40 @@ public final class TemporaryFileHome
      */
     public static void remove( int nIdFile )
     {
+        TemporaryFile cachedFile = _cache.getFile( nIdFile );
         _dao.delete( nIdFile, _plugin );
+        _cache.invalidateFile( nIdFile );
+        if ( cachedFile != null )
+        {
+            _cache.invalidateUser( cachedFile.getUser( ).getUserId( ) );
+        }
+        else
+        {
+            _cache.invalidateListings( );
+        }
+    }
+
+    /**
+     * Delete the files whose identifiers are specified in parameter
+     *
+     * @param listIdFile
+     *            The identifiers of the record files
+     */
+    public static void remove( List<Integer> listIdFile )
+    {
+        _dao.delete( listIdFile, _plugin );
+        for ( Integer nIdFile : listIdFile )
+        {
+            _cache.invalidateFile( nIdFile );
+        }
+        _cache.invalidateListings( );
     }
 
     // /////////////////////////////////////////////////////////////////////////
     // Finders
 
     /**
-     * Returns an instance of a file whose identifier is specified in parameter
+     * Returns an instance of a file whose identifier is specified in parameter. A file whose generation is over is kept in cache.
      *
      * @param nKey
      *            The file primary key
@@ -103,7 +178,27 @@ public final class TemporaryFileHome
      */
     public static TemporaryFile findByPrimaryKey( int nKey )
     {
-        return _dao.load( nKey, _plugin );
+        TemporaryFile file = _cache.getFile( nKey );
+        if ( file == null )
+        {
+            long lVersion = _cache.getFileVersion( );
+            file = _dao.load( nKey, _plugin );
+            _cache.putFile( file, lVersion );
+        }
+        return file;
+    }
+
+    /**
+     * Returns the owner, status and progress of a file, without its other data. A file in cache is returned with all its data.
+     *
+     * @param nKey
+     *            The file primary key
+     * @return the file with only its id, user, status and progress, or null
+     */
+    public static TemporaryFile findStatus( int nKey )
+    {
+        TemporaryFile file = _cache.getFile( nKey );
+        return file != null ? file : _dao.loadStatus( nKey, _plugin );
     }
 
     /**
@@ -118,6 +213,79 @@ public final class TemporaryFileHome
         return _dao.findByUser( user, _plugin );
     }
 
+    /**
+     * Returns the files belonging to an user, for a listing. The stage dates are not loaded and the description is truncated.
+     *
+     * @param user
+     *            The user
+     * @return a list of files
+     */
+    public static List<TemporaryFile> findLightByUser( AdminUser user )
+    {
+        return _dao.findLightByUser( user, _plugin );
+    }
+
+    /**
+     * Returns a page of the files matching a filter, for a listing. The stage dates are not loaded and the description is truncated. A page without filter
+     * criteria whose files are all over is kept in cache.
+     *
+     * @param filter
+     *            the filter
+     * @param from
+     *            the file the page starts after (or before when going backward), null for the first page
+     * @param bForward
+     *            true to get the files following the given file in the filter order, false to get the preceding ones
+     * @param nLimit
+     *            the max number of files
+     * @return a list of files, in the filter order
+     */
+    public static List<TemporaryFile> findLightByFilter( TemporaryFileFilter filter, TemporaryFile from, boolean bForward, int nLimit )
+    {
+        String strKey = _cache.getListingKey( filter, from, bForward, nLimit );
+        List<TemporaryFile> listFiles = _cache.getListing( strKey );
+        if ( listFiles == null )
+        {
+            listFiles = _dao.findLightByFilter( filter, from, bForward, nLimit, _plugin );
+            _cache.putListing( strKey, listFiles );
+        }
+        return listFiles;
+    }
+
+    /**
+     * Count the files matching a filter. The number of files of an user without other criteria is kept in cache until a file is created or removed.
+     *
+     * @param filter
+     *            the filter
+     * @return the number of files
+     */
+    public static int countByFilter( TemporaryFileFilter filter )
+    {
+        if ( filter.containsCriteria( ) )
+        {
+            return _dao.countByFilter( filter, _plugin );
+        }
+        String strKey = _cache.getCountKey( filter.getIdUser( ) );
+        Integer nCount = _cache.getCount( strKey );
+        if ( nCount == null )
+        {
+            nCount = _dao.countByFilter( filter, _plugin );
+            _cache.putCount( strKey, nCount );
+        }
+        return nCount;
+    }
+
+    /**
+     * Returns the mime types of the files of an user
+     *
+     * @param user
+     *            The user
+     * @return the mime types
+     */
+    public static List<String> findMimeTypes( AdminUser user )
+    {
+        return _dao.selectMimeTypes( user.getUserId( ), _plugin );
+    }
+
     /**
      * Select the temporary files older than the given number of days
      * 
@@ -127,4 +295,116 @@ public final class TemporaryFileHome
     {
         return _dao.selectFilesOlderThan( days, _plugin );
     }
+
+    /**
+     * Select a page of the temporary files created before a date, ordered by creation date and id
+     * 
+     * @param dateLimit
+     *            the creation date limit
+     * @param after
+     *            the last file of the previous page, or null for the first page
+     * @param nLimit
+     *            the maximum number of files
+     * @return a list of files
+     */
+    public static List<TemporaryFile> selectFilesOlderThan( Timestamp dateLimit, TemporaryFile after, int nLimit )
+    {
+        return _dao.selectFilesOlderThan( dateLimit, after, nLimit, _plugin );
+    }
+
+    /**
+     * Returns the most recent file successfully generated with a cache key
+     * 
+     * @param strCacheKey
+     *            the cache key
+     * @param dateMin
+     *            the minimum end date of the generation
+     * @return the file, or null
+     */
+    public static TemporaryFile findLatestByCacheKey( String strCacheKey, Timestamp dateMin )
+    {
+        return _dao.selectLatestByCacheKey( strCacheKey, dateMin, _plugin );
+    }
+
+    /**
+     * Count the files referencing a stored file
+     * 
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @return the number of files
+     */
+    public static int countByPhysicalFile( String strIdPhysicalFile )
+    {
+        return _dao.countByPhysicalFile( strIdPhysicalFile, _plugin );
+    }
+
+    /**
+     * Count all the files
+     * 
+     * @return the number of files
+     */
+    public static int countAll( )
+    {
+        return _dao.countAll( _plugin );
+    }
+
+    /**
+     * Sum the sizes of the stored files, each stored file being counted once
+     * 
+     * @return the size in bytes
+     */
+    public static long findStoredSize( )
+    {
+        return _dao.selectStoredSize( _plugin );
+    }
+
+    /**
+     * Tells that the files are still queued or being generated by this node, so that the other nodes do not reclaim them
+     * 
+     * @param listIdFile
+     *            the ids of the files
+     */
+    public static void updateHeartbeat( List<Integer> listIdFile )
+    {
+        _dao.updateHeartbeat( listIdFile, new Timestamp( System.currentTimeMillis( ) ), _plugin );
+    }
+
+    /**
+     * Returns the files whose generation is not over, not kept alive by a node since a date, and not queued in the cluster
+     * 
+     * @param dateLimit
+     *            the date limit of the last heartbeat, or of the creation for the files never kept alive
+     * @param nAfterIdFile
+     *            the id of the last file of the previous page, 0 for the first page
+     * @param nLimit
+     *            the max number of files
+     * @return the ids of the files
+     */
+    public static List<Integer> findUnfinished( Timestamp dateLimit, int nAfterIdFile, int nLimit )
+    {
+        return _dao.selectUnfinished( dateLimit, nAfterIdFile, nLimit, _plugin );
+    }
+
+    /**
+     * Flags a file in error, if its generation is not over
+     * 
+     * @param nIdFile
+     *            the id of the file
+     */
+    public static void failIfUnfinished( int nIdFile )
+    {
+        _dao.updateStatusIfUnfinished( nIdFile, TemporaryFileStatus.FAILED, _plugin );
+    }
+
+    /**
+     * Removes a file, if its generation is not over
+     * 
+     * @param nIdFile
+     *            the id of the file
+     */
+    public static void removeIfUnfinished( int nIdFile )
+    {
+        _dao.deleteIfUnfinished( nIdFile, _plugin );
+        _cache.invalidateListings( );
+    }
 }
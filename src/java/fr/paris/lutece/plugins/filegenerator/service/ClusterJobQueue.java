@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.plugins.filegenerator.business.ClusterJob;
+import fr.paris.lutece.plugins.filegenerator.business.ClusterJobHome;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileHome;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+import fr.paris.lutece.portal.business.user.AdminUser;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Database queue sharing the generations between the nodes of a cluster.
+ * <p>
+ * When enabled, the generations of the generators declared distributable are written to the queue instead of being run by the node receiving the
+ * request. Each node claims queued jobs up to its free capacity, by taking a lease on them. The lease is renewed while the job runs; when a node stops, its
+ * leases expire and its jobs are claimed again by another node, up to a maximum number of attempts.
+ */
+public final class ClusterJobQueue
+{
+    private static final String PROPERTY_ENABLED = "temporaryfiles.cluster.enabled";
+    private static final String PROPERTY_LEASE_DURATION = "temporaryfiles.cluster.lease.duration";
+    private static final String PROPERTY_MAX_ATTEMPTS = "temporaryfiles.cluster.maxAttempts";
+    private static final String PROPERTY_NODE_NAME = "temporaryfiles.cluster.nodeName";
+    private static final String PROPERTY_SERIAL_FILTER = "temporaryfiles.cluster.serialFilter";
+    private static final String DEFAULT_SERIAL_FILTER = "fr.paris.lutece.**;java.lang.*;java.util.*;java.math.*;java.time.*;java.sql.Timestamp;"
+            + "java.sql.Date;!*";
+    private static final long DEFAULT_LEASE_DURATION = 120;
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    private static final ClusterJobQueue INSTANCE = new ClusterJobQueue( );
+
+    private final String _strNodeName;
+    private final boolean _bNodeNameConfigured;
+
+    /**
+     * Private constructor
+     */
+    private ClusterJobQueue( )
+    {
+        String strNodeName = AppPropertiesService.getProperty( PROPERTY_NODE_NAME );
+        _bNodeNameConfigured = StringUtils.isNotEmpty( strNodeName );
+        _strNodeName = _bNodeNameConfigured ? strNodeName : ManagementFactory.getRuntimeMXBean( ).getName( );
+    }
+
+    /**
+     * @return the instance
+     */
+    public static ClusterJobQueue getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return true if the generations are shared between the nodes
+     */
+    public boolean isEnabled( )
+    {
+        return AppPropertiesService.getPropertyBoolean( PROPERTY_ENABLED, false );
+    }
+
+    /**
+     * @param generator
+     *            the generator
+     * @return true if the generations of this generator go through the queue : the queue is enabled, and the generator is distributable and serializable
+     */
+    public boolean isDistributed( IFileGenerator generator )
+    {
+        return isEnabled( ) && generator.isDistributable( ) && generator instanceof Serializable;
+    }
+
+    /**
+     * @return the name of this node, as the owner of the leases
+     */
+    public String getNodeName( )
+    {
+        return _strNodeName;
+    }
+
+    /**
+     * Queues a generation, then claims the queued jobs this node has capacity for
+     * 
+     * @param nIdFile
+     *            the id of the temporary file
+     * @param user
+     *            the user requesting the file
+     * @param generator
+     *            the generator, serializable
+     * @param nPriority
+     *            the priority of the generation
+     * @param strCacheKey
+     *            the cache key of the generation, or null
+     * @return false if the generator could not be serialized
+     */
+    public boolean submit( int nIdFile, AdminUser user, IFileGenerator generator, int nPriority, String strCacheKey )
+    {
+        byte [ ] serializedGenerator = serialize( generator );
+        if ( serializedGenerator == null )
+        {
+            return false;
+        }
+        ClusterJob job = new ClusterJob( );
+        job.setIdFile( nIdFile );
+        job.setIdUser( user.getUserId( ) );
+        job.setGenerator( serializedGenerator );
+        job.setPriority( nPriority );
+        job.setCacheKey( strCacheKey );
+        ClusterJobHome.create( job );
+        poll( );
+        return true;
+    }
+
+    /**
+     * Claims the claimable jobs with the highest priority, oldest first, as many as the free workers of this node, and starts them
+     * 
+     * @return the number of jobs started
+     */
+    public synchronized int poll( )
+    {
+        if ( !isEnabled( ) )
+        {
+            return 0;
+        }
+        int nCapacity = TemporaryFileGeneratorService.getInstance( ).getExecutor( ).getIdleCapacity( );
+        if ( nCapacity <= 0 )
+        {
+            return 0;
+        }
+
+        Timestamp now = new Timestamp( System.currentTimeMillis( ) );
+        int nStarted = 0;
+        for ( Integer nIdFile : ClusterJobHome.findClaimable( now, nCapacity ) )
+        {
+            String strLeaseToken = UUID.randomUUID( ).toString( );
+            if ( ClusterJobHome.claim( nIdFile, _strNodeName, strLeaseToken, getLeaseExpiry( ), now ) && start( nIdFile, strLeaseToken ) )
+            {
+                nStarted++;
+            }
+        }
+        return nStarted;
+    }
+
+    /**
+     * Starts a claimed job
+     * 
+     * @param nIdFile
+     *            the id of the temporary file of the job
+     * @param strLeaseToken
+     *            the token of the lease
+     * @return false if the job is not run by this node
+     */
+    private boolean start( int nIdFile, String strLeaseToken )
+    {
+        ClusterJob clusterJob = ClusterJobHome.findByPrimaryKey( nIdFile );
+        if ( clusterJob == null )
+        {
+            // Cancelled in the meantime
+            return false;
+        }
+        if ( TemporaryFileHome.findStatus( nIdFile ) == null )
+        {
+            ClusterJobHome.remove( nIdFile, strLeaseToken );
+            return false;
+        }
+
+        IFileGenerator generator = deserialize( clusterJob.getGenerator( ) );
+        int nMaxAttempts = AppPropertiesService.getPropertyInt( PROPERTY_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS );
+        if ( generator == null || clusterJob.getAttempts( ) > nMaxAttempts )
+        {
+            AppLogService.error( "Generation of temporary file with id " + nIdFile + ( generator == null ? " abandoned : its generator cannot be deserialized"
+                    : " abandoned after " + ( clusterJob.getAttempts( ) - 1 ) + " attempt(s)" ) );
+            TemporaryFileHome.updateStatus( nIdFile, TemporaryFileStatus.FAILED );
+            GenerationEventBus.getInstance( ).publish( clusterJob.getIdUser( ), nIdFile, TemporaryFileStatus.FAILED, 0 );
+            ClusterJobHome.remove( nIdFile, strLeaseToken );
+            return false;
+        }
+
+        if ( !TemporaryFileGeneratorService.getInstance( ).runClaimedJob( clusterJob, generator, strLeaseToken ) )
+        {
+            ClusterJobHome.releaseLease( nIdFile, strLeaseToken );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Renews the lease of a running job. The job is cancelled if it was removed by another node, or if its lease was lost.
+     * 
+     * @param job
+     *            the job
+     */
+    void renewLease( GenerationJob job )
+    {
+        try
+        {
+            String strLeaseToken = ClusterJobHome.renewLease( job.getIdFile( ), job.getLeaseToken( ), getLeaseExpiry( ) );
+            if ( strLeaseToken == null )
+            {
+                job.cancel( GenerationJob.CancelReason.USER );
+            }
+            else
+                if ( !strLeaseToken.equals( job.getLeaseToken( ) ) )
+                {
+                    AppLogService.error( "Lease lost on the generation of temporary file with id " + job.getIdFile( ) );
+                    job.cancel( GenerationJob.CancelReason.LEASE_LOST );
+                }
+        }
+        catch( RuntimeException e )
+        {
+            // The lease is renewed again at the next heartbeat, before it expires
+            AppLogService.error( "Unable to renew the lease on the generation of temporary file with id " + job.getIdFile( ), e );
+        }
+    }
+
+    /**
+     * Renews the lease of a job before its result is published : the result of a job taken over by another node is not published, the other node
+     * publishing its own.
+     * 
+     * @param job
+     *            the job
+     * @return false if the job was removed or its lease was lost. If the lease cannot be renewed, it is considered held : the result of the generation is
+     *         only written to unfinished files anyway.
+     */
+    boolean holdsLease( GenerationJob job )
+    {
+        try
+        {
+            return job.getLeaseToken( ).equals( ClusterJobHome.renewLease( job.getIdFile( ), job.getLeaseToken( ), getLeaseExpiry( ) ) );
+        }
+        catch( RuntimeException e )
+        {
+            AppLogService.error( "Unable to renew the lease on the generation of temporary file with id " + job.getIdFile( ), e );
+            return true;
+        }
+    }
+
+    /**
+     * Removes a job from the queue once it has ended
+     * 
+     * @param job
+     *            the job
+     */
+    void complete( GenerationJob job )
+    {
+        ClusterJobHome.remove( job.getIdFile( ), job.getLeaseToken( ) );
+    }
+
+    /**
+     * Cancels a queued job, or a job running on another node : the job is removed from the queue with its temporary file, the node running it stops at its
+     * next heartbeat.
+     * 
+     * @param nIdFile
+     *            the id of the temporary file
+     * @return false if there is no such job
+     */
+    public boolean cancel( int nIdFile )
+    {
+        if ( !isEnabled( ) || ClusterJobHome.findByPrimaryKey( nIdFile ) == null )
+        {
+            return false;
+        }
+        ClusterJobHome.remove( nIdFile );
+        TemporaryFileHome.remove( nIdFile );
+        return true;
+    }
+
+    /**
+     * Gives back the jobs leased by the previous run of this node, stopped before their end. Only possible when the name of the node is configured, the
+     * default name being different at each run.
+     * 
+     * @return the number of jobs given back
+     */
+    public int releaseStaleLeases( )
+    {
+        if ( !isEnabled( ) || !_bNodeNameConfigured )
+        {
+            return 0;
+        }
+        return ClusterJobHome.expireLeases( _strNodeName );
+    }
+
+    /**
+     * @return the interval between two renewals of a lease, in seconds
+     */
+    long getLeaseRenewalInterval( )
+    {
+        return Math.max( 1, getLeaseDuration( ) / 3 );
+    }
+
+    /**
+     * @return the duration of a lease, in seconds
+     */
+    private static long getLeaseDuration( )
+    {
+        return Math.max( 3, AppPropertiesService.getPropertyLong( PROPERTY_LEASE_DURATION, DEFAULT_LEASE_DURATION ) );
+    }
+
+    /**
+     * @return the expiry of a lease taken now
+     */
+    private static Timestamp getLeaseExpiry( )
+    {
+        return new Timestamp( System.currentTimeMillis( ) + getLeaseDuration( ) * 1000 );
+    }
+
+    /**
+     * Serializes a generator
+     * 
+     * @param generator
+     *            the generator
+     * @return the serialized generator, or null if it is not serializable
+     */
+    static byte [ ] serialize( IFileGenerator generator )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        try ( ObjectOutputStream objectOut = new ObjectOutputStream( out ) )
+        {
+            objectOut.writeObject( generator );
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to serialize the generator " + generator.getClass( ).getName( ) + ", it will be run locally", e );
+            return null;
+        }
+        return out.toByteArray( );
+    }
+
+    /**
+     * Deserializes a generator. Only the classes allowed by the serial filter of the plugin are read : the queue is in the database, so any other class is
+     * rejected before it is instantiated.
+     * 
+     * @param serializedGenerator
+     *            the serialized generator
+     * @return the generator, or null if it cannot be deserialized on this node or contains a class which is not allowed
+     */
+    static IFileGenerator deserialize( byte [ ] serializedGenerator )
+    {
+        String strFilter = AppPropertiesService.getProperty( PROPERTY_SERIAL_FILTER, DEFAULT_SERIAL_FILTER );
+        try ( ObjectInputStream objectIn = new FilteredObjectInputStream( new ByteArrayInputStream( serializedGenerator ), strFilter ) )
+        {
+            IFileGenerator generator = (IFileGenerator) objectIn.readObject( );
+            if ( !generator.isDistributable( ) )
+            {
+                AppLogService.error( "The queued generator " + generator.getClass( ).getName( ) + " is not distributable" );
+                return null;
+            }
+            return generator;
+        }
+        catch( IOException | ClassNotFoundException | ClassCastException e )
+        {
+            AppLogService.error( "Unable to deserialize a queued generator", e );
+            return null;
+        }
+    }
+
+    /**
+     * Object stream resolving only the classes matching a filter, written as the jdk.serialFilter patterns : patterns separated by ';', each being a class
+     * name, a package ending with '.*', a package and its sub-packages ending with '.**', or a prefix ending with '*', rejected when starting with '!'. The
+     * first matching pattern applies, the classes matching none are rejected. The arrays are checked on their component type, and the proxies are rejected.
+     */
+    static final class FilteredObjectInputStream extends ObjectInputStream
+    {
+        private final String [ ] _patterns;
+
+        /**
+         * Constructor
+         * 
+         * @param in
+         *            the serialized objects
+         * @param strFilter
+         *            the filter
+         * @throws IOException
+         *             if the stream header cannot be read
+         */
+        FilteredObjectInputStream( InputStream in, String strFilter ) throws IOException
+        {
+            super( in );
+            _patterns = StringUtils.split( strFilter, ';' );
+        }
+
+        @Override
+        protected Class<?> resolveClass( ObjectStreamClass desc ) throws IOException, ClassNotFoundException
+        {
+            String strClassName = desc.getName( );
+            int nDimensions = 0;
+            while ( strClassName.charAt( nDimensions ) == '[' )
+            {
+                nDimensions++;
+            }
+            if ( nDimensions > 0 )
+            {
+                // Arrays of primitives are always allowed, arrays of objects are checked on their component type
+                strClassName = strClassName.charAt( nDimensions ) == 'L' ? strClassName.substring( nDimensions + 1, strClassName.length( ) - 1 ) : null;
+            }
+            if ( strClassName != null && !isAllowed( strClassName ) )
+            {
+                throw new InvalidClassException( desc.getName( ), "class rejected by " + PROPERTY_SERIAL_FILTER );
+            }
+            return super.resolveClass( desc );
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass( String [ ] interfaces ) throws IOException
+        {
+            throw new InvalidClassException( "Proxy classes are rejected by " + PROPERTY_SERIAL_FILTER );
+        }
+
+        /**
+         * @param strClassName
+         *            the name of a class
+         * @return true if the first pattern matching the class allows it, false if it rejects it or if no pattern matches it
+         */
+        boolean isAllowed( String strClassName )
+        {
+            for ( String strPattern : _patterns )
+            {
+                String strTrimmed = strPattern.trim( );
+                boolean bReject = strTrimmed.startsWith( "!" );
+                if ( bReject )
+                {
+                    strTrimmed = strTrimmed.substring( 1 );
+                }
+                if ( matches( strTrimmed, strClassName ) )
+                {
+                    return !bReject;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @param strPattern
+         *            a pattern, without its '!'
+         * @param strClassName
+         *            the name of a class
+         * @return true if the class matches the pattern
+         */
+        private static boolean matches( String strPattern, String strClassName )
+        {
+            if ( strPattern.endsWith( ".**" ) )
+            {
+                return strClassName.startsWith( strPattern.substring( 0, strPattern.length( ) - 2 ) );
+            }
+            if ( strPattern.endsWith( ".*" ) )
+            {
+                String strPackage = strPattern.substring( 0, strPattern.length( ) - 1 );
+                return strClassName.startsWith( strPackage ) && strClassName.indexOf( '.', strPackage.length( ) ) < 0;
+            }
+            if ( strPattern.endsWith( "*" ) )
+            {
+                return strClassName.startsWith( strPattern.substring( 0, strPattern.length( ) - 1 ) );
+            }
+            return !strPattern.isEmpty( ) && strPattern.equals( strClassName );
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+
+/**
+ * Cron-like schedule with five fields : minute (0-59), hour (0-23), day of month (1-31), month (1-12) and day of week (0-7, 0 and 7 being Sunday).
+ * <p>
+ * Each field is <code>*</code>, a value, a range <code>a-b</code>, or a list of them separated by commas, optionally followed by a step
+ * <code>/n</code>. As with cron, when both the day of month and the day of week are restricted, a day matching either of them matches. The shortcuts
+ * <code>@hourly</code>, <code>@daily</code>, <code>@weekly</code> and <code>@monthly</code> are also accepted.
+ */
+public final class CronExpression
+{
+    private static final int MAX_YEARS = 5;
+
+    private final String _strExpression;
+    private final BitSet _minutes;
+    private final BitSet _hours;
+    private final BitSet _daysOfMonth;
+    private final BitSet _months;
+    private final BitSet _daysOfWeek;
+    private final boolean _bDayOfMonthRestricted;
+    private final boolean _bDayOfWeekRestricted;
+
+    /**
+     * Constructor
+     * 
+     * @param strExpression
+     *            the expression
+     * @throws IllegalArgumentException
+     *             if the expression is not valid
+     */
+    private CronExpression( String strExpression )
+    {
+        _strExpression = strExpression;
+        String [ ] fields = expandShortcut( strExpression.trim( ) ).split( "\\s+" );
+        if ( fields.length != 5 )
+        {
+            throw new IllegalArgumentException( "A cron expression has 5 fields : " + strExpression );
+        }
+        _minutes = parseField( fields [0], 0, 59 );
+        _hours = parseField( fields [1], 0, 23 );
+        _daysOfMonth = parseField( fields [2], 1, 31 );
+        _months = parseField( fields [3], 1, 12 );
+        _daysOfWeek = parseField( fields [4], 0, 7 );
+        if ( _daysOfWeek.get( 7 ) )
+        {
+            _daysOfWeek.set( 0 );
+        }
+        _bDayOfMonthRestricted = !fields [2].startsWith( "*" );
+        _bDayOfWeekRestricted = !fields [4].startsWith( "*" );
+    }
+
+    /**
+     * Parses an expression
+     * 
+     * @param strExpression
+     *            the expression
+     * @return the schedule
+     * @throws IllegalArgumentException
+     *             if the expression is not valid
+     */
+    public static CronExpression parse( String strExpression )
+    {
+        if ( strExpression == null )
+        {
+            throw new IllegalArgumentException( "No cron expression" );
+        }
+        return new CronExpression( strExpression );
+    }
+
+    /**
+     * @param strExpression
+     *            an expression
+     * @return true if the expression is valid
+     */
+    public static boolean isValid( String strExpression )
+    {
+        try
+        {
+            parse( strExpression );
+            return true;
+        }
+        catch( IllegalArgumentException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Get the first date of the schedule after a date
+     * 
+     * @param after
+     *            the date
+     * @return the next date, at the start of a minute, or null if there is none within five years
+     */
+    public LocalDateTime next( LocalDateTime after )
+    {
+        LocalDateTime date = after.truncatedTo( ChronoUnit.MINUTES ).plusMinutes( 1 );
+        int nMaxYear = date.getYear( ) + MAX_YEARS;
+        while ( date.getYear( ) <= nMaxYear )
+        {
+            if ( !_months.get( date.getMonthValue( ) ) )
+            {
+                date = date.withDayOfMonth( 1 ).withHour( 0 ).withMinute( 0 ).plusMonths( 1 );
+            }
+            else
+                if ( !matchesDay( date ) )
+                {
+                    date = date.withHour( 0 ).withMinute( 0 ).plusDays( 1 );
+                }
+                else
+                    if ( !_hours.get( date.getHour( ) ) )
+                    {
+                        date = date.withMinute( 0 ).plusHours( 1 );
+                    }
+                    else
+                        if ( !_minutes.get( date.getMinute( ) ) )
+                        {
+                            date = date.plusMinutes( 1 );
+                        }
+                        else
+                        {
+                            return date;
+                        }
+        }
+        return null;
+    }
+
+    /**
+     * @param date
+     *            a date
+     * @return true if the day of the date matches the day of month and day of week fields
+     */
+    private boolean matchesDay( LocalDateTime date )
+    {
+        boolean bDayOfMonth = _daysOfMonth.get( date.getDayOfMonth( ) );
+        boolean bDayOfWeek = _daysOfWeek.get( date.getDayOfWeek( ).getValue( ) % 7 );
+        if ( _bDayOfMonthRestricted && _bDayOfWeekRestricted )
+        {
+            return bDayOfMonth || bDayOfWeek;
+        }
+        return bDayOfMonth && bDayOfWeek;
+    }
+
+    /**
+     * @param strExpression
+     *            an expression, possibly a shortcut
+     * @return the expression with five fields
+     */
+    private static String expandShortcut( String strExpression )
+    {
+        switch( strExpression )
+        {
+            case "@hourly":
+                return "0 * * * *";
+            case "@daily":
+                return "0 0 * * *";
+            case "@weekly":
+                return "0 0 * * 0";
+            case "@monthly":
+                return "0 0 1 * *";
+            default:
+                return strExpression;
+        }
+    }
+
+    /**
+     * Parses a field
+     * 
+     * @param strField
+     *            the field
+     * @param nMin
+     *            the min value of the field
+     * @param nMax
+     *            the max value of the field
+     * @return the values of the field
+     * @throws IllegalArgumentException
+     *             if the field is not valid
+     */
+    private static BitSet parseField( String strField, int nMin, int nMax )
+    {
+        BitSet values = new BitSet( nMax + 1 );
+        for ( String strPart : strField.split( "," ) )
+        {
+            int nStep = 1;
+            String strRange = strPart;
+            int nSlash = strPart.indexOf( '/' );
+            if ( nSlash >= 0 )
+            {
+                nStep = parseValue( strPart.substring( nSlash + 1 ), 1, nMax, strField );
+                strRange = strPart.substring( 0, nSlash );
+            }
+
+            int nStart;
+            int nEnd;
+            if ( "*".equals( strRange ) )
+            {
+                nStart = nMin;
+                nEnd = nMax;
+            }
+            else
+            {
+                int nDash = strRange.indexOf( '-' );
+                nStart = parseValue( nDash >= 0 ? strRange.substring( 0, nDash ) : strRange, nMin, nMax, strField );
+                // A single value with a step runs up to the max value
+                nEnd = nDash >= 0 ? parseValue( strRange.substring( nDash + 1 ), nMin, nMax, strField ) : ( nSlash >= 0 ? nMax : nStart );
+                if ( nEnd < nStart )
+                {
+                    throw new IllegalArgumentException( "Invalid range in cron field : " + strField );
+                }
+            }
+            for ( int nValue = nStart; nValue <= nEnd; nValue += nStep )
+            {
+                values.set( nValue );
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Parses a value of a field
+     * 
+     * @param strValue
+     *            the value
+     * @param nMin
+     *            the min value
+     * @param nMax
+     *            the max value
+     * @param strField
+     *            the field, for the error message
+     * @return the value
+     * @throws IllegalArgumentException
+     *             if the value is not a number within the bounds
+     */
+    private static int parseValue( String strValue, int nMin, int nMax, String strField )
+    {
+        try
+        {
+            int nValue = Integer.parseInt( strValue );
+            if ( nValue >= nMin && nValue <= nMax )
+            {
+                return nValue;
+            }
+        }
+        catch( NumberFormatException e )
+        {
+            // Reported below
+        }
+        throw new IllegalArgumentException( "Invalid value in cron field : " + strField );
+    }
+
+    @Override
+    public String toString( )
+    {
+        return _strExpression;
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Bounded executor running the file generations.
+ * <p>
+ * The number of workers, the capacity of the waiting queue and the behaviour when this queue is full are configurable. The waiting jobs are not run in
+ * arrival order but scheduled each time a worker is free :
+ * <ul>
+ * <li>the job with the highest priority goes first. The priority of a waiting job rises by one level for each aging interval, so that low priority jobs
+ * are not starved</li>
+ * <li>among jobs of the same priority, the users get a fair share of the workers (start-time fair queuing) : a user queuing many exports does not delay
+ * the exports of the other users. The share used by a job is weighted by the configurable cost of its generator class</li>
+ * <li>a job is held while its user, or its generator class, has reached its maximum number of concurrent generations</li>
+ * <li>some workers can be reserved to the jobs with a priority above normal, so that interactive exports keep a low latency when the queue is full of
+ * bulk work</li>
+ * </ul>
+ */
+public final class FileGenerationExecutor
+{
+    private static final String PROPERTY_WORKERS = "temporaryfiles.generation.workers";
+    private static final String PROPERTY_QUEUE_CAPACITY = "temporaryfiles.generation.queue.capacity";
+    private static final String PROPERTY_REJECTION_POLICY = "temporaryfiles.generation.queue.rejectionPolicy";
+    private static final String PROPERTY_VIRTUAL_THREADS = "temporaryfiles.generation.virtualThreads";
+    private static final String PROPERTY_MAX_CONCURRENT_PREFIX = "temporaryfiles.generation.maxConcurrent.";
+    private static final String PROPERTY_MAX_CONCURRENT_PER_USER = "temporaryfiles.generation.maxConcurrentPerUser";
+    private static final String PROPERTY_COST_PREFIX = "temporaryfiles.generation.cost.";
+    private static final String PROPERTY_RESERVED_WORKERS = "temporaryfiles.generation.reservedWorkers";
+    private static final String PROPERTY_PRIORITY_AGING = "temporaryfiles.generation.priority.aging";
+
+    private static final String POLICY_CALLER = "caller";
+    private static final String THREAD_NAME_PREFIX = "filegenerator-worker-";
+    private static final int DEFAULT_WORKERS = 4;
+    private static final int DEFAULT_QUEUE_CAPACITY = 100;
+    private static final long DEFAULT_PRIORITY_AGING = 300;
+
+    private final ThreadPoolExecutor _executor;
+    private final int _nWorkers;
+    private final int _nQueueCapacity;
+    private final boolean _bCallerRuns;
+    private final int _nMaxConcurrentPerUser;
+    private final int _nReservedWorkers;
+    private final long _lPriorityAging;
+
+    // Scheduling state, guarded by this
+    private final List<ScheduledJob> _listWaitingJobs = new ArrayList<>( );
+    private final Map<Integer, UserFlow> _mapFlows = new HashMap<>( );
+    private final Map<String, GeneratorClass> _mapGeneratorClasses = new HashMap<>( );
+    private double _dVirtualTime;
+    private long _lSequence;
+    private int _nRunning;
+
+    /**
+     * Constructor. The executor is configured from the plugin properties.
+     */
+    FileGenerationExecutor( )
+    {
+        _nWorkers = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_WORKERS, DEFAULT_WORKERS ) );
+        _nQueueCapacity = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY ) );
+        _bCallerRuns = POLICY_CALLER.equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_REJECTION_POLICY ) );
+        _nMaxConcurrentPerUser = AppPropertiesService.getPropertyInt( PROPERTY_MAX_CONCURRENT_PER_USER, 0 );
+        _nReservedWorkers = Math.min( _nWorkers - 1, Math.max( 0, AppPropertiesService.getPropertyInt( PROPERTY_RESERVED_WORKERS, 0 ) ) );
+        _lPriorityAging = AppPropertiesService.getPropertyLong( PROPERTY_PRIORITY_AGING, DEFAULT_PRIORITY_AGING ) * 1000;
+
+        // The jobs are handed to the pool only when a worker is free : its queue never holds more than the jobs being handed over
+        _executor = new ThreadPoolExecutor( _nWorkers, _nWorkers, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>( ), createThreadFactory( ) );
+        _executor.allowCoreThreadTimeOut( true );
+    }
+
+    /**
+     * Submit a generation job, with the normal priority.
+     * 
+     * @param generatorClass
+     *            the class of the generator, used for the concurrency limits and the cost of the job
+     * @param job
+     *            the job
+     * @throws RejectedExecutionException
+     *             if the queue is full and the rejection policy is not "caller"
+     */
+    public void execute( Class<?> generatorClass, Runnable job )
+    {
+        execute( 0, generatorClass, IFileGenerator.PRIORITY_NORMAL, job );
+    }
+
+    /**
+     * Submit a generation job.
+     * 
+     * @param nIdUser
+     *            the id of the user requesting the file, sharing the workers fairly with the other users
+     * @param generatorClass
+     *            the class of the generator, used for the concurrency limits and the cost of the job
+     * @param nPriority
+     *            the priority of the job, see {@link IFileGenerator#getPriority()}
+     * @param job
+     *            the job
+     * @throws RejectedExecutionException
+     *             if the queue is full and the rejection policy is not "caller"
+     */
+    public void execute( int nIdUser, Class<?> generatorClass, int nPriority, Runnable job )
+    {
+        boolean bQueueFull;
+        synchronized( this )
+        {
+            bQueueFull = _listWaitingJobs.size( ) >= _nQueueCapacity;
+            if ( bQueueFull && !_bCallerRuns )
+            {
+                throw new RejectedExecutionException( "The file generation queue is full" );
+            }
+            if ( !bQueueFull )
+            {
+                enqueue( nIdUser, generatorClass.getName( ), nPriority, job );
+            }
+        }
+        if ( bQueueFull )
+        {
+            // "caller" policy : the requesting thread runs the job itself, outside of the scheduling
+            job.run( );
+            return;
+        }
+        dispatch( );
+    }
+
+    /**
+     * Adds a job to the waiting jobs, tagged with its virtual start time : the latest of the current virtual time and of the virtual finish time of the
+     * previous job of the same user
+     * 
+     * @param nIdUser
+     *            the id of the user
+     * @param strGeneratorClass
+     *            the generator class name
+     * @param nPriority
+     *            the priority
+     * @param job
+     *            the job
+     */
+    private void enqueue( int nIdUser, String strGeneratorClass, int nPriority, Runnable job )
+    {
+        UserFlow flow = _mapFlows.computeIfAbsent( nIdUser, nId -> new UserFlow( ) );
+        GeneratorClass generatorClass = _mapGeneratorClasses.computeIfAbsent( strGeneratorClass, GeneratorClass::new );
+        double dStartTag = Math.max( _dVirtualTime, flow._dLastFinishTag );
+        flow._dLastFinishTag = dStartTag + generatorClass._nCost;
+        flow._nWaiting++;
+        _listWaitingJobs.add( new ScheduledJob( nIdUser, generatorClass, nPriority, dStartTag, _lSequence++, job ) );
+    }
+
+    /**
+     * Hands the next jobs to the free workers
+     */
+    private void dispatch( )
+    {
+        List<ScheduledJob> listJobs = new ArrayList<>( );
+        synchronized( this )
+        {
+            long lNow = System.currentTimeMillis( );
+            ScheduledJob next;
+            while ( _nRunning < _nWorkers && ( next = selectNext( lNow ) ) != null )
+            {
+                _listWaitingJobs.remove( next );
+                _dVirtualTime = Math.max( _dVirtualTime, next._dStartTag );
+                UserFlow flow = _mapFlows.get( next._nIdUser );
+                flow._nWaiting--;
+                flow._nRunning++;
+                next._generatorClass._nRunning++;
+                _nRunning++;
+                listJobs.add( next );
+            }
+        }
+        for ( ScheduledJob job : listJobs )
+        {
+            _executor.execute( ( ) -> run( job ) );
+        }
+    }
+
+    /**
+     * Selects the next job to run : the job with the highest priority, then the lowest virtual start time, among the jobs whose limits are not reached
+     * 
+     * @param lNow
+     *            the current time
+     * @return the job, or null if no waiting job can run
+     */
+    private ScheduledJob selectNext( long lNow )
+    {
+        boolean bReservedOnly = _nWorkers - _nRunning <= _nReservedWorkers;
+        ScheduledJob selected = null;
+        int nSelectedPriority = 0;
+        for ( ScheduledJob job : _listWaitingJobs )
+        {
+            if ( !canRun( job, bReservedOnly ) )
+            {
+                continue;
+            }
+            int nPriority = getEffectivePriority( job, lNow );
+            if ( selected == null || nPriority > nSelectedPriority
+                    || ( nPriority == nSelectedPriority && ( job._dStartTag < selected._dStartTag
+                            || ( job._dStartTag == selected._dStartTag && job._lSequence < selected._lSequence ) ) ) )
+            {
+                selected = job;
+                nSelectedPriority = nPriority;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @param job
+     *            a waiting job
+     * @param bReservedOnly
+     *            true if only the reserved workers are free
+     * @return true if the limits of the job are not reached
+     */
+    private boolean canRun( ScheduledJob job, boolean bReservedOnly )
+    {
+        if ( bReservedOnly && job._nPriority <= IFileGenerator.PRIORITY_NORMAL )
+        {
+            return false;
+        }
+        if ( job._generatorClass._nMaxConcurrent > 0 && job._generatorClass._nRunning >= job._generatorClass._nMaxConcurrent )
+        {
+            return false;
+        }
+        return _nMaxConcurrentPerUser <= 0 || _mapFlows.get( job._nIdUser )._nRunning < _nMaxConcurrentPerUser;
+    }
+
+    /**
+     * @param job
+     *            a waiting job
+     * @param lNow
+     *            the current time
+     * @return the priority of the job, raised by one level for each aging interval spent waiting
+     */
+    private int getEffectivePriority( ScheduledJob job, long lNow )
+    {
+        if ( _lPriorityAging <= 0 )
+        {
+            return job._nPriority;
+        }
+        return job._nPriority + (int) Math.min( Integer.MAX_VALUE / 2, ( lNow - job._lSubmitTime ) / _lPriorityAging );
+    }
+
+    /**
+     * Runs a job on a worker, then releases its slot and schedules the next jobs
+     * 
+     * @param job
+     *            the job
+     */
+    private void run( ScheduledJob job )
+    {
+        try
+        {
+            job._job.run( );
+        }
+        catch( RuntimeException e )
+        {
+            AppLogService.error( "Unexpected error during file generation", e );
+        }
+        finally
+        {
+            synchronized( this )
+            {
+                _nRunning--;
+                job._generatorClass._nRunning--;
+                UserFlow flow = _mapFlows.get( job._nIdUser );
+                flow._nRunning--;
+                if ( flow._nRunning == 0 && flow._nWaiting == 0 )
+                {
+                    // An idle user keeps neither credit nor debt
+                    _mapFlows.remove( job._nIdUser );
+                }
+            }
+            dispatch( );
+        }
+    }
+
+    /**
+     * @return the number of jobs waiting for a worker
+     */
+    public synchronized int getQueueSize( )
+    {
+        return _listWaitingJobs.size( );
+    }
+
+    /**
+     * @return the number of workers currently running a job
+     */
+    public synchronized int getActiveCount( )
+    {
+        return _nRunning;
+    }
+
+    /**
+     * @return the number of jobs that can be submitted without waiting for a worker
+     */
+    public synchronized int getIdleCapacity( )
+    {
+        return Math.max( 0, _nWorkers - _nRunning - _listWaitingJobs.size( ) );
+    }
+
+    /**
+     * Get the number of jobs waiting or running for each user
+     * 
+     * @return the number of jobs by user id
+     */
+    public synchronized Map<Integer, Integer> getJobCountByUser( )
+    {
+        Map<Integer, Integer> mapCounts = new HashMap<>( );
+        for ( Map.Entry<Integer, UserFlow> entry : _mapFlows.entrySet( ) )
+        {
+            mapCounts.put( entry.getKey( ), entry.getValue( )._nWaiting + entry.getValue( )._nRunning );
+        }
+        return mapCounts;
+    }
+
+    /**
+     * Creates the thread factory of the workers : virtual threads when enabled and available, daemon platform threads otherwise.
+     * 
+     * @return the thread factory
+     */
+    private static ThreadFactory createThreadFactory( )
+    {
+        if ( AppPropertiesService.getPropertyBoolean( PROPERTY_VIRTUAL_THREADS, false ) )
+        {
+            try
+            {
+                // Resolved by reflection so that the plugin still runs on JVMs without virtual threads
+                Class<?> builderClass = Class.forName( "java.lang.Thread$Builder$OfVirtual" );
+                Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+                builder = builderClass.getMethod( "name", String.class, long.class ).invoke( builder, THREAD_NAME_PREFIX, 0L );
+                return (ThreadFactory) builderClass.getMethod( "factory" ).invoke( builder );
+            }
+            catch( ReflectiveOperationException e )
+            {
+                AppLogService.error( "Virtual threads are not available on this JVM, platform threads will be used for file generation", e );
+            }
+        }
+
+        AtomicInteger counter = new AtomicInteger( );
+        return runnable -> {
+            Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + counter.getAndIncrement( ) );
+            thread.setDaemon( true );
+            return thread;
+        };
+    }
+
+    /**
+     * A job waiting for a worker
+     */
+    private static final class ScheduledJob
+    {
+        private final int _nIdUser;
+        private final GeneratorClass _generatorClass;
+        private final int _nPriority;
+        private final double _dStartTag;
+        private final long _lSequence;
+        private final long _lSubmitTime = System.currentTimeMillis( );
+        private final Runnable _job;
+
+        /**
+         * Constructor.
+         * 
+         * @param nIdUser
+         *            the id of the user
+         * @param generatorClass
+         *            the generator class
+         * @param nPriority
+         *            the priority
+         * @param dStartTag
+         *            the virtual start time
+         * @param lSequence
+         *            the arrival order
+         * @param job
+         *            the job
+         */
+        ScheduledJob( int nIdUser, GeneratorClass generatorClass, int nPriority, double dStartTag, long lSequence, Runnable job )
+        {
+            _nIdUser = nIdUser;
+            _generatorClass = generatorClass;
+            _nPriority = nPriority;
+            _dStartTag = dStartTag;
+            _lSequence = lSequence;
+            _job = job;
+        }
+    }
+
+    /**
+     * Share of the workers of a user
+     */
+    private static final class UserFlow
+    {
+        private double _dLastFinishTag;
+        private int _nWaiting;
+        private int _nRunning;
+    }
+
+    /**
+     * Limit and cost of the generations of a generator class
+     */
+    private static final class GeneratorClass
+    {
+        private final int _nMaxConcurrent;
+        private final int _nCost;
+        private int _nRunning;
+
+        /**
+         * Constructor.
+         * 
+         * @param strGeneratorClass
+         *            the generator class name
+         */
+        GeneratorClass( String strGeneratorClass )
+        {
+            _nMaxConcurrent = AppPropertiesService.getPropertyInt( PROPERTY_MAX_CONCURRENT_PREFIX + strGeneratorClass, 0 );
+            _nCost = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_COST_PREFIX + strGeneratorClass, 1 ) );
+        }
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Metrics of the file generations : time spent in each stage, queue and workers, generated bytes, failures and purges.
+ * <p>
+ * The metrics are recorded in memory and exposed as the MXBean <code>fr.paris.lutece.plugins.filegenerator:type=FileGenerationMetrics</code>, so that
+ * they can be read by any JMX client or exporter.
+ */
+public final class FileGenerationMetrics implements FileGenerationMetricsMXBean
+{
+    /** Update of the temporary files with the result of a generation */
+    public static final String STAGE_PUBLISHING = "publishing";
+    /** Wait for the lock of the stored file references */
+    public static final String STAGE_REFERENCES_LOCK = "references_lock";
+
+    /** Queue of the generations full */
+    public static final String CAUSE_REJECTED = "rejected";
+    /** Error of the generator */
+    public static final String CAUSE_GENERATION = "generation";
+    /** Error of the file store */
+    public static final String CAUSE_STORAGE = "storage";
+    /** Size limit exceeded */
+    public static final String CAUSE_TOO_BIG = "too_big";
+    /** Wall-clock timeout reached */
+    public static final String CAUSE_TIMEOUT = "timeout";
+    /** Cancelled by the user */
+    public static final String CAUSE_CANCELLED = "cancelled";
+    /** Lease on the job taken over by another node of the cluster */
+    public static final String CAUSE_LEASE_LOST = "lease_lost";
+
+    /** Number of generations ended within the recent window */
+    public static final String RECENT_COUNT = "count";
+    /** Bytes stored by the generations ended within the recent window */
+    public static final String RECENT_STORED_BYTES = "stored_bytes";
+    /** Duration of the recent window in minutes */
+    public static final String RECENT_WINDOW = "window_minutes";
+    /** Median latency of the generations ended within the recent window, in milliseconds */
+    public static final String RECENT_P50 = "p50";
+    /** 90th percentile of the latency, in milliseconds */
+    public static final String RECENT_P90 = "p90";
+    /** 99th percentile of the latency, in milliseconds */
+    public static final String RECENT_P99 = "p99";
+    /** Maximum latency, in milliseconds */
+    public static final String RECENT_MAX = "max";
+
+    private static final String PROPERTY_JMX_ENABLED = "temporaryfiles.metrics.jmx.enabled";
+    private static final String PROPERTY_RECENT_SIZE = "temporaryfiles.metrics.recent.size";
+    private static final String PROPERTY_RECENT_WINDOW = "temporaryfiles.metrics.recent.window";
+    private static final int DEFAULT_RECENT_SIZE = 1000;
+    private static final long DEFAULT_RECENT_WINDOW = 60;
+    private static final String OBJECT_NAME = "fr.paris.lutece.plugins.filegenerator:type=FileGenerationMetrics";
+
+    private static final FileGenerationMetrics INSTANCE = new FileGenerationMetrics( );
+
+    private final Map<String, Timer> _mapStages = new ConcurrentHashMap<>( );
+    private final Map<String, LongAdder> _mapFailuresByCause = new ConcurrentHashMap<>( );
+    private final Map<String, LongAdder> _mapFailuresByGenerator = new ConcurrentHashMap<>( );
+    private final LongAdder _generatedFiles = new LongAdder( );
+    private final LongAdder _rawBytes = new LongAdder( );
+    private final LongAdder _storedBytes = new LongAdder( );
+    private final LongAdder _purgeRuns = new LongAdder( );
+    private final LongAdder _purgedFiles = new LongAdder( );
+    private final LongAdder _purgeFailures = new LongAdder( );
+    private final LongAdder _purgesOverBudget = new LongAdder( );
+    private final AtomicLong _lLastPurgeDuration = new AtomicLong( );
+    private final RecentGenerations _recentGenerations;
+
+    /**
+     * Private constructor
+     */
+    private FileGenerationMetrics( )
+    {
+        _recentGenerations = new RecentGenerations( Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_RECENT_SIZE, DEFAULT_RECENT_SIZE ) ) );
+    }
+
+    /**
+     * @return the instance
+     */
+    public static FileGenerationMetrics getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, replacing the metrics of a previous deployment of the webapp
+     */
+    public void register( )
+    {
+        if ( !AppPropertiesService.getPropertyBoolean( PROPERTY_JMX_ENABLED, true ) )
+        {
+            return;
+        }
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+            ObjectName name = new ObjectName( OBJECT_NAME );
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+            server.registerMBean( this, name );
+        }
+        catch( JMException e )
+        {
+            AppLogService.error( "Unable to register the file generation metrics", e );
+        }
+    }
+
+    /**
+     * Records the time spent by a generation in a status
+     * 
+     * @param status
+     *            the status
+     * @param lNanos
+     *            the time in nanoseconds
+     */
+    public void recordStage( TemporaryFileStatus status, long lNanos )
+    {
+        recordStage( getStageName( status ), lNanos );
+    }
+
+    /**
+     * Records the time spent in a stage
+     * 
+     * @param strStage
+     *            the stage
+     * @param lNanos
+     *            the time in nanoseconds
+     */
+    public void recordStage( String strStage, long lNanos )
+    {
+        _mapStages.computeIfAbsent( strStage, s -> new Timer( ) ).record( lNanos );
+    }
+
+    /**
+     * Records a stored generated file
+     * 
+     * @param lRawBytes
+     *            the size of the generated data before compression
+     * @param lStoredBytes
+     *            the size of the stored file
+     */
+    public void recordGeneratedFile( long lRawBytes, long lStoredBytes )
+    {
+        _generatedFiles.increment( );
+        _rawBytes.add( lRawBytes );
+        _storedBytes.add( lStoredBytes );
+    }
+
+    /**
+     * Records the end of a generation, kept for the recent statistics
+     * 
+     * @param lNanos
+     *            the time from the request of the generation to its end, in nanoseconds
+     * @param lStoredBytes
+     *            the size of the stored file, 0 if the generation failed
+     */
+    public void recordCompletion( long lNanos, long lStoredBytes )
+    {
+        _recentGenerations.record( System.currentTimeMillis( ), TimeUnit.NANOSECONDS.toMillis( lNanos ), lStoredBytes );
+    }
+
+    /**
+     * Records a failed generation
+     * 
+     * @param strCause
+     *            the cause, one of the CAUSE_ constants
+     * @param generator
+     *            the generator
+     */
+    public void recordFailure( String strCause, IFileGenerator generator )
+    {
+        _mapFailuresByCause.computeIfAbsent( strCause, s -> new LongAdder( ) ).increment( );
+        _mapFailuresByGenerator.computeIfAbsent( generator.getClass( ).getName( ), s -> new LongAdder( ) ).increment( );
+    }
+
+    /**
+     * Records a run of the purge daemon
+     * 
+     * @param nPurged
+     *            the number of files purged
+     * @param nFailed
+     *            the number of files the purge failed to remove
+     * @param lDuration
+     *            the duration of the run in milliseconds
+     * @param bBudgetReached
+     *            true if the run was stopped by its budget
+     */
+    public void recordPurge( int nPurged, int nFailed, long lDuration, boolean bBudgetReached )
+    {
+        _purgeRuns.increment( );
+        _purgedFiles.add( nPurged );
+        _purgeFailures.add( nFailed );
+        _lLastPurgeDuration.set( lDuration );
+        if ( bBudgetReached )
+        {
+            _purgesOverBudget.increment( );
+        }
+    }
+
+    /**
+     * Get the name of the stage matching a status
+     * 
+     * @param status
+     *            the status
+     * @return the name of the stage
+     */
+    public static String getStageName( TemporaryFileStatus status )
+    {
+        return status.name( ).toLowerCase( );
+    }
+
+    @Override
+    public int getQueueSize( )
+    {
+        return TemporaryFileGeneratorService.getInstance( ).getExecutor( ).getQueueSize( );
+    }
+
+    @Override
+    public int getActiveJobs( )
+    {
+        return TemporaryFileGeneratorService.getInstance( ).getExecutor( ).getActiveCount( );
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts( )
+    {
+        return toMap( _mapStages, timer -> timer._count.sum( ) );
+    }
+
+    @Override
+    public Map<String, Long> getStageTotalTimes( )
+    {
+        return toMap( _mapStages, timer -> TimeUnit.NANOSECONDS.toMillis( timer._totalNanos.sum( ) ) );
+    }
+
+    @Override
+    public Map<String, Long> getStageMaxTimes( )
+    {
+        return toMap( _mapStages, timer -> TimeUnit.NANOSECONDS.toMillis( timer._maxNanos.get( ) ) );
+    }
+
+    @Override
+    public long getGeneratedFiles( )
+    {
+        return _generatedFiles.sum( );
+    }
+
+    @Override
+    public long getRawBytes( )
+    {
+        return _rawBytes.sum( );
+    }
+
+    @Override
+    public long getStoredBytes( )
+    {
+        return _storedBytes.sum( );
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByCause( )
+    {
+        return toMap( _mapFailuresByCause, LongAdder::sum );
+    }
+
+    @Override
+    public Map<String, Long> getFailuresByGenerator( )
+    {
+        return toMap( _mapFailuresByGenerator, LongAdder::sum );
+    }
+
+    @Override
+    public Map<String, Long> getRecentStatistics( )
+    {
+        long lWindow = AppPropertiesService.getPropertyLong( PROPERTY_RECENT_WINDOW, DEFAULT_RECENT_WINDOW );
+        return _recentGenerations.getStatistics( System.currentTimeMillis( ) - TimeUnit.MINUTES.toMillis( lWindow ), lWindow );
+    }
+
+    @Override
+    public long getPurgeRuns( )
+    {
+        return _purgeRuns.sum( );
+    }
+
+    @Override
+    public long getPurgedFiles( )
+    {
+        return _purgedFiles.sum( );
+    }
+
+    @Override
+    public long getPurgeFailures( )
+    {
+        return _purgeFailures.sum( );
+    }
+
+    @Override
+    public long getLastPurgeDuration( )
+    {
+        return _lLastPurgeDuration.get( );
+    }
+
+    @Override
+    public long getPurgesOverBudget( )
+    {
+        return _purgesOverBudget.sum( );
+    }
+
+    @Override
+    public void reset( )
+    {
+        _mapStages.clear( );
+        _mapFailuresByCause.clear( );
+        _mapFailuresByGenerator.clear( );
+        _generatedFiles.reset( );
+        _rawBytes.reset( );
+        _storedBytes.reset( );
+        _purgeRuns.reset( );
+        _purgedFiles.reset( );
+        _purgeFailures.reset( );
+        _purgesOverBudget.reset( );
+        _lLastPurgeDuration.set( 0 );
+        _recentGenerations.clear( );
+    }
+
+    /**
+     * Copies a map of metrics, sorted by key
+     * 
+     * @param map
+     *            the metrics
+     * @param value
+     *            the value to read from each metric
+     * @return the copy
+     */
+    private static <T> Map<String, Long> toMap( Map<String, T> map, Function<T, Long> value )
+    {
+        Map<String, Long> mapValues = new TreeMap<>( );
+        for ( Map.Entry<String, T> entry : map.entrySet( ) )
+        {
+            mapValues.put( entry.getKey( ), value.apply( entry.getValue( ) ) );
+        }
+        return mapValues;
+    }
+
+    /**
+     * Count, total and maximum of durations
+     */
+    private static final class Timer
+    {
+        private final LongAdder _count = new LongAdder( );
+        private final LongAdder _totalNanos = new LongAdder( );
+        private final LongAccumulator _maxNanos = new LongAccumulator( Math::max, 0 );
+
+        /**
+         * Records a duration
+         * 
+         * @param lNanos
+         *            the duration in nanoseconds
+         */
+        void record( long lNanos )
+        {
+            _count.increment( );
+            _totalNanos.add( lNanos );
+            _maxNanos.accumulate( lNanos );
+        }
+    }
+
+    /**
+     * Ring buffer of the last ended generations. The statistics are computed from a copy of the buffer, only when they are read.
+     */
+    private static final class RecentGenerations
+    {
+        private final long [ ] _endTimes;
+        private final long [ ] _latencies;
+        private final long [ ] _storedBytes;
+        private int _nNext;
+        private int _nSize;
+
+        /**
+         * Constructor
+         * 
+         * @param nCapacity
+         *            the number of generations kept
+         */
+        RecentGenerations( int nCapacity )
+        {
+            _endTimes = new long [ nCapacity];
+            _latencies = new long [ nCapacity];
+            _storedBytes = new long [ nCapacity];
+        }
+
+        /**
+         * Records an ended generation, replacing the oldest one when the buffer is full
+         * 
+         * @param lEndTime
+         *            the end time in milliseconds
+         * @param lLatency
+         *            the latency in milliseconds
+         * @param lStoredBytes
+         *            the stored bytes
+         */
+        synchronized void record( long lEndTime, long lLatency, long lStoredBytes )
+        {
+            _endTimes [_nNext] = lEndTime;
+            _latencies [_nNext] = lLatency;
+            _storedBytes [_nNext] = lStoredBytes;
+            _nNext = ( _nNext + 1 ) % _endTimes.length;
+            _nSize = Math.min( _nSize + 1, _endTimes.length );
+        }
+
+        /**
+         * Empties the buffer
+         */
+        synchronized void clear( )
+        {
+            _nNext = 0;
+            _nSize = 0;
+        }
+
+        /**
+         * Computes the statistics of the generations ended since a given time
+         * 
+         * @param lSince
+         *            the start of the window in milliseconds
+         * @param lWindow
+         *            the duration of the window in minutes, returned with the statistics
+         * @return the statistics, by RECENT_ key
+         */
+        Map<String, Long> getStatistics( long lSince, long lWindow )
+        {
+            long [ ] latencies;
+            long lStoredBytes = 0;
+            int nCount = 0;
+            synchronized( this )
+            {
+                latencies = new long [ _nSize];
+                for ( int i = 0; i < _nSize; i++ )
+                {
+                    if ( _endTimes [i] >= lSince )
+                    {
+                        latencies [nCount++] = _latencies [i];
+                        lStoredBytes += _storedBytes [i];
+                    }
+                }
+            }
+            Arrays.sort( latencies, 0, nCount );
+
+            Map<String, Long> mapStatistics = new TreeMap<>( );
+            mapStatistics.put( RECENT_WINDOW, lWindow );
+            mapStatistics.put( RECENT_COUNT, (long) nCount );
+            mapStatistics.put( RECENT_STORED_BYTES, lStoredBytes );
+            mapStatistics.put( RECENT_P50, percentile( latencies, nCount, 50 ) );
+            mapStatistics.put( RECENT_P90, percentile( latencies, nCount, 90 ) );
+            mapStatistics.put( RECENT_P99, percentile( latencies, nCount, 99 ) );
+            mapStatistics.put( RECENT_MAX, nCount > 0 ? latencies [nCount - 1] : 0L );
+            return mapStatistics;
+        }
+
+        /**
+         * Get a percentile of sorted values, by the nearest rank method
+         * 
+         * @param values
+         *            the sorted values
+         * @param nCount
+         *            the number of values
+         * @param nPercentile
+         *            the percentile
+         * @return the value, 0 if there is no value
+         */
+        private static long percentile( long [ ] values, int nCount, int nPercentile )
+        {
+            if ( nCount == 0 )
+            {
+                return 0;
+            }
+            int nRank = (int) Math.ceil( nPercentile / 100.0 * nCount );
+            return values [Math.max( 0, nRank - 1 )];
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.util.Map;
+
+/**
+ * JMX view of the file generation metrics. The maps are exposed as tabular data.
+ */
+public interface FileGenerationMetricsMXBean
+{
+    /**
+     * @return the number of generations waiting for a worker
+     */
+    int getQueueSize( );
+
+    /**
+     * @return the number of generations being run
+     */
+    int getActiveJobs( );
+
+    /**
+     * @return the number of times each stage was run, by stage
+     */
+    Map<String, Long> getStageCounts( );
+
+    /**
+     * @return the total time spent in each stage in milliseconds, by stage
+     */
+    Map<String, Long> getStageTotalTimes( );
+
+    /**
+     * @return the longest time spent in each stage in milliseconds, by stage
+     */
+    Map<String, Long> getStageMaxTimes( );
+
+    /**
+     * @return the number of generated files stored
+     */
+    long getGeneratedFiles( );
+
+    /**
+     * @return the number of bytes produced by the generators, before compression
+     */
+    long getRawBytes( );
+
+    /**
+     * @return the number of bytes sent to the file store
+     */
+    long getStoredBytes( );
+
+    /**
+     * @return the number of failed generations, by cause
+     */
+    Map<String, Long> getFailuresByCause( );
+
+    /**
+     * @return the number of failed generations, by generator class
+     */
+    Map<String, Long> getFailuresByGenerator( );
+
+    /**
+     * @return the number, stored bytes and latency percentiles of the generations ended within the recent window
+     */
+    Map<String, Long> getRecentStatistics( );
+
+    /**
+     * @return the number of runs of the purge daemon
+     */
+    long getPurgeRuns( );
+
+    /**
+     * @return the number of expired files purged
+     */
+    long getPurgedFiles( );
+
+    /**
+     * @return the number of expired files the purge failed to remove
+     */
+    long getPurgeFailures( );
+
+    /**
+     * @return the duration of the last purge in milliseconds
+     */
+    long getLastPurgeDuration( );
+
+    /**
+     * @return the number of purges stopped by their budget
+     */
+    long getPurgesOverBudget( );
+
+    /**
+     * Resets the counters and timers
+     */
+    void reset( );
+}
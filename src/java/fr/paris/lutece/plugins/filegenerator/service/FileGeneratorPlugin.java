@@ -46,6 +46,15 @@ public class FileGeneratorPlugin extends PluginDefaultImplementation implements
     /** The Constant PLUGIN_NAME. */
     public static final String PLUGIN_NAME = "filegenerator";
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void init( )
+    {
+        FileGenerationMetrics.getInstance( ).register( );
+    }
+
     /**
      * Return the plugin
      *
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+
+/**
+ * Change of the status or of the progress of a temporary file, pushed to its user
+ */
+public final class GenerationEvent
+{
+    private final long _lSequence;
+    private final long _lTime;
+    private final int _nIdFile;
+    private final TemporaryFileStatus _status;
+    private final int _nProgress;
+
+    /**
+     * Constructor.
+     * 
+     * @param lSequence
+     *            the sequence number of the event, increasing across all the events of the instance
+     * @param nIdFile
+     *            the id of the temporary file
+     * @param status
+     *            the status of the file
+     * @param nProgress
+     *            the progress of the generation, in percent
+     */
+    GenerationEvent( long lSequence, int nIdFile, TemporaryFileStatus status, int nProgress )
+    {
+        _lSequence = lSequence;
+        _lTime = System.currentTimeMillis( );
+        _nIdFile = nIdFile;
+        _status = status;
+        _nProgress = nProgress;
+    }
+
+    /**
+     * @return the sequence number of the event, increasing across all the events of the instance
+     */
+    public long getSequence( )
+    {
+        return _lSequence;
+    }
+
+    /**
+     * @return the time of the event, in milliseconds
+     */
+    public long getTime( )
+    {
+        return _lTime;
+    }
+
+    /**
+     * @return the id of the temporary file
+     */
+    public int getIdFile( )
+    {
+        return _nIdFile;
+    }
+
+    /**
+     * @return the status of the file
+     */
+    public TemporaryFileStatus getStatus( )
+    {
+        return _status;
+    }
+
+    /**
+     * @return the progress of the generation, in percent
+     */
+    public int getProgress( )
+    {
+        return _nProgress;
+    }
+}
@@ -0,0 +1,586 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * In-memory feed of the changes of the temporary files, per user, so that the users waiting for their files are notified without querying the database.
+ * <p>
+ * Each event gets a sequence number, increasing across all the users : a client reads the current cursor with the page showing the files, then waits for
+ * the events following it. Only the latest event of a file is kept, and the events are kept for a limited time and in limited number : a client whose
+ * cursor refers to dropped events is told to reload the files.
+ * <p>
+ * A client waits either by holding its thread, up to a max number of clients, or by registering a {@link Waiter} called back by the thread publishing the
+ * next event, which holds no thread.
+ * <p>
+ * The events are those of the generations run by this instance only : a generation queued in the cluster and run by another node notifies the clients of
+ * that node, not those of the node which received the request. Its clients see its end when they reload the files.
+ */
+public final class GenerationEventBus
+{
+    private static final String PROPERTY_RETENTION = "temporaryfiles.events.retention";
+    private static final String PROPERTY_MAX_EVENTS = "temporaryfiles.events.maxEventsPerUser";
+    private static final String PROPERTY_MAX_WAITERS = "temporaryfiles.events.maxWaiters";
+    private static final long DEFAULT_RETENTION = 300;
+    private static final int DEFAULT_MAX_EVENTS = 100;
+    private static final int DEFAULT_MAX_WAITERS = 50;
+
+    private static final GenerationEventBus INSTANCE = new GenerationEventBus( );
+
+    private final long _lRetention;
+    private final int _nMaxEvents;
+    private final int _nMaxWaiters;
+    private final Map<Integer, UserChannel> _mapChannels = new ConcurrentHashMap<>( );
+    private final AtomicLong _sequence = new AtomicLong( );
+    private final AtomicInteger _nWaiters = new AtomicInteger( );
+    private final AtomicInteger _nBlockingWaiters = new AtomicInteger( );
+    private final AtomicLong _lastSweep = new AtomicLong( System.currentTimeMillis( ) );
+    private volatile long _lSweepSequence;
+
+    /**
+     * Constructor. The bus is configured from the plugin properties.
+     */
+    private GenerationEventBus( )
+    {
+        this( AppPropertiesService.getPropertyLong( PROPERTY_RETENTION, DEFAULT_RETENTION ) * 1000,
+                AppPropertiesService.getPropertyInt( PROPERTY_MAX_EVENTS, DEFAULT_MAX_EVENTS ),
+                AppPropertiesService.getPropertyInt( PROPERTY_MAX_WAITERS, DEFAULT_MAX_WAITERS ) );
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param lRetention
+     *            the time the events are kept, in milliseconds
+     * @param nMaxEvents
+     *            the max number of events kept per user
+     * @param nMaxWaiters
+     *            the max number of clients holding their thread while waiting, at the same time
+     */
+    GenerationEventBus( long lRetention, int nMaxEvents, int nMaxWaiters )
+    {
+        _lRetention = Math.max( 1, lRetention );
+        _nMaxEvents = Math.max( 1, nMaxEvents );
+        _nMaxWaiters = Math.max( 0, nMaxWaiters );
+    }
+
+    /**
+     * @return the instance
+     */
+    public static GenerationEventBus getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the time the events are kept, in milliseconds
+     */
+    public long getRetention( )
+    {
+        return _lRetention;
+    }
+
+    /**
+     * Get the current cursor. It must be read before the files are read, so that no change is missed in between.
+     * 
+     * @return the sequence number of the last event
+     */
+    public long getCursor( )
+    {
+        return _sequence.get( );
+    }
+
+    /**
+     * Publishes a change of a temporary file, and wakes up the clients of its user
+     * 
+     * @param nIdUser
+     *            the id of the user of the file
+     * @param nIdFile
+     *            the id of the temporary file
+     * @param status
+     *            the status of the file
+     * @param nProgress
+     *            the progress of the generation, in percent
+     */
+    public void publish( int nIdUser, int nIdFile, TemporaryFileStatus status, int nProgress )
+    {
+        long lNow = System.currentTimeMillis( );
+        UserChannel channel = _mapChannels.computeIfAbsent( nIdUser, nId -> new UserChannel( ) );
+        List<Waiter> listWaiters = Collections.emptyList( );
+        List<Poll> listPolls = new ArrayList<>( );
+        synchronized( channel )
+        {
+            channel.add( new GenerationEvent( _sequence.incrementAndGet( ), nIdFile, status, nProgress ), lNow );
+            channel.notifyAll( );
+            if ( !channel._waiters.isEmpty( ) )
+            {
+                listWaiters = new ArrayList<>( channel._waiters );
+                for ( Waiter waiter : listWaiters )
+                {
+                    listPolls.add( channel.getPoll( waiter._lSince ) );
+                }
+                channel._waiters.clear( );
+                channel._nWaiters -= listWaiters.size( );
+                _nWaiters.addAndGet( -listWaiters.size( ) );
+            }
+        }
+        // The waiters are called back outside of the monitor of the channel
+        for ( int i = 0; i < listWaiters.size( ); i++ )
+        {
+            listWaiters.get( i ).fire( listPolls.get( i ) );
+        }
+        sweepIfNeeded( lNow );
+    }
+
+    /**
+     * Get the events of a user following a cursor, waiting for them if there is none yet
+     * 
+     * @param nIdUser
+     *            the id of the user
+     * @param lSince
+     *            the cursor : the sequence number of the last event received
+     * @param lTimeout
+     *            the max time to wait, in milliseconds
+     * @return the events
+     */
+    public Poll poll( int nIdUser, long lSince, long lTimeout )
+    {
+        long lNow = System.currentTimeMillis( );
+        if ( lSince > _sequence.get( ) )
+        {
+            // Cursor of a previous run of the instance
+            return new Poll( _sequence.get( ), Collections.emptyList( ), true, false );
+        }
+        boolean [ ] created = new boolean [ 1];
+        UserChannel channel = _mapChannels.computeIfAbsent( nIdUser, nId -> {
+            created [0] = true;
+            return new UserChannel( );
+        } );
+        try
+        {
+            synchronized( channel )
+            {
+                channel._lLastActivity = lNow;
+                if ( lSince < channel._lDroppedSequence || ( created [0] && lSince < _lSweepSequence ) )
+                {
+                    return new Poll( _sequence.get( ), Collections.emptyList( ), true, false );
+                }
+                List<GenerationEvent> listEvents = channel.getEvents( lSince );
+                if ( !listEvents.isEmpty( ) || lTimeout <= 0 )
+                {
+                    return new Poll( getCursor( lSince, listEvents ), listEvents, false, false );
+                }
+                if ( _nBlockingWaiters.incrementAndGet( ) > _nMaxWaiters )
+                {
+                    _nBlockingWaiters.decrementAndGet( );
+                    return new Poll( lSince, listEvents, false, true );
+                }
+                _nWaiters.incrementAndGet( );
+                channel._nWaiters++;
+                try
+                {
+                    long lDeadline = lNow + lTimeout;
+                    long lRemaining = lTimeout;
+                    while ( listEvents.isEmpty( ) && lRemaining > 0 )
+                    {
+                        channel.wait( lRemaining );
+                        listEvents = channel.getEvents( lSince );
+                        lRemaining = lDeadline - System.currentTimeMillis( );
+                    }
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread( ).interrupt( );
+                }
+                finally
+                {
+                    channel._nWaiters--;
+                    channel._lLastActivity = System.currentTimeMillis( );
+                    _nWaiters.decrementAndGet( );
+                    _nBlockingWaiters.decrementAndGet( );
+                }
+                return channel.getPoll( lSince );
+            }
+        }
+        finally
+        {
+            sweepIfNeeded( lNow );
+        }
+    }
+
+    /**
+     * Get the events of a user following a cursor, without holding the calling thread : the waiter is called back at once if there are events, else by the
+     * thread publishing the next event of the user. The owner of the waiter must {@link Waiter#expire() expire} it once its timeout is reached.
+     * 
+     * @param nIdUser
+     *            the id of the user
+     * @param waiter
+     *            the waiter, called back once
+     */
+    public void poll( int nIdUser, Waiter waiter )
+    {
+        long lNow = System.currentTimeMillis( );
+        long lSince = waiter._lSince;
+        if ( lSince > _sequence.get( ) )
+        {
+            // Cursor of a previous run of the instance
+            waiter.fire( new Poll( _sequence.get( ), Collections.emptyList( ), true, false ) );
+            return;
+        }
+        boolean [ ] created = new boolean [ 1];
+        UserChannel channel = _mapChannels.computeIfAbsent( nIdUser, nId -> {
+            created [0] = true;
+            return new UserChannel( );
+        } );
+        Poll poll = null;
+        synchronized( channel )
+        {
+            channel._lLastActivity = lNow;
+            if ( lSince < channel._lDroppedSequence || ( created [0] && lSince < _lSweepSequence ) )
+            {
+                poll = new Poll( _sequence.get( ), Collections.emptyList( ), true, false );
+            }
+            else
+            {
+                List<GenerationEvent> listEvents = channel.getEvents( lSince );
+                if ( !listEvents.isEmpty( ) )
+                {
+                    poll = new Poll( getCursor( lSince, listEvents ), listEvents, false, false );
+                }
+                else
+                {
+                    waiter._unregister = ( ) -> unregister( channel, waiter );
+                    channel._waiters.add( waiter );
+                    channel._nWaiters++;
+                    _nWaiters.incrementAndGet( );
+                }
+            }
+        }
+        if ( poll != null )
+        {
+            waiter.fire( poll );
+        }
+        sweepIfNeeded( lNow );
+    }
+
+    /**
+     * Removes a waiter from the channel of its user, if it was not called back yet
+     * 
+     * @param channel
+     *            the channel
+     * @param waiter
+     *            the waiter
+     */
+    private void unregister( UserChannel channel, Waiter waiter )
+    {
+        synchronized( channel )
+        {
+            if ( channel._waiters.remove( waiter ) )
+            {
+                channel._nWaiters--;
+                channel._lLastActivity = System.currentTimeMillis( );
+                _nWaiters.decrementAndGet( );
+            }
+        }
+    }
+
+    /**
+     * @return the number of clients waiting for events
+     */
+    public int getWaiterCount( )
+    {
+        return _nWaiters.get( );
+    }
+
+    /**
+     * @param lSince
+     *            the cursor of the client
+     * @param listEvents
+     *            the events returned to the client
+     * @return the new cursor of the client
+     */
+    private static long getCursor( long lSince, List<GenerationEvent> listEvents )
+    {
+        return listEvents.isEmpty( ) ? lSince : listEvents.get( listEvents.size( ) - 1 ).getSequence( );
+    }
+
+    /**
+     * Removes the channels of the users who are neither waiting nor notified since the retention time, at most once per retention time
+     * 
+     * @param lNow
+     *            the current time
+     */
+    private void sweepIfNeeded( long lNow )
+    {
+        long lLastSweep = _lastSweep.get( );
+        if ( lNow - lLastSweep < _lRetention || !_lastSweep.compareAndSet( lLastSweep, lNow ) )
+        {
+            return;
+        }
+        long lSequence = _sequence.get( );
+        boolean bRemoved = false;
+        for ( Iterator<UserChannel> iterator = _mapChannels.values( ).iterator( ); iterator.hasNext( ); )
+        {
+            UserChannel channel = iterator.next( );
+            synchronized( channel )
+            {
+                channel.prune( lNow );
+                if ( channel._nWaiters == 0 && channel._events.isEmpty( ) && lNow - channel._lLastActivity >= _lRetention )
+                {
+                    iterator.remove( );
+                    bRemoved = true;
+                }
+            }
+        }
+        if ( bRemoved )
+        {
+            // A client of a removed user may have missed events : its next poll reloads the files
+            _lSweepSequence = lSequence;
+        }
+    }
+
+    /**
+     * Events of a user, guarded by its monitor, which the waiting clients wait on
+     */
+    private final class UserChannel
+    {
+        private final Deque<GenerationEvent> _events = new ArrayDeque<>( );
+        private final List<Waiter> _waiters = new ArrayList<>( );
+        private long _lDroppedSequence;
+        private int _nWaiters;
+        private long _lLastActivity = System.currentTimeMillis( );
+
+        /**
+         * Adds an event, replacing the previous event of the same file
+         * 
+         * @param event
+         *            the event
+         * @param lNow
+         *            the current time
+         */
+        private void add( GenerationEvent event, long lNow )
+        {
+            _events.removeIf( previous -> previous.getIdFile( ) == event.getIdFile( ) );
+            _events.addLast( event );
+            _lLastActivity = lNow;
+            prune( lNow );
+        }
+
+        /**
+         * Drops the events beyond the max number or older than the retention time
+         * 
+         * @param lNow
+         *            the current time
+         */
+        private void prune( long lNow )
+        {
+            while ( !_events.isEmpty( ) && ( _events.size( ) > _nMaxEvents || lNow - _events.peekFirst( ).getTime( ) > _lRetention ) )
+            {
+                _lDroppedSequence = Math.max( _lDroppedSequence, _events.removeFirst( ).getSequence( ) );
+            }
+        }
+
+        /**
+         * @param lSince
+         *            a cursor
+         * @return the result of a poll from the cursor : the events following it, or a reset if some of them were dropped
+         */
+        private Poll getPoll( long lSince )
+        {
+            if ( lSince < _lDroppedSequence )
+            {
+                return new Poll( _sequence.get( ), Collections.emptyList( ), true, false );
+            }
+            List<GenerationEvent> listEvents = getEvents( lSince );
+            return new Poll( getCursor( lSince, listEvents ), listEvents, false, false );
+        }
+
+        /**
+         * @param lSince
+         *            a cursor
+         * @return the events following the cursor
+         */
+        private List<GenerationEvent> getEvents( long lSince )
+        {
+            List<GenerationEvent> listEvents = new ArrayList<>( );
+            for ( GenerationEvent event : _events )
+            {
+                if ( event.getSequence( ) > lSince )
+                {
+                    listEvents.add( event );
+                }
+            }
+            return listEvents;
+        }
+    }
+
+    /**
+     * Client waiting for events without holding a thread, called back once : with the events, or with no event when it expires
+     */
+    public static final class Waiter
+    {
+        private final long _lSince;
+        private final Consumer<Poll> _callback;
+        private final AtomicBoolean _bCalled = new AtomicBoolean( );
+        // Removal of the waiter from the channel it waits on
+        private volatile Runnable _unregister;
+
+        /**
+         * Constructor.
+         * 
+         * @param lSince
+         *            the cursor : the sequence number of the last event received
+         * @param callback
+         *            the callback, given the result of the poll
+         */
+        public Waiter( long lSince, Consumer<Poll> callback )
+        {
+            _lSince = lSince;
+            _callback = callback;
+        }
+
+        /**
+         * Calls back the waiter with no event, if it was not called back yet : the client polls again from the same cursor
+         */
+        public void expire( )
+        {
+            cancel( );
+            fire( new Poll( _lSince, Collections.emptyList( ), false, false ) );
+        }
+
+        /**
+         * Stops waiting, without calling back the waiter : the client is gone
+         */
+        public void cancel( )
+        {
+            Runnable unregister = _unregister;
+            if ( unregister != null )
+            {
+                unregister.run( );
+            }
+        }
+
+        /**
+         * Calls back the waiter, once
+         * 
+         * @param poll
+         *            the result of the poll
+         */
+        private void fire( Poll poll )
+        {
+            if ( _bCalled.compareAndSet( false, true ) )
+            {
+                _callback.accept( poll );
+            }
+        }
+    }
+
+    /**
+     * Result of a poll
+     */
+    public static final class Poll
+    {
+        private final long _lCursor;
+        private final List<GenerationEvent> _listEvents;
+        private final boolean _bReset;
+        private final boolean _bBusy;
+
+        /**
+         * Constructor.
+         * 
+         * @param lCursor
+         *            the new cursor of the client
+         * @param listEvents
+         *            the events
+         * @param bReset
+         *            true if events were missed
+         * @param bBusy
+         *            true if too many clients are waiting
+         */
+        Poll( long lCursor, List<GenerationEvent> listEvents, boolean bReset, boolean bBusy )
+        {
+            _lCursor = lCursor;
+            _listEvents = listEvents;
+            _bReset = bReset;
+            _bBusy = bBusy;
+        }
+
+        /**
+         * @return the new cursor of the client
+         */
+        public long getCursor( )
+        {
+            return _lCursor;
+        }
+
+        /**
+         * @return the events following the cursor given by the client, in order
+         */
+        public List<GenerationEvent> getEvents( )
+        {
+            return _listEvents;
+        }
+
+        /**
+         * @return true if events were missed by the client, which must reload the files
+         */
+        public boolean isReset( )
+        {
+            return _bReset;
+        }
+
+        /**
+         * @return true if too many clients are waiting : the client got no event and must wait before polling again
+         */
+        public boolean isBusy( )
+        {
+            return _bBusy;
+        }
+    }
+}
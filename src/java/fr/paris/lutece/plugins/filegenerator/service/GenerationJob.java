@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+
+/**
+ * Handle on a queued or running file generation, addressed by the id of its temporary file.
+ * <p>
+ * Requests for the same generator cache key share the job : the result of the generation is written to the temporary files of all its subscribers.
+ * <p>
+ * Cancelling a job interrupts the thread running it. Generators are expected to stop when their thread is interrupted, or when they get an
+ * {@link java.io.InterruptedIOException}; the output stream given to streaming generators fails on the first write following the cancellation.
+ */
+public final class GenerationJob
+{
+    /**
+     * Reason of a cancellation
+     */
+    public enum CancelReason
+    {
+        /** Cancelled by the user */
+        USER,
+        /** Wall-clock timeout reached */
+        TIMEOUT,
+        /** Lease on the job taken over by another node of the cluster */
+        LEASE_LOST
+    }
+
+    private final int _nIdFile;
+    private final int _nIdUser;
+    private final IFileGenerator _generator;
+    // Id of the user of each temporary file to fill with the result of the job
+    private final Map<Integer, Integer> _mapSubscribers = new LinkedHashMap<>( );
+    private boolean _bClosed;
+    private volatile CancelReason _cancelReason;
+    private Thread _thread;
+    private Future<?> _timeout;
+    private Future<?> _heartbeat;
+    private String _strLeaseToken;
+    private int _nPriority = IFileGenerator.PRIORITY_NORMAL;
+    private final long _lCreationTime = System.currentTimeMillis( );
+    private final long _lCreationNanos = System.nanoTime( );
+    private TemporaryFileStatus _stage = TemporaryFileStatus.QUEUED;
+    private long _lStageStart = _lCreationNanos;
+    private final AtomicLong _producedBytes = new AtomicLong( );
+    private final StringBuilder _sbTrace = new StringBuilder( );
+
+    /**
+     * Constructor.
+     * 
+     * @param nIdFile
+     *            the id of the temporary file
+     * @param nIdUser
+     *            the id of the user requesting the file
+     * @param generator
+     *            the generator
+     */
+    GenerationJob( int nIdFile, int nIdUser, IFileGenerator generator )
+    {
+        _nIdFile = nIdFile;
+        _nIdUser = nIdUser;
+        _generator = generator;
+        _mapSubscribers.put( nIdFile, nIdUser );
+    }
+
+    /**
+     * @return the id of the temporary file
+     */
+    public int getIdFile( )
+    {
+        return _nIdFile;
+    }
+
+    /**
+     * @return the id of the user requesting the file
+     */
+    public int getIdUser( )
+    {
+        return _nIdUser;
+    }
+
+    /**
+     * @return the generator
+     */
+    public IFileGenerator getGenerator( )
+    {
+        return _generator;
+    }
+
+    /**
+     * @return the priority of the job
+     */
+    public int getPriority( )
+    {
+        return _nPriority;
+    }
+
+    /**
+     * @param nPriority
+     *            the priority of the job
+     */
+    void setPriority( int nPriority )
+    {
+        _nPriority = nPriority;
+    }
+
+    /**
+     * @return the token of the lease held on the job in the cluster queue, or null if the job is not distributed
+     */
+    public String getLeaseToken( )
+    {
+        return _strLeaseToken;
+    }
+
+    /**
+     * @param strLeaseToken
+     *            the token of the lease held on the job in the cluster queue
+     */
+    void setLeaseToken( String strLeaseToken )
+    {
+        _strLeaseToken = strLeaseToken;
+    }
+
+    /**
+     * @return the creation time of the job, in milliseconds
+     */
+    public long getCreationTime( )
+    {
+        return _lCreationTime;
+    }
+
+    /**
+     * @return the time elapsed since the creation of the job, in nanoseconds
+     */
+    public long getElapsedNanos( )
+    {
+        return System.nanoTime( ) - _lCreationNanos;
+    }
+
+    /**
+     * @return the current stage of the job, or null if the job has ended
+     */
+    public synchronized TemporaryFileStatus getStage( )
+    {
+        return _stage;
+    }
+
+    /**
+     * @return the number of bytes produced by the generator so far
+     */
+    public long getProducedBytes( )
+    {
+        return _producedBytes.get( );
+    }
+
+    /**
+     * Counts bytes produced by the generator. Called by the threads writing the generated data, several of them for a partitioned generator.
+     * 
+     * @param lBytes
+     *            the number of bytes
+     */
+    void addProducedBytes( long lBytes )
+    {
+        _producedBytes.addAndGet( lBytes );
+    }
+
+    /**
+     * @return the number of temporary files waiting for the result of the job
+     */
+    public synchronized int getSubscriberCount( )
+    {
+        return _mapSubscribers.size( );
+    }
+
+    /**
+     * Adds a temporary file to fill with the result of the job
+     * 
+     * @param nIdFile
+     *            the id of the temporary file
+     * @param nIdUser
+     *            the id of the user of the temporary file
+     * @return false if the job is cancelled or its result is already being written
+     */
+    synchronized boolean subscribe( int nIdFile, int nIdUser )
+    {
+        if ( _bClosed || _cancelReason != null )
+        {
+            return false;
+        }
+        _mapSubscribers.put( nIdFile, nIdUser );
+        return true;
+    }
+
+    /**
+     * Removes a temporary file from the files to fill with the result of the job
+     * 
+     * @param nIdFile
+     *            the id of the temporary file
+     * @return the number of remaining subscribers
+     */
+    synchronized int unsubscribe( int nIdFile )
+    {
+        _mapSubscribers.remove( nIdFile );
+        return _mapSubscribers.size( );
+    }
+
+    /**
+     * @return the ids of the temporary files to fill with the result of the job
+     */
+    public synchronized List<Integer> getIdFiles( )
+    {
+        return new ArrayList<>( _mapSubscribers.keySet( ) );
+    }
+
+    /**
+     * @return the id of the user of each temporary file to fill with the result of the job
+     */
+    public synchronized Map<Integer, Integer> getSubscribers( )
+    {
+        return new LinkedHashMap<>( _mapSubscribers );
+    }
+
+    /**
+     * Closes the job to new subscribers, before its result is written
+     * 
+     * @return the id of the user of each temporary file to fill with the result of the job
+     */
+    synchronized Map<Integer, Integer> close( )
+    {
+        _bClosed = true;
+        return new LinkedHashMap<>( _mapSubscribers );
+    }
+
+    /**
+     * @return true if the job is cancelled
+     */
+    public boolean isCancelled( )
+    {
+        return _cancelReason != null;
+    }
+
+    /**
+     * @return the reason of the cancellation, or null if the job is not cancelled
+     */
+    public CancelReason getCancelReason( )
+    {
+        return _cancelReason;
+    }
+
+    /**
+     * Cancels the job. A running job is interrupted, a queued job will not start. Only the first cancellation is taken into account.
+     * 
+     * @param reason
+     *            the reason of the cancellation
+     */
+    public synchronized void cancel( CancelReason reason )
+    {
+        if ( _cancelReason != null )
+        {
+            return;
+        }
+        _cancelReason = reason;
+        if ( _thread != null )
+        {
+            _thread.interrupt( );
+        }
+    }
+
+    /**
+     * Binds the job to the current thread, which is interrupted on cancellation
+     * 
+     * @return false if the job was cancelled before it started
+     */
+    synchronized boolean attach( )
+    {
+        if ( _cancelReason != null )
+        {
+            return false;
+        }
+        _thread = Thread.currentThread( );
+        return true;
+    }
+
+    /**
+     * @param timeout
+     *            the scheduled timeout of the job
+     */
+    synchronized void setTimeout( Future<?> timeout )
+    {
+        _timeout = timeout;
+    }
+
+    /**
+     * @param heartbeat
+     *            the scheduled renewal of the lease of the job
+     */
+    synchronized void setHeartbeat( Future<?> heartbeat )
+    {
+        _heartbeat = heartbeat;
+    }
+
+    /**
+     * Unbinds the job from the current thread, cancels its timeout and lease renewal, and clears a pending interruption so that the worker can run other jobs.
+     */
+    synchronized void detach( )
+    {
+        _thread = null;
+        if ( _timeout != null )
+        {
+            _timeout.cancel( false );
+        }
+        if ( _heartbeat != null )
+        {
+            _heartbeat.cancel( false );
+        }
+        Thread.interrupted( );
+    }
+
+    /**
+     * Ends the current stage of the job and starts the next one. The time spent in the ended stage is recorded in the metrics and in the trace of the job.
+     * 
+     * @param stage
+     *            the next stage, or null if the job ends
+     */
+    synchronized void enterStage( TemporaryFileStatus stage )
+    {
+        if ( stage == _stage )
+        {
+            return;
+        }
+        long lNow = System.nanoTime( );
+        if ( _stage != null )
+        {
+            long lDuration = lNow - _lStageStart;
+            FileGenerationMetrics.getInstance( ).recordStage( _stage, lDuration );
+            traceStage( FileGenerationMetrics.getStageName( _stage ), lDuration );
+        }
+        _stage = stage;
+        _lStageStart = lNow;
+    }
+
+    /**
+     * Adds the duration of a stage to the trace of the job
+     * 
+     * @param strStage
+     *            the stage
+     * @param lNanos
+     *            the duration in nanoseconds
+     */
+    synchronized void traceStage( String strStage, long lNanos )
+    {
+        if ( _sbTrace.length( ) > 0 )
+        {
+            _sbTrace.append( ", " );
+        }
+        _sbTrace.append( strStage ).append( ' ' ).append( TimeUnit.NANOSECONDS.toMillis( lNanos ) ).append( " ms" );
+    }
+
+    /**
+     * @return the time spent in each stage of the job, for logging
+     */
+    public synchronized String getTrace( )
+    {
+        return _sbTrace.toString( );
+    }
+}
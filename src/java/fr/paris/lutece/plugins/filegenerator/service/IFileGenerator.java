@@ -41,8 +41,16 @@ import java.nio.file.Path;
  */
 public interface IFileGenerator
 {
+    /** Priority of the bulk exports, run when no other job waits */
+    int PRIORITY_BULK = -1;
+    /** Default priority */
+    int PRIORITY_NORMAL = 0;
+    /** Priority of the small exports a user waits for, allowed on the reserved workers */
+    int PRIORITY_INTERACTIVE = 1;
+
     /**
-     * Generate the File.
+     * Generate the File. The generation runs in a thread that is interrupted when it is cancelled or times out : long generations should check
+     * {@link Thread#isInterrupted()} and stop early.
      * 
      * @return
      */
@@ -76,4 +84,60 @@ public interface IFileGenerator
     {
         return false;
     }
+
+    /**
+     * Set the listener to which the generator can report its progress while generating the file.
+     * 
+     * @param listener
+     *            the progress listener
+     */
+    default void setProgressListener( IProgressListener listener )
+    {
+        // Progress not reported by default
+    }
+
+    /**
+     * Get the key identifying the content of the generated file, for example a hash of the generator parameters. Requests with the same key join the
+     * generation in progress, and can reuse a recent file instead of generating it again.
+     * 
+     * @return the cache key, or null to always generate the file
+     */
+    default String getCacheKey( )
+    {
+        return null;
+    }
+
+    /**
+     * Get a watermark of the data the file is generated from, for example the last modification date or a version number. A scheduled export whose
+     * watermark is unchanged since its last run is not generated again.
+     * 
+     * @return the watermark, or null if the changes of the data are not tracked
+     */
+    default String getDataWatermark( )
+    {
+        return null;
+    }
+
+    /**
+     * Tell whether the generations of this generator can be run by any node of a cluster. When the cluster queue is enabled, the generator of such a
+     * generation is serialized to the database and deserialized by the node running it : the generator must be {@link java.io.Serializable}, its classes
+     * must be allowed by the serial filter of the plugin, and it must not depend on the state of the node receiving the request.
+     * 
+     * @return true to allow the generations to run on another node, false to always run them on the node receiving the request
+     */
+    default boolean isDistributable( )
+    {
+        return false;
+    }
+
+    /**
+     * Get the priority of the generation. The waiting generations with the highest priority are run first, the users sharing the workers fairly within a
+     * priority. Only generations with a priority above {@link #PRIORITY_NORMAL} can run on the workers reserved to interactive exports.
+     * 
+     * @return the priority
+     */
+    default int getPriority( )
+    {
+        return PRIORITY_NORMAL;
+    }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.file.FileServiceException;
+import fr.paris.lutece.portal.service.file.IFileStoreServiceProvider;
+
+/**
+ * File store provider able to list its files, so that the files no longer referenced by the plugin can be reclaimed.
+ */
+public interface IListableFileStoreServiceProvider extends IFileStoreServiceProvider
+{
+    /**
+     * Get the keys of the files stored before a date.
+     * 
+     * @param dateLimit
+     *            the date limit of the last modification of the files
+     * @param strAfterKey
+     *            the last key of the previous page, or null for the first page
+     * @param nLimit
+     *            the max number of keys
+     * @return the keys, in ascending order
+     * @throws FileServiceException
+     *             if the store cannot be read
+     */
+    List<String> listKeys( Timestamp dateLimit, String strAfterKey, int nLimit ) throws FileServiceException;
+
+    /**
+     * Delete the files left partially written by interrupted stores.
+     * 
+     * @param dateLimit
+     *            the date limit of the last modification of the files
+     * @param nLimit
+     *            the max number of files to delete
+     * @return the number of files deleted
+     * @throws FileServiceException
+     *             if the store cannot be read
+     */
+    int deleteIncompleteFiles( Timestamp dateLimit, int nLimit ) throws FileServiceException;
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * File Generator whose output is made of independent parts, for example one file per entity type or per date range. The parts are generated concurrently on
+ * the generation workers, and each part is added to the zip as soon as it is complete : the generation lasts about as long as its slowest part.
+ */
+public interface IPartitionedFileGenerator extends IFileGenerator
+{
+    /**
+     * Get the parts of the output. Called once per generation, on the worker running the generation.
+     * 
+     * @return the parts
+     * @throws IOException
+     */
+    List<IFilePart> getParts( ) throws IOException;
+
+    /**
+     * @return true : the parts are always zipped together
+     */
+    @Override
+    default boolean hasMultipleFiles( )
+    {
+        return true;
+    }
+
+    /**
+     * @return true : the parts are always zipped together
+     */
+    @Override
+    default boolean isZippable( )
+    {
+        return true;
+    }
+
+    /**
+     * Generate the parts one after the other in a directory of the working directory of the plugin. Only used by callers expecting files on disk.
+     * 
+     * @return the directory of the generated files
+     */
+    @Override
+    default Path generateFile( ) throws IOException
+    {
+        Path directory = Files.createTempDirectory( TemporaryFileService.getInstance( ).getWorkDirectory( ), "parts-" );
+        for ( IFilePart part : getParts( ) )
+        {
+            try ( OutputStream out = Files.newOutputStream( directory.resolve( part.getFileName( ) ) ) )
+            {
+                part.writeTo( out );
+            }
+        }
+        return directory;
+    }
+}
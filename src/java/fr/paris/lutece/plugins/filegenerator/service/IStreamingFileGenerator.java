@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * File Generator writing its data to a stream. The data is compressed and sent to the file store while it is produced, without being written to the local
+ * disk first.
+ */
+public interface IStreamingFileGenerator extends IFileGenerator
+{
+    /**
+     * Writes the file content. The stream must not be closed by the generator. A {@link java.nio.channels.WritableByteChannel} can be obtained with
+     * {@link java.nio.channels.Channels#newChannel(OutputStream)}.
+     * 
+     * @param out
+     *            the output stream
+     * @throws IOException
+     */
+    void writeTo( OutputStream out ) throws IOException;
+
+    /**
+     * @return the name of the file inside the zip, when the file is zippable
+     */
+    default String getZipEntryName( )
+    {
+        return getFileName( );
+    }
+
+    /**
+     * Generate the File in the working directory of the plugin. Only used by callers expecting a file on disk.
+     * 
+     * @return the generated file
+     */
+    @Override
+    default Path generateFile( ) throws IOException
+    {
+        Path file = TemporaryFileService.getInstance( ).createWorkFile( "stream-", "-" + getZipEntryName( ) );
+        try ( OutputStream out = Files.newOutputStream( file ) )
+        {
+            writeTo( out );
+        }
+        return file;
+    }
+}
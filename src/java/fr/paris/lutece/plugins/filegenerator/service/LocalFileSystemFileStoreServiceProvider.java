@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.portal.business.file.File;
+import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
+import fr.paris.lutece.portal.service.file.FileServiceException;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * File store provider keeping the generated files on the local file system, so that their size is not limited by the database.
+ * <p>
+ * The files are spread in a two-level directory tree derived from their key. A file is first written in a temporary directory of the store, then moved
+ * atomically to its final place once complete: a stored file is never seen partially written. Downloads are transferred straight from the file channel.
+ * <p>
+ * Select it with <code>temporaryfiles.file.provider.service=filegeneratorLocalFileStoreProvider</code>. On a cluster, the store directory must be shared by
+ * all the nodes. The files no longer referenced, and the files left partially written by an interrupted node, are listed for the reconciliation of the
+ * store.
+ */
+public class LocalFileSystemFileStoreServiceProvider implements ILocalFileStoreServiceProvider, IBatchFileStoreServiceProvider, IListableFileStoreServiceProvider
+{
+    private static final long serialVersionUID = -4203587470893214155L;
+
+    private static final String PROVIDER_NAME = "filegeneratorLocalFileStoreProvider";
+    private static final String PROPERTY_DIRECTORY = "temporaryfiles.localFileStore.directory";
+    private static final String DIRECTORY_DEFAULT = "filegenerator-store";
+    private static final String DIRECTORY_TEMP = "tmp";
+    private static final String SUFFIX_TEMP = ".part";
+    private static final Pattern PATTERN_KEY = Pattern.compile( "[0-9a-f]{32}" );
+    private static final Pattern PATTERN_SHARD = Pattern.compile( "[0-9a-f]{2}" );
+    private static final int BUFFER_SIZE = 65536;
+
+    @Override
+    public String getName( )
+    {
+        return PROVIDER_NAME;
+    }
+
+    @Override
+    public boolean isDefault( )
+    {
+        return false;
+    }
+
+    @Override
+    public void delete( String strKey ) throws FileServiceException
+    {
+        Path path = resolve( strKey );
+        if ( path == null )
+        {
+            return;
+        }
+        try
+        {
+            Files.deleteIfExists( path );
+        }
+        catch( IOException e )
+        {
+            throw new FileServiceException( "Unable to delete the stored file " + strKey, e );
+        }
+    }
+
+    @Override
+    public void delete( Collection<String> keys ) throws FileServiceException
+    {
+        for ( String strKey : keys )
+        {
+            delete( strKey );
+        }
+    }
+
+    @Override
+    public File getFile( String strKey ) throws FileServiceException
+    {
+        File file = getFileMetaData( strKey );
+        if ( file == null )
+        {
+            return null;
+        }
+        try
+        {
+            PhysicalFile physicalFile = new PhysicalFile( );
+            physicalFile.setValue( Files.readAllBytes( resolve( strKey ) ) );
+            file.setPhysicalFile( physicalFile );
+            return file;
+        }
+        catch( IOException e )
+        {
+            throw new FileServiceException( "Unable to read the stored file " + strKey, e );
+        }
+    }
+
+    @Override
+    public File getFileMetaData( String strKey ) throws FileServiceException
+    {
+        Path path = getLocalPath( strKey );
+        if ( path == null )
+        {
+            return null;
+        }
+        try
+        {
+            File file = new File( );
+            file.setFileKey( strKey );
+            file.setTitle( strKey );
+            file.setSize( (int) Math.min( Integer.MAX_VALUE, Files.size( path ) ) );
+            file.setDateCreation( new Timestamp( Files.getLastModifiedTime( path ).toMillis( ) ) );
+            return file;
+        }
+        catch( IOException e )
+        {
+            throw new FileServiceException( "Unable to read the stored file " + strKey, e );
+        }
+    }
+
+    @Override
+    public InputStream getInputStream( String strKey ) throws FileServiceException
+    {
+        Path path = getLocalPath( strKey );
+        if ( path == null )
+        {
+            return null;
+        }
+        try
+        {
+            return Channels.newInputStream( FileChannel.open( path, StandardOpenOption.READ ) );
+        }
+        catch( IOException e )
+        {
+            throw new FileServiceException( "Unable to read the stored file " + strKey, e );
+        }
+    }
+
+    @Override
+    public String storeBytes( byte [ ] blob ) throws FileServiceException
+    {
+        return storeInputStream( new ByteArrayInputStream( blob ) );
+    }
+
+    @Override
+    public String storeFileItem( FileItem fileItem ) throws FileServiceException
+    {
+        try ( InputStream inputStream = fileItem.getInputStream( ) )
+        {
+            return storeInputStream( inputStream );
+        }
+        catch( IOException e )
+        {
+            throw new FileServiceException( "Unable to read the file item", e );
+        }
+    }
+
+    @Override
+    public String storeFile( File file ) throws FileServiceException
+    {
+        if ( file.getPhysicalFile( ) == null || file.getPhysicalFile( ).getValue( ) == null )
+        {
+            throw new FileServiceException( "No content to store", null );
+        }
+        return storeBytes( file.getPhysicalFile( ).getValue( ) );
+    }
+
+    @Override
+    public String storeInputStream( InputStream inputStream ) throws FileServiceException
+    {
+        String strKey = UUID.randomUUID( ).toString( ).replace( "-", "" );
+        Path tempFile = null;
+        try
+        {
+            Path root = getRootDirectory( );
+            tempFile = Files.createDirectories( root.resolve( DIRECTORY_TEMP ) ).resolve( strKey + SUFFIX_TEMP );
+            try ( FileChannel channel = FileChannel.open( tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE ) )
+            {
+                OutputStream out = Channels.newOutputStream( channel );
+                byte [ ] buffer = new byte [ BUFFER_SIZE];
+                int nRead;
+                while ( ( nRead = inputStream.read( buffer ) ) != -1 )
+                {
+                    out.write( buffer, 0, nRead );
+                }
+                channel.force( false );
+            }
+
+            Path target = resolve( strKey );
+            Files.createDirectories( target.getParent( ) );
+            moveAtomically( tempFile, target );
+            return strKey;
+        }
+        catch( IOException e )
+        {
+            deleteQuietly( tempFile );
+            throw new FileServiceException( "Unable to store the file", e );
+        }
+    }
+
+    @Override
+    public List<String> listKeys( Timestamp dateLimit, String strAfterKey, int nLimit ) throws FileServiceException
+    {
+        List<String> listKeys = new ArrayList<>( );
+        Path root = getRootDirectory( );
+        if ( !Files.isDirectory( root ) )
+        {
+            return listKeys;
+        }
+        // The tree is walked in key order, skipping the directories before the last key of the previous page
+        String strAfterLevel1 = strAfterKey != null ? strAfterKey.substring( 0, 2 ) : null;
+        String strAfterLevel2 = strAfterKey != null ? strAfterKey.substring( 2, 4 ) : null;
+        try
+        {
+            for ( String strLevel1 : listNames( root, PATTERN_SHARD, strAfterLevel1, true ) )
+            {
+                boolean bFirstLevel1 = strLevel1.equals( strAfterLevel1 );
+                for ( String strLevel2 : listNames( root.resolve( strLevel1 ), PATTERN_SHARD, bFirstLevel1 ? strAfterLevel2 : null, true ) )
+                {
+                    Path directory = root.resolve( strLevel1 ).resolve( strLevel2 );
+                    for ( String strKey : listNames( directory, PATTERN_KEY, strAfterKey, false ) )
+                    {
+                        if ( strKey.equals( strAfterKey ) || Files.getLastModifiedTime( directory.resolve( strKey ) ).toMillis( ) >= dateLimit.getTime( ) )
+                        {
+                            continue;
+                        }
+                        listKeys.add( strKey );
+                        if ( listKeys.size( ) >= nLimit )
+                        {
+                            return listKeys;
+                        }
+                    }
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            throw new FileServiceException( "Unable to list the stored files", e );
+        }
+        return listKeys;
+    }
+
+    @Override
+    public int deleteIncompleteFiles( Timestamp dateLimit, int nLimit ) throws FileServiceException
+    {
+        Path directory = getRootDirectory( ).resolve( DIRECTORY_TEMP );
+        if ( !Files.isDirectory( directory ) )
+        {
+            return 0;
+        }
+        int nDeleted = 0;
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( directory, "*" + SUFFIX_TEMP ) )
+        {
+            for ( Path path : stream )
+            {
+                if ( nDeleted >= nLimit )
+                {
+                    break;
+                }
+                if ( Files.getLastModifiedTime( path ).toMillis( ) < dateLimit.getTime( ) && Files.deleteIfExists( path ) )
+                {
+                    nDeleted++;
+                }
+            }
+        }
+        catch( IOException e )
+        {
+            throw new FileServiceException( "Unable to delete the incomplete files", e );
+        }
+        return nDeleted;
+    }
+
+    @Override
+    public Path getLocalPath( String strKey )
+    {
+        Path path = resolve( strKey );
+        return path != null && Files.isRegularFile( path ) ? path : null;
+    }
+
+    /**
+     * Get the path of a stored file from its key : <code>&lt;root&gt;/ab/cd/abcd...</code>
+     * 
+     * @param strKey
+     *            the key
+     * @return the path, or null if the key is not a key of this store
+     */
+    private Path resolve( String strKey )
+    {
+        if ( strKey == null || !PATTERN_KEY.matcher( strKey ).matches( ) )
+        {
+            return null;
+        }
+        return getRootDirectory( ).resolve( strKey.substring( 0, 2 ) ).resolve( strKey.substring( 2, 4 ) ).resolve( strKey );
+    }
+
+    /**
+     * @return the root directory of the store
+     */
+    private Path getRootDirectory( )
+    {
+        String strDirectory = AppPropertiesService.getProperty( PROPERTY_DIRECTORY );
+        return StringUtils.isEmpty( strDirectory ) ? Paths.get( System.getProperty( "java.io.tmpdir" ), DIRECTORY_DEFAULT ) : Paths.get( strDirectory );
+    }
+
+    /**
+     * Lists the entries of a directory
+     * 
+     * @param directory
+     *            the directory
+     * @param pattern
+     *            the pattern of the names to keep
+     * @param strFrom
+     *            the first name to keep, or null
+     * @param bDirectories
+     *            true to keep the directories, false to keep the files
+     * @return the names, in ascending order
+     * @throws IOException
+     */
+    private static List<String> listNames( Path directory, Pattern pattern, String strFrom, boolean bDirectories ) throws IOException
+    {
+        List<String> listNames = new ArrayList<>( );
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream( directory ) )
+        {
+            for ( Path path : stream )
+            {
+                String strName = path.getFileName( ).toString( );
+                if ( pattern.matcher( strName ).matches( ) && ( strFrom == null || strName.compareTo( strFrom ) >= 0 )
+                        && Files.isDirectory( path ) == bDirectories )
+                {
+                    listNames.add( strName );
+                }
+            }
+        }
+        Collections.sort( listNames );
+        return listNames;
+    }
+
+    /**
+     * Moves a complete file to its final place, atomically when the file system allows it
+     * 
+     * @param source
+     *            the complete file
+     * @param target
+     *            the final place
+     * @throws IOException
+     */
+    private static void moveAtomically( Path source, Path target ) throws IOException
+    {
+        try
+        {
+            Files.move( source, target, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch( AtomicMoveNotSupportedException e )
+        {
+            Files.move( source, target );
+        }
+    }
+
+    /**
+     * Deletes a file, ignoring the errors
+     * 
+     * @param path
+     *            the file, can be null
+     */
+    private static void deleteQuietly( Path path )
+    {
+        if ( path == null )
+        {
+            return;
+        }
+        try
+        {
+            Files.deleteIfExists( path );
+        }
+        catch( IOException e )
+        {
+            // Left to the reconciliation of the store
+        }
+    }
+}
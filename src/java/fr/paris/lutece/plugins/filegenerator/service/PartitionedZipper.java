@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Zips independent parts generated concurrently. The parts are taken one by one by the calling thread and by helper jobs handed to an executor; each part
+ * is compressed into a work file by the thread generating it, and added to the zip by the calling thread once complete, in the order the parts end.
+ * <p>
+ * The calling thread generates parts itself while no part is complete, so that the zip is built even if no helper ever gets a worker : helpers queued
+ * behind the generation they belong to cannot block it. A helper finding no part left ends at once.
+ */
+final class PartitionedZipper
+{
+    private final List<String> _listNames;
+    private final List<StreamPipeline.StreamWriter> _listWriters;
+    private final AtomicInteger _nextPart = new AtomicInteger( );
+    private final BlockingQueue<PartResult> _completedParts = new LinkedBlockingQueue<>( );
+
+    // Guarded by this
+    private boolean _bAborted;
+
+    /**
+     * Constructor.
+     * 
+     * @param listNames
+     *            the names of the zip entries
+     * @param listWriters
+     *            the writers producing the data of the entries, in the same order
+     */
+    PartitionedZipper( List<String> listNames, List<StreamPipeline.StreamWriter> listWriters )
+    {
+        _listNames = listNames;
+        _listWriters = listWriters;
+    }
+
+    /**
+     * Generates the parts and zips them into an output stream. The output stream is not closed.
+     * 
+     * @param out
+     *            the output stream
+     * @param helperExecutor
+     *            the executor running the helper jobs
+     * @param nMaxParallel
+     *            the max number of parts generated at the same time, the calling thread included
+     * @param listener
+     *            the listener notified of the proportion of the parts added to the zip, can be null
+     * @throws IOException
+     *             if a part fails
+     */
+    void zip( OutputStream out, Executor helperExecutor, int nMaxParallel, IProgressListener listener ) throws IOException
+    {
+        int nParts = _listWriters.size( );
+        try
+        {
+            for ( int nHelper = 1; nHelper < Math.min( nParts, nMaxParallel ); nHelper++ )
+            {
+                try
+                {
+                    helperExecutor.execute( this::runParts );
+                }
+                catch( RejectedExecutionException e )
+                {
+                    // The remaining parts are generated by the calling thread
+                    break;
+                }
+            }
+
+            ZipArchiveWriter writer = new ZipArchiveWriter( out );
+            for ( int nWritten = 0; nWritten < nParts; nWritten++ )
+            {
+                PartResult result = takeCompletedPart( );
+                if ( result._error != null )
+                {
+                    throw result._error;
+                }
+                try
+                {
+                    TemporaryFileZipper.addEntry( writer, result._entry );
+                }
+                finally
+                {
+                    result._entry.deleteTemporaryData( );
+                }
+                if ( listener != null )
+                {
+                    listener.onProgress( ( nWritten + 1 ) * 100 / nParts );
+                }
+            }
+            writer.finish( );
+        }
+        finally
+        {
+            abort( );
+        }
+    }
+
+    /**
+     * Get the next complete part, generating parts in the calling thread while none is complete
+     * 
+     * @return the part
+     * @throws InterruptedIOException
+     *             if the thread is interrupted while waiting for the helpers
+     */
+    private PartResult takeCompletedPart( ) throws InterruptedIOException
+    {
+        PartResult result = _completedParts.poll( );
+        while ( result == null && runNextPart( ) )
+        {
+            result = _completedParts.poll( );
+        }
+        if ( result != null )
+        {
+            return result;
+        }
+        try
+        {
+            // All the remaining parts are being generated by the helpers
+            return _completedParts.take( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new InterruptedIOException( "Interrupted while waiting for the parts of the file" );
+        }
+    }
+
+    /**
+     * Generates parts until none is left. Run by the helper jobs.
+     */
+    private void runParts( )
+    {
+        while ( runNextPart( ) )
+        {
+            // Next part
+        }
+    }
+
+    /**
+     * Generates the next part not taken yet
+     * 
+     * @return false if no part is left, or if the zip is aborted
+     */
+    private boolean runNextPart( )
+    {
+        if ( isAborted( ) )
+        {
+            return false;
+        }
+        int nPart = _nextPart.getAndIncrement( );
+        if ( nPart >= _listWriters.size( ) )
+        {
+            return false;
+        }
+        PartResult result = new PartResult( );
+        try
+        {
+            result._entry = TemporaryFileZipper.getInstance( ).compress( _listNames.get( nPart ), _listWriters.get( nPart ) );
+        }
+        catch( IOException e )
+        {
+            result._error = e;
+        }
+        catch( RuntimeException e )
+        {
+            result._error = new IOException( "Error generating the part " + _listNames.get( nPart ), e );
+        }
+        finally
+        {
+            // Even on an error, the calling thread must get the part, or it would wait for it forever
+            if ( result._entry == null && result._error == null )
+            {
+                result._error = new IOException( "Error generating the part " + _listNames.get( nPart ) );
+            }
+            publish( result );
+        }
+        return true;
+    }
+
+    /**
+     * Hands a part over to the calling thread. After an error, no new part is started.
+     * 
+     * @param result
+     *            the part
+     */
+    private synchronized void publish( PartResult result )
+    {
+        if ( _bAborted )
+        {
+            result.discard( );
+            return;
+        }
+        _completedParts.add( result );
+        if ( result._error != null )
+        {
+            _bAborted = true;
+        }
+    }
+
+    /**
+     * @return true if no new part must be started
+     */
+    private synchronized boolean isAborted( )
+    {
+        return _bAborted;
+    }
+
+    /**
+     * Stops the helpers from starting new parts, and deletes the parts not added to the zip. The parts still being generated are deleted when they end.
+     */
+    private synchronized void abort( )
+    {
+        _bAborted = true;
+        PartResult result;
+        while ( ( result = _completedParts.poll( ) ) != null )
+        {
+            result.discard( );
+        }
+    }
+
+    /**
+     * A part, compressed or failed
+     */
+    private static final class PartResult
+    {
+        private TemporaryFileZipper.CompressedEntry _entry;
+        private IOException _error;
+
+        /**
+         * Deletes the compressed data
+         */
+        private void discard( )
+        {
+            if ( _entry != null )
+            {
+                _entry.deleteTemporaryData( );
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+/**
+ * What a reconciliation run reclaimed
+ */
+public class ReconciliationReport
+{
+    private int _nReleasedLeases;
+    private int _nFailedFiles;
+    private int _nRemovedFiles;
+    private int _nWorkFiles;
+    private long _lWorkFilesSize;
+    private int _nStoredFiles;
+    private int _nIncompleteStoredFiles;
+    private boolean _bBudgetReached;
+
+    /**
+     * @return the number of cluster jobs of the previous run of this node given back to the queue
+     */
+    public int getReleasedLeases( )
+    {
+        return _nReleasedLeases;
+    }
+
+    /**
+     * @param nReleasedLeases
+     *            the number of cluster jobs given back to the queue
+     */
+    void setReleasedLeases( int nReleasedLeases )
+    {
+        _nReleasedLeases = nReleasedLeases;
+    }
+
+    /**
+     * @return the number of orphan temporary files flagged in error
+     */
+    public int getFailedFiles( )
+    {
+        return _nFailedFiles;
+    }
+
+    /**
+     * @return the number of orphan temporary files removed
+     */
+    public int getRemovedFiles( )
+    {
+        return _nRemovedFiles;
+    }
+
+    /**
+     * Counts an orphan temporary file
+     * 
+     * @param bRemoved
+     *            true if the file was removed, false if it was flagged in error
+     */
+    void addOrphanFile( boolean bRemoved )
+    {
+        if ( bRemoved )
+        {
+            _nRemovedFiles++;
+        }
+        else
+        {
+            _nFailedFiles++;
+        }
+    }
+
+    /**
+     * @return the number of intermediate files deleted from the work directory
+     */
+    public int getWorkFiles( )
+    {
+        return _nWorkFiles;
+    }
+
+    /**
+     * @return the size of the intermediate files deleted from the work directory, in bytes
+     */
+    public long getWorkFilesSize( )
+    {
+        return _lWorkFilesSize;
+    }
+
+    /**
+     * Counts an intermediate file deleted
+     * 
+     * @param lSize
+     *            the size of the file in bytes
+     */
+    void addWorkFile( long lSize )
+    {
+        _nWorkFiles++;
+        _lWorkFilesSize += lSize;
+    }
+
+    /**
+     * @return the number of stored files deleted because no temporary file uses them
+     */
+    public int getStoredFiles( )
+    {
+        return _nStoredFiles;
+    }
+
+    /**
+     * Counts a stored file deleted
+     */
+    void addStoredFile( )
+    {
+        _nStoredFiles++;
+    }
+
+    /**
+     * @return the number of partially written files deleted from the file store
+     */
+    public int getIncompleteStoredFiles( )
+    {
+        return _nIncompleteStoredFiles;
+    }
+
+    /**
+     * @param nIncompleteStoredFiles
+     *            the number of partially written files deleted from the file store
+     */
+    void addIncompleteStoredFiles( int nIncompleteStoredFiles )
+    {
+        _nIncompleteStoredFiles += nIncompleteStoredFiles;
+    }
+
+    /**
+     * @return true if the run stopped on its budget, leaving orphans to the next run
+     */
+    public boolean isBudgetReached( )
+    {
+        return _bBudgetReached;
+    }
+
+    /**
+     * Flags the run as stopped on its budget
+     */
+    void setBudgetReached( )
+    {
+        _bBudgetReached = true;
+    }
+
+    @Override
+    public String toString( )
+    {
+        StringBuilder sbReport = new StringBuilder( );
+        sbReport.append( _nFailedFiles ).append( " orphan file(s) flagged in error, " ).append( _nRemovedFiles ).append( " removed, " );
+        sbReport.append( _nWorkFiles ).append( " work file(s) deleted (" ).append( _lWorkFilesSize ).append( " bytes), " );
+        sbReport.append( _nStoredFiles ).append( " unused stored file(s) and " ).append( _nIncompleteStoredFiles ).append( " incomplete one(s) deleted" );
+        if ( _nReleasedLeases > 0 )
+        {
+            sbReport.append( ", " ).append( _nReleasedLeases ).append( " cluster job(s) of the previous run given back" );
+        }
+        if ( _bBudgetReached )
+        {
+            sbReport.append( ". Budget reached, the remaining orphans will be reclaimed by the next run." );
+        }
+        return sbReport.toString( );
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import fr.paris.lutece.plugins.filegenerator.business.PhysicalFileReference;
+import fr.paris.lutece.plugins.filegenerator.business.PhysicalFileReferenceHome;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileHome;
+import fr.paris.lutece.portal.service.file.FileServiceException;
+import fr.paris.lutece.portal.service.file.IFileStoreServiceProvider;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Reclaims what the generations interrupted by a stop of the node left behind :
+ * <ul>
+ * <li>temporary files still queued or being generated while no node runs them : their node stopped updating their heartbeat, they are flagged in error or
+ * removed according to the configuration</li>
+ * <li>intermediate files of the work directory</li>
+ * <li>stored files that no temporary file uses, and files partially written in the file store when it can list them</li>
+ * </ul>
+ * Only what is older than the configured minimum age is reclaimed, so that the generations in progress on the other nodes are left alone : the age of a
+ * temporary file is counted from its last heartbeat. On the first run
+ * after startup, the cluster jobs leased by the previous run of this node are given back to the queue.
+ */
+public final class ReconciliationService
+{
+    private static final String PROPERTY_MIN_AGE = "temporaryfiles.reconciliation.minAge";
+    private static final String PROPERTY_ORPHANS_ACTION = "temporaryfiles.reconciliation.orphans.action";
+    private static final String PROPERTY_BATCH_SIZE = "temporaryfiles.reconciliation.batch.size";
+    private static final String PROPERTY_MAX_FILES = "temporaryfiles.reconciliation.max.files";
+    private static final String ACTION_REMOVE = "remove";
+    private static final long DEFAULT_MIN_AGE = 3600;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int DEFAULT_MAX_FILES = 1000;
+
+    private static final ReconciliationService INSTANCE = new ReconciliationService( );
+
+    private final AtomicBoolean _bStarted = new AtomicBoolean( );
+
+    /**
+     * Private constructor
+     */
+    private ReconciliationService( )
+    {
+    }
+
+    /**
+     * @return the instance
+     */
+    public static ReconciliationService getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Reclaims the orphans, within a budget of files per kind of orphan
+     * 
+     * @return what was reclaimed
+     */
+    public synchronized ReconciliationReport reconcile( )
+    {
+        ReconciliationReport report = new ReconciliationReport( );
+        if ( _bStarted.compareAndSet( false, true ) )
+        {
+            report.setReleasedLeases( ClusterJobQueue.getInstance( ).releaseStaleLeases( ) );
+        }
+
+        Timestamp dateLimit = new Timestamp( System.currentTimeMillis( ) - AppPropertiesService.getPropertyLong( PROPERTY_MIN_AGE, DEFAULT_MIN_AGE ) * 1000 );
+        int nBatchSize = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE ) );
+        int nMaxFiles = Math.max( nBatchSize, AppPropertiesService.getPropertyInt( PROPERTY_MAX_FILES, DEFAULT_MAX_FILES ) );
+
+        reconcileTemporaryFiles( dateLimit, nBatchSize, nMaxFiles, report );
+        reconcileWorkDirectory( dateLimit, nMaxFiles, report );
+        reconcileFileStore( dateLimit, nBatchSize, nMaxFiles, report );
+
+        AppLogService.info( "Reconciliation of the temporary files : " + report );
+        return report;
+    }
+
+    /**
+     * Ends the temporary files whose generation is not over while it is neither run by this node nor queued in the cluster, and whose node stopped updating
+     * their heartbeat
+     * 
+     * @param dateLimit
+     *            the date limit of the last heartbeat of the files
+     * @param nBatchSize
+     *            the number of files read at once
+     * @param nMaxFiles
+     *            the max number of files read
+     * @param report
+     *            the report
+     */
+    private void reconcileTemporaryFiles( Timestamp dateLimit, int nBatchSize, int nMaxFiles, ReconciliationReport report )
+    {
+        boolean bRemove = ACTION_REMOVE.equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_ORPHANS_ACTION ) );
+        int nRead = 0;
+        int nAfterIdFile = 0;
+        while ( true )
+        {
+            int nLimit = Math.min( nBatchSize, nMaxFiles - nRead );
+            List<Integer> listIdFiles = TemporaryFileHome.findUnfinished( dateLimit, nAfterIdFile, nLimit );
+            for ( Integer nIdFile : listIdFiles )
+            {
+                if ( TemporaryFileGeneratorService.getInstance( ).getJob( nIdFile ) != null )
+                {
+                    // Long running generation of this node
+                    continue;
+                }
+                // A generation ending in the meantime keeps its final status
+                if ( bRemove )
+                {
+                    TemporaryFileHome.removeIfUnfinished( nIdFile );
+                }
+                else
+                {
+                    TemporaryFileHome.failIfUnfinished( nIdFile );
+                }
+                report.addOrphanFile( bRemove );
+            }
+            nRead += listIdFiles.size( );
+            if ( listIdFiles.size( ) < nLimit )
+            {
+                return;
+            }
+            if ( nRead >= nMaxFiles )
+            {
+                report.setBudgetReached( );
+                return;
+            }
+            nAfterIdFile = listIdFiles.get( listIdFiles.size( ) - 1 );
+        }
+    }
+
+    /**
+     * Deletes the intermediate files of the work directory not modified since the date limit, then the directories left empty
+     * 
+     * @param dateLimit
+     *            the date limit of the last modification of the files
+     * @param nMaxFiles
+     *            the max number of files deleted
+     * @param report
+     *            the report
+     */
+    private void reconcileWorkDirectory( Timestamp dateLimit, int nMaxFiles, ReconciliationReport report )
+    {
+        Path workDirectory;
+        List<Path> listFiles;
+        try
+        {
+            workDirectory = TemporaryFileService.getInstance( ).getWorkDirectory( );
+            try ( Stream<Path> stream = Files.walk( workDirectory ) )
+            {
+                listFiles = stream.filter( path -> !path.equals( workDirectory ) && isOlderThan( path, dateLimit ) )
+                        .sorted( Comparator.reverseOrder( ) ).collect( Collectors.toList( ) );
+            }
+        }
+        catch( IOException | UncheckedIOException e )
+        {
+            AppLogService.error( "Unable to read the work directory", e );
+            return;
+        }
+
+        int nDeleted = 0;
+        // Reverse order : the files of a directory come before the directory itself
+        for ( Path path : listFiles )
+        {
+            if ( Files.isDirectory( path ) )
+            {
+                deleteEmptyDirectory( path );
+                continue;
+            }
+            if ( nDeleted >= nMaxFiles )
+            {
+                report.setBudgetReached( );
+                return;
+            }
+            long lSize = path.toFile( ).length( );
+            try
+            {
+                if ( Files.deleteIfExists( path ) )
+                {
+                    report.addWorkFile( lSize );
+                    nDeleted++;
+                }
+            }
+            catch( IOException e )
+            {
+                AppLogService.error( "Unable to delete the work file " + path, e );
+            }
+        }
+    }
+
+    /**
+     * Deletes the stored files that no temporary file uses : those still referenced by their content, then, when the file store can list them, those
+     * without reference and the partially written ones
+     * 
+     * @param dateLimit
+     *            the date limit of the last use of the stored files
+     * @param nBatchSize
+     *            the number of stored files read at once
+     * @param nMaxFiles
+     *            the max number of stored files read
+     * @param report
+     *            the report
+     */
+    private void reconcileFileStore( Timestamp dateLimit, int nBatchSize, int nMaxFiles, ReconciliationReport report )
+    {
+        int nRead = 0;
+        while ( true )
+        {
+            int nLimit = Math.min( nBatchSize, nMaxFiles - nRead );
+            List<PhysicalFileReference> listReferences = PhysicalFileReferenceHome.findUnused( dateLimit, nLimit );
+            int nReclaimed = 0;
+            for ( PhysicalFileReference reference : listReferences )
+            {
+                if ( TemporaryFileService.getInstance( ).reclaimStoredFile( reference.getIdPhysicalFile( ), reference.getRefCount( ) ) )
+                {
+                    report.addStoredFile( );
+                    nReclaimed++;
+                }
+            }
+            nRead += listReferences.size( );
+            if ( listReferences.size( ) < nLimit || nReclaimed == 0 )
+            {
+                // Nothing more to reclaim, or only references used again in the meantime
+                break;
+            }
+            if ( nRead >= nMaxFiles )
+            {
+                report.setBudgetReached( );
+                break;
+            }
+        }
+
+        IFileStoreServiceProvider provider = TemporaryFileService.getInstance( ).getFileStoreServiceProvider( );
+        if ( !( provider instanceof IListableFileStoreServiceProvider ) )
+        {
+            return;
+        }
+        IListableFileStoreServiceProvider listableProvider = (IListableFileStoreServiceProvider) provider;
+        try
+        {
+            nRead = 0;
+            String strAfterKey = null;
+            while ( true )
+            {
+                int nLimit = Math.min( nBatchSize, nMaxFiles - nRead );
+                List<String> listKeys = listableProvider.listKeys( dateLimit, strAfterKey, nLimit );
+                for ( String strKey : listKeys )
+                {
+                    if ( TemporaryFileService.getInstance( ).reclaimStoredFile( strKey, 0 ) )
+                    {
+                        report.addStoredFile( );
+                    }
+                }
+                nRead += listKeys.size( );
+                if ( listKeys.size( ) < nLimit )
+                {
+                    break;
+                }
+                if ( nRead >= nMaxFiles )
+                {
+                    report.setBudgetReached( );
+                    break;
+                }
+                strAfterKey = listKeys.get( listKeys.size( ) - 1 );
+            }
+            report.addIncompleteStoredFiles( listableProvider.deleteIncompleteFiles( dateLimit, nMaxFiles ) );
+        }
+        catch( FileServiceException e )
+        {
+            AppLogService.error( "Unable to reconcile the file store", e );
+        }
+    }
+
+    /**
+     * @param path
+     *            a file or directory
+     * @param dateLimit
+     *            the date limit
+     * @return true if the file or directory was last modified before the date limit
+     */
+    private static boolean isOlderThan( Path path, Timestamp dateLimit )
+    {
+        try
+        {
+            return Files.getLastModifiedTime( path ).toMillis( ) < dateLimit.getTime( );
+        }
+        catch( IOException e )
+        {
+            // Deleted in the meantime
+            return false;
+        }
+    }
+
+    /**
+     * Deletes a directory of the work directory, if it is empty
+     * 
+     * @param directory
+     *            the directory
+     */
+    private static void deleteEmptyDirectory( Path directory )
+    {
+        try
+        {
+            Files.deleteIfExists( directory );
+        }
+        catch( DirectoryNotEmptyException e )
+        {
+            // Still used, or files left to the next run
+        }
+        catch( IOException e )
+        {
+            AppLogService.error( "Unable to delete the work directory " + directory, e );
+        }
+    }
+}
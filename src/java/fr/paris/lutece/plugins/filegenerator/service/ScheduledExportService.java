@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import fr.paris.lutece.plugins.filegenerator.business.ScheduledExport;
+import fr.paris.lutece.plugins.filegenerator.business.ScheduledExportHome;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileHome;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+import fr.paris.lutece.portal.business.user.AdminUser;
+import fr.paris.lutece.portal.business.user.AdminUserHome;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Runs the scheduled exports when they are due. Each run creates the generator with the factory of the export, then :
+ * <ul>
+ * <li>is skipped while the file of the previous run is still being generated</li>
+ * <li>when the watermark of the generator is the one of the previous file and this file is still available, is skipped or gives this file again to the
+ * user, according to the export</li>
+ * <li>otherwise generates a new file for the user of the export</li>
+ * </ul>
+ * A run is taken by a single node of a cluster. The runs missed while no node was running are not caught up : the export runs once, then on its schedule.
+ */
+public final class ScheduledExportService
+{
+    private static final String PROPERTY_BATCH_SIZE = "temporaryfiles.scheduledExports.batch.size";
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final ScheduledExportService INSTANCE = new ScheduledExportService( );
+
+    /**
+     * Private constructor
+     */
+    private ScheduledExportService( )
+    {
+    }
+
+    /**
+     * @return the instance
+     */
+    public static ScheduledExportService getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates an export, scheduled from now
+     * 
+     * @param export
+     *            the export
+     * @return the id of the new export
+     * @throws IllegalArgumentException
+     *             if the schedule is not valid
+     */
+    public int create( ScheduledExport export )
+    {
+        export.setDateNextRun( getNextRun( CronExpression.parse( export.getCron( ) ) ) );
+        return ScheduledExportHome.create( export );
+    }
+
+    /**
+     * Updates the definition of an export, scheduled again from now
+     * 
+     * @param export
+     *            the export
+     * @throws IllegalArgumentException
+     *             if the schedule is not valid
+     */
+    public void update( ScheduledExport export )
+    {
+        export.setDateNextRun( getNextRun( CronExpression.parse( export.getCron( ) ) ) );
+        ScheduledExportHome.update( export );
+    }
+
+    /**
+     * Removes an export. The files already generated are left to the user.
+     * 
+     * @param nIdExport
+     *            the id of the export
+     */
+    public void remove( int nIdExport )
+    {
+        ScheduledExportHome.remove( nIdExport );
+    }
+
+    /**
+     * Runs the exports that are due
+     * 
+     * @return a summary of the runs, for the daemon logs
+     */
+    public String runDueExports( )
+    {
+        int nGenerated = 0;
+        int nReused = 0;
+        int nSkipped = 0;
+        int nFailed = 0;
+        Timestamp now = new Timestamp( System.currentTimeMillis( ) );
+        List<ScheduledExport> listExports = ScheduledExportHome.findDue( now, AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE ) );
+        for ( ScheduledExport export : listExports )
+        {
+            RunResult result;
+            try
+            {
+                result = claimAndRun( export, now );
+            }
+            catch( RuntimeException e )
+            {
+                AppLogService.error( "Scheduled export " + export.getIdExport( ) + " failed : " + e.getMessage( ), e );
+                result = RunResult.FAILED;
+            }
+            switch( result )
+            {
+                case GENERATED:
+                    nGenerated++;
+                    break;
+                case REUSED:
+                    nReused++;
+                    break;
+                case SKIPPED:
+                    nSkipped++;
+                    break;
+                case FAILED:
+                    nFailed++;
+                    break;
+                default:
+                    // Run taken by another node
+                    break;
+            }
+        }
+        return "Scheduled exports : " + nGenerated + " generated, " + nReused + " reused, " + nSkipped + " skipped, " + nFailed + " failed";
+    }
+
+    /**
+     * Takes the due run of an export, then runs it
+     * 
+     * @param export
+     *            the export
+     * @param now
+     *            the current date
+     * @return the result of the run
+     */
+    private RunResult claimAndRun( ScheduledExport export, Timestamp now )
+    {
+        CronExpression cron;
+        try
+        {
+            cron = CronExpression.parse( export.getCron( ) );
+        }
+        catch( IllegalArgumentException e )
+        {
+            // Not scheduled any more, until the export is updated
+            ScheduledExportHome.claimRun( export.getIdExport( ), newRunToken( ), export.getDateNextRun( ), null, now );
+            AppLogService.error( "Scheduled export " + export.getIdExport( ) + " unscheduled : " + e.getMessage( ) );
+            return RunResult.FAILED;
+        }
+        if ( !ScheduledExportHome.claimRun( export.getIdExport( ), newRunToken( ), export.getDateNextRun( ), getNextRun( cron ), now ) )
+        {
+            return RunResult.NOT_CLAIMED;
+        }
+        return run( export );
+    }
+
+    /**
+     * Runs an export
+     * 
+     * @param export
+     *            the export
+     * @return the result of the run
+     */
+    private RunResult run( ScheduledExport export )
+    {
+        AdminUser user = AdminUserHome.findByPrimaryKey( export.getIdUser( ) );
+        if ( user == null )
+        {
+            AppLogService.error( "Scheduled export " + export.getIdExport( ) + " not run : unknown user " + export.getIdUser( ) );
+            return RunResult.FAILED;
+        }
+
+        TemporaryFile lastFile = export.getIdLastFile( ) != 0 ? TemporaryFileHome.findStatus( export.getIdLastFile( ) ) : null;
+        if ( lastFile != null && lastFile.getStatus( ) != null && !lastFile.getStatus( ).isFinal( ) )
+        {
+            AppLogService.info( "Scheduled export " + export.getIdExport( ) + " skipped : the previous run is not over" );
+            return RunResult.SKIPPED;
+        }
+
+        IFileGeneratorFactory factory = SpringContextService.getBean( export.getGeneratorFactory( ) );
+        IFileGenerator generator = factory.createGenerator( export.getParameters( ) );
+        String strWatermark = generator.getDataWatermark( );
+        if ( strWatermark != null && strWatermark.equals( export.getWatermark( ) ) && lastFile != null && lastFile.getStatus( ) == TemporaryFileStatus.DONE )
+        {
+            if ( !export.isReuseUnchanged( ) )
+            {
+                return RunResult.SKIPPED;
+            }
+            int nIdFile = TemporaryFileGeneratorService.getInstance( ).reuseGeneratedFile( TemporaryFileHome.findByPrimaryKey( lastFile.getIdFile( ) ), user );
+            if ( nIdFile != 0 )
+            {
+                ScheduledExportHome.updateRunResult( export.getIdExport( ), nIdFile, strWatermark );
+                return RunResult.REUSED;
+            }
+            // The previous file was removed in the meantime : generated again
+        }
+
+        // Nobody waits for a scheduled export : it never takes the workers reserved to the interactive exports
+        int nPriority = Math.min( generator.getPriority( ), IFileGenerator.PRIORITY_NORMAL );
+        int nIdFile = TemporaryFileGeneratorService.getInstance( ).generateFile( generator, user, nPriority );
+        ScheduledExportHome.updateRunResult( export.getIdExport( ), nIdFile, strWatermark );
+        return RunResult.GENERATED;
+    }
+
+    /**
+     * @param cron
+     *            the schedule
+     * @return the date of the next run from now, null if there is none
+     */
+    private static Timestamp getNextRun( CronExpression cron )
+    {
+        LocalDateTime next = cron.next( LocalDateTime.now( ) );
+        return next != null ? Timestamp.valueOf( next ) : null;
+    }
+
+    /**
+     * @return a token unique to a run
+     */
+    private static String newRunToken( )
+    {
+        return UUID.randomUUID( ).toString( );
+    }
+
+    /**
+     * Result of a run
+     */
+    private enum RunResult
+    {
+        NOT_CLAIMED,
+        GENERATED,
+        REUSED,
+        SKIPPED,
+        FAILED
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Output stream failing with a {@link FileTooBigException} as soon as a write would exceed a maximum size, so that an oversized generation is aborted while
+ * it produces its data. The bytes of the rejected write are not written. Several streams can share their count, to limit the total size of data produced
+ * concurrently.
+ */
+public class SizeLimitedOutputStream extends FilterOutputStream
+{
+    private final long _lMaxSize;
+    private final AtomicLong _count;
+
+    /**
+     * Constructor.
+     * 
+     * @param out
+     *            the output stream
+     * @param lMaxSize
+     *            the maximum size, 0 for no limit
+     */
+    public SizeLimitedOutputStream( OutputStream out, long lMaxSize )
+    {
+        this( out, lMaxSize, new AtomicLong( ) );
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param out
+     *            the output stream
+     * @param lMaxSize
+     *            the maximum size of the data written to all the streams sharing the count, 0 for no limit
+     * @param count
+     *            the count shared by the streams
+     */
+    public SizeLimitedOutputStream( OutputStream out, long lMaxSize, AtomicLong count )
+    {
+        super( out );
+        _lMaxSize = lMaxSize;
+        _count = count;
+    }
+
+    @Override
+    public void write( int b ) throws IOException
+    {
+        count( 1 );
+        out.write( b );
+    }
+
+    @Override
+    public void write( byte [ ] b, int off, int len ) throws IOException
+    {
+        count( len );
+        out.write( b, off, len );
+    }
+
+    /**
+     * @return the number of bytes written, to all the streams sharing the count
+     */
+    public long getCount( )
+    {
+        return _count.get( );
+    }
+
+    /**
+     * Counts the bytes about to be written
+     * 
+     * @param nLength
+     *            the number of bytes
+     * @throws FileTooBigException
+     *             if the maximum size would be exceeded
+     */
+    private void count( int nLength ) throws FileTooBigException
+    {
+        long lCount = _count.addAndGet( nLength );
+        if ( _lMaxSize > 0 && lCount > _lMaxSize )
+        {
+            _count.addAndGet( -nLength );
+            throw new FileTooBigException( _lMaxSize );
+        }
+    }
+}
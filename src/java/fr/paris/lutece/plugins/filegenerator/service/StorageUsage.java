@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.sql.Timestamp;
+
+/**
+ * Snapshot of the space used by the temporary files
+ */
+public class StorageUsage
+{
+    private final int _nFileCount;
+    private final long _lStoredSize;
+    private final long _lWorkDirectorySize;
+    private final Timestamp _date;
+
+    /**
+     * Constructor
+     * 
+     * @param nFileCount
+     *            the number of temporary files
+     * @param lStoredSize
+     *            the size of the stored files in bytes
+     * @param lWorkDirectorySize
+     *            the size of the work directory in bytes
+     * @param date
+     *            the date of the snapshot
+     */
+    public StorageUsage( int nFileCount, long lStoredSize, long lWorkDirectorySize, Timestamp date )
+    {
+        _nFileCount = nFileCount;
+        _lStoredSize = lStoredSize;
+        _lWorkDirectorySize = lWorkDirectorySize;
+        _date = date;
+    }
+
+    /**
+     * @return the number of temporary files
+     */
+    public int getFileCount( )
+    {
+        return _nFileCount;
+    }
+
+    /**
+     * @return the size of the stored files in bytes, each stored file being counted once
+     */
+    public long getStoredSize( )
+    {
+        return _lStoredSize;
+    }
+
+    /**
+     * @return the size of the intermediate files in the work directory, in bytes
+     */
+    public long getWorkDirectorySize( )
+    {
+        return _lWorkDirectorySize;
+    }
+
+    /**
+     * @return the date of the snapshot
+     */
+    public Timestamp getDate( )
+    {
+        return _date;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connects a producer writing to an OutputStream with a consumer reading from an InputStream, through a bounded in-memory pipe. The producer runs on a
+ * dedicated thread, so that the data is processed by both sides at the same time without ever being fully buffered.
+ */
+public final class StreamPipeline
+{
+    private static final String THREAD_NAME_PREFIX = "filegenerator-pipe-";
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger( );
+    private static final ExecutorService PRODUCERS = Executors.newCachedThreadPool( runnable -> {
+        Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + THREAD_COUNTER.getAndIncrement( ) );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    /**
+     * Writes data to an output stream
+     */
+    @FunctionalInterface
+    public interface StreamWriter
+    {
+        /**
+         * Writes the data. The stream is closed by the pipeline.
+         * 
+         * @param out
+         *            the output stream
+         * @throws IOException
+         */
+        void writeTo( OutputStream out ) throws IOException;
+    }
+
+    /**
+     * Reads data from an input stream
+     *
+     * @param <T>
+     *            the result type
+     */
+    @FunctionalInterface
+    public interface StreamReader<T>
+    {
+        /**
+         * Reads the data.
+         * 
+         * @param in
+         *            the input stream
+         * @return the result
+         * @throws IOException
+         */
+        T readFrom( InputStream in ) throws IOException;
+    }
+
+    /**
+     * Private constructor
+     */
+    private StreamPipeline( )
+    {
+    }
+
+    /**
+     * Pipes the output of a writer into a reader. If the writer fails, the reader gets the error instead of the end of the stream, so that it never consumes
+     * truncated data.
+     * 
+     * @param <T>
+     *            the result type
+     * @param writer
+     *            the producer
+     * @param reader
+     *            the consumer, run in the calling thread
+     * @param nBufferSize
+     *            the size of the pipe buffer
+     * @return the result of the reader
+     * @throws IOException
+     *             if the writer or the reader fails
+     */
+    public static <T> T pipe( StreamWriter writer, StreamReader<T> reader, int nBufferSize ) throws IOException
+    {
+        PipedInputStream pipeIn = new PipedInputStream( nBufferSize );
+        PipedOutputStream pipeOut = new PipedOutputStream( pipeIn );
+        Future<Void> producer = PRODUCERS.submit( ( ) -> {
+            try ( OutputStream out = new BufferedOutputStream( pipeOut, nBufferSize ) )
+            {
+                writer.writeTo( out );
+            }
+            return null;
+        } );
+
+        try ( InputStream in = new ProducerCheckingInputStream( pipeIn, producer ) )
+        {
+            T result = reader.readFrom( in );
+            checkProducer( producer );
+            return result;
+        }
+        finally
+        {
+            producer.cancel( true );
+        }
+    }
+
+    /**
+     * Waits for the end of the producer and rethrows its error.
+     * 
+     * @param producer
+     *            the producer
+     * @throws IOException
+     *             the producer error
+     */
+    private static void checkProducer( Future<Void> producer ) throws IOException
+    {
+        try
+        {
+            producer.get( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new InterruptedIOException( "Interrupted while waiting for the stream producer" );
+        }
+        catch( ExecutionException e )
+        {
+            if ( e.getCause( ) instanceof IOException )
+            {
+                throw (IOException) e.getCause( );
+            }
+            throw new IOException( "Stream producer failed", e.getCause( ) );
+        }
+    }
+
+    /**
+     * Input stream reporting the producer error when the end of the pipe is reached.
+     */
+    private static final class ProducerCheckingInputStream extends FilterInputStream
+    {
+        private final Future<Void> _producer;
+
+        /**
+         * Constructor.
+         * 
+         * @param in
+         *            the pipe
+         * @param producer
+         *            the producer
+         */
+        ProducerCheckingInputStream( InputStream in, Future<Void> producer )
+        {
+            super( in );
+            _producer = producer;
+        }
+
+        @Override
+        public int read( ) throws IOException
+        {
+            int nByte = super.read( );
+            if ( nByte == -1 )
+            {
+                checkProducer( _producer );
+            }
+            return nByte;
+        }
+
+        @Override
+        public int read( byte [ ] b, int off, int len ) throws IOException
+        {
+            int nRead = super.read( b, off, len );
+            if ( nRead == -1 )
+            {
+                checkProducer( _producer );
+            }
+            return nRead;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileFilter;
+import fr.paris.lutece.portal.service.cache.AbstractCacheableService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Cache of the temporary files metadata, of the unfiltered listings of the files of each user and of their number.
+ * <p>
+ * Only the files whose generation is over are cached : they no longer change until they are removed, whereas the status of the other files is updated by
+ * the generation, possibly on another node. A listing is only cached if all its files are over, so a cached listing only changes when a file of the user is
+ * created or removed. The number of entries and their time to live are set in the cache management of the back office, like the other caches of the portal.
+ * <p>
+ * The listings are keyed by a generation number of their user, increased when they are invalidated : a listing read from the database while it is
+ * invalidated is stored under its former key, and never returned.
+ */
+public final class TemporaryFileCacheService extends AbstractCacheableService
+{
+    private static final String CACHE_NAME = "TemporaryFileCacheService";
+    private static final String PROPERTY_LISTING_MAX_FILES = "temporaryfiles.metadataCache.listing.maxFiles";
+    private static final int DEFAULT_LISTING_MAX_FILES = 100;
+    private static final String KEY_FILE = "file:";
+    private static final String KEY_LISTING = "listing:";
+    private static final String KEY_COUNT = "count:";
+    private static final String KEY_SEPARATOR = ":";
+
+    private static final TemporaryFileCacheService INSTANCE = new TemporaryFileCacheService( );
+
+    private final int _nListingMaxFiles;
+    private final Map<Integer, Long> _mapUserGenerations = new ConcurrentHashMap<>( );
+    private final AtomicLong _listingsGeneration = new AtomicLong( );
+    // Number of file invalidations, to not cache a file read from the database while it is invalidated
+    private long _lFileInvalidations;
+
+    /**
+     * Constructor. The cache is registered in the cache management of the portal.
+     */
+    private TemporaryFileCacheService( )
+    {
+        _nListingMaxFiles = AppPropertiesService.getPropertyInt( PROPERTY_LISTING_MAX_FILES, DEFAULT_LISTING_MAX_FILES );
+        initCache( );
+    }
+
+    /**
+     * @return the instance
+     */
+    public static TemporaryFileCacheService getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    @Override
+    public String getName( )
+    {
+        return CACHE_NAME;
+    }
+
+    /**
+     * Get a cached file
+     * 
+     * @param nIdFile
+     *            the id of the file
+     * @return a copy of the file, or null if it is not cached
+     */
+    public TemporaryFile getFile( int nIdFile )
+    {
+        TemporaryFile file = (TemporaryFile) getFromCache( KEY_FILE + nIdFile );
+        return file != null ? copy( file ) : null;
+    }
+
+    /**
+     * Get the version to give back when caching a file. It must be read before the file is read from the database.
+     * 
+     * @return the number of file invalidations
+     */
+    public synchronized long getFileVersion( )
+    {
+        return _lFileInvalidations;
+    }
+
+    /**
+     * Caches a file read from the database, if its generation is over and if no file was invalidated since it was read
+     * 
+     * @param file
+     *            the file, or null
+     * @param lVersion
+     *            the version read before the file
+     */
+    public synchronized void putFile( TemporaryFile file, long lVersion )
+    {
+        if ( file != null && file.getStatus( ) != null && file.getStatus( ).isFinal( ) && lVersion == _lFileInvalidations )
+        {
+            putInCache( KEY_FILE + file.getIdFile( ), copy( file ) );
+        }
+    }
+
+    /**
+     * Get the key of an unfiltered listing. It must be read before the listing is read from the database.
+     * 
+     * @param filter
+     *            the filter, giving the user and the order
+     * @param from
+     *            the file the page starts from, or null
+     * @param bForward
+     *            the direction of the page
+     * @param nLimit
+     *            the max number of files
+     * @return the key, or null if the listing is not cacheable
+     */
+    public String getListingKey( TemporaryFileFilter filter, TemporaryFile from, boolean bForward, int nLimit )
+    {
+        if ( filter.containsCriteria( ) || nLimit > _nListingMaxFiles || ( from != null && from.getDateCreation( ) == null ) )
+        {
+            return null;
+        }
+        StringBuilder sbKey = new StringBuilder( KEY_LISTING ).append( getUserKey( filter.getIdUser( ) ) );
+        sbKey.append( filter.isAscending( ) ).append( KEY_SEPARATOR ).append( bForward ).append( KEY_SEPARATOR ).append( nLimit );
+        if ( from != null )
+        {
+            sbKey.append( KEY_SEPARATOR ).append( from.getDateCreation( ).getTime( ) ).append( KEY_SEPARATOR ).append( from.getIdFile( ) );
+        }
+        return sbKey.toString( );
+    }
+
+    /**
+     * Get a cached listing
+     * 
+     * @param strKey
+     *            the key of the listing, or null
+     * @return a copy of the listing, or null if it is not cached
+     */
+    @SuppressWarnings( "unchecked" )
+    public List<TemporaryFile> getListing( String strKey )
+    {
+        List<TemporaryFile> listFiles = strKey != null ? (List<TemporaryFile>) getFromCache( strKey ) : null;
+        return listFiles != null ? copy( listFiles ) : null;
+    }
+
+    /**
+     * Caches a listing read from the database, if the generation of all its files is over
+     * 
+     * @param strKey
+     *            the key read before the listing, or null
+     * @param listFiles
+     *            the listing
+     */
+    public void putListing( String strKey, List<TemporaryFile> listFiles )
+    {
+        if ( strKey == null )
+        {
+            return;
+        }
+        for ( TemporaryFile file : listFiles )
+        {
+            if ( file.getStatus( ) == null || !file.getStatus( ).isFinal( ) )
+            {
+                return;
+            }
+        }
+        putInCache( strKey, copy( listFiles ) );
+    }
+
+    /**
+     * Get the key of the number of files of a user. It must be read before the number is read from the database.
+     * 
+     * @param nIdUser
+     *            the id of the user
+     * @return the key
+     */
+    public String getCountKey( int nIdUser )
+    {
+        return KEY_COUNT + getUserKey( nIdUser );
+    }
+
+    /**
+     * Get the cached number of files of a user
+     * 
+     * @param strKey
+     *            the key of the number
+     * @return the number, or null if it is not cached
+     */
+    public Integer getCount( String strKey )
+    {
+        return (Integer) getFromCache( strKey );
+    }
+
+    /**
+     * Caches the number of files of a user
+     * 
+     * @param strKey
+     *            the key read before the number
+     * @param nCount
+     *            the number of files
+     */
+    public void putCount( String strKey, int nCount )
+    {
+        putInCache( strKey, nCount );
+    }
+
+    /**
+     * Removes a file from the cache of this node and of the other nodes
+     * 
+     * @param nIdFile
+     *            the id of the file
+     */
+    public void invalidateFile( int nIdFile )
+    {
+        evictFile( nIdFile );
+        for ( ITemporaryFileCacheListener listener : getListeners( ) )
+        {
+            listener.fileInvalidated( nIdFile );
+        }
+    }
+
+    /**
+     * Removes the listings and the number of files of a user from the cache of this node and of the other nodes
+     * 
+     * @param nIdUser
+     *            the id of the user
+     */
+    public void invalidateUser( int nIdUser )
+    {
+        evictUser( nIdUser );
+        for ( ITemporaryFileCacheListener listener : getListeners( ) )
+        {
+            listener.userInvalidated( nIdUser );
+        }
+    }
+
+    /**
+     * Removes the listings and the number of files of all the users from the cache of this node and of the other nodes
+     */
+    public void invalidateListings( )
+    {
+        evictListings( );
+        for ( ITemporaryFileCacheListener listener : getListeners( ) )
+        {
+            listener.listingsInvalidated( );
+        }
+    }
+
+    /**
+     * Removes a file from the cache of this node only, when notified by another node
+     * 
+     * @param nIdFile
+     *            the id of the file
+     */
+    public synchronized void evictFile( int nIdFile )
+    {
+        _lFileInvalidations++;
+        removeKey( KEY_FILE + nIdFile );
+    }
+
+    /**
+     * Removes the listings and the number of files of a user from the cache of this node only, when notified by another node
+     * 
+     * @param nIdUser
+     *            the id of the user
+     */
+    public void evictUser( int nIdUser )
+    {
+        _mapUserGenerations.merge( nIdUser, 1L, Long::sum );
+    }
+
+    /**
+     * Removes the listings and the number of files of all the users from the cache of this node only, when notified by another node
+     */
+    public void evictListings( )
+    {
+        _listingsGeneration.incrementAndGet( );
+    }
+
+    /**
+     * @param nIdUser
+     *            the id of the user
+     * @return the part of the keys identifying the current listings of the user
+     */
+    private String getUserKey( int nIdUser )
+    {
+        return nIdUser + KEY_SEPARATOR + _mapUserGenerations.getOrDefault( nIdUser, 0L ) + KEY_SEPARATOR + _listingsGeneration.get( ) + KEY_SEPARATOR;
+    }
+
+    /**
+     * @return the listeners declared as Spring beans
+     */
+    private static List<ITemporaryFileCacheListener> getListeners( )
+    {
+        try
+        {
+            return SpringContextService.getBeansOfType( ITemporaryFileCacheListener.class );
+        }
+        catch( RuntimeException e )
+        {
+            AppLogService.error( "Unable to get the temporary files cache listeners", e );
+            return new ArrayList<>( );
+        }
+    }
+
+    /**
+     * Copies a listing, so that the cached files are not modified by the callers
+     * 
+     * @param listFiles
+     *            the listing
+     * @return the copy
+     */
+    private static List<TemporaryFile> copy( List<TemporaryFile> listFiles )
+    {
+        List<TemporaryFile> listCopy = new ArrayList<>( listFiles.size( ) );
+        for ( TemporaryFile file : listFiles )
+        {
+            listCopy.add( copy( file ) );
+        }
+        return listCopy;
+    }
+
+    /**
+     * Copies a file, so that the cached file is not modified by the callers
+     * 
+     * @param file
+     *            the file
+     * @return the copy
+     */
+    private static TemporaryFile copy( TemporaryFile file )
+    {
+        TemporaryFile copy = new TemporaryFile( );
+        copy.setIdFile( file.getIdFile( ) );
+        copy.setIdPhysicalFile( file.getIdPhysicalFile( ) );
+        copy.setTitle( file.getTitle( ) );
+        copy.setSize( file.getSize( ) );
+        copy.setExtension( file.getExtension( ) );
+        copy.setMimeType( file.getMimeType( ) );
+        copy.setDateCreation( file.getDateCreation( ) );
+        copy.setUser( file.getUser( ) );
+        copy.setDescription( file.getDescription( ) );
+        copy.setStatus( file.getStatus( ) );
+        copy.setProgress( file.getProgress( ) );
+        copy.setDateStart( file.getDateStart( ) );
+        copy.setDateCompression( file.getDateCompression( ) );
+        copy.setDateStorage( file.getDateStorage( ) );
+        copy.setDateEnd( file.getDateEnd( ) );
+        copy.setCacheKey( file.getCacheKey( ) );
+        return copy;
+    }
+}
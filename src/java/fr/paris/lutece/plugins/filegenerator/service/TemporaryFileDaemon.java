@@ -33,6 +33,8 @@
  */
 package fr.paris.lutece.plugins.filegenerator.service;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.List;
 
 import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
@@ -40,18 +42,58 @@ import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileHome;
 import fr.paris.lutece.portal.service.daemon.Daemon;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
+/**
+ * Daemon purging the expired temporary files. The files are read by pages ordered by creation date and removed by batches, within a configurable budget of
+ * files and time per run.
+ */
 public class TemporaryFileDaemon extends Daemon
 {
+    private static final String PROPERTY_DAYS_BEFORE_DELETE = "daemon.temporaryfilesDaemon.days.defore.delete";
+    private static final String PROPERTY_BATCH_SIZE = "daemon.temporaryfilesDaemon.batch.size";
+    private static final String PROPERTY_MAX_FILES = "daemon.temporaryfilesDaemon.max.files";
+    private static final String PROPERTY_MAX_DURATION = "daemon.temporaryfilesDaemon.max.duration";
 
     @Override
     public void run( )
     {
-        int daysBeforeDelete = Integer.parseInt( AppPropertiesService.getProperty( "daemon.temporaryfilesDaemon.days.defore.delete", "30" ) );
-        List<TemporaryFile> list = TemporaryFileHome.selectFilesOlderThan( daysBeforeDelete );
-        for ( TemporaryFile temporaryFile : list )
+        int daysBeforeDelete = Integer.parseInt( AppPropertiesService.getProperty( PROPERTY_DAYS_BEFORE_DELETE, "30" ) );
+        int nBatchSize = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, 500 ) );
+        int nMaxFiles = AppPropertiesService.getPropertyInt( PROPERTY_MAX_FILES, 0 );
+        long lMaxDuration = AppPropertiesService.getPropertyLong( PROPERTY_MAX_DURATION, 0 ) * 1000;
+
+        Timestamp dateLimit = Timestamp.valueOf( LocalDateTime.now( ).minusDays( daysBeforeDelete ) );
+        long lStart = System.currentTimeMillis( );
+        int nRead = 0;
+        int nPurged = 0;
+        boolean bBudgetReached = false;
+        TemporaryFile last = null;
+
+        while ( true )
         {
-            TemporaryFileService.getInstance( ).removeTemporaryFile( temporaryFile );
+            int nLimit = nMaxFiles > 0 ? Math.min( nBatchSize, nMaxFiles - nRead ) : nBatchSize;
+            List<TemporaryFile> list = TemporaryFileHome.selectFilesOlderThan( dateLimit, last, nLimit );
+            if ( list.isEmpty( ) )
+            {
+                break;
+            }
+            nRead += list.size( );
+            nPurged += TemporaryFileService.getInstance( ).removeTemporaryFiles( list );
+            last = list.get( list.size( ) - 1 );
+
+            if ( list.size( ) < nLimit )
+            {
+                break;
+            }
+            if ( ( nMaxFiles > 0 && nRead >= nMaxFiles ) || ( lMaxDuration > 0 && System.currentTimeMillis( ) - lStart >= lMaxDuration ) )
+            {
+                bBudgetReached = true;
+                break;
+            }
         }
-    }
 
+        long lDuration = System.currentTimeMillis( ) - lStart;
+        FileGenerationMetrics.getInstance( ).recordPurge( nPurged, nRead - nPurged, lDuration, bBudgetReached );
+        setLastRunLogs( nPurged + " expired file(s) purged, " + ( nRead - nPurged ) + " failed, in " + lDuration + " ms"
+                + ( bBudgetReached ? ". Budget reached, the remaining files will be purged by the next run." : "" ) );
+    }
 }
@@ -34,21 +34,32 @@
 package fr.paris.lutece.plugins.filegenerator.service;
 
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.concurrent.CompletableFuture;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import fr.paris.lutece.plugins.filegenerator.business.ClusterJob;
 import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
 import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileHome;
-import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
 import fr.paris.lutece.portal.business.user.AdminUser;
-import fr.paris.lutece.portal.service.i18n.I18nService;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 import fr.paris.lutece.util.file.FileUtil;
@@ -59,146 +70,1019 @@ import fr.paris.lutece.util.file.FileUtil;
 public class TemporaryFileGeneratorService
 {
     private static final TemporaryFileGeneratorService INSTANCE = new TemporaryFileGeneratorService( );
-    private static final Integer FILE_MAX_SIZE = Integer.parseInt( AppPropertiesService.getProperty( "temporaryfiles.max.size", "0" ) );
-    private static final String KEY_FILE_TOO_BIG = "filegenerator.temporaryfile.file.too.big";
-    private static final Object LOCK = new Object( );
+    private static final String PROPERTY_MAX_SIZE = "temporaryfiles.max.size";
+    private static final String PROPERTY_MAX_RAW_SIZE = "temporaryfiles.max.raw.size";
+    private static final String MIME_TYPE_ZIP = "application/zip";
+    private static final long PROGRESS_UPDATE_INTERVAL = AppPropertiesService.getPropertyLong( "temporaryfiles.progress.update.interval", 1000 );
+    private static final String PROPERTY_TIMEOUT = "temporaryfiles.generation.timeout";
+    private static final String THREAD_NAME_TIMEOUT = "filegenerator-timeout";
+    private static final String PROPERTY_CACHE_TTL = "temporaryfiles.cache.ttl";
+    private static final String PROPERTY_PARTS_MAX_PARALLEL = "temporaryfiles.generation.parts.maxParallel";
+    private static final int DEFAULT_PARTS_MAX_PARALLEL = 4;
+    private static final String PROPERTY_HEARTBEAT_INTERVAL = "temporaryfiles.generation.heartbeat.interval";
+    private static final long DEFAULT_HEARTBEAT_INTERVAL = 300;
+    private static final int HEARTBEAT_BATCH_SIZE = 500;
+
+    private final FileGenerationExecutor _executor = new FileGenerationExecutor( );
+    private final Map<Integer, GenerationJob> _mapJobs = new ConcurrentHashMap<>( );
+    private final Map<String, GenerationJob> _mapJobsByCacheKey = new ConcurrentHashMap<>( );
+    private final ScheduledExecutorService _timeoutScheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, THREAD_NAME_TIMEOUT );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    /**
+     * Constructor. The service is obtained with {@link #getInstance()}. The files of the jobs of the instance are kept alive in the database while they are
+     * queued or generated, so that the reconciliation of the other nodes leaves them alone.
+     */
+    public TemporaryFileGeneratorService( )
+    {
+        long lInterval = Math.max( 1, AppPropertiesService.getPropertyLong( PROPERTY_HEARTBEAT_INTERVAL, DEFAULT_HEARTBEAT_INTERVAL ) );
+        _timeoutScheduler.scheduleWithFixedDelay( this::updateHeartbeat, lInterval, lInterval, TimeUnit.SECONDS );
+    }
 
     public static TemporaryFileGeneratorService getInstance( )
     {
         return INSTANCE;
     }
 
+    /**
+     * Updates the heartbeat of the files of the jobs queued or running on this instance
+     */
+    private void updateHeartbeat( )
+    {
+        List<Integer> listIdFiles = new ArrayList<>( _mapJobs.keySet( ) );
+        try
+        {
+            for ( int i = 0; i < listIdFiles.size( ); i += HEARTBEAT_BATCH_SIZE )
+            {
+                TemporaryFileHome.updateHeartbeat( listIdFiles.subList( i, Math.min( listIdFiles.size( ), i + HEARTBEAT_BATCH_SIZE ) ) );
+            }
+        }
+        catch( RuntimeException e )
+        {
+            // Retried at the next heartbeat, well before the files can be reclaimed
+            AppLogService.error( "Unable to update the heartbeat of the temporary files being generated", e );
+        }
+    }
+
+    /**
+     * Queue the generation of a file. The temporary file is created right away so that the user sees it as pending while it waits for a worker.
+     * <p>
+     * When the generator provides a cache key, a file generated with the same key within the configured TTL is reused, and a generation in progress with
+     * the same key is joined instead of starting a new one.
+     * 
+     * @param generator
+     *            the generator
+     * @param user
+     *            the user requesting the file
+     * @see #generateFile(IFileGenerator, AdminUser, int) to get the id of the temporary file
+     */
     public void generateFile( IFileGenerator generator, AdminUser user )
     {
-        CompletableFuture.runAsync( new GenerateFileRunnable( generator, user ) );
+        generateFile( generator, user, generator.getPriority( ) );
+    }
+
+    /**
+     * Queue the generation of a file with a given priority, overriding the priority of the generator.
+     * 
+     * @param generator
+     *            the generator
+     * @param user
+     *            the user requesting the file
+     * @param nPriority
+     *            the priority, see {@link IFileGenerator#getPriority()}
+     * @return the id of the temporary file
+     * @see #generateFile(IFileGenerator, AdminUser)
+     */
+    public int generateFile( IFileGenerator generator, AdminUser user, int nPriority )
+    {
+        String strCacheKey = generator.getCacheKey( );
+        if ( strCacheKey != null )
+        {
+            int nIdReusedFile = reuseGeneratedFile( strCacheKey, user );
+            if ( nIdReusedFile != 0 )
+            {
+                return nIdReusedFile;
+            }
+        }
+
+        int idFile = TemporaryFileService.getInstance( ).initTemporaryFile( user, generator.getDescription( ) );
+        GenerationEventBus.getInstance( ).publish( user.getUserId( ), idFile, TemporaryFileStatus.QUEUED, 0 );
+        if ( ClusterJobQueue.getInstance( ).isDistributed( generator ) )
+        {
+            // Joins a generation with the same key run by this node, which is not registered until it runs if it was queued in the cluster
+            GenerationJob runningJob = strCacheKey != null ? _mapJobsByCacheKey.get( strCacheKey ) : null;
+            if ( runningJob != null && runningJob.subscribe( idFile, user.getUserId( ) ) )
+            {
+                _mapJobs.put( idFile, runningJob );
+                return idFile;
+            }
+            if ( ClusterJobQueue.getInstance( ).submit( idFile, user, generator, nPriority, strCacheKey ) )
+            {
+                return idFile;
+            }
+        }
+        GenerationJob job = new GenerationJob( idFile, user.getUserId( ), generator );
+        job.setPriority( nPriority );
+        if ( strCacheKey != null )
+        {
+            GenerationJob runningJob = _mapJobsByCacheKey.putIfAbsent( strCacheKey, job );
+            while ( runningJob != null )
+            {
+                if ( runningJob.subscribe( idFile, user.getUserId( ) ) )
+                {
+                    _mapJobs.put( idFile, runningJob );
+                    return idFile;
+                }
+                // The running job is ending : start a new one
+                runningJob = _mapJobsByCacheKey.replace( strCacheKey, runningJob, job ) ? null : _mapJobsByCacheKey.putIfAbsent( strCacheKey, job );
+            }
+        }
+
+        _mapJobs.put( idFile, job );
+        try
+        {
+            _executor.execute( user.getUserId( ), generator.getClass( ), nPriority, new GenerateFileRunnable( job, strCacheKey ) );
+        }
+        catch( RejectedExecutionException e )
+        {
+            AppLogService.error( "File generation queue is full, temporary file with id " + idFile + " is rejected", e );
+            FileGenerationMetrics.getInstance( ).recordFailure( FileGenerationMetrics.CAUSE_REJECTED, generator );
+            Map<Integer, Integer> mapSubscribers = job.close( );
+            releaseJob( job, strCacheKey );
+            for ( Map.Entry<Integer, Integer> subscriber : mapSubscribers.entrySet( ) )
+            {
+                TemporaryFileHome.updateStatus( subscriber.getKey( ), TemporaryFileStatus.FAILED );
+                GenerationEventBus.getInstance( ).publish( subscriber.getValue( ), subscriber.getKey( ), TemporaryFileStatus.FAILED, 0 );
+            }
+        }
+        return idFile;
+    }
+
+    /**
+     * Runs a job claimed in the cluster queue
+     * 
+     * @param clusterJob
+     *            the queued job
+     * @param generator
+     *            the deserialized generator of the job
+     * @param strLeaseToken
+     *            the token of the lease taken on the job
+     * @return false if the job is rejected by the executor
+     */
+    boolean runClaimedJob( ClusterJob clusterJob, IFileGenerator generator, String strLeaseToken )
+    {
+        GenerationJob job = new GenerationJob( clusterJob.getIdFile( ), clusterJob.getIdUser( ), generator );
+        job.setLeaseToken( strLeaseToken );
+        job.setPriority( clusterJob.getPriority( ) );
+        if ( clusterJob.getCacheKey( ) != null )
+        {
+            // The requests of this node with the same key join the job while it runs
+            _mapJobsByCacheKey.putIfAbsent( clusterJob.getCacheKey( ), job );
+        }
+        _mapJobs.put( job.getIdFile( ), job );
+        try
+        {
+            _executor.execute( clusterJob.getIdUser( ), generator.getClass( ), clusterJob.getPriority( ), new GenerateFileRunnable( job, clusterJob.getCacheKey( ) ) );
+            return true;
+        }
+        catch( RejectedExecutionException e )
+        {
+            // The job is claimed again later, the files of this node which joined it in the meantime are failed
+            for ( Map.Entry<Integer, Integer> subscriber : job.close( ).entrySet( ) )
+            {
+                if ( subscriber.getKey( ) != job.getIdFile( ) )
+                {
+                    TemporaryFileHome.updateStatus( subscriber.getKey( ), TemporaryFileStatus.FAILED );
+                    GenerationEventBus.getInstance( ).publish( subscriber.getValue( ), subscriber.getKey( ), TemporaryFileStatus.FAILED, 0 );
+                }
+            }
+            releaseJob( job, clusterJob.getCacheKey( ) );
+            return false;
+        }
+    }
+
+    /**
+     * Creates a temporary file for an user from a file generated with the same cache key within the configured TTL. Both files reference the same stored
+     * file.
+     * 
+     * @param strCacheKey
+     *            the cache key
+     * @param user
+     *            the user requesting the file
+     * @return the id of the new temporary file, 0 if there is no such file
+     */
+    private int reuseGeneratedFile( String strCacheKey, AdminUser user )
+    {
+        long lTtl = AppPropertiesService.getPropertyLong( PROPERTY_CACHE_TTL, 0 );
+        if ( lTtl <= 0 )
+        {
+            return 0;
+        }
+        TemporaryFile generatedFile = TemporaryFileHome.findLatestByCacheKey( strCacheKey, new Timestamp( System.currentTimeMillis( ) - lTtl * 1000 ) );
+        if ( generatedFile == null )
+        {
+            return 0;
+        }
+        return reuseGeneratedFile( generatedFile, user );
+    }
+
+    /**
+     * Creates a temporary file for an user from a generated file. Both files reference the same stored file.
+     * 
+     * @param generatedFile
+     *            the generated file, with the DONE status, can be null
+     * @param user
+     *            the user requesting the file
+     * @return the id of the new temporary file, 0 if the generated file or its stored file was removed in the meantime
+     */
+    public int reuseGeneratedFile( TemporaryFile generatedFile, AdminUser user )
+    {
+        if ( generatedFile == null )
+        {
+            return 0;
+        }
+        TemporaryFile file = new TemporaryFile( );
+        file.setUser( user );
+        copyResult( generatedFile, file );
+        file.setDateEnd( new Timestamp( System.currentTimeMillis( ) ) );
+        int nIdFile = TemporaryFileService.getInstance( ).createSharedFile( file );
+        if ( nIdFile == 0 )
+        {
+            return 0;
+        }
+        GenerationEventBus.getInstance( ).publish( user.getUserId( ), nIdFile, TemporaryFileStatus.DONE, 100 );
+        return nIdFile;
+    }
+
+    /**
+     * Copies the result of a generation to a temporary file
+     * 
+     * @param result
+     *            the result
+     * @param file
+     *            the temporary file
+     */
+    private static void copyResult( TemporaryFile result, TemporaryFile file )
+    {
+        file.setTitle( result.getTitle( ) );
+        file.setDescription( result.getDescription( ) );
+        file.setIdPhysicalFile( result.getIdPhysicalFile( ) );
+        file.setSize( result.getSize( ) );
+        file.setMimeType( result.getMimeType( ) );
+        file.setStatus( result.getStatus( ) );
+        file.setProgress( result.getProgress( ) );
+        file.setDateEnd( result.getDateEnd( ) );
+        file.setCacheKey( result.getCacheKey( ) );
+    }
+
+    /**
+     * Unregisters a job
+     * 
+     * @param job
+     *            the job
+     * @param strCacheKey
+     *            the cache key of the job, or null
+     */
+    private void releaseJob( GenerationJob job, String strCacheKey )
+    {
+        if ( strCacheKey != null )
+        {
+            _mapJobsByCacheKey.remove( strCacheKey, job );
+        }
+        for ( Integer nIdFile : job.getIdFiles( ) )
+        {
+            _mapJobs.remove( nIdFile, job );
+        }
+    }
+
+    /**
+     * Updates the status of the temporary files of a job, and notifies their users
+     * 
+     * @param job
+     *            the job
+     * @param status
+     *            the status
+     */
+    private static void updateStatus( GenerationJob job, TemporaryFileStatus status )
+    {
+        job.enterStage( status );
+        for ( Map.Entry<Integer, Integer> subscriber : job.getSubscribers( ).entrySet( ) )
+        {
+            TemporaryFileHome.updateStatus( subscriber.getKey( ), status );
+            GenerationEventBus.getInstance( ).publish( subscriber.getValue( ), subscriber.getKey( ), status, 0 );
+        }
+    }
+
+    /**
+     * Get the jobs queued or running on this instance
+     * 
+     * @return the jobs, ordered by creation
+     */
+    public List<GenerationJob> getJobs( )
+    {
+        Set<GenerationJob> setJobs = Collections.newSetFromMap( new IdentityHashMap<>( ) );
+        setJobs.addAll( _mapJobs.values( ) );
+        List<GenerationJob> listJobs = new ArrayList<>( setJobs );
+        listJobs.sort( Comparator.comparingLong( GenerationJob::getCreationTime ) );
+        return listJobs;
+    }
+
+    /**
+     * Get the job generating a temporary file
+     * 
+     * @param nIdFile
+     *            the id of the temporary file
+     * @return the job, or null if the file is not queued nor being generated on this instance
+     */
+    public GenerationJob getJob( int nIdFile )
+    {
+        return _mapJobs.get( nIdFile );
+    }
+
+    /**
+     * Cancels the generation of a temporary file, and removes it. The job is cancelled and its partial data removed when no other request shares it.
+     * 
+     * @param nIdFile
+     *            the id of the temporary file
+     * @return false if the file is not queued nor being generated on this instance or in the cluster queue
+     */
+    public boolean cancel( int nIdFile )
+    {
+        GenerationJob job = _mapJobs.remove( nIdFile );
+        if ( job == null )
+        {
+            return ClusterJobQueue.getInstance( ).cancel( nIdFile );
+        }
+        TemporaryFileHome.remove( nIdFile );
+        if ( job.unsubscribe( nIdFile ) == 0 )
+        {
+            job.cancel( GenerationJob.CancelReason.USER );
+        }
+        return true;
+    }
+
+    /**
+     * @return the generation executor
+     */
+    public FileGenerationExecutor getExecutor( )
+    {
+        return _executor;
+    }
+
+    /**
+     * Get the maximum size of the stored file, compressed or not, for a generator
+     * 
+     * @param generator
+     *            the generator
+     * @return the maximum size, 0 for no limit
+     */
+    public static long getMaxSize( IFileGenerator generator )
+    {
+        return getSizeLimit( PROPERTY_MAX_SIZE, generator );
+    }
+
+    /**
+     * Get the maximum size of the data produced by a generator, before its compression
+     * 
+     * @param generator
+     *            the generator
+     * @return the maximum size, 0 for no limit
+     */
+    public static long getMaxRawSize( IFileGenerator generator )
+    {
+        return getSizeLimit( PROPERTY_MAX_RAW_SIZE, generator );
     }
 
-    private static final class GenerateFileRunnable implements Runnable
+    /**
+     * Get a size limit, that can be overridden for a generator class by suffixing the property with the class name
+     * 
+     * @param strProperty
+     *            the property of the limit
+     * @param generator
+     *            the generator
+     * @return the size limit, 0 for no limit
+     */
+    private static long getSizeLimit( String strProperty, IFileGenerator generator )
     {
+        long lDefaultLimit = AppPropertiesService.getPropertyLong( strProperty, 0 );
+        return AppPropertiesService.getPropertyLong( strProperty + "." + generator.getClass( ).getName( ), lDefaultLimit );
+    }
+
+    /**
+     * Get the wall-clock timeout of a generation, that can be overridden for a generator class by suffixing the property with the class name
+     * 
+     * @param generator
+     *            the generator
+     * @return the timeout in seconds, 0 for no timeout
+     */
+    private static long getTimeout( IFileGenerator generator )
+    {
+        long lDefaultTimeout = AppPropertiesService.getPropertyLong( PROPERTY_TIMEOUT, 0 );
+        return AppPropertiesService.getPropertyLong( PROPERTY_TIMEOUT + "." + generator.getClass( ).getName( ), lDefaultTimeout );
+    }
 
+    /**
+     * Storage of the generated data
+     */
+    @FunctionalInterface
+    private interface PhysicalFileStore
+    {
+        /**
+         * Stores the data and sets its size on the temporary file.
+         * 
+         * @param file
+         *            the temporary file
+         * @return the id of the stored file, or null if the file store failed
+         * @throws IOException
+         */
+        String store( TemporaryFile file ) throws IOException;
+    }
+
+    /**
+     * Persists the progress reported by a generator, at most once per configured interval
+     */
+    private static final class ProgressRecorder implements IProgressListener
+    {
+        private final GenerationJob _job;
+        private int _nLastProgress = -1;
+        private long _lLastUpdate;
+
+        /**
+         * Constructor.
+         * 
+         * @param job
+         *            the generation job
+         */
+        ProgressRecorder( GenerationJob job )
+        {
+            _job = job;
+        }
+
+        @Override
+        public synchronized void onProgress( int nPercent )
+        {
+            int nProgress = Math.max( 0, Math.min( 100, nPercent ) );
+            long lNow = System.currentTimeMillis( );
+            if ( nProgress != _nLastProgress && ( nProgress == 100 || lNow - _lLastUpdate >= PROGRESS_UPDATE_INTERVAL ) )
+            {
+                _nLastProgress = nProgress;
+                _lLastUpdate = lNow;
+                for ( Map.Entry<Integer, Integer> subscriber : _job.getSubscribers( ).entrySet( ) )
+                {
+                    TemporaryFileHome.updateProgress( subscriber.getKey( ), nProgress );
+                    GenerationEventBus.getInstance( ).publish( subscriber.getValue( ), subscriber.getKey( ), TemporaryFileStatus.RUNNING, nProgress );
+                }
+            }
+        }
+    }
+
+    /**
+     * Output stream failing on the first write following the cancellation of its job
+     */
+    private static final class CancellableOutputStream extends FilterOutputStream
+    {
+        private final GenerationJob _job;
+
+        /**
+         * Constructor.
+         * 
+         * @param out
+         *            the output stream
+         * @param job
+         *            the job
+         */
+        CancellableOutputStream( OutputStream out, GenerationJob job )
+        {
+            super( out );
+            _job = job;
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            checkCancelled( );
+            out.write( b );
+            _job.addProducedBytes( 1 );
+        }
+
+        @Override
+        public void write( byte [ ] b, int off, int len ) throws IOException
+        {
+            checkCancelled( );
+            out.write( b, off, len );
+            _job.addProducedBytes( len );
+        }
+
+        /**
+         * @throws GenerationCancelledException
+         *             if the job is cancelled
+         */
+        private void checkCancelled( ) throws GenerationCancelledException
+        {
+            if ( _job.isCancelled( ) )
+            {
+                throw new GenerationCancelledException( _job.getIdFile( ) );
+            }
+        }
+    }
+
+    private final class GenerateFileRunnable implements Runnable
+    {
+
+        private GenerationJob _job;
         private IFileGenerator _generator;
-        private AdminUser _user;
+        private int _idFile;
+        private String _strCacheKey;
+        private volatile long _lRawSize;
 
         /**
          * Constructor.
          * 
-         * @param _generator
-         * @param _user
+         * @param job
+         *            the generation job
+         * @param strCacheKey
+         *            the cache key of the generation, or null
          */
-        public GenerateFileRunnable( IFileGenerator generator, AdminUser user )
+        public GenerateFileRunnable( GenerationJob job, String strCacheKey )
         {
-            _generator = generator;
-            _user = user;
+            _job = job;
+            _generator = job.getGenerator( );
+            _idFile = job.getIdFile( );
+            _strCacheKey = strCacheKey;
         }
 
         @Override
         public void run( )
         {
-            int idFile = TemporaryFileService.getInstance( ).initTemporaryFile( _user, _generator.getDescription( ) );
-            synchronized( LOCK )
+            if ( !_job.attach( ) )
             {
-                Path generatedFile = null;
-                try
+                // Cancelled while queued
+                releaseJob( _job, _strCacheKey );
+                completeClusterJob( );
+                return;
+            }
+            try
+            {
+                long lTimeout = getTimeout( _generator );
+                if ( lTimeout > 0 )
                 {
-                    generatedFile = _generator.generateFile( );
+                    _job.setTimeout( _timeoutScheduler.schedule( ( ) -> {
+                        _job.cancel( GenerationJob.CancelReason.TIMEOUT );
+                    }, lTimeout, TimeUnit.SECONDS ) );
                 }
-                catch( IOException e )
+                if ( _job.getLeaseToken( ) != null )
                 {
-                    AppLogService.error( "Error generating temporary file with id " + idFile, e );
+                    long lRenewalInterval = ClusterJobQueue.getInstance( ).getLeaseRenewalInterval( );
+                    _job.setHeartbeat( _timeoutScheduler.scheduleWithFixedDelay( ( ) -> {
+                        ClusterJobQueue.getInstance( ).renewLease( _job );
+                    }, lRenewalInterval, lRenewalInterval, TimeUnit.SECONDS ) );
                 }
-                updateTemporaryFile( generatedFile, idFile );
+                generate( );
+            }
+            finally
+            {
+                releaseJob( _job, _strCacheKey );
+                _job.detach( );
+                completeClusterJob( );
             }
         }
 
-        private void updateTemporaryFile( Path generatedFile, int idFile )
+        /**
+         * Removes the job from the cluster queue once ended, unless its lease was taken over by another node
+         */
+        private void completeClusterJob( )
         {
-            TemporaryFile file = TemporaryFileHome.findByPrimaryKey( idFile );
-            if ( generatedFile != null )
+            if ( _job.getLeaseToken( ) != null )
             {
-                try
+                ClusterJobQueue.getInstance( ).complete( _job );
+            }
+        }
+
+        /**
+         * Generates and stores the file
+         */
+        private void generate( )
+        {
+            updateStatus( _job, TemporaryFileStatus.RUNNING );
+            _generator.setProgressListener( new ProgressRecorder( _job ) );
+
+            if ( _generator instanceof IPartitionedFileGenerator )
+            {
+                // The parts are generated concurrently, and zipped and stored as they end
+                storeResult( file -> storeParts( file, (IPartitionedFileGenerator) _generator ) );
+                return;
+            }
+            if ( _generator instanceof IStreamingFileGenerator && !_generator.hasMultipleFiles( ) )
+            {
+                // The data is compressed and stored while it is generated
+                storeResult( file -> storeStream( file, (IStreamingFileGenerator) _generator ) );
+                return;
+            }
+
+            Path generatedFile = null;
+            try
+            {
+                generatedFile = _generator.generateFile( );
+            }
+            catch( IOException e )
+            {
+                if ( !_job.isCancelled( ) )
                 {
-                    PhysicalFile physicalFile = createPhysicalFile( generatedFile );
-                    int size = physicalFile.getValue( ).length;
-                    file.setSize( size );
-                    if ( FILE_MAX_SIZE > 0 && size > FILE_MAX_SIZE )
-                    {
-                        file.setTitle( I18nService.getLocalizedString( KEY_FILE_TOO_BIG, Locale.getDefault( ) ) );
-                        AppLogService.error( "File too big ( " + size + ") : Max size is " + FILE_MAX_SIZE );
-                    }
-                    else
-                    {
-                        file.setTitle( _generator.getFileName( ) );
-                        file.setMimeType( _generator.getMimeType( ) );
-                        file.setDescription( _generator.getDescription( ) );
-                        String physicaId = TemporaryFileService.getInstance( ).savePhysicalFile( file, physicalFile );
-                        file.setIdPhysicalFile( physicaId );
-                    }
+                    AppLogService.error( "Error generating temporary file with id " + _idFile, e );
                 }
-                catch( IOException e )
+            }
+
+            if ( _job.isCancelled( ) )
+            {
+                deleteGeneratedFile( generatedFile );
+                endCancelled( createResult( ) );
+                return;
+            }
+
+            if ( generatedFile == null )
+            {
+                FileGenerationMetrics.getInstance( ).recordFailure( FileGenerationMetrics.CAUSE_GENERATION, _generator );
+                TemporaryFile result = createResult( );
+                result.setStatus( TemporaryFileStatus.FAILED );
+                publishResult( result );
+                return;
+            }
+
+            Path fileToStore = generatedFile;
+            try
+            {
+                storeResult( file -> storeFile( file, fileToStore ) );
+            }
+            finally
+            {
+                deleteGeneratedFile( generatedFile );
+            }
+        }
+
+        /**
+         * Deletes the generated file or directory
+         * 
+         * @param generatedFile
+         *            the generated file or directory, can be null
+         */
+        private void deleteGeneratedFile( Path generatedFile )
+        {
+            if ( generatedFile == null )
+            {
+                return;
+            }
+            if ( generatedFile.toFile( ).isDirectory( ) )
+            {
+                for ( File fileToDelete : generatedFile.toFile( ).listFiles( ) )
                 {
-                    AppLogService.error( "Error storing temporary file with id " + idFile );
-                    file.setTitle( "" );
-                    file.setSize( -1 );
+                    FileUtil.deleteFile( fileToDelete );
                 }
-                finally
+            }
+            FileUtil.deleteFile( generatedFile.toFile( ) );
+        }
+
+        /**
+         * @return the result of the generation, to be copied to the temporary files of the job
+         */
+        private TemporaryFile createResult( )
+        {
+            TemporaryFile result = new TemporaryFile( );
+            result.setIdFile( _idFile );
+            result.setTitle( _generator.getFileName( ) );
+            result.setDescription( _generator.getDescription( ) );
+            result.setCacheKey( _strCacheKey );
+            return result;
+        }
+
+        /**
+         * Ends a cancelled generation : the stored data is removed when cancelled by the user or when the lease on the job is lost, the temporary files are
+         * flagged in error on timeout.
+         * 
+         * @param result
+         *            the result of the generation
+         */
+        private void endCancelled( TemporaryFile result )
+        {
+            // No more interruption can come : clear it so that the database can be reached
+            Thread.interrupted( );
+            if ( _job.getCancelReason( ) != GenerationJob.CancelReason.TIMEOUT )
+            {
+                FileGenerationMetrics.getInstance( ).recordFailure( _job.getCancelReason( ) == GenerationJob.CancelReason.USER
+                        ? FileGenerationMetrics.CAUSE_CANCELLED
+                        : FileGenerationMetrics.CAUSE_LEASE_LOST, _generator );
+                // The temporary files are removed by the cancellation, or published by the node which took over the job
+                if ( result.getIdPhysicalFile( ) != null )
                 {
-                    if ( generatedFile.toFile( ).isDirectory( ) )
-                    {
-                        for ( File fileToDelete : generatedFile.toFile( ).listFiles( ) )
-                        {
-                            FileUtil.deleteFile( fileToDelete );
-                        }
-                    }
-                    FileUtil.deleteFile( generatedFile.toFile( ) );
+                    TemporaryFileService.getInstance( ).releasePhysicalFile( result.getIdPhysicalFile( ) );
+                }
+                if ( _job.getCancelReason( ) == GenerationJob.CancelReason.LEASE_LOST )
+                {
+                    failJoinedFiles( );
+                }
+                return;
+            }
+            AppLogService.error( "Generation of temporary file with id " + _idFile + " timed out" );
+            FileGenerationMetrics.getInstance( ).recordFailure( FileGenerationMetrics.CAUSE_TIMEOUT, _generator );
+            result.setIdPhysicalFile( null );
+            result.setStatus( TemporaryFileStatus.FAILED );
+            publishResult( result );
+        }
+
+        /**
+         * Fails the files of this node which joined a queued job whose lease was lost : the node which took over the job only knows its own file
+         */
+        private void failJoinedFiles( )
+        {
+            for ( Map.Entry<Integer, Integer> subscriber : _job.close( ).entrySet( ) )
+            {
+                if ( subscriber.getKey( ) != _idFile )
+                {
+                    TemporaryFileHome.failIfUnfinished( subscriber.getKey( ) );
+                    GenerationEventBus.getInstance( ).publish( subscriber.getValue( ), subscriber.getKey( ), TemporaryFileStatus.FAILED, 0 );
                 }
             }
+        }
+
+        /**
+         * Stores the generated data and updates the temporary files accordingly.
+         * 
+         * @param store
+         *            the storage of the generated data
+         */
+        private void storeResult( PhysicalFileStore store )
+        {
+            TemporaryFile result = createResult( );
+            try
+            {
+                String physicaId = store.store( result );
+                result.setIdPhysicalFile( physicaId );
+                if ( _job.isCancelled( ) && ( physicaId == null || _job.getCancelReason( ) != GenerationJob.CancelReason.TIMEOUT ) )
+                {
+                    endCancelled( result );
+                    return;
+                }
+                result.setStatus( physicaId != null ? TemporaryFileStatus.DONE : TemporaryFileStatus.FAILED );
+                if ( physicaId != null )
+                {
+                    result.setProgress( 100 );
+                    FileGenerationMetrics.getInstance( ).recordGeneratedFile( _lRawSize, result.getSize( ) );
+                }
+                else
+                {
+                    FileGenerationMetrics.getInstance( ).recordFailure( FileGenerationMetrics.CAUSE_STORAGE, _generator );
+                }
+            }
+            catch( FileTooBigException e )
+            {
+                result.setStatus( TemporaryFileStatus.TOO_BIG );
+                result.setMimeType( null );
+                AppLogService.error( "File too big, temporary file with id " + _idFile + " is aborted : Max size is " + e.getMaxSize( ) );
+                FileGenerationMetrics.getInstance( ).recordFailure( FileGenerationMetrics.CAUSE_TOO_BIG, _generator );
+            }
+            catch( IOException e )
+            {
+                if ( _job.isCancelled( ) )
+                {
+                    endCancelled( result );
+                    return;
+                }
+                AppLogService.error( "Error storing temporary file with id " + _idFile, e );
+                FileGenerationMetrics.getInstance( ).recordFailure( FileGenerationMetrics.CAUSE_STORAGE, _generator );
+                result.setStatus( TemporaryFileStatus.FAILED );
+            }
+
+            if ( _job.isCancelled( ) )
+            {
+                // Timed out once stored : the file is kept, but the interruption must not reach the database
+                Thread.interrupted( );
+            }
+            publishResult( result );
+        }
+
+        /**
+         * Copies the result of the generation to the temporary files of the job, and references the stored file for each of them. The stored data is removed
+         * if all the temporary files have been removed or given a result by another node in the meantime, or if the lease on the job was lost.
+         * 
+         * @param result
+         *            the result of the generation
+         */
+        private void publishResult( TemporaryFile result )
+        {
+            _job.enterStage( null );
+            Map<Integer, Integer> mapSubscribers = _job.close( );
+            if ( _job.getLeaseToken( ) != null && !ClusterJobQueue.getInstance( ).holdsLease( _job ) )
+            {
+                // Taken over by another node, which publishes its own result, or cancelled : only the files of this node which joined the job get this one
+                AppLogService.error( "Lease lost on the generation of temporary file with id " + _idFile + ", its result is not published to it" );
+                mapSubscribers.remove( _idFile );
+            }
+            long lPublishStart = System.nanoTime( );
+            result.setDateEnd( new Timestamp( System.currentTimeMillis( ) ) );
+            if ( result.getStatus( ) != TemporaryFileStatus.DONE )
+            {
+                result.setCacheKey( null );
+            }
+
+            int nPublished = 0;
+            for ( Map.Entry<Integer, Integer> subscriber : mapSubscribers.entrySet( ) )
+            {
+                // Not written if the file was removed or given a result by another node in the meantime
+                if ( TemporaryFileHome.updateResult( subscriber.getKey( ), result ) )
+                {
+                    GenerationEventBus.getInstance( ).publish( subscriber.getValue( ), subscriber.getKey( ), result.getStatus( ), result.getProgress( ) );
+                    nPublished++;
+                }
+            }
+            long lPublishDuration = System.nanoTime( ) - lPublishStart;
+            FileGenerationMetrics.getInstance( ).recordStage( FileGenerationMetrics.STAGE_PUBLISHING, lPublishDuration );
+            _job.traceStage( FileGenerationMetrics.STAGE_PUBLISHING, lPublishDuration );
+            FileGenerationMetrics.getInstance( ).recordCompletion( _job.getElapsedNanos( ),
+                    result.getStatus( ) == TemporaryFileStatus.DONE ? result.getSize( ) : 0 );
+            AppLogService.debug( "Generation of temporary file with id " + _idFile + " ended with status " + result.getStatus( ) + " : " + _job.getTrace( ) );
+
+            if ( result.getIdPhysicalFile( ) == null )
+            {
+                return;
+            }
+            // The stored file comes with one reference
+            if ( nPublished == 0 )
+            {
+                TemporaryFileService.getInstance( ).releasePhysicalFile( result.getIdPhysicalFile( ) );
+            }
             else
             {
-                file.setSize( -1 );
+                TemporaryFileService.getInstance( ).addReferences( result.getIdPhysicalFile( ), nPublished - 1 );
+            }
+        }
+
+        /**
+         * Sends the output of a streaming generator to the file store, compressing it on the fly if needed.
+         * 
+         * @param file
+         *            the temporary file
+         * @param generator
+         *            the streaming generator
+         * @return the id of the stored file, or null if the file store failed
+         * @throws FileTooBigException
+         *             if the file to store exceeds the max size
+         * @throws IOException
+         */
+        private String storeStream( TemporaryFile file, IStreamingFileGenerator generator ) throws IOException
+        {
+            long lMaxSize = getMaxSize( generator );
+            long lMaxRawSize = getMaxRawSize( generator );
+            StreamPipeline.StreamWriter rawWriter = out -> {
+                SizeLimitedOutputStream rawOut = new SizeLimitedOutputStream( new CancellableOutputStream( out, _job ), lMaxRawSize );
+                try
+                {
+                    generator.writeTo( rawOut );
+                }
+                finally
+                {
+                    _lRawSize = rawOut.getCount( );
+                }
+            };
+            if ( !generator.isZippable( ) )
+            {
+                file.setMimeType( generator.getMimeType( ) );
+                return TemporaryFileService.getInstance( ).savePhysicalFile( file, rawWriter, lMaxSize );
             }
 
-            TemporaryFileHome.update( file );
+            file.setMimeType( MIME_TYPE_ZIP );
+            return TemporaryFileService.getInstance( ).savePhysicalFile( file,
+                    out -> TemporaryFileZipper.getInstance( ).zip( generator.getZipEntryName( ), generator.getMimeType( ), rawWriter, out ), lMaxSize );
         }
 
-        private PhysicalFile createPhysicalFile( Path generatedFile ) throws IOException
+        /**
+         * Generates the parts of a partitioned generator concurrently, on this job and on helper jobs of the same user and generator class, and sends the
+         * zip to the file store as the parts end.
+         * 
+         * @param file
+         *            the temporary file
+         * @param generator
+         *            the partitioned generator
+         * @return the id of the stored file, or null if the file store failed
+         * @throws FileTooBigException
+         *             if the file to store or the data of the parts exceeds the max size
+         * @throws IOException
+         */
+        private String storeParts( TemporaryFile file, IPartitionedFileGenerator generator ) throws IOException
         {
-            PhysicalFile physicalFile = new PhysicalFile( );
+            long lMaxSize = getMaxSize( generator );
+            long lMaxRawSize = getMaxRawSize( generator );
+            List<IFilePart> listParts = generator.getParts( );
+            List<String> listNames = new ArrayList<>( );
+            List<StreamPipeline.StreamWriter> listWriters = new ArrayList<>( );
+            AtomicLong rawSize = new AtomicLong( );
+            for ( IFilePart part : listParts )
+            {
+                listNames.add( part.getFileName( ) );
+                listWriters.add( out -> part.writeTo( new SizeLimitedOutputStream( new CancellableOutputStream( out, _job ), lMaxRawSize, rawSize ) ) );
+            }
+            PartitionedZipper zipper = new PartitionedZipper( listNames, listWriters );
+            int nMaxParallel = AppPropertiesService.getPropertyInt( PROPERTY_PARTS_MAX_PARALLEL, DEFAULT_PARTS_MAX_PARALLEL );
+            IProgressListener progressListener = new ProgressRecorder( _job );
+
+            file.setMimeType( MIME_TYPE_ZIP );
+            try
+            {
+                return TemporaryFileService.getInstance( ).savePhysicalFile( file,
+                        out -> zipper.zip( out, helper -> _executor.execute( _job.getIdUser( ), generator.getClass( ), _job.getPriority( ), helper ),
+                                nMaxParallel, progressListener ),
+                        lMaxSize );
+            }
+            finally
+            {
+                _lRawSize = rawSize.get( );
+            }
+        }
+
+        /**
+         * Sends the generated file(s) to the file store. Zipped files are compressed straight into the storage stream.
+         * 
+         * @param file
+         *            the temporary file
+         * @param generatedFile
+         *            the generated file or directory
+         * @return the id of the stored file, or null if the file store failed
+         * @throws FileTooBigException
+         *             if the file to store exceeds the max size
+         * @throws IOException
+         */
+        private String storeFile( TemporaryFile file, Path generatedFile ) throws IOException
+        {
+            long lMaxSize = getMaxSize( _generator );
+            long lMaxRawSize = getMaxRawSize( _generator );
+            _lRawSize = getRawSize( generatedFile );
+            _job.addProducedBytes( _lRawSize );
+            if ( lMaxRawSize > 0 && _lRawSize > lMaxRawSize )
+            {
+                throw new FileTooBigException( lMaxRawSize );
+            }
+
+            List<Path> filesToZip = new ArrayList<>( );
             if ( _generator.hasMultipleFiles( ) )
             {
-                List<Path> files = new ArrayList<>( );
                 try ( DirectoryStream<Path> stream = Files.newDirectoryStream( generatedFile ) )
                 {
                     for ( Path path : stream )
                     {
-                        files.add( path );
+                        filesToZip.add( path );
                     }
                 }
-                createZipPhysicalFile( generatedFile, physicalFile, files.toArray( new Path [ files.size( )] ) );
             }
             else
                 if ( _generator.isZippable( ) )
                 {
-                    createZipPhysicalFile( generatedFile, physicalFile, generatedFile );
+                    filesToZip.add( generatedFile );
                 }
-                else
+
+            if ( filesToZip.isEmpty( ) )
+            {
+                updateStatus( _job, TemporaryFileStatus.STORING );
+                long size = Files.size( generatedFile );
+                file.setSize( size );
+                if ( lMaxSize > 0 && size > lMaxSize )
                 {
-                    physicalFile.setValue( Files.readAllBytes( generatedFile ) );
+                    throw new FileTooBigException( lMaxSize );
                 }
-            return physicalFile;
+                file.setMimeType( _generator.getMimeType( ) );
+                return TemporaryFileService.getInstance( ).savePhysicalFile( file, generatedFile );
+            }
+
+            updateStatus( _job, TemporaryFileStatus.COMPRESSING );
+            file.setMimeType( MIME_TYPE_ZIP );
+            String strMimeType = _generator.getMimeType( );
+            return TemporaryFileService.getInstance( ).savePhysicalFile( file, out -> TemporaryFileZipper.getInstance( ).zip( filesToZip, strMimeType, out ),
+                    lMaxSize );
         }
 
-        private void createZipPhysicalFile( Path generatedFile, PhysicalFile physicalFile, Path... filesToZip ) throws IOException
+        /**
+         * Get the size of a generated file, or the sum of the sizes of the files of a generated directory
+         * 
+         * @param generatedFile
+         *            the generated file or directory
+         * @return the size
+         * @throws IOException
+         */
+        private long getRawSize( Path generatedFile ) throws IOException
         {
-            Path zipFile = Paths.get( generatedFile.getParent( ).toString( ), _generator.getFileName( ) );
-            try
+            if ( !Files.isDirectory( generatedFile ) )
             {
-                FileUtil.zipFiles( zipFile, filesToZip );
-                physicalFile.setValue( Files.readAllBytes( zipFile ) );
+                return Files.size( generatedFile );
             }
-            finally
+            long lSize = 0;
+            try ( DirectoryStream<Path> stream = Files.newDirectoryStream( generatedFile ) )
             {
-                FileUtil.deleteFile( zipFile.toFile( ) );
+                for ( Path path : stream )
+                {
+                    lSize += Files.size( path );
+                }
             }
+            return lSize;
         }
     }
 
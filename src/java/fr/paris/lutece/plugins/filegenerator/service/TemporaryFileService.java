@@ -33,22 +33,61 @@
  */
 package fr.paris.lutece.plugins.filegenerator.service;
 
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import fr.paris.lutece.plugins.filegenerator.business.PhysicalFileReference;
+import fr.paris.lutece.plugins.filegenerator.business.PhysicalFileReferenceHome;
 import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
 import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileHome;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
 import fr.paris.lutece.portal.business.file.File;
 import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
 import fr.paris.lutece.portal.business.user.AdminUser;
 import fr.paris.lutece.portal.service.file.FileService;
 import fr.paris.lutece.portal.service.file.FileServiceException;
 import fr.paris.lutece.portal.service.file.IFileStoreServiceProvider;
+import fr.paris.lutece.portal.service.util.AppException;
 import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 public class TemporaryFileService
 {
     private static final TemporaryFileService INSTANCE = new TemporaryFileService( );
+    private static final int STORE_CHUNK_SIZE = AppPropertiesService.getPropertyInt( "temporaryfiles.store.chunk.size", 65536 );
+    private static final String PROPERTY_WORK_DIRECTORY = "temporaryfiles.work.directory";
+    private static final String PROPERTY_STORAGE_USAGE_REFRESH = "temporaryfiles.storageUsage.refresh.interval";
+    private static final String WORK_DIRECTORY_DEFAULT = "filegenerator";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final Object REFERENCES_LOCK = new Object( );
+    // Attempts to change a reference count modified by other nodes at the same time
+    private static final int MAX_REFERENCE_ATTEMPTS = 5;
 
     private IFileStoreServiceProvider _fileStoreServiceProvider;
+    private volatile StorageUsage _storageUsage;
 
     private TemporaryFileService( )
     {
@@ -65,6 +104,7 @@ public class TemporaryFileService
     {
         TemporaryFile file = new TemporaryFile( );
         file.setTitle( "temp" );
+        file.setStatus( TemporaryFileStatus.QUEUED );
         file.setUser( user );
         file.setDescription( description );
         TemporaryFileHome.create( file );
@@ -77,7 +117,7 @@ public class TemporaryFileService
         file.setTitle( tempFile.getTitle( ) );
         file.setMimeType( tempFile.getMimeType( ) );
         file.setDateCreation( tempFile.getDateCreation( ) );
-        file.setSize( tempFile.getSize( ) );
+        file.setSize( (int) tempFile.getSize( ) );
         file.setPhysicalFile( physicalFile );
         
         try {
@@ -88,6 +128,403 @@ public class TemporaryFileService
 		}
     }
 
+    /**
+     * Stores a file in the file store. The content is streamed from the disk by fixed-size chunks, so the file is never fully loaded in memory. If the same
+     * content is already stored, the existing stored file is used instead.
+     * 
+     * @param tempFile
+     *            the temporary file
+     * @param path
+     *            the file to store
+     * @return the id of the stored file, holding one reference for the caller, or null if the file store failed
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public String savePhysicalFile( TemporaryFile tempFile, Path path ) throws IOException
+    {
+        MessageDigest digest = createDigest( );
+        try ( InputStream inputStream = new DigestInputStream(
+                new BufferedInputStream( Channels.newInputStream( FileChannel.open( path, StandardOpenOption.READ ) ), STORE_CHUNK_SIZE ), digest ) )
+        {
+            return registerContent( _fileStoreServiceProvider.storeInputStream( inputStream ), digest );
+        }
+        catch( FileServiceException e )
+        {
+            AppLogService.error( "Error storing temporary file with id " + tempFile.getIdFile( ), e );
+            return null;
+        }
+    }
+
+    /**
+     * Stores the data produced by a writer in the file store. The data is piped to the file store while it is produced, so it is neither written on disk nor
+     * fully loaded in memory by the plugin. The size of the stored data is set on the temporary file. If the same content is already stored, the existing
+     * stored file is used instead.
+     * 
+     * @param tempFile
+     *            the temporary file
+     * @param writer
+     *            the writer producing the data
+     * @param lMaxSize
+     *            the maximum size of the data, 0 for no limit
+     * @return the id of the stored file, holding one reference for the caller, or null if the file store failed
+     * @throws FileTooBigException
+     *             if the data exceeds the maximum size
+     * @throws IOException
+     *             if the writer fails
+     */
+    public String savePhysicalFile( TemporaryFile tempFile, StreamPipeline.StreamWriter writer, long lMaxSize ) throws IOException
+    {
+        MessageDigest digest = createDigest( );
+        return StreamPipeline.pipe( writer, in -> {
+            SizeLimitedInputStream limitedIn = new SizeLimitedInputStream( new DigestInputStream( in, digest ), lMaxSize );
+            try
+            {
+                String strId = _fileStoreServiceProvider.storeInputStream( limitedIn );
+                tempFile.setSize( limitedIn.getCount( ) );
+                return registerContent( strId, digest );
+            }
+            catch( FileServiceException e )
+            {
+                if ( limitedIn.isLimitExceeded( ) )
+                {
+                    tempFile.setSize( limitedIn.getCount( ) );
+                    throw new FileTooBigException( lMaxSize );
+                }
+                AppLogService.error( "Error storing temporary file with id " + tempFile.getIdFile( ), e );
+                return null;
+            }
+        }, STORE_CHUNK_SIZE );
+    }
+
+    /**
+     * Registers a stored file by the hash of its content. If the same content is already stored, the new stored file is deleted and the existing one is
+     * used instead. The reference rows may be changed by other nodes at the same time : if the existing stored file is released in the meantime, the new
+     * one is registered instead, and if the same content is registered in the meantime, the stored file registered first is used.
+     * 
+     * @param strIdPhysicalFile
+     *            the id of the new stored file, can be null
+     * @param digest
+     *            the digest of the stored content
+     * @return the id of the stored file to use, holding one reference for the caller
+     */
+    private String registerContent( String strIdPhysicalFile, MessageDigest digest )
+    {
+        if ( strIdPhysicalFile == null )
+        {
+            return null;
+        }
+        String strContentHash = toHex( digest.digest( ) );
+        String strIdExistingFile = null;
+        long lLockStart = System.nanoTime( );
+        synchronized( REFERENCES_LOCK )
+        {
+            recordLockWait( lLockStart );
+            for ( int nAttempt = 0; nAttempt < MAX_REFERENCE_ATTEMPTS && strIdExistingFile == null; nAttempt++ )
+            {
+                PhysicalFileReference reference = PhysicalFileReferenceHome.findByContentHash( strContentHash );
+                if ( reference == null || reference.getIdPhysicalFile( ).equals( strIdPhysicalFile ) )
+                {
+                    reference = new PhysicalFileReference( );
+                    reference.setContentHash( strContentHash );
+                    reference.setIdPhysicalFile( strIdPhysicalFile );
+                    reference.setRefCount( 1 );
+                    if ( PhysicalFileReferenceHome.create( reference ) )
+                    {
+                        return strIdPhysicalFile;
+                    }
+                    // Registered by another node in the meantime : its stored file is used
+                }
+                else
+                    if ( PhysicalFileReferenceHome.updateRefCount( reference.getIdPhysicalFile( ), 1 ) > 0 )
+                    {
+                        strIdExistingFile = reference.getIdPhysicalFile( );
+                    }
+                // Otherwise the existing stored file was released in the meantime : the new one is registered
+            }
+        }
+        if ( strIdExistingFile == null )
+        {
+            // Kept without content hash : the stored file is then counted by the temporary files using it
+            AppLogService.error( "Unable to register the content of stored file " + strIdPhysicalFile + ", changed concurrently" );
+            return strIdPhysicalFile;
+        }
+        deleteStoredFile( strIdPhysicalFile );
+        return strIdExistingFile;
+    }
+
+    /**
+     * Adds references to a stored file, used by new temporary files
+     * 
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nReferences
+     *            the number of references to add
+     */
+    public void addReferences( String strIdPhysicalFile, int nReferences )
+    {
+        if ( nReferences == 0 )
+        {
+            return;
+        }
+        long lLockStart = System.nanoTime( );
+        synchronized( REFERENCES_LOCK )
+        {
+            recordLockWait( lLockStart );
+            PhysicalFileReferenceHome.updateRefCount( strIdPhysicalFile, nReferences );
+        }
+    }
+
+    /**
+     * Creates a temporary file using the stored file of another one. The stored file is referenced first, so that it cannot be deleted in the meantime,
+     * by this node or another one. A stored file without content hash is not shared, its count of temporary files being not atomic.
+     * 
+     * @param file
+     *            the temporary file, with the id of the stored file
+     * @return the id of the temporary file, 0 if the stored file is no longer referenced and the file must be generated again
+     */
+    public int createSharedFile( TemporaryFile file )
+    {
+        if ( file.getIdPhysicalFile( ) == null )
+        {
+            return 0;
+        }
+        long lLockStart = System.nanoTime( );
+        synchronized( REFERENCES_LOCK )
+        {
+            recordLockWait( lLockStart );
+            if ( PhysicalFileReferenceHome.updateRefCount( file.getIdPhysicalFile( ), 1 ) == 0 )
+            {
+                return 0;
+            }
+            return TemporaryFileHome.create( file );
+        }
+    }
+
+    /**
+     * Releases a reference to a stored file that is not used by a temporary file. The stored file is deleted when it was the last reference.
+     * 
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     */
+    public void releasePhysicalFile( String strIdPhysicalFile )
+    {
+        if ( releaseReferences( strIdPhysicalFile, 1 ) )
+        {
+            deleteStoredFile( strIdPhysicalFile );
+        }
+    }
+
+    /**
+     * Releases references to a stored file. The count is decreased, or the reference removed, by conditional statements, so that a reference added by
+     * another node in the meantime is never lost.
+     * 
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nReleased
+     *            the number of references released
+     * @return true if the stored file is not used anymore and must be deleted
+     */
+    private boolean releaseReferences( String strIdPhysicalFile, int nReleased )
+    {
+        long lLockStart = System.nanoTime( );
+        synchronized( REFERENCES_LOCK )
+        {
+            recordLockWait( lLockStart );
+            for ( int nAttempt = 0; nAttempt < MAX_REFERENCE_ATTEMPTS; nAttempt++ )
+            {
+                if ( PhysicalFileReferenceHome.releaseReferences( strIdPhysicalFile, nReleased ) )
+                {
+                    return false;
+                }
+                if ( PhysicalFileReferenceHome.removeByPhysicalFile( strIdPhysicalFile, nReleased ) )
+                {
+                    return true;
+                }
+                if ( PhysicalFileReferenceHome.findByPhysicalFile( strIdPhysicalFile ) == null )
+                {
+                    // Stored without content hash : count the temporary files using it
+                    return !isShared( strIdPhysicalFile, nReleased );
+                }
+                // Referenced again by another node in the meantime
+            }
+        }
+        // Kept : deleted by the reconciliation once unused
+        AppLogService.error( "Unable to release stored file " + strIdPhysicalFile + ", changed concurrently" );
+        return false;
+    }
+
+    /**
+     * Deletes a stored file no longer used by any temporary file, left by an interrupted generation. The stored file is kept if it was used or referenced
+     * again in the meantime.
+     * 
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nExpectedRefCount
+     *            the reference count read when the stored file was found unused, 0 if it was found without reference
+     * @return true if the stored file is deleted
+     */
+    boolean reclaimStoredFile( String strIdPhysicalFile, int nExpectedRefCount )
+    {
+        long lLockStart = System.nanoTime( );
+        synchronized( REFERENCES_LOCK )
+        {
+            recordLockWait( lLockStart );
+            PhysicalFileReference reference = PhysicalFileReferenceHome.findByPhysicalFile( strIdPhysicalFile );
+            int nRefCount = reference != null ? reference.getRefCount( ) : 0;
+            if ( nRefCount != nExpectedRefCount || TemporaryFileHome.countByPhysicalFile( strIdPhysicalFile ) > 0 )
+            {
+                return false;
+            }
+            if ( reference != null && !PhysicalFileReferenceHome.removeByPhysicalFile( strIdPhysicalFile, nExpectedRefCount ) )
+            {
+                // Referenced again by another node in the meantime
+                return false;
+            }
+        }
+        deleteStoredFile( strIdPhysicalFile );
+        return true;
+    }
+
+    /**
+     * @return the file store of the generated files
+     */
+    IFileStoreServiceProvider getFileStoreServiceProvider( )
+    {
+        return _fileStoreServiceProvider;
+    }
+
+    /**
+     * Records the time waited for the lock of the references
+     * 
+     * @param lLockStart
+     *            the time the lock was requested, in nanoseconds
+     */
+    private static void recordLockWait( long lLockStart )
+    {
+        FileGenerationMetrics.getInstance( ).recordStage( FileGenerationMetrics.STAGE_REFERENCES_LOCK, System.nanoTime( ) - lLockStart );
+    }
+
+    /**
+     * Deletes a file from the file store, logging the failure
+     * 
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     */
+    private void deleteStoredFile( String strIdPhysicalFile )
+    {
+        try
+        {
+            _fileStoreServiceProvider.delete( strIdPhysicalFile );
+        }
+        catch( FileServiceException e )
+        {
+            AppLogService.error( "Error deleting stored file " + strIdPhysicalFile, e );
+        }
+    }
+
+    /**
+     * @return a new digest of the content hash algorithm
+     */
+    private static MessageDigest createDigest( )
+    {
+        try
+        {
+            return MessageDigest.getInstance( DIGEST_ALGORITHM );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            // Every JVM supports SHA-256
+            throw new AppException( DIGEST_ALGORITHM + " is not available", e );
+        }
+    }
+
+    /**
+     * Encodes bytes in hexadecimal
+     * 
+     * @param bytes
+     *            the bytes
+     * @return the hexadecimal string
+     */
+    private static String toHex( byte [ ] bytes )
+    {
+        StringBuilder sbHex = new StringBuilder( bytes.length * 2 );
+        for ( byte b : bytes )
+        {
+            sbHex.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+        }
+        return sbHex.toString( );
+    }
+
+    /**
+     * Creates an empty file in the working directory of the plugin.
+     * 
+     * @param strPrefix
+     *            the prefix of the file name
+     * @param strSuffix
+     *            the suffix of the file name
+     * @return the file
+     * @throws IOException
+     */
+    public Path createWorkFile( String strPrefix, String strSuffix ) throws IOException
+    {
+        return Files.createTempFile( getWorkDirectory( ), strPrefix, strSuffix );
+    }
+
+    /**
+     * Get the working directory of the plugin, where the intermediate files are written.
+     * 
+     * @return the working directory
+     * @throws IOException
+     */
+    public Path getWorkDirectory( ) throws IOException
+    {
+        String strDirectory = AppPropertiesService.getProperty( PROPERTY_WORK_DIRECTORY );
+        Path directory = StringUtils.isEmpty( strDirectory ) ? Paths.get( System.getProperty( "java.io.tmpdir" ), WORK_DIRECTORY_DEFAULT )
+                : Paths.get( strDirectory );
+        return Files.createDirectories( directory );
+    }
+
+    /**
+     * Get the space used by the temporary files. The usage is computed at most once per configured interval, the last snapshot is returned in between.
+     * 
+     * @return the snapshot of the space used
+     */
+    public StorageUsage getStorageUsage( )
+    {
+        StorageUsage storageUsage = _storageUsage;
+        long lRefreshInterval = AppPropertiesService.getPropertyLong( PROPERTY_STORAGE_USAGE_REFRESH, 300 ) * 1000;
+        if ( storageUsage == null || System.currentTimeMillis( ) - storageUsage.getDate( ).getTime( ) >= lRefreshInterval )
+        {
+            synchronized( this )
+            {
+                storageUsage = _storageUsage;
+                if ( storageUsage == null || System.currentTimeMillis( ) - storageUsage.getDate( ).getTime( ) >= lRefreshInterval )
+                {
+                    storageUsage = new StorageUsage( TemporaryFileHome.countAll( ), TemporaryFileHome.findStoredSize( ), getWorkDirectorySize( ),
+                            new Timestamp( System.currentTimeMillis( ) ) );
+                    _storageUsage = storageUsage;
+                }
+            }
+        }
+        return storageUsage;
+    }
+
+    /**
+     * @return the size of the files of the work directory, in bytes
+     */
+    private long getWorkDirectorySize( )
+    {
+        try ( Stream<Path> stream = Files.walk( getWorkDirectory( ) ) )
+        {
+            return stream.filter( Files::isRegularFile ).mapToLong( path -> path.toFile( ).length( ) ).sum( );
+        }
+        catch( IOException | UncheckedIOException e )
+        {
+            AppLogService.error( "Unable to compute the size of the work directory", e );
+            return 0;
+        }
+    }
+
     public PhysicalFile loadPhysicalFile( String idFile )
     {
         try {
@@ -103,9 +540,119 @@ public class TemporaryFileService
         return null;
     }
 
+    /**
+     * Writes the content of a stored file to an output stream. Files of a local file store are transferred from their channel, the others are copied by
+     * fixed-size chunks from the stream of the file store.
+     * 
+     * @param idPhysicalFile
+     *            the id of the stored file
+     * @param out
+     *            the output stream
+     * @return false if the stored file does not exist
+     * @throws IOException
+     *             if the file cannot be read or written
+     */
+    public boolean writePhysicalFile( String idPhysicalFile, OutputStream out ) throws IOException
+    {
+        return writePhysicalFile( idPhysicalFile, 0, -1, out );
+    }
+
+    /**
+     * Writes a byte range of a stored file to an output stream.
+     * 
+     * @param idPhysicalFile
+     *            the id of the stored file
+     * @param lOffset
+     *            the position of the first byte to write
+     * @param lLength
+     *            the number of bytes to write, or -1 to write up to the end of the file
+     * @param out
+     *            the output stream
+     * @return false if the stored file does not exist
+     * @throws IOException
+     *             if the file cannot be read or written
+     */
+    public boolean writePhysicalFile( String idPhysicalFile, long lOffset, long lLength, OutputStream out ) throws IOException
+    {
+        if ( _fileStoreServiceProvider instanceof ILocalFileStoreServiceProvider )
+        {
+            Path path = ( (ILocalFileStoreServiceProvider) _fileStoreServiceProvider ).getLocalPath( idPhysicalFile );
+            if ( path == null || !Files.exists( path ) )
+            {
+                return false;
+            }
+            try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+            {
+                WritableByteChannel target = Channels.newChannel( out );
+                long lEnd = lLength < 0 ? channel.size( ) : Math.min( channel.size( ), lOffset + lLength );
+                long lPosition = lOffset;
+                while ( lPosition < lEnd )
+                {
+                    lPosition += channel.transferTo( lPosition, lEnd - lPosition, target );
+                }
+            }
+            return true;
+        }
+
+        InputStream inputStream;
+        try
+        {
+            inputStream = _fileStoreServiceProvider.getInputStream( idPhysicalFile );
+        }
+        catch( FileServiceException e )
+        {
+            AppLogService.error( e );
+            return false;
+        }
+        if ( inputStream == null )
+        {
+            return false;
+        }
+        try ( InputStream in = inputStream )
+        {
+            skipFully( in, lOffset );
+            byte [ ] buffer = new byte [ STORE_CHUNK_SIZE];
+            long lRemaining = lLength < 0 ? Long.MAX_VALUE : lLength;
+            int nRead;
+            while ( lRemaining > 0 && ( nRead = in.read( buffer, 0, (int) Math.min( buffer.length, lRemaining ) ) ) != -1 )
+            {
+                out.write( buffer, 0, nRead );
+                lRemaining -= nRead;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Skips bytes of a stream, up to its end.
+     * 
+     * @param in
+     *            the stream
+     * @param lBytes
+     *            the number of bytes to skip
+     * @throws IOException
+     */
+    private static void skipFully( InputStream in, long lBytes ) throws IOException
+    {
+        long lRemaining = lBytes;
+        while ( lRemaining > 0 )
+        {
+            long lSkipped = in.skip( lRemaining );
+            if ( lSkipped <= 0 )
+            {
+                if ( in.read( ) == -1 )
+                {
+                    return;
+                }
+                lSkipped = 1;
+            }
+            lRemaining -= lSkipped;
+        }
+    }
+
     public void removeTemporaryFile( TemporaryFile temporaryFile ) 
     {
-        if ( temporaryFile.getIdPhysicalFile( ) != null )
+        if ( temporaryFile.getIdPhysicalFile( ) != null && releaseReferences( temporaryFile.getIdPhysicalFile( ), 1 ) )
         {
             try {
 				_fileStoreServiceProvider.delete( temporaryFile.getIdPhysicalFile( ) );
@@ -114,5 +661,169 @@ public class TemporaryFileService
 				AppLogService.error(e);
 			}
         }
+        else
+        {
+            // Failed, too big, cancelled, or stored file still used by other temporary files
+            TemporaryFileHome.remove( temporaryFile.getIdFile( ) );
+        }
+    }
+
+    /**
+     * Checks whether a stored file is referenced by other temporary files than the ones being removed
+     * 
+     * @param strIdPhysicalFile
+     *            the id of the stored file
+     * @param nRemovedReferences
+     *            the number of temporary files being removed that reference the stored file
+     * @return true if the stored file must be kept
+     */
+    private boolean isShared( String strIdPhysicalFile, int nRemovedReferences )
+    {
+        return TemporaryFileHome.countByPhysicalFile( strIdPhysicalFile ) > nRemovedReferences;
+    }
+
+    /**
+     * Removes a batch of temporary files. Their stored files are deleted at once when the file store allows it, one by one otherwise, then the temporary
+     * files whose stored file was deleted are removed with a single statement. A stored file still referenced by temporary files outside of the batch is
+     * kept.
+     * 
+     * @param listFiles
+     *            the temporary files
+     * @return the number of temporary files removed
+     */
+    public int removeTemporaryFiles( List<TemporaryFile> listFiles )
+    {
+        List<Integer> listRemovable = new ArrayList<>( );
+        Map<String, List<Integer>> mapStored = new LinkedHashMap<>( );
+        for ( TemporaryFile temporaryFile : listFiles )
+        {
+            if ( temporaryFile.getIdPhysicalFile( ) == null )
+            {
+                // Failed or too big : nothing in the file store
+                listRemovable.add( temporaryFile.getIdFile( ) );
+            }
+            else
+            {
+                mapStored.computeIfAbsent( temporaryFile.getIdPhysicalFile( ), strKey -> new ArrayList<>( ) ).add( temporaryFile.getIdFile( ) );
+            }
+        }
+
+        Iterator<Map.Entry<String, List<Integer>>> iterator = mapStored.entrySet( ).iterator( );
+        while ( iterator.hasNext( ) )
+        {
+            Map.Entry<String, List<Integer>> entry = iterator.next( );
+            if ( !releaseReferences( entry.getKey( ), entry.getValue( ).size( ) ) )
+            {
+                listRemovable.addAll( entry.getValue( ) );
+                iterator.remove( );
+            }
+        }
+
+        if ( !mapStored.isEmpty( ) && _fileStoreServiceProvider instanceof IBatchFileStoreServiceProvider )
+        {
+            try
+            {
+                ( (IBatchFileStoreServiceProvider) _fileStoreServiceProvider ).delete( new ArrayList<>( mapStored.keySet( ) ) );
+                for ( List<Integer> listIdFile : mapStored.values( ) )
+                {
+                    listRemovable.addAll( listIdFile );
+                }
+                mapStored.clear( );
+            }
+            catch( FileServiceException e )
+            {
+                AppLogService.error( "Batch deletion failed, the files will be deleted one by one", e );
+            }
+        }
+
+        for ( Map.Entry<String, List<Integer>> entry : mapStored.entrySet( ) )
+        {
+            try
+            {
+                _fileStoreServiceProvider.delete( entry.getKey( ) );
+                listRemovable.addAll( entry.getValue( ) );
+            }
+            catch( FileServiceException e )
+            {
+                AppLogService.error( e );
+            }
+        }
+
+        TemporaryFileHome.remove( listRemovable );
+        return listRemovable.size( );
+    }
+
+    /**
+     * Input stream counting the bytes read, and failing when they exceed a maximum size.
+     */
+    private static final class SizeLimitedInputStream extends FilterInputStream
+    {
+        private final long _lMaxSize;
+        private long _lCount;
+        private boolean _bLimitExceeded;
+
+        /**
+         * Constructor.
+         * 
+         * @param in
+         *            the input stream
+         * @param lMaxSize
+         *            the maximum size, 0 for no limit
+         */
+        SizeLimitedInputStream( InputStream in, long lMaxSize )
+        {
+            super( in );
+            _lMaxSize = lMaxSize;
+        }
+
+        @Override
+        public int read( ) throws IOException
+        {
+            int nByte = super.read( );
+            if ( nByte != -1 )
+            {
+                count( 1 );
+            }
+            return nByte;
+        }
+
+        @Override
+        public int read( byte [ ] b, int off, int len ) throws IOException
+        {
+            int nRead = super.read( b, off, len );
+            if ( nRead > 0 )
+            {
+                count( nRead );
+            }
+            return nRead;
+        }
+
+        @Override
+        public long skip( long n ) throws IOException
+        {
+            long lSkipped = super.skip( n );
+            count( lSkipped );
+            return lSkipped;
+        }
+
+        private void count( long lBytes ) throws FileTooBigException
+        {
+            _lCount += lBytes;
+            if ( _lMaxSize > 0 && _lCount > _lMaxSize )
+            {
+                _bLimitExceeded = true;
+                throw new FileTooBigException( _lMaxSize );
+            }
+        }
+
+        long getCount( )
+        {
+            return _lCount;
+        }
+
+        boolean isLimitExceeded( )
+        {
+            return _bLimitExceeded;
+        }
     }
 }
@@ -0,0 +1,488 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.FilterOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.util.file.FileUtil;
+
+/**
+ * Compresses generated files into a zip stream.
+ * <p>
+ * The files are deflated straight into the output stream with the configured compression level. Files whose content is already compressed are stored
+ * without compression. When parallel compression is enabled, the entries of multi-file generations are deflated concurrently and then assembled.
+ */
+public final class TemporaryFileZipper
+{
+    private static final String PROPERTY_COMPRESSION_LEVEL = "temporaryfiles.zip.compression.level";
+    private static final String PROPERTY_STORED_MIME_TYPES = "temporaryfiles.zip.stored.mimeTypes";
+    private static final String PROPERTY_STORED_EXTENSIONS = "temporaryfiles.zip.stored.extensions";
+    private static final String PROPERTY_PARALLEL_ENABLED = "temporaryfiles.zip.parallel.enabled";
+    private static final String PROPERTY_PARALLEL_THREADS = "temporaryfiles.zip.parallel.threads";
+
+    private static final String DEFAULT_STORED_MIME_TYPES = "application/zip,application/gzip,application/x-7z-compressed,image/jpeg,image/png,video/mp4,"
+            + "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet,application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+    private static final String DEFAULT_STORED_EXTENSIONS = "zip,gz,7z,jpg,jpeg,png,mp4,xlsx,docx,pptx,odt,ods";
+    private static final String THREAD_NAME_PREFIX = "filegenerator-zip-";
+    private static final String SEPARATOR = ",";
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final TemporaryFileZipper INSTANCE = new TemporaryFileZipper( );
+
+    private final int _nCompressionLevel;
+    private final Set<String> _setStoredMimeTypes;
+    private final Set<String> _setStoredExtensions;
+    private final ExecutorService _parallelExecutor;
+
+    /**
+     * Constructor. The zipper is configured from the plugin properties.
+     */
+    private TemporaryFileZipper( )
+    {
+        _nCompressionLevel = AppPropertiesService.getPropertyInt( PROPERTY_COMPRESSION_LEVEL, Deflater.DEFAULT_COMPRESSION );
+        _setStoredMimeTypes = toSet( AppPropertiesService.getProperty( PROPERTY_STORED_MIME_TYPES, DEFAULT_STORED_MIME_TYPES ) );
+        _setStoredExtensions = toSet( AppPropertiesService.getProperty( PROPERTY_STORED_EXTENSIONS, DEFAULT_STORED_EXTENSIONS ) );
+
+        if ( AppPropertiesService.getPropertyBoolean( PROPERTY_PARALLEL_ENABLED, false ) )
+        {
+            int nThreads = AppPropertiesService.getPropertyInt( PROPERTY_PARALLEL_THREADS, Runtime.getRuntime( ).availableProcessors( ) );
+            AtomicInteger counter = new AtomicInteger( );
+            _parallelExecutor = Executors.newFixedThreadPool( Math.max( 1, nThreads ), runnable -> {
+                Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + counter.getAndIncrement( ) );
+                thread.setDaemon( true );
+                return thread;
+            } );
+        }
+        else
+        {
+            _parallelExecutor = null;
+        }
+    }
+
+    /**
+     * @return the instance
+     */
+    public static TemporaryFileZipper getInstance( )
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Zips files into an output stream. The output stream is not closed.
+     * 
+     * @param listFiles
+     *            the files to zip
+     * @param strMimeType
+     *            the mime type of the content when a single file is zipped, may be null
+     * @param out
+     *            the output stream
+     * @throws IOException
+     */
+    public void zip( List<Path> listFiles, String strMimeType, OutputStream out ) throws IOException
+    {
+        if ( _parallelExecutor != null && listFiles.size( ) > 1 )
+        {
+            zipParallel( listFiles, out );
+        }
+        else
+        {
+            zipSequential( listFiles, listFiles.size( ) == 1 ? strMimeType : null, out );
+        }
+    }
+
+    /**
+     * Zips the data produced by a writer into an output stream, as a single entry. The output stream is not closed.
+     * 
+     * @param strEntryName
+     *            the name of the entry
+     * @param strMimeType
+     *            the mime type of the content, may be null
+     * @param writer
+     *            the writer producing the content
+     * @param out
+     *            the output stream
+     * @throws IOException
+     */
+    public void zip( String strEntryName, String strMimeType, StreamPipeline.StreamWriter writer, OutputStream out ) throws IOException
+    {
+        ZipOutputStream zipOut = new ZipOutputStream( out );
+        // A stored entry needs its CRC before its data : already compressed content is deflated without compression instead
+        zipOut.setLevel( isStored( Paths.get( strEntryName ), strMimeType ) ? Deflater.NO_COMPRESSION : _nCompressionLevel );
+        zipOut.putNextEntry( new ZipEntry( strEntryName ) );
+        writer.writeTo( new UnclosableOutputStream( zipOut ) );
+        zipOut.closeEntry( );
+        zipOut.finish( );
+    }
+
+    /**
+     * Deflates the files one after the other into the output stream.
+     */
+    private void zipSequential( List<Path> listFiles, String strMimeType, OutputStream out ) throws IOException
+    {
+        ZipOutputStream zipOut = new ZipOutputStream( out );
+        zipOut.setLevel( _nCompressionLevel );
+        for ( Path file : listFiles )
+        {
+            ZipEntry entry = new ZipEntry( file.getFileName( ).toString( ) );
+            entry.setTime( Files.getLastModifiedTime( file ).toMillis( ) );
+            if ( isStored( file, strMimeType ) )
+            {
+                long lSize = Files.size( file );
+                entry.setMethod( ZipEntry.STORED );
+                entry.setSize( lSize );
+                entry.setCompressedSize( lSize );
+                entry.setCrc( computeCrc( file ) );
+            }
+            zipOut.putNextEntry( entry );
+            Files.copy( file, zipOut );
+            zipOut.closeEntry( );
+        }
+        zipOut.finish( );
+    }
+
+    /**
+     * Deflates the files concurrently into temporary files, then writes them in order into the output stream. The first entries are written while the next
+     * ones are still being compressed.
+     */
+    private void zipParallel( List<Path> listFiles, OutputStream out ) throws IOException
+    {
+        List<Future<CompressedEntry>> listFutures = new ArrayList<>( );
+        for ( Path file : listFiles )
+        {
+            listFutures.add( _parallelExecutor.submit( ( ) -> compress( file ) ) );
+        }
+
+        try
+        {
+            ZipArchiveWriter writer = new ZipArchiveWriter( out );
+            for ( Future<CompressedEntry> future : listFutures )
+            {
+                CompressedEntry entry = getEntry( future );
+                try
+                {
+                    addEntry( writer, entry );
+                }
+                finally
+                {
+                    entry.deleteTemporaryData( );
+                }
+            }
+            writer.finish( );
+        }
+        finally
+        {
+            for ( Future<CompressedEntry> future : listFutures )
+            {
+                if ( !future.cancel( true ) && future.isDone( ) )
+                {
+                    try
+                    {
+                        future.get( ).deleteTemporaryData( );
+                    }
+                    catch( InterruptedException | ExecutionException e )
+                    {
+                        // The entry failed : nothing to clean
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses a file into a raw deflate temporary file, or only computes its CRC if it must be stored.
+     * 
+     * @param file
+     *            the file
+     * @return the compressed entry
+     * @throws IOException
+     */
+    private CompressedEntry compress( Path file ) throws IOException
+    {
+        CompressedEntry entry = new CompressedEntry( );
+        entry._strName = file.getFileName( ).toString( );
+        entry._source = file;
+        entry._lTime = Files.getLastModifiedTime( file ).toMillis( );
+
+        if ( isStored( file, null ) )
+        {
+            entry._nMethod = ZipEntry.STORED;
+            entry._lSize = Files.size( file );
+            entry._lCompressedSize = entry._lSize;
+            entry._lCrc = computeCrc( file );
+            entry._data = file;
+            return entry;
+        }
+
+        entry._nMethod = ZipEntry.DEFLATED;
+        entry._data = TemporaryFileService.getInstance( ).createWorkFile( "zip-", ".deflate" );
+        Deflater deflater = new Deflater( _nCompressionLevel, true );
+        CRC32 crc = new CRC32( );
+        try ( InputStream in = new CheckedInputStream( Files.newInputStream( file ), crc );
+                DeflaterOutputStream deflaterOut = new DeflaterOutputStream( Files.newOutputStream( entry._data ), deflater, BUFFER_SIZE ) )
+        {
+            byte [ ] buffer = new byte [ BUFFER_SIZE];
+            int nRead;
+            while ( ( nRead = in.read( buffer ) ) != -1 )
+            {
+                if ( Thread.currentThread( ).isInterrupted( ) )
+                {
+                    throw new InterruptedIOException( "Compression of " + file + " interrupted" );
+                }
+                deflaterOut.write( buffer, 0, nRead );
+            }
+            deflaterOut.finish( );
+            entry._lSize = deflater.getBytesRead( );
+            entry._lCompressedSize = deflater.getBytesWritten( );
+            entry._lCrc = crc.getValue( );
+        }
+        catch( IOException e )
+        {
+            entry.deleteTemporaryData( );
+            throw e;
+        }
+        finally
+        {
+            deflater.end( );
+        }
+        return entry;
+    }
+
+    /**
+     * Compresses the data produced by a writer into a raw deflate work file, or copies it to a work file if it must be stored, so that the entry can be
+     * added to a zip once the data is complete.
+     * 
+     * @param strEntryName
+     *            the name of the entry
+     * @param writer
+     *            the writer producing the data
+     * @return the compressed entry, whose temporary data must be deleted by the caller
+     * @throws IOException
+     */
+    CompressedEntry compress( String strEntryName, StreamPipeline.StreamWriter writer ) throws IOException
+    {
+        CompressedEntry entry = new CompressedEntry( );
+        entry._strName = strEntryName;
+        entry._data = TemporaryFileService.getInstance( ).createWorkFile( "zip-", ".part" );
+        boolean bStored = isStored( Paths.get( strEntryName ), null );
+        entry._nMethod = bStored ? ZipEntry.STORED : ZipEntry.DEFLATED;
+        Deflater deflater = new Deflater( _nCompressionLevel, true );
+        CRC32 crc = new CRC32( );
+        try
+        {
+            try ( OutputStream fileOut = Files.newOutputStream( entry._data );
+                    OutputStream out = bStored ? new UnclosableOutputStream( fileOut ) : new DeflaterOutputStream( fileOut, deflater, BUFFER_SIZE ) )
+            {
+                writer.writeTo( new UnclosableOutputStream( new CheckedOutputStream( out, crc ) ) );
+                if ( out instanceof DeflaterOutputStream )
+                {
+                    ( (DeflaterOutputStream) out ).finish( );
+                }
+            }
+            entry._lTime = System.currentTimeMillis( );
+            entry._lCrc = crc.getValue( );
+            entry._lCompressedSize = Files.size( entry._data );
+            entry._lSize = bStored ? entry._lCompressedSize : deflater.getBytesRead( );
+        }
+        catch( IOException | RuntimeException e )
+        {
+            entry.deleteTemporaryData( );
+            throw e;
+        }
+        finally
+        {
+            deflater.end( );
+        }
+        return entry;
+    }
+
+    /**
+     * Writes a compressed entry to a zip
+     * 
+     * @param writer
+     *            the zip writer
+     * @param entry
+     *            the entry
+     * @throws IOException
+     */
+    static void addEntry( ZipArchiveWriter writer, CompressedEntry entry ) throws IOException
+    {
+        try ( InputStream data = Files.newInputStream( entry._data ) )
+        {
+            writer.addEntry( entry._strName, entry._lTime, entry._nMethod, entry._lCrc, entry._lCompressedSize, entry._lSize, data );
+        }
+    }
+
+    private static CompressedEntry getEntry( Future<CompressedEntry> future ) throws IOException
+    {
+        try
+        {
+            return future.get( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new InterruptedIOException( "Interrupted while compressing zip entries" );
+        }
+        catch( ExecutionException e )
+        {
+            if ( e.getCause( ) instanceof IOException )
+            {
+                throw (IOException) e.getCause( );
+            }
+            throw new IOException( "Error compressing zip entry", e.getCause( ) );
+        }
+    }
+
+    /**
+     * @return true if the content of the file is already compressed and must be stored as is
+     */
+    private boolean isStored( Path file, String strMimeType )
+    {
+        if ( strMimeType != null && _setStoredMimeTypes.contains( strMimeType.toLowerCase( Locale.ENGLISH ) ) )
+        {
+            return true;
+        }
+        String strName = file.getFileName( ).toString( );
+        int nDot = strName.lastIndexOf( '.' );
+        return nDot >= 0 && _setStoredExtensions.contains( strName.substring( nDot + 1 ).toLowerCase( Locale.ENGLISH ) );
+    }
+
+    private static long computeCrc( Path file ) throws IOException
+    {
+        CRC32 crc = new CRC32( );
+        byte [ ] buffer = new byte [ BUFFER_SIZE];
+        try ( InputStream in = Files.newInputStream( file ) )
+        {
+            int nRead;
+            while ( ( nRead = in.read( buffer ) ) != -1 )
+            {
+                crc.update( buffer, 0, nRead );
+            }
+        }
+        return crc.getValue( );
+    }
+
+    private static Set<String> toSet( String strValues )
+    {
+        Set<String> set = new HashSet<>( );
+        for ( String strValue : strValues.split( SEPARATOR ) )
+        {
+            if ( !strValue.trim( ).isEmpty( ) )
+            {
+                set.add( strValue.trim( ).toLowerCase( Locale.ENGLISH ) );
+            }
+        }
+        return set;
+    }
+
+    /**
+     * A zip entry ready to be written
+     */
+    static final class CompressedEntry
+    {
+        private String _strName;
+        private Path _source;
+        private Path _data;
+        private long _lTime;
+        private int _nMethod;
+        private long _lCrc;
+        private long _lCompressedSize;
+        private long _lSize;
+
+        /**
+         * Deletes the compressed data, if it is a temporary file
+         */
+        void deleteTemporaryData( )
+        {
+            if ( _data != null && !_data.equals( _source ) )
+            {
+                FileUtil.deleteFile( _data.toFile( ) );
+            }
+        }
+    }
+
+    /**
+     * Output stream protecting the zip stream from being closed by a generator
+     */
+    private static final class UnclosableOutputStream extends FilterOutputStream
+    {
+        /**
+         * Constructor.
+         * 
+         * @param out
+         *            the output stream
+         */
+        UnclosableOutputStream( OutputStream out )
+        {
+            super( out );
+        }
+
+        @Override
+        public void write( byte [ ] b, int off, int len ) throws IOException
+        {
+            out.write( b, off, len );
+        }
+
+        @Override
+        public void close( ) throws IOException
+        {
+            flush( );
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip archive from entries whose data is already compressed (raw deflate) or stored, and whose CRC and sizes are known before the entry is
+ * written. This allows entries to be deflated concurrently and then assembled, which {@link java.util.zip.ZipOutputStream} does not support. ZIP64
+ * records are written when sizes, offsets or the number of entries exceed the classic zip limits.
+ */
+public final class ZipArchiveWriter
+{
+    private static final int SIG_LOCAL_HEADER = 0x04034b50;
+    private static final int SIG_CENTRAL_HEADER = 0x02014b50;
+    private static final int SIG_ZIP64_END = 0x06064b50;
+    private static final int SIG_ZIP64_LOCATOR = 0x07064b50;
+    private static final int SIG_END = 0x06054b50;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int BUFFER_SIZE = 65536;
+
+    private final OutputStream _out;
+    private final List<CentralEntry> _listEntries = new ArrayList<>( );
+    private final byte [ ] _buffer = new byte [ BUFFER_SIZE];
+    private long _lOffset;
+
+    /**
+     * Constructor.
+     * 
+     * @param out
+     *            the output stream, not closed by the writer
+     */
+    public ZipArchiveWriter( OutputStream out )
+    {
+        _out = out;
+    }
+
+    /**
+     * Writes an entry.
+     * 
+     * @param strName
+     *            the entry name
+     * @param lTime
+     *            the modification time of the entry
+     * @param nMethod
+     *            {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}
+     * @param lCrc
+     *            the CRC-32 of the uncompressed data
+     * @param lCompressedSize
+     *            the size of the data
+     * @param lSize
+     *            the uncompressed size
+     * @param data
+     *            the data : raw deflate stream for DEFLATED entries, uncompressed data for STORED entries
+     * @throws IOException
+     */
+    public void addEntry( String strName, long lTime, int nMethod, long lCrc, long lCompressedSize, long lSize, InputStream data ) throws IOException
+    {
+        CentralEntry entry = new CentralEntry( );
+        entry._name = strName.getBytes( StandardCharsets.UTF_8 );
+        entry._nDosTime = toDosTime( lTime );
+        entry._nMethod = nMethod;
+        entry._lCrc = lCrc;
+        entry._lCompressedSize = lCompressedSize;
+        entry._lSize = lSize;
+        entry._lOffset = _lOffset;
+        _listEntries.add( entry );
+
+        boolean bZip64 = lCompressedSize >= ZIP64_MAGIC || lSize >= ZIP64_MAGIC;
+        ByteArrayOutputStream header = new ByteArrayOutputStream( );
+        writeInt( header, SIG_LOCAL_HEADER );
+        writeShort( header, bZip64 ? VERSION_ZIP64 : VERSION_DEFAULT );
+        writeShort( header, FLAG_UTF8 );
+        writeShort( header, nMethod );
+        writeInt( header, entry._nDosTime );
+        writeInt( header, (int) lCrc );
+        writeInt( header, bZip64 ? (int) ZIP64_MAGIC : (int) lCompressedSize );
+        writeInt( header, bZip64 ? (int) ZIP64_MAGIC : (int) lSize );
+        writeShort( header, entry._name.length );
+        writeShort( header, bZip64 ? 20 : 0 );
+        header.write( entry._name );
+        if ( bZip64 )
+        {
+            writeShort( header, ZIP64_EXTRA_ID );
+            writeShort( header, 16 );
+            writeLong( header, lSize );
+            writeLong( header, lCompressedSize );
+        }
+        write( header.toByteArray( ) );
+
+        long lCopied = 0;
+        int nRead;
+        while ( ( nRead = data.read( _buffer ) ) != -1 )
+        {
+            _out.write( _buffer, 0, nRead );
+            lCopied += nRead;
+        }
+        if ( lCopied != lCompressedSize )
+        {
+            throw new IOException( "Invalid data size for zip entry " + strName + " : " + lCopied + " instead of " + lCompressedSize );
+        }
+        _lOffset += lCopied;
+    }
+
+    /**
+     * Writes the central directory. The output stream is flushed but not closed.
+     * 
+     * @throws IOException
+     */
+    public void finish( ) throws IOException
+    {
+        long lCentralOffset = _lOffset;
+        for ( CentralEntry entry : _listEntries )
+        {
+            writeCentralEntry( entry );
+        }
+        long lCentralSize = _lOffset - lCentralOffset;
+        int nCount = _listEntries.size( );
+
+        ByteArrayOutputStream end = new ByteArrayOutputStream( );
+        boolean bZip64 = nCount >= ZIP64_MAGIC_COUNT || lCentralOffset >= ZIP64_MAGIC || lCentralSize >= ZIP64_MAGIC;
+        if ( bZip64 )
+        {
+            long lZip64EndOffset = _lOffset;
+            writeInt( end, SIG_ZIP64_END );
+            writeLong( end, 44 );
+            writeShort( end, VERSION_ZIP64 );
+            writeShort( end, VERSION_ZIP64 );
+            writeInt( end, 0 );
+            writeInt( end, 0 );
+            writeLong( end, nCount );
+            writeLong( end, nCount );
+            writeLong( end, lCentralSize );
+            writeLong( end, lCentralOffset );
+
+            writeInt( end, SIG_ZIP64_LOCATOR );
+            writeInt( end, 0 );
+            writeLong( end, lZip64EndOffset );
+            writeInt( end, 1 );
+        }
+        writeInt( end, SIG_END );
+        writeShort( end, 0 );
+        writeShort( end, 0 );
+        writeShort( end, bZip64 ? ZIP64_MAGIC_COUNT : nCount );
+        writeShort( end, bZip64 ? ZIP64_MAGIC_COUNT : nCount );
+        writeInt( end, bZip64 ? (int) ZIP64_MAGIC : (int) lCentralSize );
+        writeInt( end, bZip64 ? (int) ZIP64_MAGIC : (int) lCentralOffset );
+        writeShort( end, 0 );
+        write( end.toByteArray( ) );
+        _out.flush( );
+    }
+
+    /**
+     * Writes the central directory header of an entry.
+     * 
+     * @param entry
+     *            the entry
+     * @throws IOException
+     */
+    private void writeCentralEntry( CentralEntry entry ) throws IOException
+    {
+        boolean bZip64Size = entry._lSize >= ZIP64_MAGIC;
+        boolean bZip64CompressedSize = entry._lCompressedSize >= ZIP64_MAGIC;
+        boolean bZip64Offset = entry._lOffset >= ZIP64_MAGIC;
+        int nExtraSize = ( bZip64Size ? 8 : 0 ) + ( bZip64CompressedSize ? 8 : 0 ) + ( bZip64Offset ? 8 : 0 );
+        int nVersion = nExtraSize > 0 ? VERSION_ZIP64 : VERSION_DEFAULT;
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream( );
+        writeInt( header, SIG_CENTRAL_HEADER );
+        writeShort( header, nVersion );
+        writeShort( header, nVersion );
+        writeShort( header, FLAG_UTF8 );
+        writeShort( header, entry._nMethod );
+        writeInt( header, entry._nDosTime );
+        writeInt( header, (int) entry._lCrc );
+        writeInt( header, bZip64CompressedSize ? (int) ZIP64_MAGIC : (int) entry._lCompressedSize );
+        writeInt( header, bZip64Size ? (int) ZIP64_MAGIC : (int) entry._lSize );
+        writeShort( header, entry._name.length );
+        writeShort( header, nExtraSize > 0 ? nExtraSize + 4 : 0 );
+        writeShort( header, 0 );
+        writeShort( header, 0 );
+        writeShort( header, 0 );
+        writeInt( header, 0 );
+        writeInt( header, bZip64Offset ? (int) ZIP64_MAGIC : (int) entry._lOffset );
+        header.write( entry._name );
+        if ( nExtraSize > 0 )
+        {
+            writeShort( header, ZIP64_EXTRA_ID );
+            writeShort( header, nExtraSize );
+            if ( bZip64Size )
+            {
+                writeLong( header, entry._lSize );
+            }
+            if ( bZip64CompressedSize )
+            {
+                writeLong( header, entry._lCompressedSize );
+            }
+            if ( bZip64Offset )
+            {
+                writeLong( header, entry._lOffset );
+            }
+        }
+        write( header.toByteArray( ) );
+    }
+
+    private void write( byte [ ] data ) throws IOException
+    {
+        _out.write( data );
+        _lOffset += data.length;
+    }
+
+    /**
+     * Converts a time to the MS-DOS format used by zip archives.
+     * 
+     * @param lTime
+     *            the time in milliseconds
+     * @return the MS-DOS date and time
+     */
+    private static int toDosTime( long lTime )
+    {
+        LocalDateTime date = LocalDateTime.ofInstant( Instant.ofEpochMilli( lTime ), ZoneId.systemDefault( ) );
+        if ( date.getYear( ) < 1980 )
+        {
+            return ( 1 << 21 ) | ( 1 << 16 );
+        }
+        return ( date.getYear( ) - 1980 ) << 25 | date.getMonthValue( ) << 21 | date.getDayOfMonth( ) << 16 | date.getHour( ) << 11 | date.getMinute( ) << 5
+                | date.getSecond( ) >> 1;
+    }
+
+    private static void writeShort( ByteArrayOutputStream out, int nValue )
+    {
+        out.write( nValue & 0xFF );
+        out.write( ( nValue >>> 8 ) & 0xFF );
+    }
+
+    private static void writeInt( ByteArrayOutputStream out, int nValue )
+    {
+        writeShort( out, nValue & 0xFFFF );
+        writeShort( out, ( nValue >>> 16 ) & 0xFFFF );
+    }
+
+    private static void writeLong( ByteArrayOutputStream out, long lValue )
+    {
+        writeInt( out, (int) lValue );
+        writeInt( out, (int) ( lValue >>> 32 ) );
+    }
+
+    /**
+     * Central directory information of a written entry
+     */
+    private static final class CentralEntry
+    {
+        private byte [ ] _name;
+        private int _nDosTime;
+        private int _nMethod;
+        private long _lCrc;
+        private long _lCompressedSize;
+        private long _lSize;
+        private long _lOffset;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.web.admin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+import fr.paris.lutece.plugins.filegenerator.service.FileGenerationMetrics;
+import fr.paris.lutece.plugins.filegenerator.service.GenerationJob;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileGeneratorService;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileService;
+import fr.paris.lutece.portal.business.user.AdminUser;
+import fr.paris.lutece.portal.business.user.AdminUserHome;
+import fr.paris.lutece.portal.service.i18n.I18nService;
+import fr.paris.lutece.portal.service.template.AppTemplateService;
+import fr.paris.lutece.portal.util.mvc.admin.MVCAdminJspBean;
+import fr.paris.lutece.portal.util.mvc.admin.annotations.Controller;
+import fr.paris.lutece.portal.util.mvc.commons.annotations.View;
+import fr.paris.lutece.util.html.HtmlTemplate;
+
+/**
+ * This class provides the operators a view of the generation engine : queued and running jobs, recent throughput and latency, space used. The view is built
+ * from in-memory snapshots, the space used being computed at most once per configured interval.
+ */
+@Controller( controllerJsp = "ManageGenerationQueue.jsp", controllerPath = "jsp/admin/plugins/filegenerator/", right = "MANAGE_GENERATION_QUEUE" )
+public class GenerationQueueJspBean extends MVCAdminJspBean
+{
+    private static final long serialVersionUID = -2457735052312954806L;
+
+    // Rights
+    public static final String MANAGE_GENERATION_QUEUE = "MANAGE_GENERATION_QUEUE";
+
+    // View
+    private static final String VIEW_GENERATION_QUEUE = "view_generationQueue";
+
+    // Templates
+    private static final String TEMPLATE_GENERATION_QUEUE = "admin/plugins/filegenerator/manage_generation_queue.html";
+    private static final String PROPERTY_PAGE_TITLE = "filegenerator.manage_generation_queue.pageTitle";
+    private static final String PROPERTY_STATUS_PREFIX = "filegenerator.manage_temporary_files.status.";
+
+    // Marks
+    private static final String MARK_JOBS = "jobs_list";
+    private static final String MARK_QUEUE_SIZE = "queue_size";
+    private static final String MARK_ACTIVE_JOBS = "active_jobs";
+    private static final String MARK_RECENT = "recent";
+    private static final String MARK_STAGE_COUNTS = "stage_counts";
+    private static final String MARK_STAGE_TOTAL_TIMES = "stage_total_times";
+    private static final String MARK_STAGE_MAX_TIMES = "stage_max_times";
+    private static final String MARK_FAILURES = "failures";
+    private static final String MARK_STORAGE_USAGE = "storage_usage";
+
+    private static final String MARK_JOB_ID_FILE = "id_file";
+    private static final String MARK_JOB_GENERATOR = "generator";
+    private static final String MARK_JOB_USER = "user";
+    private static final String MARK_JOB_STAGE = "stage";
+    private static final String MARK_JOB_ELAPSED = "elapsed";
+    private static final String MARK_JOB_BYTES = "bytes";
+    private static final String MARK_JOB_SUBSCRIBERS = "subscribers";
+
+    @View( value = VIEW_GENERATION_QUEUE, defaultView = true )
+    public String getGenerationQueue( HttpServletRequest request )
+    {
+        setPageTitleProperty( PROPERTY_PAGE_TITLE );
+        FileGenerationMetrics metrics = FileGenerationMetrics.getInstance( );
+
+        Map<String, Object> model = new HashMap<>( );
+        model.put( MARK_JOBS, getJobs( ) );
+        model.put( MARK_QUEUE_SIZE, metrics.getQueueSize( ) );
+        model.put( MARK_ACTIVE_JOBS, metrics.getActiveJobs( ) );
+        model.put( MARK_RECENT, metrics.getRecentStatistics( ) );
+        model.put( MARK_STAGE_COUNTS, metrics.getStageCounts( ) );
+        model.put( MARK_STAGE_TOTAL_TIMES, metrics.getStageTotalTimes( ) );
+        model.put( MARK_STAGE_MAX_TIMES, metrics.getStageMaxTimes( ) );
+        model.put( MARK_FAILURES, metrics.getFailuresByCause( ) );
+        model.put( MARK_STORAGE_USAGE, TemporaryFileService.getInstance( ).getStorageUsage( ) );
+
+        HtmlTemplate template = AppTemplateService.getTemplate( TEMPLATE_GENERATION_QUEUE, getLocale( ), model );
+
+        return getAdminPage( template.getHtml( ) );
+    }
+
+    /**
+     * Get the queued and running jobs of this instance
+     * 
+     * @return the jobs, as maps of their displayed values
+     */
+    private List<Map<String, Object>> getJobs( )
+    {
+        Map<Integer, String> mapUserNames = new HashMap<>( );
+        List<Map<String, Object>> listJobs = new ArrayList<>( );
+        for ( GenerationJob job : TemporaryFileGeneratorService.getInstance( ).getJobs( ) )
+        {
+            TemporaryFileStatus stage = job.getStage( );
+            if ( stage == null )
+            {
+                // Ended since the snapshot
+                continue;
+            }
+            Map<String, Object> mapJob = new HashMap<>( );
+            mapJob.put( MARK_JOB_ID_FILE, job.getIdFile( ) );
+            mapJob.put( MARK_JOB_GENERATOR, job.getGenerator( ).getClass( ).getName( ) );
+            mapJob.put( MARK_JOB_USER, mapUserNames.computeIfAbsent( job.getIdUser( ), GenerationQueueJspBean::getUserName ) );
+            mapJob.put( MARK_JOB_STAGE, I18nService.getLocalizedString( PROPERTY_STATUS_PREFIX + stage.name( ).toLowerCase( ), getLocale( ) ) );
+            mapJob.put( MARK_JOB_ELAPSED, TimeUnit.NANOSECONDS.toSeconds( job.getElapsedNanos( ) ) );
+            mapJob.put( MARK_JOB_BYTES, job.getProducedBytes( ) );
+            mapJob.put( MARK_JOB_SUBSCRIBERS, job.getSubscriberCount( ) );
+            listJobs.add( mapJob );
+        }
+        return listJobs;
+    }
+
+    /**
+     * Get the displayed name of an user
+     * 
+     * @param nIdUser
+     *            the id of the user
+     * @return the name, or the id if the user does not exist anymore
+     */
+    private static String getUserName( int nIdUser )
+    {
+        AdminUser user = AdminUserHome.findByPrimaryKey( nIdUser );
+        return user != null ? user.getFirstName( ) + " " + user.getLastName( ) + " (" + user.getAccessCode( ) + ")" : String.valueOf( nIdUser );
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.web.admin;
+
+/**
+ * A byte range requested through the HTTP Range header.
+ */
+public final class HttpRange
+{
+    /** Range that cannot be served for the file size */
+    public static final HttpRange NOT_SATISFIABLE = new HttpRange( -1, -1 );
+
+    private static final String UNIT_BYTES = "bytes=";
+
+    private final long _lStart;
+    private final long _lEnd;
+
+    /**
+     * Constructor.
+     * 
+     * @param lStart
+     *            the first byte position
+     * @param lEnd
+     *            the last byte position, inclusive
+     */
+    private HttpRange( long lStart, long lEnd )
+    {
+        _lStart = lStart;
+        _lEnd = lEnd;
+    }
+
+    /**
+     * @return the first byte position
+     */
+    public long getStart( )
+    {
+        return _lStart;
+    }
+
+    /**
+     * @return the last byte position, inclusive
+     */
+    public long getEnd( )
+    {
+        return _lEnd;
+    }
+
+    /**
+     * @return the number of bytes of the range
+     */
+    public long getLength( )
+    {
+        return _lEnd - _lStart + 1;
+    }
+
+    /**
+     * Parse a Range header. Only single byte ranges are served : for a missing, malformed or multiple range header, null is returned and the whole file
+     * should be sent, as allowed by RFC 7233.
+     * 
+     * @param strHeader
+     *            the Range header value
+     * @param lSize
+     *            the size of the file
+     * @return the range, {@link #NOT_SATISFIABLE}, or null
+     */
+    public static HttpRange parse( String strHeader, long lSize )
+    {
+        if ( strHeader == null || !strHeader.startsWith( UNIT_BYTES ) || strHeader.indexOf( ',' ) >= 0 )
+        {
+            return null;
+        }
+        String strRange = strHeader.substring( UNIT_BYTES.length( ) ).trim( );
+        int nDash = strRange.indexOf( '-' );
+        if ( nDash < 0 )
+        {
+            return null;
+        }
+
+        try
+        {
+            String strStart = strRange.substring( 0, nDash ).trim( );
+            String strEnd = strRange.substring( nDash + 1 ).trim( );
+            if ( strStart.isEmpty( ) )
+            {
+                // Suffix range : the last n bytes
+                long lSuffix = Long.parseLong( strEnd );
+                if ( lSuffix <= 0 || lSize == 0 )
+                {
+                    return NOT_SATISFIABLE;
+                }
+                return new HttpRange( Math.max( 0, lSize - lSuffix ), lSize - 1 );
+            }
+
+            long lStart = Long.parseLong( strStart );
+            long lEnd = strEnd.isEmpty( ) ? lSize - 1 : Long.parseLong( strEnd );
+            if ( lEnd < lStart )
+            {
+                // Syntactically invalid : the header is ignored
+                return null;
+            }
+            if ( lStart >= lSize )
+            {
+                return NOT_SATISFIABLE;
+            }
+            return new HttpRange( lStart, Math.min( lEnd, lSize - 1 ) );
+        }
+        catch( NumberFormatException e )
+        {
+            return null;
+        }
+    }
+}
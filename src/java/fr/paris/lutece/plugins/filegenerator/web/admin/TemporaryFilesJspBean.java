@@ -35,26 +35,38 @@ package fr.paris.lutece.plugins.filegenerator.web.admin;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.sql.Timestamp;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.rometools.utils.Strings;
 
 import fr.paris.lutece.plugins.filegenerator.business.TemporaryFile;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileFilter;
 import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileHome;
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+import fr.paris.lutece.plugins.filegenerator.service.GenerationEvent;
+import fr.paris.lutece.plugins.filegenerator.service.GenerationEventBus;
+import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileGeneratorService;
 import fr.paris.lutece.plugins.filegenerator.service.TemporaryFileService;
-import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
 import fr.paris.lutece.portal.service.admin.AccessDeniedException;
 import fr.paris.lutece.portal.service.i18n.I18nService;
 import fr.paris.lutece.portal.service.template.AppTemplateService;
+import fr.paris.lutece.portal.service.util.AppLogService;
 import fr.paris.lutece.portal.service.util.AppPropertiesService;
 import fr.paris.lutece.portal.util.mvc.admin.MVCAdminJspBean;
 import fr.paris.lutece.portal.util.mvc.admin.annotations.Controller;
 import fr.paris.lutece.portal.util.mvc.commons.annotations.View;
+import fr.paris.lutece.util.ReferenceList;
 import fr.paris.lutece.util.html.HtmlTemplate;
 
 /**
@@ -71,6 +83,20 @@ public class TemporaryFilesJspBean extends MVCAdminJspBean
     // Parameter
     public static final String PARAMETER_FILE_ID = "file_id";
 
+    public static final String PARAMETER_MIME_TYPE = "mime_type";
+    public static final String PARAMETER_STATUS = "status";
+    public static final String PARAMETER_SORT = "sort";
+    public static final String PARAMETER_FROM_DATE = "from_date";
+    public static final String PARAMETER_FROM_ID = "from_id";
+    public static final String PARAMETER_DIRECTION = "direction";
+    public static final String PARAMETER_SINCE = "since";
+    private static final String SORT_ASC = "asc";
+    private static final String DIRECTION_PREVIOUS = "previous";
+
+    // Properties
+    private static final String PROPERTY_PAGE_SIZE = "temporaryfiles.list.pageSize";
+    private static final String PROPERTY_EVENTS_TIMEOUT = "temporaryfiles.events.poll.timeout";
+
     // View
     private static final String VIEW_MY_FILES = "view_myFiles";
 
@@ -78,21 +104,78 @@ public class TemporaryFilesJspBean extends MVCAdminJspBean
     private static final String TEMPLATE_TEMPORARY_FILES = "admin/plugins/filegenerator/manage_temporary_files.html";
     private static final String PROPERTY_TITLE_MANAGE_FILES_SYSTEM = "filegenerator.manage_temporary_files.pageTitle";
     private static final String PROPERTY_MSG_DAYS_DELETE = "filegenerator.manage_temporary_files.help";
+    private static final String PROPERTY_STATUS_PREFIX = "filegenerator.manage_temporary_files.status.";
 
     // Marks
     private static final String MARK_FILES = "files_list";
     private static final String MARK_DAYS_DELETE = "msg_days_before_delete";
+    private static final String MARK_HAS_NEXT = "has_next";
+    private static final String MARK_HAS_PREVIOUS = "has_previous";
+    private static final String MARK_FILES_COUNT = "files_count";
+    private static final String MARK_MIME_TYPE = "mime_type";
+    private static final String MARK_STATUS = "status";
+    private static final String MARK_SORT = "sort";
+    private static final String MARK_MIME_TYPES_LIST = "mime_types_list";
+    private static final String MARK_STATUS_LIST = "status_list";
+    private static final String MARK_EVENTS_CURSOR = "events_cursor";
+    private static final String MARK_EVENTS_RETENTION = "events_retention";
 
     // Messages
     private static final String MESSAGE_FILE_ACCESS_DENIED = "Access Denied to this file";
 
+    private static final String CONTENT_TYPE_DEFAULT = "application/octet-stream";
+    private static final String CONTENT_TYPE_JSON = "application/json";
+
+    // Headers
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_RANGE = "If-Range";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_RANGE = "Range";
+    private static final String RANGE_UNIT_BYTES = "bytes";
+
     @View( value = VIEW_MY_FILES, defaultView = true )
     public String getTemporaryFiles( HttpServletRequest request )
     {
         setPageTitleProperty( PROPERTY_TITLE_MANAGE_FILES_SYSTEM );
-        List<TemporaryFile> listFiles = TemporaryFileHome.findByUser( getUser( ) );
+        int nPageSize = AppPropertiesService.getPropertyInt( PROPERTY_PAGE_SIZE, 50 );
+
+        TemporaryFileFilter filter = new TemporaryFileFilter( );
+        filter.setIdUser( getUser( ).getUserId( ) );
+        filter.setMimeType( Strings.isNotEmpty( request.getParameter( PARAMETER_MIME_TYPE ) ) ? request.getParameter( PARAMETER_MIME_TYPE ) : null );
+        filter.setStatus( TemporaryFileStatus.fromName( request.getParameter( PARAMETER_STATUS ) ) );
+        filter.setAscending( SORT_ASC.equals( request.getParameter( PARAMETER_SORT ) ) );
+
+        TemporaryFile from = getPageStart( request );
+        boolean bForward = !DIRECTION_PREVIOUS.equals( request.getParameter( PARAMETER_DIRECTION ) );
+
+        // Read before the files, so that the changes made while they are read are pushed afterwards
+        long lEventsCursor = GenerationEventBus.getInstance( ).getCursor( );
+
+        // One more file is read to know whether there is another page in this direction
+        List<TemporaryFile> listFiles = TemporaryFileHome.findLightByFilter( filter, from, bForward, nPageSize + 1 );
+        boolean bMore = listFiles.size( ) > nPageSize;
+        if ( bMore )
+        {
+            listFiles = bForward ? listFiles.subList( 0, nPageSize ) : listFiles.subList( 1, nPageSize + 1 );
+        }
+
         Map<String, Object> model = new HashMap<>( );
         model.put( MARK_FILES, listFiles );
+        model.put( MARK_HAS_NEXT, bForward ? bMore : from != null );
+        model.put( MARK_HAS_PREVIOUS, bForward ? from != null : bMore );
+        model.put( MARK_FILES_COUNT, TemporaryFileHome.countByFilter( filter ) );
+        model.put( MARK_MIME_TYPE, filter.getMimeType( ) );
+        model.put( MARK_STATUS, filter.getStatus( ) != null ? filter.getStatus( ).name( ) : null );
+        model.put( MARK_SORT, filter.isAscending( ) ? SORT_ASC : null );
+        model.put( MARK_MIME_TYPES_LIST, getMimeTypesList( ) );
+        model.put( MARK_STATUS_LIST, getStatusList( ) );
+        model.put( MARK_EVENTS_CURSOR, lEventsCursor );
+        model.put( MARK_EVENTS_RETENTION, GenerationEventBus.getInstance( ).getRetention( ) );
 
         String daysBeforeDelete = AppPropertiesService.getProperty( "daemon.temporaryfilesDaemon.days.defore.delete", "30" );
         String message = I18nService.getLocalizedString( PROPERTY_MSG_DAYS_DELETE, new String [ ] {
@@ -105,6 +188,62 @@ public class TemporaryFilesJspBean extends MVCAdminJspBean
         return getAdminPage( template.getHtml( ) );
     }
 
+    /**
+     * Get the file a page starts from, given by its creation date and id
+     * 
+     * @param request
+     *            the request
+     * @return the file with only its id and creation date, or null for the first page
+     */
+    private static TemporaryFile getPageStart( HttpServletRequest request )
+    {
+        try
+        {
+            String strDate = request.getParameter( PARAMETER_FROM_DATE );
+            String strId = request.getParameter( PARAMETER_FROM_ID );
+            if ( Strings.isNotEmpty( strDate ) && Strings.isNotEmpty( strId ) )
+            {
+                TemporaryFile from = new TemporaryFile( );
+                from.setDateCreation( new Timestamp( Long.parseLong( strDate ) ) );
+                from.setIdFile( Integer.parseInt( strId ) );
+                return from;
+            }
+        }
+        catch( NumberFormatException e )
+        {
+            // Invalid page start : back to the first page
+        }
+        return null;
+    }
+
+    /**
+     * @return the mime types of the files of the user
+     */
+    private ReferenceList getMimeTypesList( )
+    {
+        ReferenceList list = new ReferenceList( );
+        list.addItem( "", "" );
+        for ( String strMimeType : TemporaryFileHome.findMimeTypes( getUser( ) ) )
+        {
+            list.addItem( strMimeType, strMimeType );
+        }
+        return list;
+    }
+
+    /**
+     * @return the generation status
+     */
+    private ReferenceList getStatusList( )
+    {
+        ReferenceList list = new ReferenceList( );
+        list.addItem( "", "" );
+        for ( TemporaryFileStatus status : TemporaryFileStatus.values( ) )
+        {
+            list.addItem( status.name( ), I18nService.getLocalizedString( PROPERTY_STATUS_PREFIX + status.name( ).toLowerCase( Locale.ENGLISH ), getLocale( ) ) );
+        }
+        return list;
+    }
+
     public void doDownloadFile( HttpServletRequest request, HttpServletResponse response ) throws AccessDeniedException, IOException
     {
         String strId = request.getParameter( PARAMETER_FILE_ID );
@@ -120,17 +259,303 @@ public class TemporaryFilesJspBean extends MVCAdminJspBean
             {
                 throw new AccessDeniedException( "File not yet generated" );
             }
-            PhysicalFile physicalFile = TemporaryFileService.getInstance( ).loadPhysicalFile( file.getIdPhysicalFile( ) );
-            if ( physicalFile != null )
+            writeFile( request, response, file );
+        }
+    }
+
+    /**
+     * Waits for the changes of the files of the user following the cursor given in parameter, and writes them as JSON :
+     * <code>{"cursor":12,"reset":false,"busy":false,"events":[{"id":3,"status":"RUNNING","progress":40}]}</code>. The client then waits again from the
+     * returned cursor. When reset is true, events were missed and the files must be reloaded ; when busy is true, the client must retry later.
+     * <p>
+     * When the request supports it, the wait is asynchronous : the request thread is given back to the container, and the response is written by the thread
+     * publishing the next event, or by the container on timeout. Otherwise the wait holds the request thread, and the number of such waits is limited.
+     * 
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @throws IOException
+     */
+    public void doGetGenerationEvents( HttpServletRequest request, HttpServletResponse response ) throws IOException
+    {
+        long lSince;
+        try
+        {
+            lSince = Long.parseLong( request.getParameter( PARAMETER_SINCE ) );
+        }
+        catch( NumberFormatException e )
+        {
+            response.sendError( HttpServletResponse.SC_BAD_REQUEST );
+            return;
+        }
+        long lTimeout = AppPropertiesService.getPropertyLong( PROPERTY_EVENTS_TIMEOUT, 25 ) * 1000;
+        int nIdUser = getUser( ).getUserId( );
+        // Set before the wait, the response being committed when the page ends if the wait is asynchronous
+        response.setContentType( CONTENT_TYPE_JSON );
+        response.setCharacterEncoding( "UTF-8" );
+        response.setHeader( HEADER_CACHE_CONTROL, "no-store" );
+        if ( !request.isAsyncSupported( ) )
+        {
+            writeEvents( response, GenerationEventBus.getInstance( ).poll( nIdUser, lSince, lTimeout ) );
+            return;
+        }
+
+        AsyncContext asyncContext = request.startAsync( request, response );
+        asyncContext.setTimeout( lTimeout );
+        GenerationEventBus.Waiter waiter = new GenerationEventBus.Waiter( lSince, poll -> {
+            try
+            {
+                writeEvents( (HttpServletResponse) asyncContext.getResponse( ), poll );
+            }
+            catch( IOException e )
+            {
+                AppLogService.debug( "Unable to send the generation events, the client is gone : " + e.getMessage( ) );
+            }
+            finally
+            {
+                asyncContext.complete( );
+            }
+        } );
+        asyncContext.addListener( new AsyncListener( )
+        {
+            @Override
+            public void onTimeout( AsyncEvent event )
+            {
+                waiter.expire( );
+            }
+
+            @Override
+            public void onError( AsyncEvent event )
+            {
+                waiter.cancel( );
+            }
+
+            @Override
+            public void onComplete( AsyncEvent event )
+            {
+                waiter.cancel( );
+            }
+
+            @Override
+            public void onStartAsync( AsyncEvent event )
             {
-                response.setContentType( file.getTitle( ) );
-                response.setHeader( "Content-Disposition", "attachment; filename=\"" + file.getTitle( ) + "\";" );
-                OutputStream out = response.getOutputStream( );
-                out.write( physicalFile.getValue() != null ? physicalFile.getValue() : new byte[0]);
-                out.flush( );
-                out.close( );
+                // Not restarted
             }
+        } );
+        GenerationEventBus.getInstance( ).poll( nIdUser, waiter );
+    }
+
+    /**
+     * Writes the result of a poll of the generation events as JSON
+     * 
+     * @param response
+     *            the response
+     * @param poll
+     *            the result of the poll
+     * @throws IOException
+     */
+    private static void writeEvents( HttpServletResponse response, GenerationEventBus.Poll poll ) throws IOException
+    {
+        StringBuilder sbJson = new StringBuilder( );
+        sbJson.append( "{\"cursor\":" ).append( poll.getCursor( ) );
+        sbJson.append( ",\"reset\":" ).append( poll.isReset( ) );
+        sbJson.append( ",\"busy\":" ).append( poll.isBusy( ) );
+        sbJson.append( ",\"events\":[" );
+        boolean bFirst = true;
+        for ( GenerationEvent event : poll.getEvents( ) )
+        {
+            if ( !bFirst )
+            {
+                sbJson.append( ',' );
+            }
+            bFirst = false;
+            sbJson.append( "{\"id\":" ).append( event.getIdFile( ) );
+            sbJson.append( ",\"status\":\"" ).append( event.getStatus( ).name( ) );
+            sbJson.append( "\",\"progress\":" ).append( event.getProgress( ) ).append( '}' );
         }
+        sbJson.append( "]}" );
+
+        PrintWriter writer = response.getWriter( );
+        writer.write( sbJson.toString( ) );
+        writer.flush( );
+    }
+
+    /**
+     * Writes a temporary file to the response. Conditional requests are answered from the ETag and Last-Modified date of the file, and a single byte range
+     * can be requested so that an interrupted download can be resumed.
+     * 
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @param file
+     *            the temporary file
+     * @throws IOException
+     */
+    private void writeFile( HttpServletRequest request, HttpServletResponse response, TemporaryFile file ) throws IOException
+    {
+        long lSize = file.getSize( );
+        String strETag = getETag( file );
+        long lLastModified = file.getDateCreation( ) != null ? file.getDateCreation( ).getTime( ) : -1;
+
+        response.setHeader( HEADER_ETAG, strETag );
+        if ( lLastModified >= 0 )
+        {
+            response.setDateHeader( HEADER_LAST_MODIFIED, lLastModified );
+        }
+        if ( isNotModified( request, strETag, lLastModified ) )
+        {
+            response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+            return;
+        }
+
+        HttpRange range = null;
+        if ( lSize > 0 )
+        {
+            response.setHeader( HEADER_ACCEPT_RANGES, RANGE_UNIT_BYTES );
+            if ( isIfRangeMatching( request, strETag, lLastModified ) )
+            {
+                range = HttpRange.parse( request.getHeader( HEADER_RANGE ), lSize );
+            }
+        }
+        if ( range == HttpRange.NOT_SATISFIABLE )
+        {
+            response.setHeader( HEADER_CONTENT_RANGE, RANGE_UNIT_BYTES + " */" + lSize );
+            response.sendError( HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE );
+            return;
+        }
+
+        response.setContentType( getContentType( request, file ) );
+        response.setHeader( "Content-Disposition", "attachment; filename=\"" + file.getTitle( ) + "\";" );
+        long lOffset = 0;
+        long lLength = -1;
+        if ( range != null )
+        {
+            lOffset = range.getStart( );
+            lLength = range.getLength( );
+            response.setStatus( HttpServletResponse.SC_PARTIAL_CONTENT );
+            response.setHeader( HEADER_CONTENT_RANGE, RANGE_UNIT_BYTES + " " + range.getStart( ) + "-" + range.getEnd( ) + "/" + lSize );
+            response.setContentLengthLong( lLength );
+        }
+        else
+            if ( lSize > 0 )
+            {
+                response.setContentLengthLong( lSize );
+            }
+
+        OutputStream out = response.getOutputStream( );
+        if ( !TemporaryFileService.getInstance( ).writePhysicalFile( file.getIdPhysicalFile( ), lOffset, lLength, out ) && !response.isCommitted( ) )
+        {
+            response.reset( );
+            response.sendError( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+        out.flush( );
+        out.close( );
+    }
+
+    /**
+     * Get the strong ETag of a temporary file. A temporary file is never modified once generated, so its id, size and creation date identify its content.
+     * 
+     * @param file
+     *            the temporary file
+     * @return the ETag
+     */
+    private static String getETag( TemporaryFile file )
+    {
+        long lDate = file.getDateCreation( ) != null ? file.getDateCreation( ).getTime( ) : 0;
+        return "\"" + file.getIdFile( ) + "-" + file.getSize( ) + "-" + lDate + "\"";
+    }
+
+    /**
+     * Checks the If-None-Match and If-Modified-Since headers.
+     * 
+     * @param request
+     *            the request
+     * @param strETag
+     *            the ETag of the file
+     * @param lLastModified
+     *            the last modification date of the file, or -1
+     * @return true if the client copy is up to date
+     */
+    private static boolean isNotModified( HttpServletRequest request, String strETag, long lLastModified )
+    {
+        String strIfNoneMatch = request.getHeader( HEADER_IF_NONE_MATCH );
+        if ( strIfNoneMatch != null )
+        {
+            return "*".equals( strIfNoneMatch.trim( ) ) || strIfNoneMatch.contains( strETag );
+        }
+        long lIfModifiedSince = getDateHeader( request, HEADER_IF_MODIFIED_SINCE );
+        return lLastModified >= 0 && lIfModifiedSince >= 0 && lLastModified / 1000 <= lIfModifiedSince / 1000;
+    }
+
+    /**
+     * Checks the If-Range header : the range is only served if the client copy is still the current one.
+     * 
+     * @param request
+     *            the request
+     * @param strETag
+     *            the ETag of the file
+     * @param lLastModified
+     *            the last modification date of the file, or -1
+     * @return true if the requested range can be served
+     */
+    private static boolean isIfRangeMatching( HttpServletRequest request, String strETag, long lLastModified )
+    {
+        String strIfRange = request.getHeader( HEADER_IF_RANGE );
+        if ( strIfRange == null )
+        {
+            return true;
+        }
+        strIfRange = strIfRange.trim( );
+        if ( strIfRange.startsWith( "\"" ) || strIfRange.startsWith( "W/" ) )
+        {
+            // Weak validators cannot be used for ranges
+            return strIfRange.equals( strETag );
+        }
+        long lIfRange = getDateHeader( request, HEADER_IF_RANGE );
+        return lLastModified >= 0 && lIfRange >= 0 && lLastModified / 1000 == lIfRange / 1000;
+    }
+
+    /**
+     * Get a date header, ignoring malformed values.
+     * 
+     * @param request
+     *            the request
+     * @param strHeader
+     *            the header name
+     * @return the date, or -1
+     */
+    private static long getDateHeader( HttpServletRequest request, String strHeader )
+    {
+        try
+        {
+            return request.getDateHeader( strHeader );
+        }
+        catch( IllegalArgumentException e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the content type of a temporary file : its mime type, or the type guessed from its name.
+     * 
+     * @param request
+     *            the request
+     * @param file
+     *            the temporary file
+     * @return the content type
+     */
+    private static String getContentType( HttpServletRequest request, TemporaryFile file )
+    {
+        String strContentType = file.getMimeType( );
+        if ( Strings.isEmpty( strContentType ) && file.getTitle( ) != null )
+        {
+            strContentType = request.getServletContext( ).getMimeType( file.getTitle( ) );
+        }
+        return Strings.isEmpty( strContentType ) ? CONTENT_TYPE_DEFAULT : strContentType;
     }
 
     public String doDeleteFile( HttpServletRequest request ) throws AccessDeniedException, IOException
@@ -148,4 +573,33 @@ public class TemporaryFilesJspBean extends MVCAdminJspBean
 
         return getViewUrl( VIEW_MY_FILES );
     }
+
+    /**
+     * Cancels the generation of a file
+     * 
+     * @param request
+     *            the request
+     * @return the url of the files list
+     * @throws AccessDeniedException
+     *             if the file does not belong to the user
+     */
+    public String doCancelFile( HttpServletRequest request ) throws AccessDeniedException
+    {
+        String strId = request.getParameter( PARAMETER_FILE_ID );
+        if ( Strings.isNotEmpty( strId ) )
+        {
+            TemporaryFile file = TemporaryFileHome.findStatus( Integer.parseInt( strId ) );
+            if ( file == null )
+            {
+                return getViewUrl( VIEW_MY_FILES );
+            }
+            if ( file.getUser( ).getUserId( ) != getUser( ).getUserId( ) )
+            {
+                throw new AccessDeniedException( MESSAGE_FILE_ACCESS_DENIED );
+            }
+            TemporaryFileGeneratorService.getInstance( ).cancel( file.getIdFile( ) );
+        }
+
+        return getViewUrl( VIEW_MY_FILES );
+    }
 }
@@ -2,3 +2,4 @@
 -- changeset filegenerator:init_core_filegenerator.sql
 -- preconditions onFail:MARK_RAN onError:WARN
 INSERT INTO core_admin_right VALUES ('VIEW_TEMP_FILES','filegenerator.adminFeature.temporary_files.name',2,'jsp/admin/plugins/filegenerator/ManageMyFiles.jsp','filegenerator.adminFeature.temporary_files.description',0,NULL,'SYSTEM',NULL,NULL,3, 0);
+INSERT INTO core_admin_right VALUES ('MANAGE_GENERATION_QUEUE','filegenerator.adminFeature.generation_queue.name',0,'jsp/admin/plugins/filegenerator/ManageGenerationQueue.jsp','filegenerator.adminFeature.generation_queue.description',0,NULL,'SYSTEM',NULL,NULL,4, 0);
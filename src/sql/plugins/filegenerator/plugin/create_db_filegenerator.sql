@@ -2,14 +2,69 @@
 -- changeset filegenerator:create_db_filegenerator.sql
 -- preconditions onFail:MARK_RAN onError:WARN
 DROP TABLE IF EXISTS filegen_temporary_file;
+DROP TABLE IF EXISTS filegen_physical_file_ref;
+DROP TABLE IF EXISTS filegen_cluster_job;
+DROP TABLE IF EXISTS filegen_scheduled_export;
 CREATE TABLE filegen_temporary_file (
 	id_file INT AUTO_INCREMENT,
 	id_user int DEFAULT 0 NOT NULL,
 	title LONG VARCHAR DEFAULT NULL, 
 	description LONG VARCHAR DEFAULT NULL, 
+	description_summary VARCHAR(255) DEFAULT NULL,
 	id_physical_file VARCHAR(255) DEFAULT NULL,  
-	file_size  INT DEFAULT NULL,
+	file_size  BIGINT DEFAULT NULL,
 	mime_type VARCHAR(255) DEFAULT NULL,
 	date_creation timestamp default CURRENT_TIMESTAMP NOT NULL,
+	status VARCHAR(50) DEFAULT NULL,
+	progress INT DEFAULT 0,
+	date_start timestamp NULL DEFAULT NULL,
+	date_compression timestamp NULL DEFAULT NULL,
+	date_storage timestamp NULL DEFAULT NULL,
+	date_end timestamp NULL DEFAULT NULL,
+	cache_key VARCHAR(255) DEFAULT NULL,
+	date_heartbeat timestamp NULL DEFAULT NULL,
 	PRIMARY KEY (id_file)
-);
\ No newline at end of file
+);
+CREATE INDEX idx_filegen_temp_file_user ON filegen_temporary_file (id_user, date_creation);
+CREATE INDEX idx_filegen_temp_file_date ON filegen_temporary_file (date_creation);
+CREATE INDEX idx_filegen_temp_file_cache ON filegen_temporary_file (cache_key, date_end);
+CREATE INDEX idx_filegen_temp_file_physical ON filegen_temporary_file (id_physical_file);
+CREATE TABLE filegen_physical_file_ref (
+	content_hash VARCHAR(64) NOT NULL,
+	id_physical_file VARCHAR(255) NOT NULL,
+	ref_count INT DEFAULT 0 NOT NULL,
+	date_update timestamp default CURRENT_TIMESTAMP NOT NULL,
+	PRIMARY KEY (content_hash)
+);
+CREATE INDEX idx_filegen_physical_file_ref ON filegen_physical_file_ref (id_physical_file);
+CREATE TABLE filegen_cluster_job (
+	id_file INT NOT NULL,
+	id_user INT DEFAULT 0 NOT NULL,
+	generator LONG VARBINARY,
+	priority INT DEFAULT 0 NOT NULL,
+	cache_key VARCHAR(255) DEFAULT NULL,
+	lease_owner VARCHAR(255) DEFAULT NULL,
+	lease_token VARCHAR(64) DEFAULT NULL,
+	lease_expiry timestamp NULL DEFAULT NULL,
+	attempts INT DEFAULT 0 NOT NULL,
+	date_creation timestamp default CURRENT_TIMESTAMP NOT NULL,
+	PRIMARY KEY (id_file)
+);
+CREATE INDEX idx_filegen_cluster_job_lease ON filegen_cluster_job (lease_expiry, date_creation);
+CREATE TABLE filegen_scheduled_export (
+	id_export INT AUTO_INCREMENT,
+	id_user INT DEFAULT 0 NOT NULL,
+	generator_factory VARCHAR(255) NOT NULL,
+	parameters LONG VARCHAR DEFAULT NULL,
+	cron VARCHAR(255) NOT NULL,
+	description LONG VARCHAR DEFAULT NULL,
+	enabled SMALLINT DEFAULT 1 NOT NULL,
+	reuse_unchanged SMALLINT DEFAULT 0 NOT NULL,
+	watermark VARCHAR(255) DEFAULT NULL,
+	id_last_file INT DEFAULT 0 NOT NULL,
+	date_last_run timestamp NULL DEFAULT NULL,
+	date_next_run timestamp NULL DEFAULT NULL,
+	run_token VARCHAR(64) DEFAULT NULL,
+	PRIMARY KEY (id_export)
+);
+CREATE INDEX idx_filegen_scheduled_export_next ON filegen_scheduled_export (enabled, date_next_run);
@@ -0,0 +1,62 @@
+-- liquibase formatted sql
+-- changeset filegenerator:update_db_filegenerator-2.1.6-2.1.7.sql
+-- preconditions onFail:MARK_RAN onError:WARN
+ALTER TABLE filegen_temporary_file MODIFY file_size BIGINT DEFAULT NULL;
+ALTER TABLE filegen_temporary_file ADD COLUMN status VARCHAR(50) DEFAULT NULL;
+ALTER TABLE filegen_temporary_file ADD COLUMN progress INT DEFAULT 0;
+ALTER TABLE filegen_temporary_file ADD COLUMN date_start timestamp NULL DEFAULT NULL;
+ALTER TABLE filegen_temporary_file ADD COLUMN date_compression timestamp NULL DEFAULT NULL;
+ALTER TABLE filegen_temporary_file ADD COLUMN date_storage timestamp NULL DEFAULT NULL;
+ALTER TABLE filegen_temporary_file ADD COLUMN date_end timestamp NULL DEFAULT NULL;
+UPDATE filegen_temporary_file SET status = 'DONE', progress = 100 WHERE id_physical_file IS NOT NULL;
+UPDATE filegen_temporary_file SET status = 'FAILED' WHERE id_physical_file IS NULL AND file_size = -1;
+UPDATE filegen_temporary_file SET status = 'TOO_BIG' WHERE id_physical_file IS NULL AND file_size > 0;
+UPDATE filegen_temporary_file SET status = 'FAILED' WHERE status IS NULL;
+CREATE INDEX idx_filegen_temp_file_user ON filegen_temporary_file (id_user, date_creation);
+CREATE INDEX idx_filegen_temp_file_date ON filegen_temporary_file (date_creation);
+ALTER TABLE filegen_temporary_file ADD COLUMN description_summary VARCHAR(255) DEFAULT NULL;
+UPDATE filegen_temporary_file SET description_summary = SUBSTRING(description,1,255);
+ALTER TABLE filegen_temporary_file ADD COLUMN cache_key VARCHAR(255) DEFAULT NULL;
+CREATE INDEX idx_filegen_temp_file_cache ON filegen_temporary_file (cache_key, date_end);
+CREATE INDEX idx_filegen_temp_file_physical ON filegen_temporary_file (id_physical_file);
+ALTER TABLE filegen_temporary_file ADD COLUMN date_heartbeat timestamp NULL DEFAULT NULL;
+CREATE TABLE filegen_physical_file_ref (
+	content_hash VARCHAR(64) NOT NULL,
+	id_physical_file VARCHAR(255) NOT NULL,
+	ref_count INT DEFAULT 0 NOT NULL,
+	date_update timestamp default CURRENT_TIMESTAMP NOT NULL,
+	PRIMARY KEY (content_hash)
+);
+CREATE INDEX idx_filegen_physical_file_ref ON filegen_physical_file_ref (id_physical_file);
+INSERT INTO core_admin_right VALUES ('MANAGE_GENERATION_QUEUE','filegenerator.adminFeature.generation_queue.name',0,'jsp/admin/plugins/filegenerator/ManageGenerationQueue.jsp','filegenerator.adminFeature.generation_queue.description',0,NULL,'SYSTEM',NULL,NULL,4, 0);
+CREATE TABLE filegen_cluster_job (
+	id_file INT NOT NULL,
+	id_user INT DEFAULT 0 NOT NULL,
+	generator LONG VARBINARY,
+	priority INT DEFAULT 0 NOT NULL,
+	cache_key VARCHAR(255) DEFAULT NULL,
+	lease_owner VARCHAR(255) DEFAULT NULL,
+	lease_token VARCHAR(64) DEFAULT NULL,
+	lease_expiry timestamp NULL DEFAULT NULL,
+	attempts INT DEFAULT 0 NOT NULL,
+	date_creation timestamp default CURRENT_TIMESTAMP NOT NULL,
+	PRIMARY KEY (id_file)
+);
+CREATE INDEX idx_filegen_cluster_job_lease ON filegen_cluster_job (lease_expiry, date_creation);
+CREATE TABLE filegen_scheduled_export (
+	id_export INT AUTO_INCREMENT,
+	id_user INT DEFAULT 0 NOT NULL,
+	generator_factory VARCHAR(255) NOT NULL,
+	parameters LONG VARCHAR DEFAULT NULL,
+	cron VARCHAR(255) NOT NULL,
+	description LONG VARCHAR DEFAULT NULL,
+	enabled SMALLINT DEFAULT 1 NOT NULL,
+	reuse_unchanged SMALLINT DEFAULT 0 NOT NULL,
+	watermark VARCHAR(255) DEFAULT NULL,
+	id_last_file INT DEFAULT 0 NOT NULL,
+	date_last_run timestamp NULL DEFAULT NULL,
+	date_next_run timestamp NULL DEFAULT NULL,
+	run_token VARCHAR(64) DEFAULT NULL,
+	PRIMARY KEY (id_export)
+);
+CREATE INDEX idx_filegen_scheduled_export_next ON filegen_scheduled_export (enabled, date_next_run);
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class ClusterJobBusinessTest extends LuteceTestCase
+{
+    private static final int ID_FILE = 987654;
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        ClusterJobHome.remove( ID_FILE );
+        super.tearDown( );
+    }
+
+    public void testClaimAndLease( )
+    {
+        ClusterJob job = new ClusterJob( );
+        job.setIdFile( ID_FILE );
+        job.setIdUser( 1 );
+        job.setGenerator( new byte [ ] {
+                1, 2, 3
+        } );
+        job.setCacheKey( "key" );
+        ClusterJobHome.create( job );
+
+        ClusterJob loaded = ClusterJobHome.findByPrimaryKey( ID_FILE );
+        assertNotNull( loaded );
+        assertEquals( 3, loaded.getGenerator( ).length );
+        assertEquals( "key", loaded.getCacheKey( ) );
+        assertEquals( 0, loaded.getAttempts( ) );
+
+        long lNow = System.currentTimeMillis( );
+        Timestamp now = new Timestamp( lNow );
+        Timestamp expiry = new Timestamp( lNow + 60000 );
+        assertTrue( ClusterJobHome.findClaimable( now, 100 ).contains( ID_FILE ) );
+
+        // Only the first of two concurrent claims gets the lease
+        assertTrue( ClusterJobHome.claim( ID_FILE, "node1", "token1", expiry, now ) );
+        assertFalse( ClusterJobHome.claim( ID_FILE, "node2", "token2", expiry, now ) );
+        assertFalse( ClusterJobHome.findClaimable( now, 100 ).contains( ID_FILE ) );
+        assertEquals( "token1", ClusterJobHome.renewLease( ID_FILE, "token1", expiry ) );
+        assertEquals( 1, ClusterJobHome.findByPrimaryKey( ID_FILE ).getAttempts( ) );
+
+        // Once expired, the lease is taken over and the former owner can no longer remove the job
+        Timestamp later = new Timestamp( lNow + 120000 );
+        assertTrue( ClusterJobHome.findClaimable( later, 100 ).contains( ID_FILE ) );
+        assertTrue( ClusterJobHome.claim( ID_FILE, "node2", "token2", new Timestamp( lNow + 180000 ), later ) );
+        assertEquals( "token2", ClusterJobHome.renewLease( ID_FILE, "token1", expiry ) );
+        assertEquals( 2, ClusterJobHome.findByPrimaryKey( ID_FILE ).getAttempts( ) );
+        ClusterJobHome.remove( ID_FILE, "token1" );
+        assertNotNull( ClusterJobHome.findByPrimaryKey( ID_FILE ) );
+
+        // A released lease is not counted as an attempt
+        ClusterJobHome.releaseLease( ID_FILE, "token2" );
+        assertEquals( 1, ClusterJobHome.findByPrimaryKey( ID_FILE ).getAttempts( ) );
+        assertTrue( ClusterJobHome.findClaimable( now, 100 ).contains( ID_FILE ) );
+
+        assertTrue( ClusterJobHome.claim( ID_FILE, "node1", "token3", expiry, now ) );
+        ClusterJobHome.remove( ID_FILE, "token3" );
+        assertNull( ClusterJobHome.findByPrimaryKey( ID_FILE ) );
+        assertNull( ClusterJobHome.renewLease( ID_FILE, "token3", expiry ) );
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import fr.paris.lutece.portal.business.user.AdminUser;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class PhysicalFileReferenceBusinessTest extends LuteceTestCase
+{
+    private static final String HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private AdminUser _user;
+    private TemporaryFile _file;
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        _user = new AdminUser( );
+        _user.setUserId( 1 );
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        if ( _file != null )
+        {
+            TemporaryFileHome.remove( _file.getIdFile( ) );
+        }
+        PhysicalFileReferenceHome.remove( HASH );
+        super.tearDown( );
+    }
+
+    public void testCRUD( )
+    {
+        PhysicalFileReference reference = new PhysicalFileReference( );
+        reference.setContentHash( HASH );
+        reference.setIdPhysicalFile( "id" );
+        reference.setRefCount( 1 );
+        assertTrue( PhysicalFileReferenceHome.create( reference ) );
+
+        PhysicalFileReference loaded = PhysicalFileReferenceHome.findByContentHash( HASH );
+        assertNotNull( loaded );
+        assertEquals( "id", loaded.getIdPhysicalFile( ) );
+        assertEquals( 1, loaded.getRefCount( ) );
+
+        assertEquals( 1, PhysicalFileReferenceHome.updateRefCount( "id", 2 ) );
+        loaded = PhysicalFileReferenceHome.findByPhysicalFile( "id" );
+        assertEquals( HASH, loaded.getContentHash( ) );
+        assertEquals( 3, loaded.getRefCount( ) );
+
+        assertTrue( PhysicalFileReferenceHome.releaseReferences( "id", 1 ) );
+        assertEquals( 2, PhysicalFileReferenceHome.findByPhysicalFile( "id" ).getRefCount( ) );
+
+        // The last references are not released by a decrement, but by removing the reference
+        assertFalse( PhysicalFileReferenceHome.releaseReferences( "id", 2 ) );
+        assertFalse( PhysicalFileReferenceHome.removeByPhysicalFile( "id", 1 ) );
+        assertEquals( 2, PhysicalFileReferenceHome.findByPhysicalFile( "id" ).getRefCount( ) );
+
+        PhysicalFileReferenceHome.remove( HASH );
+        assertNull( PhysicalFileReferenceHome.findByContentHash( HASH ) );
+        assertNull( PhysicalFileReferenceHome.findByPhysicalFile( "id" ) );
+    }
+
+    public void testConcurrentChanges( )
+    {
+        PhysicalFileReference reference = new PhysicalFileReference( );
+        reference.setContentHash( HASH );
+        reference.setIdPhysicalFile( "shared" );
+        reference.setRefCount( 1 );
+        assertTrue( PhysicalFileReferenceHome.create( reference ) );
+
+        // Another node stores the same content at the same time : its insert is refused, and it uses the existing stored file
+        PhysicalFileReference duplicate = new PhysicalFileReference( );
+        duplicate.setContentHash( HASH );
+        duplicate.setIdPhysicalFile( "duplicate" );
+        duplicate.setRefCount( 1 );
+        assertFalse( PhysicalFileReferenceHome.create( duplicate ) );
+        assertEquals( 1, PhysicalFileReferenceHome.updateRefCount( "shared", 1 ) );
+
+        // A node releasing its reference after the other one added its own keeps the stored file
+        assertTrue( PhysicalFileReferenceHome.releaseReferences( "shared", 1 ) );
+        assertEquals( 1, PhysicalFileReferenceHome.findByPhysicalFile( "shared" ).getRefCount( ) );
+
+        // A node adding a reference after the last one was released sees it : it keeps its own stored file
+        assertFalse( PhysicalFileReferenceHome.releaseReferences( "shared", 1 ) );
+        assertTrue( PhysicalFileReferenceHome.removeByPhysicalFile( "shared", 1 ) );
+        assertEquals( 0, PhysicalFileReferenceHome.updateRefCount( "shared", 1 ) );
+        assertNull( PhysicalFileReferenceHome.findByContentHash( HASH ) );
+
+        // It then registers its stored file for the content
+        reference.setIdPhysicalFile( "new" );
+        assertTrue( PhysicalFileReferenceHome.create( reference ) );
+        assertEquals( "new", PhysicalFileReferenceHome.findByContentHash( HASH ).getIdPhysicalFile( ) );
+    }
+
+    public void testFindUnused( )
+    {
+        PhysicalFileReference reference = new PhysicalFileReference( );
+        reference.setContentHash( HASH );
+        reference.setIdPhysicalFile( "unused" );
+        reference.setRefCount( 1 );
+        PhysicalFileReferenceHome.create( reference );
+
+        Timestamp dateLimit = Timestamp.valueOf( LocalDateTime.now( ).plusDays( 1 ) );
+        assertTrue( containsFile( PhysicalFileReferenceHome.findUnused( dateLimit, 100 ), "unused" ) );
+        assertFalse( containsFile( PhysicalFileReferenceHome.findUnused( Timestamp.valueOf( LocalDateTime.now( ).minusDays( 1 ) ), 100 ), "unused" ) );
+
+        _file = new TemporaryFile( );
+        _file.setUser( _user );
+        _file.setIdPhysicalFile( "unused" );
+        TemporaryFileHome.create( _file );
+        assertFalse( containsFile( PhysicalFileReferenceHome.findUnused( dateLimit, 100 ), "unused" ) );
+    }
+
+    private static boolean containsFile( List<PhysicalFileReference> listReferences, String strIdPhysicalFile )
+    {
+        for ( PhysicalFileReference reference : listReferences )
+        {
+            if ( strIdPhysicalFile.equals( reference.getIdPhysicalFile( ) ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
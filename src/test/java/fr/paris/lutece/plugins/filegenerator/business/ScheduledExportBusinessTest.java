@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.business;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class ScheduledExportBusinessTest extends LuteceTestCase
+{
+    private int _nIdExport;
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        ScheduledExportHome.remove( _nIdExport );
+        super.tearDown( );
+    }
+
+    public void testCrudAndRuns( )
+    {
+        long lNow = System.currentTimeMillis( ) / 60000 * 60000;
+        Timestamp now = new Timestamp( lNow );
+        Timestamp nextRun = new Timestamp( lNow + 60000 );
+
+        Map<String, String> mapParameters = new HashMap<>( );
+        mapParameters.put( "form", "12" );
+        mapParameters.put( "columns", "name=Name, date" );
+        ScheduledExport export = new ScheduledExport( );
+        export.setIdUser( 1 );
+        export.setGeneratorFactory( "testFactory" );
+        export.setParameters( mapParameters );
+        export.setCron( "0 6 * * *" );
+        export.setDescription( "Daily export" );
+        export.setDateNextRun( now );
+        _nIdExport = ScheduledExportHome.create( export );
+
+        ScheduledExport loaded = ScheduledExportHome.findByPrimaryKey( _nIdExport );
+        assertNotNull( loaded );
+        assertEquals( mapParameters, loaded.getParameters( ) );
+        assertEquals( "0 6 * * *", loaded.getCron( ) );
+        assertTrue( loaded.isEnabled( ) );
+        assertFalse( loaded.isReuseUnchanged( ) );
+        assertTrue( ScheduledExportHome.findDue( now, 1000 ).stream( ).anyMatch( e -> e.getIdExport( ) == _nIdExport ) );
+
+        // Only the first of two concurrent claims gets the run
+        assertTrue( ScheduledExportHome.claimRun( _nIdExport, "token1", now, nextRun, now ) );
+        assertFalse( ScheduledExportHome.claimRun( _nIdExport, "token2", now, nextRun, now ) );
+        assertFalse( ScheduledExportHome.findDue( now, 1000 ).stream( ).anyMatch( e -> e.getIdExport( ) == _nIdExport ) );
+
+        ScheduledExportHome.updateRunResult( _nIdExport, 42, "2025-01-15" );
+        loaded = ScheduledExportHome.findByPrimaryKey( _nIdExport );
+        assertEquals( 42, loaded.getIdLastFile( ) );
+        assertEquals( "2025-01-15", loaded.getWatermark( ) );
+        assertEquals( nextRun, loaded.getDateNextRun( ) );
+        assertNotNull( loaded.getDateLastRun( ) );
+
+        // Disabled exports are never due
+        loaded.setEnabled( false );
+        loaded.setDateNextRun( now );
+        ScheduledExportHome.update( loaded );
+        assertFalse( ScheduledExportHome.findDue( now, 1000 ).stream( ).anyMatch( e -> e.getIdExport( ) == _nIdExport ) );
+        assertEquals( 42, ScheduledExportHome.findByPrimaryKey( _nIdExport ).getIdLastFile( ) );
+    }
+}
@@ -33,6 +33,10 @@
  */
 package fr.paris.lutece.plugins.filegenerator.business;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import fr.paris.lutece.portal.business.user.AdminUser;
@@ -75,12 +79,179 @@ public class TemporaryFileBusinessTest extends LuteceTestCase
         assertEquals( "id", loaded.getIdPhysicalFile( ) );
         assertEquals( "Title", loaded.getTitle( ) );
 
+        long lSize = Integer.MAX_VALUE + 1L;
+        file.setSize( lSize );
+        TemporaryFileHome.update( file );
+        loaded = TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) );
+        assertEquals( lSize, loaded.getSize( ) );
+
         TemporaryFileHome.remove( file.getIdFile( ) );
 
         loaded = TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) );
         assertNull( loaded );
     }
 
+    public void testStatus( )
+    {
+        TemporaryFile file = new TemporaryFile( );
+        file.setUser( _user1 );
+        file.setStatus( TemporaryFileStatus.QUEUED );
+        TemporaryFileHome.create( file );
+
+        TemporaryFile loaded = TemporaryFileHome.findStatus( file.getIdFile( ) );
+        assertEquals( TemporaryFileStatus.QUEUED, loaded.getStatus( ) );
+        assertEquals( 0, loaded.getProgress( ) );
+
+        TemporaryFileHome.updateStatus( file.getIdFile( ), TemporaryFileStatus.RUNNING );
+        TemporaryFileHome.updateProgress( file.getIdFile( ), 42 );
+        loaded = TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) );
+        assertEquals( TemporaryFileStatus.RUNNING, loaded.getStatus( ) );
+        assertEquals( 42, loaded.getProgress( ) );
+        assertNotNull( loaded.getDateStart( ) );
+        assertNull( loaded.getDateEnd( ) );
+
+        TemporaryFileHome.updateStatus( file.getIdFile( ), TemporaryFileStatus.FAILED );
+        loaded = TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) );
+        assertEquals( TemporaryFileStatus.FAILED, loaded.getStatus( ) );
+        assertNotNull( loaded.getDateEnd( ) );
+
+        TemporaryFileHome.remove( file.getIdFile( ) );
+    }
+
+    public void testCache( )
+    {
+        TemporaryFile file = new TemporaryFile( );
+        file.setUser( _user2 );
+        file.setTitle( "Cached" );
+        file.setStatus( TemporaryFileStatus.DONE );
+        TemporaryFileHome.create( file );
+
+        TemporaryFileFilter filter = new TemporaryFileFilter( );
+        filter.setIdUser( _user2.getUserId( ) );
+        int nCount = TemporaryFileHome.countByFilter( filter );
+        List<TemporaryFile> listFiles = TemporaryFileHome.findLightByFilter( filter, null, true, 10 );
+        assertEquals( file.getIdFile( ), listFiles.get( 0 ).getIdFile( ) );
+
+        // A finished file is served from the cache, as a copy
+        TemporaryFile loaded = TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) );
+        loaded.setTitle( "Modified" );
+        assertEquals( "Cached", TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) ).getTitle( ) );
+
+        // Modifications and creations invalidate the cache
+        file.setTitle( "Updated" );
+        TemporaryFileHome.update( file );
+        assertEquals( "Updated", TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) ).getTitle( ) );
+
+        TemporaryFile other = new TemporaryFile( );
+        other.setUser( _user2 );
+        other.setStatus( TemporaryFileStatus.DONE );
+        TemporaryFileHome.create( other );
+        assertEquals( nCount + 1, TemporaryFileHome.countByFilter( filter ) );
+        assertEquals( other.getIdFile( ), TemporaryFileHome.findLightByFilter( filter, null, true, 10 ).get( 0 ).getIdFile( ) );
+
+        TemporaryFileHome.remove( other.getIdFile( ) );
+        TemporaryFileHome.remove( file.getIdFile( ) );
+        assertNull( TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) ) );
+        assertEquals( nCount - 1, TemporaryFileHome.countByFilter( filter ) );
+    }
+
+    public void testStorageUsage( )
+    {
+        int nCount = TemporaryFileHome.countAll( );
+        long lStoredSize = TemporaryFileHome.findStoredSize( );
+
+        // Two files sharing a stored file, counted once
+        List<Integer> listIdFile = new ArrayList<>( );
+        for ( int i = 0; i < 2; i++ )
+        {
+            TemporaryFile file = new TemporaryFile( );
+            file.setUser( _user1 );
+            file.setIdPhysicalFile( "storageUsageTest" );
+            file.setSize( 1000 );
+            listIdFile.add( TemporaryFileHome.create( file ) );
+        }
+
+        assertEquals( nCount + 2, TemporaryFileHome.countAll( ) );
+        assertEquals( lStoredSize + 1000, TemporaryFileHome.findStoredSize( ) );
+
+        TemporaryFileHome.remove( listIdFile );
+    }
+
+    public void testFindLightByFilter( )
+    {
+        List<Integer> listIdFile = new ArrayList<>( );
+        for ( int i = 0; i < 5; i++ )
+        {
+            TemporaryFile file = new TemporaryFile( );
+            file.setUser( _user2 );
+            file.setDescription( "description" );
+            file.setMimeType( i % 2 == 0 ? "text/csv" : "application/zip" );
+            listIdFile.add( TemporaryFileHome.create( file ) );
+        }
+
+        TemporaryFileFilter filter = new TemporaryFileFilter( );
+        filter.setIdUser( _user2.getUserId( ) );
+        assertEquals( 5, TemporaryFileHome.countByFilter( filter ) );
+
+        List<TemporaryFile> page1 = TemporaryFileHome.findLightByFilter( filter, null, true, 2 );
+        assertEquals( 2, page1.size( ) );
+        assertEquals( listIdFile.get( 4 ).intValue( ), page1.get( 0 ).getIdFile( ) );
+        assertEquals( "description", page1.get( 0 ).getDescription( ) );
+
+        List<TemporaryFile> page2 = TemporaryFileHome.findLightByFilter( filter, page1.get( 1 ), true, 2 );
+        assertEquals( 2, page2.size( ) );
+        assertEquals( listIdFile.get( 2 ).intValue( ), page2.get( 0 ).getIdFile( ) );
+
+        List<TemporaryFile> previous = TemporaryFileHome.findLightByFilter( filter, page2.get( 0 ), false, 2 );
+        assertEquals( page1.get( 0 ).getIdFile( ), previous.get( 0 ).getIdFile( ) );
+        assertEquals( page1.get( 1 ).getIdFile( ), previous.get( 1 ).getIdFile( ) );
+
+        filter.setMimeType( "text/csv" );
+        filter.setAscending( true );
+        assertEquals( 3, TemporaryFileHome.countByFilter( filter ) );
+        List<TemporaryFile> csv = TemporaryFileHome.findLightByFilter( filter, null, true, 10 );
+        assertEquals( 3, csv.size( ) );
+        assertEquals( listIdFile.get( 0 ).intValue( ), csv.get( 0 ).getIdFile( ) );
+
+        TemporaryFileHome.remove( listIdFile );
+        filter.setMimeType( null );
+        assertEquals( 0, TemporaryFileHome.countByFilter( filter ) );
+    }
+
+    public void testCacheKey( )
+    {
+        Timestamp dateMin = new Timestamp( System.currentTimeMillis( ) - 60000 );
+
+        TemporaryFile file1 = new TemporaryFile( );
+        file1.setUser( _user1 );
+        file1.setIdPhysicalFile( "shared" );
+        file1.setCacheKey( "key" );
+        file1.setStatus( TemporaryFileStatus.DONE );
+        file1.setDateEnd( new Timestamp( System.currentTimeMillis( ) ) );
+        TemporaryFileHome.create( file1 );
+
+        TemporaryFile file2 = new TemporaryFile( );
+        file2.setUser( _user2 );
+        file2.setIdPhysicalFile( "shared" );
+        file2.setCacheKey( "key" );
+        file2.setStatus( TemporaryFileStatus.FAILED );
+        file2.setDateEnd( new Timestamp( System.currentTimeMillis( ) ) );
+        TemporaryFileHome.create( file2 );
+
+        TemporaryFile loaded = TemporaryFileHome.findLatestByCacheKey( "key", dateMin );
+        assertNotNull( loaded );
+        assertEquals( file1.getIdFile( ), loaded.getIdFile( ) );
+        assertEquals( "key", loaded.getCacheKey( ) );
+        assertNull( TemporaryFileHome.findLatestByCacheKey( "other", dateMin ) );
+        assertNull( TemporaryFileHome.findLatestByCacheKey( "key", new Timestamp( System.currentTimeMillis( ) + 60000 ) ) );
+
+        assertEquals( 2, TemporaryFileHome.countByPhysicalFile( "shared" ) );
+
+        TemporaryFileHome.remove( file1.getIdFile( ) );
+        TemporaryFileHome.remove( file2.getIdFile( ) );
+        assertEquals( 0, TemporaryFileHome.countByPhysicalFile( "shared" ) );
+    }
+
     public void testFindByUser( )
     {
         TemporaryFile file1 = new TemporaryFile( );
@@ -114,4 +285,107 @@ public class TemporaryFileBusinessTest extends LuteceTestCase
 
         TemporaryFileHome.remove( file.getIdFile( ) );
     }
+
+    public void testSelectFilesOlderThanByPage( )
+    {
+        List<Integer> listIdFile = new ArrayList<>( );
+        for ( int i = 0; i < 3; i++ )
+        {
+            TemporaryFile file = new TemporaryFile( );
+            file.setUser( _user1 );
+            listIdFile.add( TemporaryFileHome.create( file ) );
+        }
+
+        Timestamp dateLimit = Timestamp.valueOf( LocalDateTime.now( ).plusDays( 1 ) );
+        List<TemporaryFile> page = TemporaryFileHome.selectFilesOlderThan( dateLimit, null, 2 );
+        assertEquals( 2, page.size( ) );
+
+        List<TemporaryFile> nextPage = TemporaryFileHome.selectFilesOlderThan( dateLimit, page.get( 1 ), 2 );
+        assertEquals( 1, nextPage.size( ) );
+        assertFalse( page.get( 0 ).getIdFile( ) == nextPage.get( 0 ).getIdFile( ) );
+        assertFalse( page.get( 1 ).getIdFile( ) == nextPage.get( 0 ).getIdFile( ) );
+
+        TemporaryFileHome.remove( listIdFile );
+        assertEquals( 0, TemporaryFileHome.selectFilesOlderThan( dateLimit, null, 2 ).size( ) );
+    }
+
+    public void testUnfinished( )
+    {
+        TemporaryFile running = new TemporaryFile( );
+        running.setUser( _user1 );
+        running.setStatus( TemporaryFileStatus.RUNNING );
+        TemporaryFileHome.create( running );
+        TemporaryFile done = new TemporaryFile( );
+        done.setUser( _user1 );
+        done.setStatus( TemporaryFileStatus.DONE );
+        TemporaryFileHome.create( done );
+
+        Timestamp dateLimit = Timestamp.valueOf( LocalDateTime.now( ).plusDays( 1 ) );
+        List<Integer> listIdFiles = TemporaryFileHome.findUnfinished( dateLimit, running.getIdFile( ) - 1, 10 );
+        assertTrue( listIdFiles.contains( running.getIdFile( ) ) );
+        assertFalse( listIdFiles.contains( done.getIdFile( ) ) );
+        assertFalse( TemporaryFileHome.findUnfinished( dateLimit, running.getIdFile( ), 10 ).contains( running.getIdFile( ) ) );
+        assertFalse( TemporaryFileHome.findUnfinished( Timestamp.valueOf( LocalDateTime.now( ).minusDays( 1 ) ), 0, 10 ).contains( running.getIdFile( ) ) );
+
+        // A finished generation is left untouched
+        TemporaryFileHome.failIfUnfinished( done.getIdFile( ) );
+        TemporaryFileHome.removeIfUnfinished( done.getIdFile( ) );
+        assertEquals( TemporaryFileStatus.DONE, TemporaryFileHome.findStatus( done.getIdFile( ) ).getStatus( ) );
+
+        TemporaryFileHome.failIfUnfinished( running.getIdFile( ) );
+        TemporaryFile loaded = TemporaryFileHome.findByPrimaryKey( running.getIdFile( ) );
+        assertEquals( TemporaryFileStatus.FAILED, loaded.getStatus( ) );
+        assertNotNull( loaded.getDateEnd( ) );
+
+        TemporaryFileHome.updateStatus( running.getIdFile( ), TemporaryFileStatus.QUEUED );
+        TemporaryFileHome.removeIfUnfinished( running.getIdFile( ) );
+        assertNull( TemporaryFileHome.findByPrimaryKey( running.getIdFile( ) ) );
+
+        TemporaryFileHome.remove( done.getIdFile( ) );
+    }
+
+    public void testHeartbeat( ) throws InterruptedException
+    {
+        TemporaryFile queued = new TemporaryFile( );
+        queued.setUser( _user1 );
+        queued.setStatus( TemporaryFileStatus.QUEUED );
+        TemporaryFileHome.create( queued );
+
+        // Selected from its creation date until its first heartbeat
+        Timestamp dateLimit = new Timestamp( System.currentTimeMillis( ) + 1000 );
+        assertTrue( TemporaryFileHome.findUnfinished( dateLimit, queued.getIdFile( ) - 1, 10 ).contains( queued.getIdFile( ) ) );
+
+        Thread.sleep( 2000 );
+        TemporaryFileHome.updateHeartbeat( Collections.singletonList( queued.getIdFile( ) ) );
+        assertFalse( TemporaryFileHome.findUnfinished( dateLimit, queued.getIdFile( ) - 1, 10 ).contains( queued.getIdFile( ) ) );
+        assertTrue( TemporaryFileHome.findUnfinished( Timestamp.valueOf( LocalDateTime.now( ).plusDays( 1 ) ), queued.getIdFile( ) - 1, 10 )
+                .contains( queued.getIdFile( ) ) );
+
+        TemporaryFileHome.remove( queued.getIdFile( ) );
+    }
+
+    public void testUpdateResult( )
+    {
+        TemporaryFile file = new TemporaryFile( );
+        file.setUser( _user1 );
+        file.setStatus( TemporaryFileStatus.RUNNING );
+        TemporaryFileHome.create( file );
+
+        TemporaryFile result = new TemporaryFile( );
+        result.setTitle( "first.csv" );
+        result.setIdPhysicalFile( "first" );
+        result.setStatus( TemporaryFileStatus.DONE );
+        assertTrue( TemporaryFileHome.updateResult( file.getIdFile( ), result ) );
+
+        // A second result, from a generation taken over by another node, is not written
+        result.setTitle( "second.csv" );
+        result.setIdPhysicalFile( "second" );
+        assertFalse( TemporaryFileHome.updateResult( file.getIdFile( ), result ) );
+        TemporaryFile loaded = TemporaryFileHome.findByPrimaryKey( file.getIdFile( ) );
+        assertEquals( "first.csv", loaded.getTitle( ) );
+        assertEquals( "first", loaded.getIdPhysicalFile( ) );
+
+        TemporaryFileHome.remove( file.getIdFile( ) );
+        assertFalse( TemporaryFileHome.updateResult( file.getIdFile( ), result ) );
+    }
 }
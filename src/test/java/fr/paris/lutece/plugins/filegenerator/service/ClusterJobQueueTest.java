@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class ClusterJobQueueTest extends LuteceTestCase
+{
+    private static final String FILTER = "java.util.*;!java.util.HashMap;fr.paris.lutece.**;!*";
+
+    public void testFilterPatterns( ) throws IOException
+    {
+        try ( ClusterJobQueue.FilteredObjectInputStream in = new ClusterJobQueue.FilteredObjectInputStream( new ByteArrayInputStream( serialize( ) ), FILTER ) )
+        {
+            assertTrue( in.isAllowed( "java.util.ArrayList" ) );
+            assertFalse( in.isAllowed( "java.util.concurrent.ConcurrentHashMap" ) );
+            assertTrue( in.isAllowed( "fr.paris.lutece.plugins.filegenerator.service.MockFileGenerator" ) );
+            assertFalse( in.isAllowed( "java.net.URL" ) );
+            // The first matching pattern applies
+            assertTrue( in.isAllowed( "java.util.HashMap" ) );
+        }
+    }
+
+    public void testAllowedClasses( ) throws IOException, ClassNotFoundException
+    {
+        List<Integer> list = new ArrayList<>( );
+        list.add( 1 );
+        int [ ] values = {
+                1, 2
+        };
+        try ( ClusterJobQueue.FilteredObjectInputStream in = new ClusterJobQueue.FilteredObjectInputStream( new ByteArrayInputStream( serialize( list, values ) ),
+                "java.util.ArrayList;java.lang.*;!*" ) )
+        {
+            assertEquals( list, in.readObject( ) );
+            assertEquals( 2, ( (int [ ]) in.readObject( ) ).length );
+        }
+    }
+
+    public void testRejectedClasses( ) throws IOException, ClassNotFoundException
+    {
+        // The URL in a map is the classic deserialization probe : it must not be instantiated
+        Map<URL, String> map = new HashMap<>( );
+        map.put( new URL( "http://localhost/" ), "value" );
+        assertRejected( serialize( map ) );
+        assertRejected( serialize( (Object) new URL [ ] {
+                new URL( "http://localhost/" )
+        } ) );
+    }
+
+    private static void assertRejected( byte [ ] serialized ) throws IOException, ClassNotFoundException
+    {
+        try ( ClusterJobQueue.FilteredObjectInputStream in = new ClusterJobQueue.FilteredObjectInputStream( new ByteArrayInputStream( serialized ),
+                "java.util.*;java.lang.*;!*" ) )
+        {
+            in.readObject( );
+            fail( "The class should be rejected" );
+        }
+        catch( InvalidClassException e )
+        {
+            // Expected
+        }
+    }
+
+    private static byte [ ] serialize( Object... objects ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        try ( ObjectOutputStream objectOut = new ObjectOutputStream( out ) )
+        {
+            for ( Object object : objects )
+            {
+                objectOut.writeObject( object );
+            }
+        }
+        return out.toByteArray( );
+    }
+}
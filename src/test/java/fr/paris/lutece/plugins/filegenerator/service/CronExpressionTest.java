@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.time.LocalDateTime;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class CronExpressionTest extends LuteceTestCase
+{
+    // A Wednesday
+    private static final LocalDateTime NOW = LocalDateTime.of( 2025, 1, 15, 10, 30, 20 );
+
+    public void testEveryMinute( )
+    {
+        assertEquals( LocalDateTime.of( 2025, 1, 15, 10, 31 ), CronExpression.parse( "* * * * *" ).next( NOW ) );
+    }
+
+    public void testDaily( )
+    {
+        assertEquals( LocalDateTime.of( 2025, 1, 16, 6, 0 ), CronExpression.parse( "0 6 * * *" ).next( NOW ) );
+        assertEquals( LocalDateTime.of( 2025, 1, 16, 0, 0 ), CronExpression.parse( "@daily" ).next( NOW ) );
+        assertEquals( LocalDateTime.of( 2025, 1, 15, 11, 0 ), CronExpression.parse( "@hourly" ).next( NOW ) );
+    }
+
+    public void testStepsListsAndRanges( )
+    {
+        assertEquals( LocalDateTime.of( 2025, 1, 15, 10, 45 ), CronExpression.parse( "*/15 * * * *" ).next( NOW ) );
+        assertEquals( LocalDateTime.of( 2025, 1, 15, 17, 5 ), CronExpression.parse( "5 8,17 * * *" ).next( NOW ) );
+        assertEquals( LocalDateTime.of( 2025, 1, 15, 12, 0 ), CronExpression.parse( "0 12-14/2 * * *" ).next( NOW ) );
+        assertEquals( LocalDateTime.of( 2025, 1, 15, 10, 40 ), CronExpression.parse( "10/10 * * * *" ).next( NOW ) );
+    }
+
+    public void testDays( )
+    {
+        // Next Monday
+        assertEquals( LocalDateTime.of( 2025, 1, 20, 7, 0 ), CronExpression.parse( "0 7 * * 1" ).next( NOW ) );
+        // Sunday as 0 or 7
+        assertEquals( LocalDateTime.of( 2025, 1, 19, 0, 0 ), CronExpression.parse( "0 0 * * 0" ).next( NOW ) );
+        assertEquals( LocalDateTime.of( 2025, 1, 19, 0, 0 ), CronExpression.parse( "0 0 * * 7" ).next( NOW ) );
+        assertEquals( LocalDateTime.of( 2025, 2, 1, 0, 0 ), CronExpression.parse( "@monthly" ).next( NOW ) );
+        // Day of month or day of week when both are restricted
+        assertEquals( LocalDateTime.of( 2025, 1, 17, 0, 0 ), CronExpression.parse( "0 0 1 * 5" ).next( NOW ) );
+        assertEquals( LocalDateTime.of( 2025, 2, 1, 0, 0 ), CronExpression.parse( "0 0 1 * *" ).next( NOW ) );
+    }
+
+    public void testMonths( )
+    {
+        assertEquals( LocalDateTime.of( 2025, 3, 31, 23, 59 ), CronExpression.parse( "59 23 31 3 *" ).next( NOW ) );
+        assertEquals( LocalDateTime.of( 2028, 2, 29, 0, 0 ), CronExpression.parse( "0 0 29 2 *" ).next( NOW ) );
+        assertNull( CronExpression.parse( "0 0 30 2 *" ).next( NOW ) );
+    }
+
+    public void testInvalid( )
+    {
+        assertFalse( CronExpression.isValid( null ) );
+        assertFalse( CronExpression.isValid( "* * * *" ) );
+        assertFalse( CronExpression.isValid( "60 * * * *" ) );
+        assertFalse( CronExpression.isValid( "* * 0 * *" ) );
+        assertFalse( CronExpression.isValid( "5-1 * * * *" ) );
+        assertFalse( CronExpression.isValid( "*/0 * * * *" ) );
+        assertFalse( CronExpression.isValid( "a * * * *" ) );
+        assertTrue( CronExpression.isValid( " 0 0 * * 1-5 " ) );
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class FileGenerationExecutorTest extends LuteceTestCase
+{
+    private static final int WORKERS = 4;
+
+    private final List<String> _listRun = Collections.synchronizedList( new ArrayList<>( ) );
+    private final List<CountDownLatch> _listBlockers = new ArrayList<>( );
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        for ( CountDownLatch blocker : _listBlockers )
+        {
+            blocker.countDown( );
+        }
+        super.tearDown( );
+    }
+
+    public void testFairShareBetweenUsers( ) throws InterruptedException
+    {
+        FileGenerationExecutor executor = new FileGenerationExecutor( );
+        occupyWorkers( executor, 1 );
+
+        CountDownLatch done = new CountDownLatch( 4 );
+        executor.execute( 1, MockFileGenerator.class, IFileGenerator.PRIORITY_NORMAL, record( "1a", done ) );
+        executor.execute( 1, MockFileGenerator.class, IFileGenerator.PRIORITY_NORMAL, record( "1b", done ) );
+        executor.execute( 1, MockFileGenerator.class, IFileGenerator.PRIORITY_NORMAL, record( "1c", done ) );
+        executor.execute( 2, MockFileGenerator.class, IFileGenerator.PRIORITY_NORMAL, record( "2a", done ) );
+        assertEquals( 4, executor.getQueueSize( ) );
+        assertEquals( WORKERS, executor.getActiveCount( ) );
+        assertEquals( 0, executor.getIdleCapacity( ) );
+
+        // A single worker is freed : the jobs run one after the other, in scheduling order
+        _listBlockers.get( 0 ).countDown( );
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( Arrays.asList( "2a", "1a", "1b", "1c" ), _listRun );
+    }
+
+    public void testPriority( ) throws InterruptedException
+    {
+        FileGenerationExecutor executor = new FileGenerationExecutor( );
+        occupyWorkers( executor, 1 );
+
+        CountDownLatch done = new CountDownLatch( 3 );
+        executor.execute( 2, MockFileGenerator.class, IFileGenerator.PRIORITY_BULK, record( "bulk", done ) );
+        executor.execute( 3, MockFileGenerator.class, IFileGenerator.PRIORITY_NORMAL, record( "normal", done ) );
+        executor.execute( 4, MockFileGenerator.class, IFileGenerator.PRIORITY_INTERACTIVE, record( "interactive", done ) );
+
+        _listBlockers.get( 0 ).countDown( );
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( Arrays.asList( "interactive", "normal", "bulk" ), _listRun );
+    }
+
+    /**
+     * Occupies all the workers with jobs waiting for their blocker
+     * 
+     * @param executor
+     *            the executor
+     * @param nIdUser
+     *            the user of the jobs
+     * @throws InterruptedException
+     */
+    private void occupyWorkers( FileGenerationExecutor executor, int nIdUser ) throws InterruptedException
+    {
+        CountDownLatch started = new CountDownLatch( WORKERS );
+        for ( int i = 0; i < WORKERS; i++ )
+        {
+            CountDownLatch blocker = new CountDownLatch( 1 );
+            _listBlockers.add( blocker );
+            executor.execute( nIdUser, MockFileGenerator.class, IFileGenerator.PRIORITY_NORMAL, ( ) -> {
+                started.countDown( );
+                try
+                {
+                    blocker.await( );
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread( ).interrupt( );
+                }
+            } );
+        }
+        assertTrue( started.await( 10, TimeUnit.SECONDS ) );
+    }
+
+    /**
+     * @param strName
+     *            the name of the job
+     * @param done
+     *            the latch counted down by the job
+     * @return a job recording its name when it runs
+     */
+    private Runnable record( String strName, CountDownLatch done )
+    {
+        return ( ) -> {
+            _listRun.add( strName );
+            done.countDown( );
+        };
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class FileGenerationMetricsTest extends LuteceTestCase
+{
+    public void testMetrics( )
+    {
+        FileGenerationMetrics metrics = FileGenerationMetrics.getInstance( );
+        metrics.reset( );
+
+        metrics.recordStage( TemporaryFileStatus.RUNNING, TimeUnit.MILLISECONDS.toNanos( 30 ) );
+        metrics.recordStage( TemporaryFileStatus.RUNNING, TimeUnit.MILLISECONDS.toNanos( 10 ) );
+        metrics.recordStage( FileGenerationMetrics.STAGE_PUBLISHING, TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        assertEquals( Long.valueOf( 2 ), metrics.getStageCounts( ).get( "running" ) );
+        assertEquals( Long.valueOf( 40 ), metrics.getStageTotalTimes( ).get( "running" ) );
+        assertEquals( Long.valueOf( 30 ), metrics.getStageMaxTimes( ).get( "running" ) );
+        assertEquals( Long.valueOf( 1 ), metrics.getStageCounts( ).get( FileGenerationMetrics.STAGE_PUBLISHING ) );
+
+        metrics.recordGeneratedFile( 1000, 100 );
+        assertEquals( 1, metrics.getGeneratedFiles( ) );
+        assertEquals( 1000, metrics.getRawBytes( ) );
+        assertEquals( 100, metrics.getStoredBytes( ) );
+
+        metrics.recordFailure( FileGenerationMetrics.CAUSE_TOO_BIG, new MockFileGenerator( "" ) );
+        metrics.recordFailure( FileGenerationMetrics.CAUSE_TIMEOUT, new MockFileGenerator( "" ) );
+        assertEquals( Long.valueOf( 1 ), metrics.getFailuresByCause( ).get( FileGenerationMetrics.CAUSE_TOO_BIG ) );
+        assertEquals( Long.valueOf( 2 ), metrics.getFailuresByGenerator( ).get( MockFileGenerator.class.getName( ) ) );
+
+        metrics.recordPurge( 10, 1, 250, true );
+        assertEquals( 1, metrics.getPurgeRuns( ) );
+        assertEquals( 10, metrics.getPurgedFiles( ) );
+        assertEquals( 1, metrics.getPurgeFailures( ) );
+        assertEquals( 250, metrics.getLastPurgeDuration( ) );
+        assertEquals( 1, metrics.getPurgesOverBudget( ) );
+
+        metrics.reset( );
+        assertTrue( metrics.getStageCounts( ).isEmpty( ) );
+        assertEquals( 0, metrics.getGeneratedFiles( ) );
+    }
+
+    public void testRecentStatistics( )
+    {
+        FileGenerationMetrics metrics = FileGenerationMetrics.getInstance( );
+        metrics.reset( );
+        for ( int i = 1; i <= 100; i++ )
+        {
+            metrics.recordCompletion( TimeUnit.MILLISECONDS.toNanos( i ), 10 );
+        }
+
+        Map<String, Long> mapStatistics = metrics.getRecentStatistics( );
+        assertEquals( Long.valueOf( 100 ), mapStatistics.get( FileGenerationMetrics.RECENT_COUNT ) );
+        assertEquals( Long.valueOf( 1000 ), mapStatistics.get( FileGenerationMetrics.RECENT_STORED_BYTES ) );
+        assertEquals( Long.valueOf( 50 ), mapStatistics.get( FileGenerationMetrics.RECENT_P50 ) );
+        assertEquals( Long.valueOf( 90 ), mapStatistics.get( FileGenerationMetrics.RECENT_P90 ) );
+        assertEquals( Long.valueOf( 99 ), mapStatistics.get( FileGenerationMetrics.RECENT_P99 ) );
+        assertEquals( Long.valueOf( 100 ), mapStatistics.get( FileGenerationMetrics.RECENT_MAX ) );
+        metrics.reset( );
+    }
+
+    public void testJobTrace( )
+    {
+        GenerationJob job = new GenerationJob( 1, 1, new MockFileGenerator( "" ) );
+        job.enterStage( TemporaryFileStatus.RUNNING );
+        job.enterStage( TemporaryFileStatus.STORING );
+        job.enterStage( null );
+        job.traceStage( FileGenerationMetrics.STAGE_PUBLISHING, 0 );
+        assertTrue( job.getTrace( ).matches( "queued \\d+ ms, running \\d+ ms, storing \\d+ ms, publishing 0 ms" ) );
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import fr.paris.lutece.plugins.filegenerator.business.TemporaryFileStatus;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class GenerationEventBusTest extends LuteceTestCase
+{
+    private static final long RETENTION = 60000;
+
+    public void testPublishAndPoll( )
+    {
+        GenerationEventBus bus = new GenerationEventBus( RETENTION, 10, 10 );
+        long lCursor = bus.getCursor( );
+        bus.publish( 1, 10, TemporaryFileStatus.QUEUED, 0 );
+        bus.publish( 2, 20, TemporaryFileStatus.QUEUED, 0 );
+
+        GenerationEventBus.Poll poll = bus.poll( 1, lCursor, 0 );
+        assertFalse( poll.isReset( ) );
+        assertFalse( poll.isBusy( ) );
+        assertEquals( 1, poll.getEvents( ).size( ) );
+        assertEquals( 10, poll.getEvents( ).get( 0 ).getIdFile( ) );
+        assertEquals( TemporaryFileStatus.QUEUED, poll.getEvents( ).get( 0 ).getStatus( ) );
+
+        // Nothing new from the returned cursor
+        assertTrue( bus.poll( 1, poll.getCursor( ), 0 ).getEvents( ).isEmpty( ) );
+    }
+
+    public void testCoalescing( )
+    {
+        GenerationEventBus bus = new GenerationEventBus( RETENTION, 10, 10 );
+        long lCursor = bus.getCursor( );
+        bus.publish( 1, 10, TemporaryFileStatus.RUNNING, 10 );
+        bus.publish( 1, 11, TemporaryFileStatus.QUEUED, 0 );
+        bus.publish( 1, 10, TemporaryFileStatus.RUNNING, 50 );
+
+        List<GenerationEvent> listEvents = bus.poll( 1, lCursor, 0 ).getEvents( );
+        assertEquals( 2, listEvents.size( ) );
+        assertEquals( 11, listEvents.get( 0 ).getIdFile( ) );
+        assertEquals( 10, listEvents.get( 1 ).getIdFile( ) );
+        assertEquals( 50, listEvents.get( 1 ).getProgress( ) );
+    }
+
+    public void testTimeout( )
+    {
+        GenerationEventBus bus = new GenerationEventBus( RETENTION, 10, 10 );
+        long lCursor = bus.getCursor( );
+        long lStart = System.currentTimeMillis( );
+        GenerationEventBus.Poll poll = bus.poll( 1, lCursor, 200 );
+        assertTrue( System.currentTimeMillis( ) - lStart >= 150 );
+        assertTrue( poll.getEvents( ).isEmpty( ) );
+        assertEquals( lCursor, poll.getCursor( ) );
+        assertEquals( 0, bus.getWaiterCount( ) );
+    }
+
+    public void testResetWhenEventsDropped( )
+    {
+        GenerationEventBus bus = new GenerationEventBus( RETENTION, 2, 10 );
+        long lCursor = bus.getCursor( );
+        bus.publish( 1, 10, TemporaryFileStatus.QUEUED, 0 );
+        bus.publish( 1, 11, TemporaryFileStatus.QUEUED, 0 );
+        bus.publish( 1, 12, TemporaryFileStatus.QUEUED, 0 );
+
+        GenerationEventBus.Poll poll = bus.poll( 1, lCursor, 0 );
+        assertTrue( poll.isReset( ) );
+        assertEquals( bus.getCursor( ), poll.getCursor( ) );
+
+        // Unknown cursor, from a previous run
+        assertTrue( bus.poll( 1, bus.getCursor( ) + 100, 0 ).isReset( ) );
+    }
+
+    public void testBusy( )
+    {
+        GenerationEventBus bus = new GenerationEventBus( RETENTION, 10, 0 );
+        GenerationEventBus.Poll poll = bus.poll( 1, bus.getCursor( ), 1000 );
+        assertTrue( poll.isBusy( ) );
+        assertEquals( 0, bus.getWaiterCount( ) );
+    }
+
+    public void testWakeUp( ) throws InterruptedException
+    {
+        GenerationEventBus bus = new GenerationEventBus( RETENTION, 10, 10 );
+        long lCursor = bus.getCursor( );
+        AtomicReference<GenerationEventBus.Poll> result = new AtomicReference<>( );
+        CountDownLatch done = new CountDownLatch( 1 );
+        Thread client = new Thread( ( ) -> {
+            result.set( bus.poll( 1, lCursor, 10000 ) );
+            done.countDown( );
+        } );
+        client.start( );
+        long lDeadline = System.currentTimeMillis( ) + 5000;
+        while ( bus.getWaiterCount( ) == 0 && System.currentTimeMillis( ) < lDeadline )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 1, bus.getWaiterCount( ) );
+
+        bus.publish( 1, 10, TemporaryFileStatus.DONE, 100 );
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 1, result.get( ).getEvents( ).size( ) );
+        assertEquals( TemporaryFileStatus.DONE, result.get( ).getEvents( ).get( 0 ).getStatus( ) );
+        assertEquals( 0, bus.getWaiterCount( ) );
+    }
+
+    public void testAsyncWakeUp( )
+    {
+        GenerationEventBus bus = new GenerationEventBus( RETENTION, 10, 0 );
+        AtomicReference<GenerationEventBus.Poll> result = new AtomicReference<>( );
+        GenerationEventBus.Waiter waiter = new GenerationEventBus.Waiter( bus.getCursor( ), result::set );
+        bus.poll( 1, waiter );
+        // Not limited by the max number of clients holding their thread
+        assertNull( result.get( ) );
+        assertEquals( 1, bus.getWaiterCount( ) );
+
+        bus.publish( 2, 20, TemporaryFileStatus.DONE, 100 );
+        assertNull( result.get( ) );
+        bus.publish( 1, 10, TemporaryFileStatus.DONE, 100 );
+        assertEquals( 1, result.get( ).getEvents( ).size( ) );
+        assertEquals( 10, result.get( ).getEvents( ).get( 0 ).getIdFile( ) );
+        assertEquals( bus.getCursor( ), result.get( ).getCursor( ) );
+        assertEquals( 0, bus.getWaiterCount( ) );
+
+        // Called back once
+        GenerationEventBus.Poll poll = result.get( );
+        waiter.expire( );
+        assertSame( poll, result.get( ) );
+    }
+
+    public void testAsyncExpire( )
+    {
+        GenerationEventBus bus = new GenerationEventBus( RETENTION, 10, 10 );
+        long lCursor = bus.getCursor( );
+        AtomicReference<GenerationEventBus.Poll> result = new AtomicReference<>( );
+        GenerationEventBus.Waiter waiter = new GenerationEventBus.Waiter( lCursor, result::set );
+        bus.poll( 1, waiter );
+        waiter.expire( );
+        assertTrue( result.get( ).getEvents( ).isEmpty( ) );
+        assertEquals( lCursor, result.get( ).getCursor( ) );
+        assertEquals( 0, bus.getWaiterCount( ) );
+
+        // Events already there are given at once
+        bus.publish( 1, 10, TemporaryFileStatus.RUNNING, 50 );
+        result.set( null );
+        bus.poll( 1, new GenerationEventBus.Waiter( lCursor, result::set ) );
+        assertEquals( 1, result.get( ).getEvents( ).size( ) );
+        assertEquals( 0, bus.getWaiterCount( ) );
+    }
+}
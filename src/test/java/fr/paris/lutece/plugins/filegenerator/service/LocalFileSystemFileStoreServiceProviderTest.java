@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.paris.lutece.portal.service.file.FileServiceException;
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class LocalFileSystemFileStoreServiceProviderTest extends LuteceTestCase
+{
+    public void testStoreAndDelete( ) throws FileServiceException, IOException
+    {
+        LocalFileSystemFileStoreServiceProvider provider = new LocalFileSystemFileStoreServiceProvider( );
+        byte [ ] content = "generated content".getBytes( "UTF-8" );
+
+        String strKey = provider.storeBytes( content );
+        Path path = provider.getLocalPath( strKey );
+        assertNotNull( path );
+        assertTrue( Arrays.equals( content, Files.readAllBytes( path ) ) );
+        assertEquals( content.length, provider.getFileMetaData( strKey ).getSize( ) );
+        try ( InputStream in = provider.getInputStream( strKey ) )
+        {
+            byte [ ] read = new byte [ content.length];
+            int nOffset = 0;
+            int nRead;
+            while ( nOffset < read.length && ( nRead = in.read( read, nOffset, read.length - nOffset ) ) != -1 )
+            {
+                nOffset += nRead;
+            }
+            assertTrue( Arrays.equals( content, read ) );
+            assertEquals( -1, in.read( ) );
+        }
+
+        provider.delete( strKey );
+        assertNull( provider.getLocalPath( strKey ) );
+        assertNull( provider.getFileMetaData( strKey ) );
+    }
+
+    public void testInvalidKey( ) throws FileServiceException
+    {
+        LocalFileSystemFileStoreServiceProvider provider = new LocalFileSystemFileStoreServiceProvider( );
+        assertNull( provider.getLocalPath( "../../etc/passwd" ) );
+        assertNull( provider.getInputStream( "12" ) );
+        provider.delete( "../secret" );
+    }
+
+    public void testListKeys( ) throws FileServiceException, IOException
+    {
+        LocalFileSystemFileStoreServiceProvider provider = new LocalFileSystemFileStoreServiceProvider( );
+        String strKey1 = provider.storeBytes( new byte [ ] {
+                1
+        } );
+        String strKey2 = provider.storeBytes( new byte [ ] {
+                2
+        } );
+        Timestamp dateLimit = new Timestamp( System.currentTimeMillis( ) + 60000 );
+
+        List<String> listKeys = new ArrayList<>( );
+        String strAfterKey = null;
+        List<String> listPage;
+        while ( !( listPage = provider.listKeys( dateLimit, strAfterKey, 1 ) ).isEmpty( ) )
+        {
+            assertEquals( 1, listPage.size( ) );
+            assertTrue( strAfterKey == null || listPage.get( 0 ).compareTo( strAfterKey ) > 0 );
+            strAfterKey = listPage.get( 0 );
+            listKeys.add( strAfterKey );
+        }
+        assertTrue( listKeys.contains( strKey1 ) );
+        assertTrue( listKeys.contains( strKey2 ) );
+        assertFalse( provider.listKeys( new Timestamp( 0 ), null, 10 ).contains( strKey1 ) );
+
+        provider.delete( Arrays.asList( strKey1, strKey2 ) );
+        assertFalse( provider.listKeys( dateLimit, null, 1000 ).contains( strKey1 ) );
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import fr.paris.lutece.util.file.FileUtil;
+
+public class MockStreamingFileGenerator implements IStreamingFileGenerator
+{
+
+    private final String _content;
+    private final int _nRepeat;
+    private final boolean _bZippable;
+
+    public MockStreamingFileGenerator( String content, int nRepeat, boolean bZippable )
+    {
+        _content = content;
+        _nRepeat = nRepeat;
+        _bZippable = bZippable;
+    }
+
+    @Override
+    public void writeTo( OutputStream out ) throws IOException
+    {
+        byte [ ] line = _content.getBytes( StandardCharsets.UTF_8 );
+        for ( int i = 0; i < _nRepeat; i++ )
+        {
+            out.write( line );
+        }
+    }
+
+    @Override
+    public String getFileName( )
+    {
+        return _bZippable ? "MockFile.zip" : "MockFile.csv";
+    }
+
+    @Override
+    public String getZipEntryName( )
+    {
+        return "MockFile.csv";
+    }
+
+    @Override
+    public String getMimeType( )
+    {
+        return FileUtil.CONSTANT_MIME_TYPE_CSV;
+    }
+
+    @Override
+    public String getDescription( )
+    {
+        return "MockFileDesc";
+    }
+
+    @Override
+    public boolean isZippable( )
+    {
+        return _bZippable;
+    }
+}
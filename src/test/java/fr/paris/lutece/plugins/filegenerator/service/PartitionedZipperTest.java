@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class PartitionedZipperTest extends LuteceTestCase
+{
+    private static final int PARTS = 8;
+    private static final long PART_DURATION = 300;
+
+    private ExecutorService _executor;
+
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        _executor = Executors.newFixedThreadPool( PARTS );
+    }
+
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        _executor.shutdownNow( );
+        _executor.awaitTermination( 10, TimeUnit.SECONDS );
+        super.tearDown( );
+    }
+
+    public void testPartsGeneratedConcurrently( ) throws IOException
+    {
+        List<String> listNames = new ArrayList<>( );
+        List<StreamPipeline.StreamWriter> listWriters = new ArrayList<>( );
+        for ( int nPart = 0; nPart < PARTS; nPart++ )
+        {
+            String strName = "part" + nPart + ".csv";
+            listNames.add( strName );
+            listWriters.add( out -> {
+                sleep( PART_DURATION );
+                out.write( ( "content of " + strName ).getBytes( StandardCharsets.UTF_8 ) );
+            } );
+        }
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream( );
+        List<Integer> listProgress = new ArrayList<>( );
+        long lStart = System.currentTimeMillis( );
+        new PartitionedZipper( listNames, listWriters ).zip( zip, _executor, PARTS, listProgress::add );
+        long lDuration = System.currentTimeMillis( ) - lStart;
+
+        // About the duration of the slowest part, far from the sum of the parts
+        assertTrue( "Duration " + lDuration, lDuration < PART_DURATION * PARTS / 2 );
+        Map<String, String> mapEntries = readZip( zip.toByteArray( ) );
+        assertEquals( PARTS, mapEntries.size( ) );
+        for ( String strName : listNames )
+        {
+            assertEquals( "content of " + strName, mapEntries.get( strName ) );
+        }
+        assertEquals( PARTS, listProgress.size( ) );
+        assertEquals( Integer.valueOf( 100 ), listProgress.get( PARTS - 1 ) );
+    }
+
+    public void testWithoutHelpers( ) throws IOException
+    {
+        List<String> listNames = new ArrayList<>( );
+        List<StreamPipeline.StreamWriter> listWriters = new ArrayList<>( );
+        for ( int nPart = 0; nPart < 3; nPart++ )
+        {
+            String strName = "part" + nPart + ".png";
+            listNames.add( strName );
+            listWriters.add( out -> out.write( strName.getBytes( StandardCharsets.UTF_8 ) ) );
+        }
+
+        // No worker available : the calling thread generates all the parts
+        ByteArrayOutputStream zip = new ByteArrayOutputStream( );
+        new PartitionedZipper( listNames, listWriters ).zip( zip, helper -> {
+            throw new RejectedExecutionException( );
+        }, PARTS, null );
+
+        Map<String, String> mapEntries = readZip( zip.toByteArray( ) );
+        assertEquals( 3, mapEntries.size( ) );
+        assertEquals( "part2.png", mapEntries.get( "part2.png" ) );
+    }
+
+    public void testFailedPart( )
+    {
+        List<String> listNames = new ArrayList<>( );
+        List<StreamPipeline.StreamWriter> listWriters = new ArrayList<>( );
+        for ( int nPart = 0; nPart < PARTS; nPart++ )
+        {
+            int nFailedPart = nPart;
+            listNames.add( "part" + nPart + ".csv" );
+            listWriters.add( out -> {
+                if ( nFailedPart == 3 )
+                {
+                    throw new IOException( "Part failure" );
+                }
+                out.write( 1 );
+            } );
+        }
+
+        try
+        {
+            new PartitionedZipper( listNames, listWriters ).zip( new ByteArrayOutputStream( ), _executor, 2, null );
+            fail( "The failure of a part should fail the zip" );
+        }
+        catch( IOException e )
+        {
+            assertEquals( "Part failure", e.getMessage( ) );
+        }
+    }
+
+    private static void sleep( long lMillis ) throws IOException
+    {
+        try
+        {
+            Thread.sleep( lMillis );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new IOException( e );
+        }
+    }
+
+    private static Map<String, String> readZip( byte [ ] zip ) throws IOException
+    {
+        Map<String, String> mapEntries = new HashMap<>( );
+        try ( ZipInputStream zipIn = new ZipInputStream( new ByteArrayInputStream( zip ) ) )
+        {
+            ZipEntry entry;
+            while ( ( entry = zipIn.getNextEntry( ) ) != null )
+            {
+                ByteArrayOutputStream content = new ByteArrayOutputStream( );
+                byte [ ] buffer = new byte [ 1024];
+                int nRead;
+                while ( ( nRead = zipIn.read( buffer ) ) != -1 )
+                {
+                    content.write( buffer, 0, nRead );
+                }
+                mapEntries.put( entry.getName( ), new String( content.toByteArray( ), StandardCharsets.UTF_8 ) );
+            }
+        }
+        return mapEntries;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class SizeLimitedOutputStreamTest extends LuteceTestCase
+{
+    public void testLimit( ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        SizeLimitedOutputStream limitedOut = new SizeLimitedOutputStream( out, 10 );
+        limitedOut.write( new byte [ 6] );
+        limitedOut.write( 1 );
+        try
+        {
+            limitedOut.write( new byte [ 4] );
+            fail( "The limit should be exceeded" );
+        }
+        catch( FileTooBigException e )
+        {
+            assertEquals( 10, e.getMaxSize( ) );
+        }
+        assertEquals( 7, limitedOut.getCount( ) );
+        assertEquals( 7, out.size( ) );
+    }
+
+    public void testNoLimit( ) throws IOException
+    {
+        SizeLimitedOutputStream limitedOut = new SizeLimitedOutputStream( new ByteArrayOutputStream( ), 0 );
+        limitedOut.write( new byte [ 100000] );
+        assertEquals( 100000, limitedOut.getCount( ) );
+    }
+
+    public void testSharedLimit( ) throws IOException
+    {
+        AtomicLong count = new AtomicLong( );
+        SizeLimitedOutputStream limitedOut1 = new SizeLimitedOutputStream( new ByteArrayOutputStream( ), 10, count );
+        SizeLimitedOutputStream limitedOut2 = new SizeLimitedOutputStream( new ByteArrayOutputStream( ), 10, count );
+        limitedOut1.write( new byte [ 6] );
+        try
+        {
+            limitedOut2.write( new byte [ 5] );
+            fail( "The shared limit should be exceeded" );
+        }
+        catch( FileTooBigException e )
+        {
+            assertEquals( 10, e.getMaxSize( ) );
+        }
+        limitedOut2.write( new byte [ 4] );
+        assertEquals( 10, count.get( ) );
+        assertEquals( 10, limitedOut1.getCount( ) );
+    }
+
+    public void testAbortPipeline( ) throws IOException
+    {
+        byte [ ] buffer = new byte [ 1024];
+        byte [ ] readBuffer = new byte [ 1024];
+        try
+        {
+            StreamPipeline.pipe( out -> {
+                SizeLimitedOutputStream limitedOut = new SizeLimitedOutputStream( out, 4096 );
+                while ( true )
+                {
+                    limitedOut.write( buffer );
+                }
+            }, ( InputStream in ) -> {
+                while ( in.read( readBuffer ) != -1 )
+                {
+                    // Consume the data
+                }
+                return null;
+            }, 1024 );
+            fail( "The producer should be aborted" );
+        }
+        catch( FileTooBigException e )
+        {
+            assertEquals( 4096, e.getMaxSize( ) );
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class ZipArchiveWriterTest extends LuteceTestCase
+{
+    private static final String CONTENT_DEFLATED = "id;name\n1;first\n2;second\n3;third\n";
+    private static final String CONTENT_STORED = "already compressed";
+
+    public void testWriteEntries( ) throws IOException
+    {
+        byte [ ] deflatedSource = CONTENT_DEFLATED.getBytes( StandardCharsets.UTF_8 );
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream( );
+        Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+        try ( DeflaterOutputStream out = new DeflaterOutputStream( deflated, deflater ) )
+        {
+            out.write( deflatedSource );
+        }
+        deflater.end( );
+
+        byte [ ] storedSource = CONTENT_STORED.getBytes( StandardCharsets.UTF_8 );
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream( );
+        ZipArchiveWriter writer = new ZipArchiveWriter( zip );
+        writer.addEntry( "test1.csv", System.currentTimeMillis( ), ZipEntry.DEFLATED, crc( deflatedSource ), deflated.size( ), deflatedSource.length,
+                new ByteArrayInputStream( deflated.toByteArray( ) ) );
+        writer.addEntry( "test2.png", System.currentTimeMillis( ), ZipEntry.STORED, crc( storedSource ), storedSource.length, storedSource.length,
+                new ByteArrayInputStream( storedSource ) );
+        writer.finish( );
+
+        try ( ZipInputStream zipIn = new ZipInputStream( new ByteArrayInputStream( zip.toByteArray( ) ) ) )
+        {
+            ZipEntry entry = zipIn.getNextEntry( );
+            assertEquals( "test1.csv", entry.getName( ) );
+            assertEquals( CONTENT_DEFLATED, read( zipIn ) );
+
+            entry = zipIn.getNextEntry( );
+            assertEquals( "test2.png", entry.getName( ) );
+            assertEquals( ZipEntry.STORED, entry.getMethod( ) );
+            assertEquals( CONTENT_STORED, read( zipIn ) );
+
+            assertNull( zipIn.getNextEntry( ) );
+        }
+    }
+
+    public void testInvalidSize( ) throws IOException
+    {
+        byte [ ] source = CONTENT_STORED.getBytes( StandardCharsets.UTF_8 );
+        ZipArchiveWriter writer = new ZipArchiveWriter( new ByteArrayOutputStream( ) );
+        try
+        {
+            writer.addEntry( "test.txt", 0, ZipEntry.STORED, crc( source ), source.length + 1, source.length + 1, new ByteArrayInputStream( source ) );
+            fail( "The size mismatch should be detected" );
+        }
+        catch( IOException e )
+        {
+            // expected
+        }
+    }
+
+    private static long crc( byte [ ] data )
+    {
+        CRC32 crc = new CRC32( );
+        crc.update( data );
+        return crc.getValue( );
+    }
+
+    private static String read( InputStream in ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        byte [ ] buffer = new byte [ 1024];
+        int nRead;
+        while ( ( nRead = in.read( buffer ) ) != -1 )
+        {
+            out.write( buffer, 0, nRead );
+        }
+        return new String( out.toByteArray( ), StandardCharsets.UTF_8 );
+    }
+}
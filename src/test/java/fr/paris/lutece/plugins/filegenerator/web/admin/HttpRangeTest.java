@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.filegenerator.web.admin;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+public class HttpRangeTest extends LuteceTestCase
+{
+    private static final long SIZE = 1000;
+
+    public void testParse( )
+    {
+        HttpRange range = HttpRange.parse( "bytes=0-499", SIZE );
+        assertEquals( 0, range.getStart( ) );
+        assertEquals( 499, range.getEnd( ) );
+        assertEquals( 500, range.getLength( ) );
+
+        range = HttpRange.parse( "bytes=500-", SIZE );
+        assertEquals( 500, range.getStart( ) );
+        assertEquals( 999, range.getEnd( ) );
+
+        range = HttpRange.parse( "bytes=-100", SIZE );
+        assertEquals( 900, range.getStart( ) );
+        assertEquals( 999, range.getEnd( ) );
+
+        range = HttpRange.parse( "bytes=900-5000", SIZE );
+        assertEquals( 999, range.getEnd( ) );
+    }
+
+    public void testIgnoredRanges( )
+    {
+        assertNull( HttpRange.parse( null, SIZE ) );
+        assertNull( HttpRange.parse( "items=0-10", SIZE ) );
+        assertNull( HttpRange.parse( "bytes=0-10,20-30", SIZE ) );
+        assertNull( HttpRange.parse( "bytes=10-5", SIZE ) );
+        assertNull( HttpRange.parse( "bytes=abc", SIZE ) );
+    }
+
+    public void testNotSatisfiable( )
+    {
+        assertSame( HttpRange.NOT_SATISFIABLE, HttpRange.parse( "bytes=1000-", SIZE ) );
+        assertSame( HttpRange.NOT_SATISFIABLE, HttpRange.parse( "bytes=-0", SIZE ) );
+    }
+}
@@ -0,0 +1,6 @@
+<%@ page errorPage="../../ErrorPage.jsp" %>
+<jsp:useBean id="jspBean" scope="session" class="fr.paris.lutece.plugins.filegenerator.web.admin.TemporaryFilesJspBean" />
+<%
+	jspBean.init( request, fr.paris.lutece.plugins.filegenerator.web.admin.TemporaryFilesJspBean.VIEW_TEMP_FILES); 
+	response.sendRedirect( jspBean.doCancelFile( request ) );
+%>
\ No newline at end of file
@@ -0,0 +1,8 @@
+<jsp:useBean id="generationQueueJspBean" scope="session" class="fr.paris.lutece.plugins.filegenerator.web.admin.GenerationQueueJspBean" />
+<% String strContent = generationQueueJspBean.processController ( request , response ); %>
+<%@ page errorPage="../../ErrorPage.jsp" %>
+<jsp:include page="../../AdminHeader.jsp" />
+
+<%=strContent %>
+
+<%@ include file="../../AdminFooter.jsp" %>